@@ -0,0 +1,43 @@
+package io.drakon.spark.autorouter.bench;
+
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.URL;
+import java.nio.file.Paths;
+
+import io.drakon.spark.autorouter.Autorouter;
+import spark.Spark;
+
+/**
+ * Startup probe for comparing runs with and without an AppCDS archive. Routes a small application (see
+ * {@link io.drakon.spark.autorouter.bench.startup.StartupControllers}) and prints the time from JVM start to the first
+ * response served, in milliseconds.
+ *
+ * Run with no arguments to measure, or with <code>train=DIR</code> to make a CDS training run instead (see the README).
+ * Classes are only archived from jars, so run it from the bench and library jars rather than class directories.
+ */
+public class CdsStartup {
+
+    private static final String PACKAGE = "io.drakon.spark.autorouter.bench.startup";
+
+    public static void main(String[] argv) throws Exception {
+        Autorouter router = new Autorouter(PACKAGE);
+        if (argv.length > 0 && argv[0].startsWith("train=")) {
+            router.trainCds(Paths.get(argv[0].substring("train=".length())));
+            System.exit(0);
+        }
+
+        router.route();
+        Spark.awaitInitialization();
+        try (InputStream in = new URL("http://localhost:" + Spark.port() + "/api/items").openStream()) {
+            while (in.read() >= 0) {
+                // Drain
+            }
+        }
+        long uptime = ManagementFactory.getRuntimeMXBean().getUptime();
+        System.out.println("{\"startupMillis\":" + uptime + ",\"javaVersion\":\""
+                + System.getProperty("java.version") + "\"}");
+        System.exit(0);
+    }
+
+}
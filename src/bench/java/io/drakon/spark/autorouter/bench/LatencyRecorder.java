@@ -0,0 +1,65 @@
+package io.drakon.spark.autorouter.bench;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Single-writer latency sample store. Each load generator thread owns one; they're merged once the run is over, so
+ * there's no synchronisation on the measurement path.
+ */
+class LatencyRecorder {
+
+    private long[] samples = new long[1 << 16];
+    private int size = 0;
+    private long errors = 0;
+
+    void record(long nanos) {
+        if (size == samples.length) samples = Arrays.copyOf(samples, size * 2);
+        samples[size++] = nanos;
+    }
+
+    void error() {
+        errors++;
+    }
+
+    /** Merged, sorted view of several recorders. */
+    static class Summary {
+        final long count;
+        final long errors;
+        private final long[] sorted;
+
+        Summary(List<LatencyRecorder> recorders) {
+            int total = 0;
+            long errs = 0;
+            for (LatencyRecorder r : recorders) {
+                total += r.size;
+                errs += r.errors;
+            }
+            long[] all = new long[total];
+            int pos = 0;
+            for (LatencyRecorder r : recorders) {
+                System.arraycopy(r.samples, 0, all, pos, r.size);
+                pos += r.size;
+            }
+            Arrays.sort(all);
+            this.sorted = all;
+            this.count = total;
+            this.errors = errs;
+        }
+
+        /**
+         * @param percentile The percentile (0-100).
+         * @return The latency at that percentile in nanos, or 0 if there are no samples.
+         */
+        long percentile(double percentile) {
+            if (sorted.length == 0) return 0;
+            int idx = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+        }
+
+        long max() {
+            return sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+        }
+    }
+
+}
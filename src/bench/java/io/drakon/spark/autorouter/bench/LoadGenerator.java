@@ -0,0 +1,139 @@
+package io.drakon.spark.autorouter.bench;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Local HTTP load generator.
+ *
+ * Closed loop: each thread sends its next request as soon as the previous one completes, which measures peak
+ * throughput but hides queueing (the generator slows down with the server).
+ *
+ * Open loop: requests are scheduled at a fixed total rate and latency is measured from each request's <i>intended</i>
+ * send time, not when the (possibly delayed) thread actually got round to it. That corrects for coordinated omission,
+ * so a server stall shows up in the tail for every request that should have been sent during it.
+ */
+@ParametersAreNonnullByDefault
+class LoadGenerator {
+
+    private final String baseUrl;
+    private final int routes;
+    private final int threads;
+
+    /**
+     * @param baseUrl Server base URL (e.g. http://localhost:4567).
+     * @param routes Number of synthetic routes to spread requests across.
+     * @param threads Number of client threads.
+     */
+    LoadGenerator(String baseUrl, int routes, int threads) {
+        this.baseUrl = baseUrl;
+        this.routes = routes;
+        this.threads = threads;
+    }
+
+    /**
+     * Runs a closed-loop test.
+     *
+     * @param warmupNanos Time to run before recording.
+     * @param durationNanos Time to record for.
+     * @return Per-thread recorders.
+     */
+    List<LatencyRecorder> closedLoop(long warmupNanos, long durationNanos) throws InterruptedException {
+        return run(warmupNanos, durationNanos, 0);
+    }
+
+    /**
+     * Runs an open-loop test at a fixed rate.
+     *
+     * @param warmupNanos Time to run before recording.
+     * @param durationNanos Time to record for.
+     * @param ratePerSecond Total target request rate across all threads.
+     * @return Per-thread recorders.
+     */
+    List<LatencyRecorder> openLoop(long warmupNanos, long durationNanos, double ratePerSecond)
+            throws InterruptedException {
+        return run(warmupNanos, durationNanos, ratePerSecond);
+    }
+
+    private List<LatencyRecorder> run(long warmupNanos, long durationNanos, double rate) throws InterruptedException {
+        List<LatencyRecorder> recorders = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(threads);
+        long start = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(50);
+        long recordFrom = start + warmupNanos;
+        long end = recordFrom + durationNanos;
+        long interval = rate > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) * threads / rate) : 0;
+
+        for (int t = 0; t < threads; t++) {
+            LatencyRecorder recorder = new LatencyRecorder();
+            recorders.add(recorder);
+            // Stagger open-loop threads so the aggregate schedule is evenly spaced
+            long offset = interval * t / threads;
+            Thread thread = new Thread(() -> {
+                try {
+                    drive(recorder, start + offset, recordFrom, end, interval);
+                } finally {
+                    done.countDown();
+                }
+            }, "bench-client-" + t);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        return recorders;
+    }
+
+    private void drive(LatencyRecorder recorder, long start, long recordFrom, long end, long interval) {
+        byte[] buf = new byte[8192];
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long intended = start;
+        while (true) {
+            long now = System.nanoTime();
+            if (interval > 0) {
+                if (intended - now > 0) {
+                    LockSupport.parkNanos(intended - now);
+                    continue;
+                }
+            } else {
+                intended = now;
+            }
+            if (intended - end >= 0) return;
+
+            int route = random.nextInt(routes);
+            boolean ok = request(SyntheticControllers.requestPath(route, random.nextInt(1000)), buf);
+            long latency = System.nanoTime() - intended;
+            if (intended - recordFrom >= 0) {
+                if (ok) recorder.record(latency);
+                else recorder.error();
+            }
+            if (interval > 0) intended += interval;
+        }
+    }
+
+    private boolean request(String path, byte[] buf) {
+        try {
+            HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+            int status = conn.getResponseCode();
+            InputStream in = status >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            if (in != null) {
+                // Drain so the connection goes back to the keep-alive pool
+                //noinspection StatementWithEmptyBody
+                while (in.read(buf) != -1) { }
+                in.close();
+            }
+            return status == 200;
+        } catch (IOException ex) {
+            return false;
+        }
+    }
+
+}
@@ -0,0 +1,104 @@
+package io.drakon.spark.autorouter.bench;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.spark.autorouter.Autorouter;
+import spark.Spark;
+
+/**
+ * End-to-end load test: generates a synthetic controller package, routes it onto an embedded Spark server and drives
+ * it with a local load generator. Results are printed (and optionally written) as a single JSON object so runs can be
+ * diffed across releases.
+ *
+ * Arguments are key=value pairs:
+ * <ul>
+ *     <li>routes - number of synthetic routes (default 1000; try 10 / 1000 / 10000)</li>
+ *     <li>mode - closed or open (default closed)</li>
+ *     <li>threads - client threads (default 16)</li>
+ *     <li>rate - open loop only: total requests per second (default 5000)</li>
+ *     <li>warmup - warm-up seconds, not recorded (default 10)</li>
+ *     <li>duration - recorded seconds (default 30)</li>
+ *     <li>port - server port (default 4567)</li>
+ *     <li>out - file to write the JSON result to (optional)</li>
+ * </ul>
+ *
+ * Spark is a singleton, so each configuration needs its own JVM.
+ */
+public class LoadTest {
+
+    public static void main(String[] argv) throws Exception {
+        Map<String, String> args = new HashMap<>();
+        for (String arg : argv) {
+            int eq = arg.indexOf('=');
+            if (eq < 0) throw new IllegalArgumentException("Arguments must be key=value, got " + arg);
+            args.put(arg.substring(0, eq), arg.substring(eq + 1));
+        }
+        int routes = Integer.parseInt(args.getOrDefault("routes", "1000"));
+        String mode = args.getOrDefault("mode", "closed");
+        int threads = Integer.parseInt(args.getOrDefault("threads", "16"));
+        double rate = Double.parseDouble(args.getOrDefault("rate", "5000"));
+        long warmup = TimeUnit.SECONDS.toNanos(Long.parseLong(args.getOrDefault("warmup", "10")));
+        long duration = TimeUnit.SECONDS.toNanos(Long.parseLong(args.getOrDefault("duration", "30")));
+        int port = Integer.parseInt(args.getOrDefault("port", "4567"));
+
+        // Boot
+        long bootStart = System.nanoTime();
+        ClassLoader loader = new SyntheticControllers(routes).generate();
+        ClassLoader previous = Thread.currentThread().getContextClassLoader();
+        Thread.currentThread().setContextClassLoader(loader);
+        try {
+            Spark.port(port);
+            new Autorouter(SyntheticControllers.PACKAGE).route();
+            Spark.awaitInitialization();
+        } finally {
+            Thread.currentThread().setContextClassLoader(previous);
+        }
+        long bootNanos = System.nanoTime() - bootStart;
+
+        // Drive
+        LoadGenerator generator = new LoadGenerator("http://localhost:" + port, routes, threads);
+        List<LatencyRecorder> recorders = mode.equals("open")
+                ? generator.openLoop(warmup, duration, rate)
+                : generator.closedLoop(warmup, duration);
+        Spark.stop();
+
+        LatencyRecorder.Summary summary = new LatencyRecorder.Summary(recorders);
+        String json = toJson(routes, mode, threads, mode.equals("open") ? rate : 0, duration, bootNanos, summary);
+        System.out.println(json);
+        if (args.containsKey("out"))
+            Files.write(Paths.get(args.get("out")), (json + "\n").getBytes(StandardCharsets.UTF_8));
+        System.exit(0);
+    }
+
+    private static String toJson(int routes, String mode, int threads, double rate, long durationNanos,
+                                 long bootNanos, LatencyRecorder.Summary summary) {
+        double seconds = durationNanos / (double) TimeUnit.SECONDS.toNanos(1);
+        return "{" +
+                "\"routes\":" + routes +
+                ",\"mode\":\"" + mode + "\"" +
+                ",\"threads\":" + threads +
+                ",\"targetRate\":" + rate +
+                ",\"javaVersion\":\"" + System.getProperty("java.version") + "\"" +
+                ",\"bootMillis\":" + TimeUnit.NANOSECONDS.toMillis(bootNanos) +
+                ",\"requests\":" + summary.count +
+                ",\"errors\":" + summary.errors +
+                ",\"throughput\":" + String.format("%.1f", summary.count / seconds) +
+                ",\"p50Micros\":" + micros(summary.percentile(50)) +
+                ",\"p99Micros\":" + micros(summary.percentile(99)) +
+                ",\"p999Micros\":" + micros(summary.percentile(99.9)) +
+                ",\"maxMicros\":" + micros(summary.max()) +
+                ",\"coordinatedOmissionCorrected\":" + mode.equals("open") +
+                "}";
+    }
+
+    private static long micros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+}
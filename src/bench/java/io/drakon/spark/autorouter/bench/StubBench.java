@@ -0,0 +1,78 @@
+package io.drakon.spark.autorouter.bench;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.spark.autorouter.dispatch.BytecodeDispatch;
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import spark.Request;
+import spark.Response;
+import spark.ResponseTransformer;
+import spark.ResponseTransformerRouteImpl;
+import spark.RouteImpl;
+
+/**
+ * Compares how Spark calls a route and its transformer when the generated stub is adapted with a method reference and
+ * the transformer runs as Spark's separate render step, against a stub implementing Route itself with the render call
+ * fused in. Each invocation walks several routes through the same call site, as Spark's matcher does, so the
+ * adapter's call sites see more than one receiver.
+ *
+ * Run with e.g. gradle jmh -Pargs="StubBench"
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StubBench {
+
+    public static class Handlers {
+        public static Object a(Request req, Response res) { return "a"; }
+        public static Object b(Request req, Response res) { return "b"; }
+        public static Object c(Request req, Response res) { return "c"; }
+        public static Object d(Request req, Response res) { return "d"; }
+        public static Object e(Request req, Response res) { return "e"; }
+        public static Object f(Request req, Response res) { return "f"; }
+        public static Object g(Request req, Response res) { return "g"; }
+        public static Object h(Request req, Response res) { return "h"; }
+    }
+
+    /** Deliberately trivial, so the numbers are the call overhead rather than rendering. */
+    public static class Identity implements ResponseTransformer {
+        @Override
+        public String render(Object model) {
+            return (String) model;
+        }
+    }
+
+    private RouteImpl[] adapted;
+    private RouteImpl[] fused;
+
+    @Setup
+    public void setup() throws ReflectiveOperationException {
+        String[] names = { "a", "b", "c", "d", "e", "f", "g", "h" };
+        BytecodeDispatch gen = new BytecodeDispatch();
+        adapted = new RouteImpl[names.length];
+        fused = new RouteImpl[names.length];
+        for (int i = 0; i < names.length; i++) {
+            Method m = Handlers.class.getMethod(names[i], Request.class, Response.class);
+            IRouteDispatch d = gen.generateRouteStub(m).newInstance();
+            adapted[i] = ResponseTransformerRouteImpl.create("/" + names[i], d::dispatch, new Identity());
+            fused[i] = RouteImpl.create("/" + names[i], gen.generateSparkRoute(m, new Identity()));
+        }
+    }
+
+    @Benchmark
+    public void adapted(Blackhole bh) throws Exception {
+        for (RouteImpl route : adapted) bh.consume(route.render(route.handle(null, null)));
+    }
+
+    @Benchmark
+    public void fused(Blackhole bh) throws Exception {
+        for (RouteImpl route : fused) bh.consume(route.render(route.handle(null, null)));
+    }
+
+}
@@ -0,0 +1,172 @@
+package io.drakon.spark.autorouter.bench;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.Routes;
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates a package of synthetic controller classes for load testing. Routes are spread over a number of Path Group
+ * classes (with one nested group each), and the package gets a global before and after filter so requests take the
+ * full filter path.
+ *
+ * Classes are written as .class files into a temporary directory so Reflections can scan them like any other package.
+ */
+@ParametersAreNonnullByDefault
+class SyntheticControllers {
+
+    static final String PACKAGE = "io.drakon.spark.autorouter.bench.gen";
+    static final int ROUTES_PER_CLASS = 50;
+
+    private static final String ROUTE_DESC = "(Lspark/Request;Lspark/Response;)Ljava/lang/Object;";
+
+    private final int routes;
+    private final Path root;
+
+    /**
+     * @param routes Total number of GET routes to generate.
+     * @throws IOException If the output directory can't be created.
+     */
+    SyntheticControllers(int routes) throws IOException {
+        this.routes = routes;
+        this.root = Files.createTempDirectory("autorouter-bench");
+    }
+
+    /**
+     * Request path for the i'th route. Even routes sit in a Path Group, odd ones in its nested group.
+     *
+     * @param i The route index.
+     * @param id Value for the route's :id param.
+     * @return The full request path.
+     */
+    static String requestPath(int i, long id) {
+        int group = i / ROUTES_PER_CLASS;
+        return "/g" + group + (i % 2 == 0 ? "" : "/nested") + "/r" + i + "/" + id;
+    }
+
+    /**
+     * Writes the controller classes and returns a loader which can see them. The loader should be installed as the
+     * context classloader while routing so Reflections finds the package.
+     *
+     * @return A loader for the generated package.
+     * @throws IOException On write failure.
+     */
+    ClassLoader generate() throws IOException {
+        Path dir = root.resolve(PACKAGE.replace('.', '/'));
+        Files.createDirectories(dir);
+
+        int groups = (routes + ROUTES_PER_CLASS - 1) / ROUTES_PER_CLASS;
+        for (int g = 0; g < groups; g++) {
+            String outer = internalName("Group" + g);
+            String inner = outer + "$Nested";
+            int from = g * ROUTES_PER_CLASS;
+            int to = Math.min(routes, from + ROUTES_PER_CLASS);
+
+            Files.write(dir.resolve("Group" + g + ".class"), groupClass(outer, inner, outer, "/g" + g, from, to, 0));
+            Files.write(dir.resolve("Group" + g + "$Nested.class"),
+                    groupClass(inner, inner, outer, "/nested", from, to, 1));
+        }
+        Files.write(dir.resolve("Filters.class"), filtersClass());
+
+        return new URLClassLoader(new URL[]{ root.toUri().toURL() }, SyntheticControllers.class.getClassLoader());
+    }
+
+    /**
+     * Generates one Path Group class holding every route in [from, to) whose index parity matches.
+     */
+    private static byte[] groupClass(String name, String inner, String outer, String prefix, int from, int to,
+                                     int parity) {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC + ACC_SUPER, name, null, "java/lang/Object", null);
+        cw.visitInnerClass(inner, outer, "Nested", ACC_PUBLIC + ACC_STATIC);
+
+        AnnotationVisitor group = cw.visitAnnotation(Type.getDescriptor(Routes.PathGroup.class), true);
+        group.visit("prefix", prefix);
+        group.visitEnd();
+
+        constructor(cw);
+        for (int i = from; i < to; i++) {
+            if (i % 2 != parity) continue;
+            MethodVisitor mv = cw.visitMethod(ACC_PUBLIC + ACC_STATIC, "route" + i, ROUTE_DESC, null, null);
+            AnnotationVisitor get = mv.visitAnnotation(Type.getDescriptor(Routes.GET.class), true);
+            get.visit("path", "/r" + i + "/:id");
+            get.visitEnd();
+
+            // return "route<i>:" + req.params(":id");
+            mv.visitCode();
+            mv.visitTypeInsn(NEW, "java/lang/StringBuilder");
+            mv.visitInsn(DUP);
+            mv.visitLdcInsn("route" + i + ":");
+            mv.visitMethodInsn(INVOKESPECIAL, "java/lang/StringBuilder", "<init>", "(Ljava/lang/String;)V", false);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitLdcInsn(":id");
+            mv.visitMethodInsn(INVOKEVIRTUAL, "spark/Request", "params", "(Ljava/lang/String;)Ljava/lang/String;",
+                    false);
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "append",
+                    "(Ljava/lang/String;)Ljava/lang/StringBuilder;", false);
+            mv.visitMethodInsn(INVOKEVIRTUAL, "java/lang/StringBuilder", "toString", "()Ljava/lang/String;", false);
+            mv.visitInsn(ARETURN);
+            mv.visitMaxs(0, 0);
+            mv.visitEnd();
+        }
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    /** Generates a class with a global before filter (sets a header) and after filter (no-op). */
+    private static byte[] filtersClass() {
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_FRAMES | ClassWriter.COMPUTE_MAXS);
+        cw.visit(V1_8, ACC_PUBLIC + ACC_SUPER, internalName("Filters"), null, "java/lang/Object", null);
+        constructor(cw);
+
+        MethodVisitor before = cw.visitMethod(ACC_PUBLIC + ACC_STATIC, "before", ROUTE_DESC, null, null);
+        before.visitAnnotation(Type.getDescriptor(Routes.Before.class), true).visitEnd();
+        before.visitCode();
+        before.visitVarInsn(ALOAD, 1);
+        before.visitLdcInsn("X-Bench");
+        before.visitLdcInsn("1");
+        before.visitMethodInsn(INVOKEVIRTUAL, "spark/Response", "header", "(Ljava/lang/String;Ljava/lang/String;)V",
+                false);
+        before.visitInsn(ACONST_NULL);
+        before.visitInsn(ARETURN);
+        before.visitMaxs(0, 0);
+        before.visitEnd();
+
+        MethodVisitor after = cw.visitMethod(ACC_PUBLIC + ACC_STATIC, "after", ROUTE_DESC, null, null);
+        after.visitAnnotation(Type.getDescriptor(Routes.After.class), true).visitEnd();
+        after.visitCode();
+        after.visitInsn(ACONST_NULL);
+        after.visitInsn(ARETURN);
+        after.visitMaxs(0, 0);
+        after.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
+    }
+
+    private static void constructor(ClassWriter cw) {
+        MethodVisitor ctor = cw.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        ctor.visitCode();
+        ctor.visitVarInsn(ALOAD, 0);
+        ctor.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        ctor.visitInsn(RETURN);
+        ctor.visitMaxs(0, 0);
+        ctor.visitEnd();
+    }
+
+    private static String internalName(String simpleName) {
+        return PACKAGE.replace('.', '/') + "/" + simpleName;
+    }
+
+}
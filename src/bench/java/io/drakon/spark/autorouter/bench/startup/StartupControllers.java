@@ -0,0 +1,82 @@
+package io.drakon.spark.autorouter.bench.startup;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import io.drakon.spark.autorouter.Routes;
+import io.drakon.spark.autorouter.codec.JsonTransformer;
+import spark.Request;
+import spark.Response;
+
+/**
+ * A small but typical application for measuring startup: plain and JSON routes, a JSON body, static headers, filters
+ * and an exception handler.
+ */
+@Routes.PathGroup(prefix = "/api")
+public class StartupControllers {
+
+    public static class Item {
+        public String name;
+        public int count;
+        public List<String> tags = new ArrayList<>();
+    }
+
+    @Routes.Before
+    public static Object before(Request req, Response res) {
+        req.attribute("start", System.nanoTime());
+        return null;
+    }
+
+    @Routes.AfterAfter
+    public static Object afterAfter(Request req, Response res) {
+        res.header("X-Served-By", "startup");
+        return null;
+    }
+
+    @Routes.ExceptionHandler(exceptionType = IllegalArgumentException.class)
+    public static Object badRequest(IllegalArgumentException ex, Request req, Response res) {
+        res.status(400);
+        res.body(ex.getMessage());
+        return null;
+    }
+
+    @Routes.GET(path = "/health")
+    public static Object health(Request req, Response res) {
+        return "OK";
+    }
+
+    @Routes.GET(path = "/items", transformer = JsonTransformer.class)
+    @Routes.Headers("Cache-Control: max-age=60")
+    public static Object items(Request req, Response res) {
+        Item item = new Item();
+        item.name = "widget";
+        item.count = 3;
+        item.tags.add("blue");
+        return Collections.singletonList(item);
+    }
+
+    @Routes.GET(path = "/items/:name", transformer = JsonTransformer.class)
+    @Routes.WarmUp("/api/items/widget")
+    public static Object item(Request req, Response res) {
+        Item item = new Item();
+        item.name = req.params("name");
+        return item;
+    }
+
+    @Routes.POST(path = "/items", transformer = JsonTransformer.class)
+    @Routes.WarmUp(body = "{\"name\":\"widget\",\"count\":1,\"tags\":[\"red\"]}")
+    public static Object create(Request req, Response res, @Routes.Body Item item) {
+        if (item.name == null) throw new IllegalArgumentException("name is required");
+        res.status(201);
+        return item;
+    }
+
+    @Routes.GET(path = "/echo", transformer = JsonTransformer.class)
+    public static Object echo(Request req, Response res) {
+        Map<String, String> out = Collections.singletonMap("q", req.queryParamOrDefault("q", ""));
+        return out;
+    }
+
+}
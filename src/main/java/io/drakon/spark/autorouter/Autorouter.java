@@ -1,8 +1,28 @@
 package io.drakon.spark.autorouter;
 
+import io.drakon.spark.autorouter.codec.BodyDecodeException;
+import io.drakon.spark.autorouter.codec.JsonTransformer;
+import io.drakon.spark.autorouter.dispatch.AdaptiveLimiter;
+import io.drakon.spark.autorouter.dispatch.BatchDispatch;
+import io.drakon.spark.autorouter.dispatch.Bulkhead;
 import io.drakon.spark.autorouter.dispatch.BytecodeDispatch;
-import io.drakon.spark.autorouter.dispatch.IExceptionDispatch;
+import io.drakon.spark.autorouter.dispatch.CoalescingDispatch;
+import io.drakon.spark.autorouter.dispatch.ContentNegotiator;
+import io.drakon.spark.autorouter.dispatch.CorsFilter;
+import io.drakon.spark.autorouter.dispatch.DeadlineTimer;
+import io.drakon.spark.autorouter.dispatch.EventStreamDispatch;
+import io.drakon.spark.autorouter.dispatch.HeadDispatch;
 import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.dispatch.LocalPipeline;
+import io.drakon.spark.autorouter.dispatch.NegotiatingDispatch;
+import io.drakon.spark.autorouter.dispatch.StaticHeaders;
+import io.drakon.spark.autorouter.dispatch.StaticResources;
+import io.drakon.spark.autorouter.dispatch.TimeoutDispatch;
+import io.drakon.spark.autorouter.monitor.AccessLog;
+import io.drakon.spark.autorouter.monitor.FlightRecorder;
+import io.drakon.spark.autorouter.monitor.SpanKind;
+import io.drakon.spark.autorouter.monitor.TraceExporter;
+import io.drakon.spark.autorouter.monitor.Tracer;
 import org.reflections.Reflections;
 import org.reflections.scanners.MethodAnnotationsScanner;
 import org.reflections.scanners.SubTypesScanner;
@@ -15,15 +35,26 @@ import org.slf4j.LoggerFactory;
 import spark.*;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 import javax.annotation.ParametersAreNullableByDefault;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.annotation.Annotation;
 import java.lang.invoke.MethodHandle;
+import java.lang.reflect.AnnotatedElement;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 import java.util.function.BiConsumer;
-import java.util.function.Consumer;
+import java.util.stream.IntStream;
 
 import static spark.Spark.*;
 import static io.drakon.spark.autorouter.Utils.*;
@@ -36,9 +67,24 @@ public class Autorouter {
 
     private static final Logger log = LoggerFactory.getLogger(Autorouter.class);
     private final String pkg;
+    private final boolean local;
     private boolean routingComplete = false;
     private boolean debugPageAdded = false;
-    SearchResult lastSearch = null;
+    private boolean batchAdded = false;
+    private Tracer tracer = null;
+    private FlightRecorder flightRecorder = null;
+    private AccessLog accessLog = null;
+    private JitWarmer warmer = null;
+    private String readinessPath = null;
+    private AdaptiveLimiter globalLimiter = null;
+    private final ContentNegotiator negotiator = new ContentNegotiator(256);
+    private final LocalPipeline pipeline = new LocalPipeline();
+    private final List<JitWarmer.Sample> samples = new ArrayList<>();
+    private final ThreadLocal<List<Runnable>> queuedRegistrations = new ThreadLocal<>();
+    private volatile RouteRegistry registry = null;
+    private volatile Map<String, Bulkhead> bulkheads = Collections.emptyMap();
+    private volatile Map<String, AdaptiveLimiter> limiters = Collections.emptyMap();
+    private volatile Map<String, StaticResources> staticResources = Collections.emptyMap();
 
     static final List<Class<? extends Annotation>> ALL_ROUTE_ANNOTATIONS = Arrays.asList(
             Routes.GET.class,
@@ -84,6 +130,8 @@ public class Autorouter {
     /** Search results container. Yes it's ugly. */
     static class SearchResult {
         public final Map<Class<?>, String> pathClasses;
+        public final Map<Class<?>, Bulkhead> bulkheads;
+        public final Map<Class<?>, AdaptiveLimiter> limiters;
 
         public final Set<Pair<Method, Routes.Before>> beforeFilters;
         public final Set<Pair<Method, Routes.After>> afterFilters;
@@ -91,19 +139,29 @@ public class Autorouter {
         public final Set<Pair<Method, Routes.ExceptionHandler>> exceptionHandlers;
 
         public final Map<Class<? extends Annotation>, Set<Pair<Method, RouteInfo>>> routes;
+        public final Set<Pair<Method, RouteInfo>> eventStreams;
+        public final Map<Class<?>, String> staticClasses;
 
         public SearchResult(Map<Class<?>, String> pathClasses,
+                            Map<Class<?>, Bulkhead> bulkheads,
+                            Map<Class<?>, AdaptiveLimiter> limiters,
                             Set<Pair<Method, Routes.Before>> beforeFilters,
                             Set<Pair<Method, Routes.After>> afterFilters,
                             Set<Pair<Method, Routes.AfterAfter>> afterAfterFilters,
                             Set<Pair<Method, Routes.ExceptionHandler>> exceptionHandlers,
-                            Map<Class<? extends Annotation>, Set<Pair<Method, RouteInfo>>> routes) {
+                            Map<Class<? extends Annotation>, Set<Pair<Method, RouteInfo>>> routes,
+                            Set<Pair<Method, RouteInfo>> eventStreams,
+                            Map<Class<?>, String> staticClasses) {
             this.pathClasses = pathClasses;
+            this.bulkheads = bulkheads;
+            this.limiters = limiters;
             this.beforeFilters = beforeFilters;
             this.afterFilters = afterFilters;
             this.afterAfterFilters = afterAfterFilters;
             this.exceptionHandlers = exceptionHandlers;
             this.routes = routes;
+            this.eventStreams = eventStreams;
+            this.staticClasses = staticClasses;
         }
     }
 
@@ -113,11 +171,23 @@ public class Autorouter {
         public final String path;
         public final String acceptType;
         public final ResponseTransformer transformer;
+        public final Routes.Coalesce coalesce;
+        public final Bulkhead bulkhead;
+        public final AdaptiveLimiter limiter;
+        public final long timeoutMillis;
+        public final StaticHeaders headers;
 
-        public RouteInfo(@Nonnull String path, String acceptType, ResponseTransformer transformer) {
+        public RouteInfo(@Nonnull String path, String acceptType, ResponseTransformer transformer,
+                         Routes.Coalesce coalesce, Bulkhead bulkhead, AdaptiveLimiter limiter, long timeoutMillis,
+                         StaticHeaders headers) {
             this.path = path;
             this.acceptType = acceptType;
             this.transformer = transformer;
+            this.coalesce = coalesce;
+            this.bulkhead = bulkhead;
+            this.limiter = limiter;
+            this.timeoutMillis = timeoutMillis;
+            this.headers = headers;
         }
     }
 
@@ -127,7 +197,16 @@ public class Autorouter {
      * @param pkg The package in standard Java notation (e.g. io.drakon.spark)
      */
     public Autorouter(String pkg) {
+        this(pkg, false);
+    }
+
+    /**
+     * @param pkg The package in standard Java notation (e.g. io.drakon.spark)
+     * @param local If true, routes are only bound to the local pipeline and never registered with Spark.
+     */
+    Autorouter(String pkg, boolean local) {
         this.pkg = pkg;
+        this.local = local;
     }
 
     /**
@@ -141,17 +220,32 @@ public class Autorouter {
 
         log.debug("Beginning search for path classes.");
         HashMap<Class<?>, String> pathClassMap = new HashMap<>();
+        HashMap<Class<?>, Bulkhead> bulkheadMap = new HashMap<>();
+        HashMap<Class<?>, Bulkhead> bulkheadOwners = new HashMap<>();
+        HashMap<Class<?>, AdaptiveLimiter> limiterMap = new HashMap<>();
+        HashMap<Class<?>, AdaptiveLimiter> limiterOwners = new HashMap<>();
         for (Class<?> cls : ref.getTypesAnnotatedWith(Routes.PathGroup.class)) {
-            StringBuilder path = new StringBuilder();
-            Class<?> clsParent = cls;
-            while (clsParent != null) {
-                Routes.PathGroup group = clsParent.getAnnotation(Routes.PathGroup.class);
-                if (group != null) { path.insert(0, group.prefix()); }
-                clsParent = clsParent.getDeclaringClass();
+            pathClassMap.put(cls, getGroupPrefix(cls));
+
+            // Nearest enclosing bulkhead and limit win
+            Class<?> owner = getEnclosingAnnotated(cls, Routes.Bulkhead.class);
+            if (owner != null) {
+                bulkheadMap.put(cls, bulkheadOwners.computeIfAbsent(owner, o -> {
+                    Routes.Bulkhead ann = o.getAnnotation(Routes.Bulkhead.class);
+                    return new Bulkhead(getGroupPrefix(o), ann.maxConcurrent(), ann.maxQueue(), ann.maxWaitMillis());
+                }));
+            }
+            owner = getEnclosingAnnotated(cls, Routes.AdaptiveLimit.class);
+            if (owner != null) {
+                limiterMap.put(cls, limiterOwners.computeIfAbsent(owner, o -> {
+                    Routes.AdaptiveLimit ann = o.getAnnotation(Routes.AdaptiveLimit.class);
+                    return new AdaptiveLimiter(getGroupPrefix(o), ann.initialLimit(), ann.minLimit(), ann.maxLimit(),
+                            ann.tolerance());
+                }));
             }
-            pathClassMap.put(cls, path.toString());
         }
-        log.debug("Found {} class-route path mappings.", pathClassMap.size());
+        log.debug("Found {} class-route path mappings ({} bulkheaded, {} limited).", pathClassMap.size(),
+                bulkheadMap.size(), limiterMap.size());
 
         log.debug("Beginning search for route methods.");
         HashMap<Class<? extends Annotation>, Set<Pair<Method, RouteInfo>>> results = new HashMap<>();
@@ -176,15 +270,33 @@ public class Autorouter {
                         continue;
                     }
                 }
-                log.trace("Adding path '{}' (accept {}, transformer {})", path, acceptType, transformer);
+
+                // Coalescing is only safe for idempotent reads
+                Routes.Coalesce coalesce = m.getAnnotation(Routes.Coalesce.class);
+                if (coalesce != null && routeAnnotation != Routes.GET.class) {
+                    if (m.getAnnotation(Routes.GET.class) == null)
+                        log.warn("@Coalesce on non-GET route {}#{} - ignoring.", m.getDeclaringClass().getName(),
+                                m.getName());
+                    coalesce = null;
+                }
+                log.trace("Adding path '{}' (accept {}, transformer {}, coalesce {})", path, acceptType, transformer,
+                        coalesce != null);
 
                 // Attach info to route annotation
-                RouteInfo info = new RouteInfo(path, acceptType, transformer);
+                RouteInfo info = new RouteInfo(path, acceptType, transformer, coalesce,
+                        bulkheadMap.get(m.getDeclaringClass()), limiterMap.get(m.getDeclaringClass()),
+                        getTimeoutMillis(m), getStaticHeaders(m));
                 Set<Pair<Method, RouteInfo>> resSet = results.getOrDefault(routeAnnotation, new HashSet<>());
                 resSet.add(new Pair<>(m, info));
                 results.put(routeAnnotation, resSet);
             }
         }
+        Set<Pair<Method, RouteInfo>> eventStreams = new HashSet<>();
+        for (Method m : ref.getMethodsAnnotatedWith(Routes.SSE.class)) {
+            String path = pathClassMap.getOrDefault(m.getDeclaringClass(), "")
+                    + m.getAnnotation(Routes.SSE.class).path();
+            eventStreams.add(new Pair<>(m, new RouteInfo(path, null, null, null, null, null, 0, getStaticHeaders(m))));
+        }
         log.debug("Route search complete.");
 
         log.debug("Beginning search for filters/event handlers.");
@@ -204,8 +316,180 @@ public class Autorouter {
         for (Method m : ref.getMethodsAnnotatedWith(Routes.ExceptionHandler.class))
             exceptionHandlers.add(new Pair<>(m, m.getAnnotation(Routes.ExceptionHandler.class)));
 
-        return new SearchResult(pathClassMap, beforeFilters, afterFilters, afterAfterFilters, exceptionHandlers,
-                results);
+        Map<Class<?>, String> staticClasses = new HashMap<>();
+        for (Class<?> cls : ref.getTypesAnnotatedWith(Routes.StaticResources.class)) {
+            staticClasses.put(cls, pathClassMap.getOrDefault(cls, "")
+                    + cls.getAnnotation(Routes.StaticResources.class).prefix());
+        }
+
+        return new SearchResult(pathClassMap, bulkheadMap, limiterMap, beforeFilters, afterFilters, afterAfterFilters,
+                exceptionHandlers, results, eventStreams, staticClasses);
+    }
+
+    /**
+     * Finds the nearest class carrying an annotation, starting at a class and working out through its enclosing ones.
+     *
+     * @param cls The class to start at.
+     * @param annotation The annotation.
+     * @return The nearest annotated class, or null if there's none.
+     */
+    @Nullable
+    private static Class<?> getEnclosingAnnotated(Class<?> cls, Class<? extends Annotation> annotation) {
+        Class<?> clsParent = cls;
+        while (clsParent != null && clsParent.getAnnotation(annotation) == null)
+            clsParent = clsParent.getDeclaringClass();
+        return clsParent;
+    }
+
+    /**
+     * Builds the full path prefix for a Path Group class, including any enclosing groups.
+     *
+     * @param cls The Path Group class.
+     * @return The combined prefix.
+     */
+    private static String getGroupPrefix(Class<?> cls) {
+        StringBuilder path = new StringBuilder();
+        Class<?> clsParent = cls;
+        while (clsParent != null) {
+            Routes.PathGroup group = clsParent.getAnnotation(Routes.PathGroup.class);
+            if (group != null) { path.insert(0, group.prefix()); }
+            clsParent = clsParent.getDeclaringClass();
+        }
+        return path.toString();
+    }
+
+    /**
+     * Finds the deadline for a route: the method's own @Timeout, or else the nearest enclosing class default.
+     *
+     * @param m The route method.
+     * @return The deadline in milliseconds, or 0 for none.
+     */
+    private static long getTimeoutMillis(Method m) {
+        Routes.Timeout timeout = m.getAnnotation(Routes.Timeout.class);
+        Class<?> clsParent = m.getDeclaringClass();
+        while (timeout == null && clsParent != null) {
+            timeout = clsParent.getAnnotation(Routes.Timeout.class);
+            clsParent = clsParent.getDeclaringClass();
+        }
+        return timeout == null ? 0 : timeout.millis();
+    }
+
+    /**
+     * Finds the priority for a route or filter: the method's own @Priority, or else the nearest enclosing class
+     * default.
+     *
+     * @param m The route or filter method.
+     * @return The priority, or 0 for none.
+     */
+    private static int getPriority(Method m) {
+        Routes.Priority priority = m.getAnnotation(Routes.Priority.class);
+        Class<?> clsParent = m.getDeclaringClass();
+        while (priority == null && clsParent != null) {
+            priority = clsParent.getAnnotation(Routes.Priority.class);
+            clsParent = clsParent.getDeclaringClass();
+        }
+        return priority == null ? 0 : priority.value();
+    }
+
+    /**
+     * Sorts methods found by search() into registration order: by priority, highest first, then by name.
+     *
+     * @param pairs The methods and their annotations.
+     * @return The sorted list.
+     */
+    private static <T> List<Pair<Method, T>> inOrder(Collection<Pair<Method, T>> pairs) {
+        List<Pair<Method, T>> sorted = new ArrayList<>(pairs);
+        sorted.sort(Comparator.<Pair<Method, T>>comparingInt(pair -> -getPriority(pair.first))
+                .thenComparing(pair -> pair.first.getDeclaringClass().getName() + "#" + pair.first.getName()));
+        return sorted;
+    }
+
+    /**
+     * Finds the CORS policy for a route: the method's own @Cors, or else the nearest enclosing class's.
+     *
+     * @param m The route method.
+     * @return The policy, or null for none.
+     */
+    private static Routes.Cors getCors(Method m) {
+        Routes.Cors cors = m.getAnnotation(Routes.Cors.class);
+        for (Class<?> cls = m.getDeclaringClass(); cors == null && cls != null; cls = cls.getDeclaringClass())
+            cors = cls.getAnnotation(Routes.Cors.class);
+        return cors;
+    }
+
+    /**
+     * Compiles the {@link Routes.Cors} policies into a per-path table. Unless a policy lists its methods, they're the
+     * verbs routed on its path, including the HEAD derived from GET.
+     *
+     * @param result The search result.
+     * @return The filter, empty if no routes allow cross-origin requests.
+     */
+    static CorsFilter buildCorsFilter(SearchResult result) {
+        Map<String, Routes.Cors> policies = new LinkedHashMap<>();
+        Map<String, Set<String>> verbs = new HashMap<>();
+        List<Pair<String, Pair<Method, RouteInfo>>> routes = new ArrayList<>();
+        for (Class<? extends Annotation> ann : ALL_ROUTE_ANNOTATIONS) {
+            for (Pair<Method, RouteInfo> pair : result.routes.getOrDefault(ann, Collections.emptySet()))
+                routes.add(new Pair<>(ann.getSimpleName(), pair));
+        }
+        result.eventStreams.forEach(pair -> routes.add(new Pair<>("GET", pair)));
+        for (Pair<String, Pair<Method, RouteInfo>> route : routes) {
+            Routes.Cors cors = getCors(route.second.first);
+            if (cors == null) continue;
+            String path = route.second.second.path;
+            Routes.Cors existing = policies.putIfAbsent(path, cors);
+            if (existing != null && !existing.equals(cors))
+                log.warn("Routes on {} have different @Cors policies - using the first found.", path);
+            Set<String> pathVerbs = verbs.computeIfAbsent(path, p -> new LinkedHashSet<>());
+            pathVerbs.add(route.first);
+            if (route.first.equals("GET")) pathVerbs.add("HEAD");
+        }
+
+        CorsFilter filter = new CorsFilter();
+        policies.forEach((path, cors) -> filter.add(path, new CorsFilter.Policy(cors.origins(),
+                cors.methods().length > 0 ? cors.methods() : verbs.get(path).toArray(new String[0]), cors.headers(),
+                cors.maxAge(), cors.credentials())));
+        log.debug("Compiled CORS policies for {} paths.", policies.size());
+        return filter;
+    }
+
+    /**
+     * Merges the constant headers for a route from @Headers and @ContentType on the method and its enclosing classes.
+     * Headers set at several levels take the innermost value; the nearest @ContentType wins.
+     *
+     * @param m The route method.
+     * @return The merged headers, or null if there are none.
+     */
+    private static StaticHeaders getStaticHeaders(Method m) {
+        List<AnnotatedElement> levels = new ArrayList<>();
+        levels.add(m);
+        for (Class<?> cls = m.getDeclaringClass(); cls != null; cls = cls.getDeclaringClass()) levels.add(cls);
+        Collections.reverse(levels); // Outermost first, so inner levels overwrite
+
+        Map<String, String> names = new HashMap<>(); // Lowercase to as-written, as headers are case-insensitive
+        Map<String, String> headers = new LinkedHashMap<>();
+        String contentType = null;
+        for (AnnotatedElement level : levels) {
+            Routes.ContentType type = level.getAnnotation(Routes.ContentType.class);
+            if (type != null) contentType = type.value();
+            Routes.Headers ann = level.getAnnotation(Routes.Headers.class);
+            if (ann == null) continue;
+            for (String header : ann.value()) {
+                int colon = header.indexOf(':');
+                String name = colon > 0 ? header.substring(0, colon).trim() : "";
+                if (name.isEmpty() || name.equalsIgnoreCase("Content-Type")
+                        || name.equalsIgnoreCase("Content-Length")) {
+                    log.warn("Invalid @Headers entry '{}' for {}#{} - must be 'Name: value', and Content-Type " +
+                            "belongs in @ContentType. Skipping.", header, m.getDeclaringClass().getName(), m.getName());
+                    continue;
+                }
+                String previous = names.put(name.toLowerCase(Locale.ROOT), name);
+                if (previous != null) headers.remove(previous);
+                headers.put(name, header.substring(colon + 1).trim());
+            }
+        }
+        if (contentType == null && headers.isEmpty()) return null;
+        return new StaticHeaders(contentType, headers);
     }
 
     /**
@@ -217,28 +501,202 @@ public class Autorouter {
         routingComplete = true;
 
         SearchResult searchResult = search();
-        lastSearch = searchResult;
+        Map<String, Bulkhead> partitions = new TreeMap<>();
+        searchResult.bulkheads.values().forEach(b -> partitions.put(b.getName(), b));
+        bulkheads = Collections.unmodifiableMap(partitions);
+        Map<String, AdaptiveLimiter> limits = new TreeMap<>();
+        if (globalLimiter != null) limits.put(globalLimiter.getName(), globalLimiter);
+        searchResult.limiters.values().forEach(l -> limits.put(l.getName(), l));
+        limiters = Collections.unmodifiableMap(limits);
+
+        // Access logging, tracing and flight recording bracket everything else: the first before filters...
+        if (accessLog != null) {
+            AccessLog access = accessLog;
+            addFilter(SpanKind.BEFORE, null, (req, res) -> {
+                if (req.attribute(JitWarmer.WARMUP_ATTRIBUTE) == null) access.begin(req, res);
+            });
+        }
+        if (tracer != null) {
+            Tracer trace = tracer;
+            addFilter(SpanKind.BEFORE, null, (req, res) -> {
+                if (req.attribute(JitWarmer.WARMUP_ATTRIBUTE) == null) trace.begin(req, res);
+            });
+        }
+        if (flightRecorder != null) addFilter(SpanKind.BEFORE, null, flightRecorder::begin);
+
+        // CORS preflights are answered before anything else runs
+        CorsFilter cors = buildCorsFilter(searchResult);
+        if (!cors.isEmpty()) addFilter(SpanKind.BEFORE, null, cors);
 
         // Setup filters and exception handlers
-        searchResult.exceptionHandlers.forEach(this::registerExceptionHandler);
-        searchResult.beforeFilters.forEach(pair -> {
+        List<Runnable> steps = new ArrayList<>();
+        // InputStream @Body handlers read past the size limit mid-call; first, so apps can still map it themselves
+        steps.add(() -> addExceptionHandler(BodyDecodeException.TooLarge.class, (ex, req, res) -> {
+            res.status(413);
+            res.body("Payload Too Large");
+        }));
+        inOrder(searchResult.exceptionHandlers).forEach(pair -> steps.add(() -> registerExceptionHandler(pair)));
+        inOrder(searchResult.beforeFilters).forEach(pair -> steps.add(() -> {
             Routes.Before ann = pair.second;
-            registerBeforeOrAfterFilter(pair.first, ann.path(), ann.acceptType(), Spark::before, Spark::before,
-                    Spark::before);
-        });
-        searchResult.afterFilters.forEach(pair -> {
+            registerBeforeOrAfterFilter(pair.first, SpanKind.BEFORE, ann.path(), ann.acceptType());
+        }));
+        inOrder(searchResult.afterFilters).forEach(pair -> steps.add(() -> {
             Routes.After ann = pair.second;
-            registerBeforeOrAfterFilter(pair.first, ann.path(), ann.acceptType(), Spark::after, Spark::after,
-                    Spark::after);
+            registerBeforeOrAfterFilter(pair.first, SpanKind.AFTER, ann.path(), ann.acceptType());
+        }));
+        inOrder(searchResult.afterAfterFilters).forEach(pair -> steps.add(() -> {
+            String path = pair.second.path().equals(NULL_STR) ? null : pair.second.path();
+            addFilter(SpanKind.AFTER_AFTER, path, generateFilter(SpanKind.AFTER_AFTER, pair.first, path));
+        }));
+
+        // ...and the last after-after filters
+        if (flightRecorder != null) steps.add(() -> addFilter(SpanKind.AFTER_AFTER, null, flightRecorder::end));
+        if (tracer != null) steps.add(() -> addFilter(SpanKind.AFTER_AFTER, null, tracer::end));
+        if (accessLog != null) steps.add(() -> addFilter(SpanKind.AFTER_AFTER, null, accessLog::end));
+
+        // Setup routes, in match order
+        List<RouteOrder.Entry> routeSteps = new ArrayList<>();
+        searchResult.routes.forEach((cls, set) -> registerRoutes(cls, set, routeSteps));
+        registerDerivedHeads(searchResult.routes, routeSteps);
+        searchResult.eventStreams.forEach(pair -> routeSteps.add(new RouteOrder.Entry("GET", pair.second.path,
+                getPriority(pair.first), () -> registerEventStream(pair))));
+        registerStaticResources(searchResult.staticClasses, routeSteps);
+        RouteOrder.order(routeSteps).forEach(entry -> steps.add(entry.step));
+        runSteps(steps);
+        registry = RouteRegistry.from(searchResult);
+
+        if (warmer != null) startWarmup();
+    }
+
+    /**
+     * Runs registration steps, generating their stubs in parallel. Whatever each step registers is queued rather than
+     * registered straight away, then the queues are replayed in step order on this thread, so Spark sees the same
+     * registration order however the steps were scheduled.
+     *
+     * @param steps The steps, in registration order.
+     */
+    private void runSteps(List<Runnable> steps) {
+        List<List<Runnable>> queues = new ArrayList<>(steps.size());
+        for (int i = 0; i < steps.size(); i++) queues.add(new ArrayList<>());
+        IntStream.range(0, steps.size()).parallel().forEach(i -> {
+            queuedRegistrations.set(queues.get(i));
+            try {
+                steps.get(i).run();
+            } finally {
+                queuedRegistrations.remove();
+            }
         });
-        searchResult.afterAfterFilters.forEach(pair -> {
-            IRouteDispatch d = generateRouteDispatcher(pair.first);
-            if (pair.second.path().equals(NULL_STR)) afterAfter(d::dispatch);
-            else afterAfter(pair.second.path(), d::dispatch);
+        log.debug("Generated dispatchers for {} registration steps.", steps.size());
+        queues.forEach(queue -> queue.forEach(Runnable::run));
+    }
+
+    /**
+     * Runs a registration now, or queues it if called from a step being run by {@link #runSteps}.
+     *
+     * @param registration The registration.
+     * @return True if it was queued.
+     */
+    private boolean queued(Runnable registration) {
+        List<Runnable> queue = queuedRegistrations.get();
+        if (queue == null) return false;
+        queue.add(registration);
+        return true;
+    }
+
+    /**
+     * Registers the readiness route and starts warming up.
+     */
+    private void startWarmup() {
+        JitWarmer w = warmer;
+        samples.forEach(w::addSample);
+        if (readinessPath != null) {
+            addRoute(RouteHandler.GET, readinessPath, (req, res) -> {
+                if (!w.isReady()) throw halt(503, "Warming up");
+                return "Ready";
+            }, null);
+        }
+        w.start(pipeline, () -> {
+            // Warm-up requests run slow by design; don't leave them looking like production outliers
+            if (flightRecorder != null) flightRecorder.clear();
         });
+    }
+
+    /**
+     * Training run for an AppCDS archive, in place of {@link #route()}. Routes, waits for Spark to start and sends each
+     * route one request over loopback HTTP (its {@link Routes.WarmUp} samples, or a plain GET for GET routes without
+     * params), so Spark, Jetty, the handlers and everything they use are loaded. It then writes the generated stubs to
+     * <code>autorouter-stubs.jar</code> in the given directory and stops Spark.
+     *
+     * Run with <code>-XX:ArchiveClassesAtExit</code> (JDK 13+) and the JVM archives every class loaded from a jar when
+     * it exits. Stubs are defined at runtime, so can only be archived once the stubs jar from an earlier training run
+     * is on the classpath; with it there, the stubs are loaded from it instead of being generated. See the README for
+     * the full workflow.
+     *
+     * @param out The directory to write the stubs jar to.
+     * @return The stubs jar.
+     * @throws IOException If the stubs jar couldn't be written.
+     */
+    public Path trainCds(Path out) throws IOException {
+        if (routingComplete) throw new IllegalStateException("trainCds() must be called instead of route()");
+        if (local) throw new IllegalStateException("trainCds() needs Spark running");
+        BytecodeDispatch.startRecording();
+        route();
+        awaitInitialization();
 
-        // Setup routes
-        searchResult.routes.forEach(this::registerRoutes);
+        List<JitWarmer.Sample> training = new ArrayList<>(samples);
+        RouteRegistry routes = registry;
+        for (String route : pipeline.getRoutes()) {
+            String path = route.substring(route.indexOf(' ') + 1);
+            int index = routes.find("GET", path);
+            if (route.startsWith("GET ") && !path.contains(":") && !path.contains("*")
+                    && (index < 0 || !routes.isEventStream(index)) // Never ends
+                    && training.stream().noneMatch(s -> s.verb.equals("GET") && s.uri.equals(path)))
+                training.add(new JitWarmer.Sample("GET", path, Collections.emptyMap(), null, new byte[0]));
+        }
+        for (JitWarmer.Sample sample : training) {
+            try {
+                sendLoopback(sample);
+            } catch (IOException ex) {
+                // e.g. verbs HttpURLConnection won't send; the handler code still gets loaded
+                log.debug("Couldn't send {} over HTTP ({}) - sending in memory.", sample, ex.toString());
+                pipeline.handle(sample.toRequest());
+            }
+        }
+
+        Files.createDirectories(out);
+        Path jar = out.resolve("autorouter-stubs.jar");
+        int count = BytecodeDispatch.writeRecordedStubs(jar);
+        log.info("CDS training sent {} requests and wrote {} stubs to {}.", training.size(), count, jar);
+        stop();
+        return jar;
+    }
+
+    /** Sends a sample request to the running server and reads the whole response. */
+    private static void sendLoopback(JitWarmer.Sample sample) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL("http", "localhost", port(), sample.uri)
+                .openConnection();
+        try {
+            conn.setRequestMethod(sample.verb);
+            sample.headers.forEach(conn::setRequestProperty);
+            if (sample.body.length > 0) {
+                if (sample.contentType != null) conn.setRequestProperty("Content-Type", sample.contentType);
+                conn.setDoOutput(true);
+                try (OutputStream body = conn.getOutputStream()) {
+                    body.write(sample.body);
+                }
+            }
+            InputStream in = conn.getResponseCode() < 400 ? conn.getInputStream() : conn.getErrorStream();
+            if (in != null) {
+                try (InputStream res = in) {
+                    byte[] buf = new byte[8192];
+                    while (res.read(buf) > 0) {
+                        // Drain, so the whole response path runs
+                    }
+                }
+            }
+        } finally {
+            conn.disconnect();
+        }
     }
 
     /**
@@ -249,10 +707,176 @@ public class Autorouter {
     public void enableRouteOverview(String path) {
         if (debugPageAdded) return;
         RouteOverview overview = new RouteOverview(this);
-        get(path, overview::route);
+        addRoute(RouteHandler.GET, path, overview::route, null);
         debugPageAdded = true;
     }
 
+    /**
+     * Enables a batch endpoint, taking a JSON array of sub-requests and answering with a JSON array of their responses
+     * (see {@link BatchDispatch} for the format). Sub-requests run through the autorouted routes and filters in memory,
+     * in parallel, without going back through Jetty or Spark's matcher. Allows up to 50 sub-requests per batch, run at
+     * most as many at once as there are processors (and at least 4).
+     *
+     * @param path Path to mount the batch POST route on.
+     */
+    public void enableBatchEndpoint(String path) {
+        enableBatchEndpoint(path, Math.max(4, Runtime.getRuntime().availableProcessors()), 50);
+    }
+
+    /**
+     * Enables a batch endpoint with the given limits. See {@link #enableBatchEndpoint(String)}.
+     *
+     * @param path Path to mount the batch POST route on.
+     * @param parallelism The most sub-requests run at once, across all batches.
+     * @param maxRequests The most sub-requests in one batch; larger batches get a 413.
+     */
+    public void enableBatchEndpoint(String path, int parallelism, int maxRequests) {
+        if (batchAdded) return;
+        BatchDispatch batch = new BatchDispatch(pipeline, path, parallelism, maxRequests);
+        addRoute(RouteHandler.POST, path, batch::dispatch, null);
+        batchAdded = true;
+    }
+
+    /**
+     * Enables sampled tracing of before filters, handlers, after filters, after-after filters and transformers. Must be
+     * called before {@link #route()}.
+     *
+     * @param sampleEvery Trace one in every this many requests (counted per thread).
+     * @param exporter Where completed traces are sent, e.g. a
+     *                 {@link io.drakon.spark.autorouter.monitor.JsonFileTraceExporter}.
+     */
+    public void enableTracing(int sampleEvery, TraceExporter exporter) {
+        if (routingComplete) {
+            log.warn("enableTracing() called after route() - ignoring.");
+            return;
+        }
+        tracer = new Tracer(sampleEvery, exporter);
+    }
+
+    /**
+     * Enables the slow request flight recorder, which keeps the slowest recent requests for each route. Must be called
+     * before {@link #route()}. Captured requests are shown on the Route Overview page.
+     *
+     * @param capacity Slow requests to keep per route.
+     * @param thresholdMillis Capture requests slower than this, or zero to capture requests over each route's p99.
+     * @param headers Request headers to capture with each slow request.
+     * @return The recorder, for dumping captured requests (see {@link FlightRecorder#toJson()}).
+     */
+    public FlightRecorder enableFlightRecorder(int capacity, long thresholdMillis, String... headers) {
+        if (routingComplete) {
+            log.warn("enableFlightRecorder() called after route() - ignoring.");
+            return flightRecorder;
+        }
+        flightRecorder = new FlightRecorder(capacity, thresholdMillis, headers);
+        return flightRecorder;
+    }
+
+    /**
+     * Enables the access log: one line per request, written by a background thread so request threads never format or
+     * write anything. Must be called before {@link #route()}.
+     *
+     * @param accessLog The log. Close it on shutdown to write out the entries still queued.
+     */
+    public void enableAccessLog(AccessLog accessLog) {
+        if (routingComplete) {
+            log.warn("enableAccessLog() called after route() - ignoring.");
+            return;
+        }
+        this.accessLog = accessLog;
+    }
+
+    /**
+     * Enables a JIT warm-up phase after {@link #route()}, which replays sample requests through the routes in memory
+     * until the hot paths are compiled or the budget runs out. Samples come from {@link Routes.WarmUp} annotations and
+     * the given replay files (see {@link JitWarmer#readReplayFile}). Must be called before {@link #route()}.
+     *
+     * @param budgetMillis The most time to spend warming up.
+     * @param readinessPath Path for a GET route answering 503 until warm-up is done and 200 after, or null for none.
+     * @param replayFiles Files of recorded sample requests.
+     * @return The warmer, for checking or waiting on readiness.
+     */
+    public JitWarmer enableWarmup(long budgetMillis, String readinessPath, Path... replayFiles) {
+        if (routingComplete) {
+            log.warn("enableWarmup() called after route() - ignoring.");
+            return warmer;
+        }
+        warmer = new JitWarmer(budgetMillis, Arrays.asList(replayFiles));
+        this.readinessPath = readinessPath;
+        return warmer;
+    }
+
+    /**
+     * Puts every route under one adaptive concurrency limit, on top of any {@link Routes.AdaptiveLimit} on their Path
+     * Groups. Requests over the limit are rejected with a 503. Must be called before {@link #route()}.
+     *
+     * @param initialLimit The limit to start at.
+     * @param minLimit The lowest the limit can go.
+     * @param maxLimit The highest the limit can go.
+     * @param tolerance How far latency can rise over the baseline (e.g. 1.5 for 50%) before the limit shrinks.
+     * @return The limiter, for monitoring.
+     */
+    public AdaptiveLimiter enableAdaptiveLimit(int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        if (routingComplete) {
+            log.warn("enableAdaptiveLimit() called after route() - ignoring.");
+            return globalLimiter;
+        }
+        globalLimiter = new AdaptiveLimiter("*", initialLimit, minLimit, maxLimit, tolerance);
+        return globalLimiter;
+    }
+
+    /**
+     * @return The flight recorder, or null if not enabled.
+     */
+    public FlightRecorder getFlightRecorder() {
+        return flightRecorder;
+    }
+
+    /**
+     * Gets the bulkhead partitions set up by the last {@link #route()} call, for monitoring.
+     *
+     * @return An unmodifiable map of partition name (Path Group prefix) to partition, or an empty map if not routed.
+     */
+    @Nonnull
+    public Map<String, Bulkhead> getBulkheads() {
+        return bulkheads;
+    }
+
+    /**
+     * Gets the static resource directories set up by the last {@link #route()} call, e.g. to stop watching them.
+     *
+     * @return An unmodifiable map of full prefix to directory, or an empty map if not routed.
+     */
+    @Nonnull
+    public Map<String, StaticResources> getStaticResources() {
+        return staticResources;
+    }
+
+    /**
+     * Gets the adaptive limits set up by the last {@link #route()} call, for monitoring.
+     *
+     * @return An unmodifiable map of limit name (Path Group prefix, or * for the global limit) to limiter, or an empty
+     *         map if not routed.
+     */
+    @Nonnull
+    public Map<String, AdaptiveLimiter> getLimiters() {
+        return limiters;
+    }
+
+    /**
+     * Gets the routes, filters and exception handlers set up by {@link #route()}, for tooling and monitoring.
+     *
+     * @return The registry, or null if not routed yet.
+     */
+    @Nullable
+    public RouteRegistry getRegistry() {
+        return registry;
+    }
+
+    /** @return The local pipeline, holding everything registered so far. */
+    LocalPipeline getPipeline() {
+        return pipeline;
+    }
+
     /**
      * Handles registration for an exception handler entry.
      *
@@ -262,67 +886,460 @@ public class Autorouter {
         Method m = pair.first;
         Class<? extends Exception> exType= pair.second.exceptionType();
 
-        Class<IExceptionDispatch> dispatchClass = new BytecodeDispatch().generateExceptionStub(m, exType);
-        IExceptionDispatch dispatch = Utils.dispatchClassToObj(dispatchClass);
-        if (dispatch == null) throw new RuntimeException("Dispatcher is null!");
+        // Exception handlers are never wrapped, so Spark can always call the stub directly
+        ExceptionHandler<Exception> handler = new BytecodeDispatch().generateSparkExceptionHandler(m, exType);
+        if (handler == null) throw new RuntimeException("Dispatcher is null!");
 
-        exception(exType, dispatch::dispatch);
+        addExceptionHandler(exType, handler);
     }
 
     /**
      * Generates a standard route dispatch object from the code gen.
      *
      * @param m Target method to call with dispatcher.
+     * @param kind The pipeline step, for JFR events.
+     * @param route The route template or filter path, for JFR events.
      * @return The finished dispatcher.
      */
-    private IRouteDispatch generateRouteDispatcher(Method m) {
-        Class<IRouteDispatch> dispatchClass = new BytecodeDispatch().generateRouteStub(m);
+    private IRouteDispatch generateRouteDispatcher(Method m, SpanKind kind, @Nullable String route) {
+        return generateRouteDispatcher(m, kind, route, null);
+    }
+
+    /**
+     * Generates a route dispatch object which sets the given headers before calling its target.
+     *
+     * @param m Target method to call with dispatcher.
+     * @param kind The pipeline step, for JFR events.
+     * @param route The route template or filter path, for JFR events.
+     * @param headers The route's static headers, or null.
+     * @return The finished dispatcher.
+     */
+    private IRouteDispatch generateRouteDispatcher(Method m, SpanKind kind, @Nullable String route,
+                                                   StaticHeaders headers) {
+        Class<IRouteDispatch> dispatchClass = new BytecodeDispatch().labelled(kind, route)
+                .generateRouteStub(m, headers);
         IRouteDispatch dispatch = Utils.dispatchClassToObj(dispatchClass);
         if (dispatch == null) throw new RuntimeException("Dispatcher is null!");
 
         return dispatch;
     }
 
+    /**
+     * Generates a filter for a target method. Untraced filters are stubs implementing Spark's Filter themselves.
+     *
+     * @param kind The pipeline step, for tracing.
+     * @param m Target method to call.
+     * @param path The path the filter applies to, or null for all paths.
+     * @return The finished filter.
+     */
+    private Filter generateFilter(SpanKind kind, Method m, @Nullable String path) {
+        if (tracer != null) return traced(kind, m, generateRouteDispatcher(m, kind, path))::dispatch;
+        Filter filter = new BytecodeDispatch().labelled(kind, path).generateSparkFilter(m);
+        if (filter == null) throw new RuntimeException("Dispatcher is null!");
+        return filter;
+    }
+
+    /**
+     * Wraps a filter or handler dispatcher for tracing, if tracing is enabled.
+     *
+     * @param kind The pipeline step.
+     * @param m The target method, for naming the span.
+     * @param d The dispatcher.
+     * @return The traced dispatcher, or the original if tracing is off.
+     */
+    private IRouteDispatch traced(SpanKind kind, Method m, IRouteDispatch d) {
+        if (tracer == null) return d;
+        return tracer.trace(kind, m.getDeclaringClass().getName() + "#" + m.getName(), d);
+    }
+
     /**
      * Convenience method for registering the Before and After filter routes.
      *
      * @param m Target method to invoke.
+     * @param kind The pipeline step, for tracing.
      * @param path The path this filter affects from annotation.
      * @param acceptType The accept type of this filter from annotation.
-     * @param a The Filter-only Spark method.
-     * @param b The Path-and-Filter Spark method.
-     * @param c The Path-Accept-and-Filter Spark method.
-     */
-    private void registerBeforeOrAfterFilter(Method m, String path, String acceptType, Consumer<Filter> a,
-                                             BiConsumer<String, Filter> b, TriConsumer<String, String, Filter> c) {
-        IRouteDispatch d = generateRouteDispatcher(m);
-        if (path.equals(NULL_STR) && acceptType.equals(NULL_STR)) a.accept(d::dispatch);
-        else if (!path.equals(NULL_STR) && acceptType.equals(NULL_STR)) b.accept(path, d::dispatch);
-        else if (!path.equals(NULL_STR) && !acceptType.equals(NULL_STR))
-            c.apply(path, acceptType, d::dispatch);
-        else log.warn("Invalid @Before or @After handler {}#{} - acceptType must be accompanied by a path! Skipping.",
+     */
+    private void registerBeforeOrAfterFilter(Method m, SpanKind kind, String path, String acceptType) {
+        if (path.equals(NULL_STR) && acceptType.equals(NULL_STR)) addFilter(kind, null, generateFilter(kind, m, null));
+        else if (!path.equals(NULL_STR) && acceptType.equals(NULL_STR))
+            addFilter(kind, path, generateFilter(kind, m, path));
+        else if (!path.equals(NULL_STR) && !acceptType.equals(NULL_STR)) {
+            // Checked against our cached Accept parse rather than Spark's per-filter one
+            IRouteDispatch d = traced(kind, m, generateRouteDispatcher(m, kind, path + " [" + acceptType + "]"));
+            addFilter(kind, path, (req, res) -> {
+                if (negotiator.accepts(req.headers("Accept"), acceptType)) d.dispatch(req, res);
+            });
+        } else log.warn("Invalid @Before or @After handler {}#{} - acceptType must be accompanied by a path! Skipping.",
                     m.getDeclaringClass().getName(), m.getName());
     }
 
     /**
-     * Registers all types of standard HTTP verb routes with Spark.
+     * Registers all types of standard HTTP verb routes with Spark. Routes sharing a path where any has an accept type
+     * are registered as a single Spark route which does its own content negotiation.
      *
      * @param cls The specific verb annotation type for this route set.
      * @param set The set generated by search() for this route set.
+     * @param steps Where to add the registration step for each path.
      */
-    private void registerRoutes(Class<? extends Annotation> cls, Set<Pair<Method, RouteInfo>> set) {
+    private void registerRoutes(Class<? extends Annotation> cls, Set<Pair<Method, RouteInfo>> set,
+                                List<RouteOrder.Entry> steps) {
         @SuppressWarnings("ConstantConditions") // We know all values are mapped, thing.
         RouteHandler rh = Arrays.stream(RouteHandler.values()).filter(h -> h.annotation == cls).findFirst().get();
-        set.forEach(pair -> {
-            IRouteDispatch d = generateRouteDispatcher(pair.first);
-            RouteInfo info = pair.second;
-            boolean hasAccept = info.acceptType != null;
-            boolean hasTransform = info.transformer != null;
-            if (hasAccept && hasTransform) rh.routeAll.apply(info.path, info.acceptType, d::dispatch, info.transformer);
-            else if (hasAccept) rh.routePathAndAccept.apply(info.path, info.acceptType, d::dispatch);
-            else if (hasTransform) rh.routePathAndTransform.apply(info.path, d::dispatch, info.transformer);
-            else rh.routePath.accept(info.path, d::dispatch);
+        Map<String, List<Pair<Method, RouteInfo>>> byPath = groupByPath(set);
+
+        byPath.forEach((path, pairs) -> steps.add(new RouteOrder.Entry(rh.name(), path, getPriority(pairs), () -> {
+            if (pairs.stream().allMatch(pair -> pair.second.acceptType == null)) {
+                pairs.forEach(pair -> {
+                    addWarmupSamples(rh, pair.first, path);
+                    if (isFusable(pair.second)) {
+                        addRoute(rh, path, generateFusedRoute(pair.first, pair.second), null);
+                        return;
+                    }
+                    Pair<IRouteDispatch, ResponseTransformer> chain = buildRouteChain(rh, pair.first, pair.second);
+                    addRoute(rh, path, chain.first::dispatch, chain.second);
+                });
+                return;
+            }
+
+            String[] acceptTypes = new String[pairs.size()];
+            IRouteDispatch[] dispatches = new IRouteDispatch[pairs.size()];
+            ResponseTransformer[] transformers = new ResponseTransformer[pairs.size()];
+            for (int i = 0; i < pairs.size(); i++) {
+                addWarmupSamples(rh, pairs.get(i).first, path);
+                Pair<IRouteDispatch, ResponseTransformer> chain = buildRouteChain(rh, pairs.get(i).first,
+                        pairs.get(i).second);
+                acceptTypes[i] = pairs.get(i).second.acceptType;
+                dispatches[i] = chain.first;
+                transformers[i] = chain.second;
+            }
+            log.trace("Negotiating {} {} between {}", rh.name(), path, Arrays.toString(acceptTypes));
+            IRouteDispatch dispatch = new NegotiatingDispatch(negotiator, acceptTypes, dispatches, transformers);
+            addRoute(rh, path, dispatch::dispatch, null);
+        })));
+    }
+
+    /**
+     * Groups routes by path, each group sorted by accept type then method name so negotiation ties break the same way
+     * on every run.
+     *
+     * @param routes The routes.
+     * @return The groups.
+     */
+    private static Map<String, List<Pair<Method, RouteInfo>>> groupByPath(Collection<Pair<Method, RouteInfo>> routes) {
+        List<Pair<Method, RouteInfo>> sorted = new ArrayList<>(routes);
+        sorted.sort(Comparator.<Pair<Method, RouteInfo>, String>comparing(pair -> pair.second.path)
+                .thenComparing(pair -> pair.second.acceptType == null ? "" : pair.second.acceptType)
+                .thenComparing(pair -> pair.first.getDeclaringClass().getName() + "#" + pair.first.getName()));
+        Map<String, List<Pair<Method, RouteInfo>>> byPath = new LinkedHashMap<>();
+        sorted.forEach(pair -> byPath.computeIfAbsent(pair.second.path, p -> new ArrayList<>()).add(pair));
+        return byPath;
+    }
+
+    /**
+     * @param pairs Routes sharing a verb and path.
+     * @return The highest of their priorities.
+     */
+    private static int getPriority(List<Pair<Method, RouteInfo>> pairs) {
+        return pairs.stream().mapToInt(pair -> getPriority(pair.first)).max().orElse(0);
+    }
+
+    /**
+     * Registers a HEAD route for every GET path without an explicit {@link Routes.HEAD} route. Spark would otherwise
+     * answer HEAD by running the GET route in full, transformer included, and discarding the body; derived routes run
+     * the handler (and its filters, bulkhead and so on) for its headers, but skip the transformer and the body write.
+     * Routes with a cheaper way to produce their headers can declare it as an explicit HEAD route on the same path.
+     *
+     * @param routes The routes found by search().
+     * @param steps Where to add the registration step for each path.
+     */
+    private void registerDerivedHeads(Map<Class<? extends Annotation>, Set<Pair<Method, RouteInfo>>> routes,
+                                      List<RouteOrder.Entry> steps) {
+        Set<String> explicit = new HashSet<>();
+        routes.getOrDefault(Routes.HEAD.class, Collections.emptySet()).forEach(pair -> explicit.add(pair.second.path));
+        List<Pair<Method, RouteInfo>> derived = new ArrayList<>();
+        routes.getOrDefault(Routes.GET.class, Collections.emptySet()).forEach(pair -> {
+            if (!explicit.contains(pair.second.path)) derived.add(pair);
+        });
+        Map<String, List<Pair<Method, RouteInfo>>> byPath = groupByPath(derived);
+
+        byPath.forEach((path, pairs) -> steps.add(new RouteOrder.Entry("HEAD", path, getPriority(pairs), () -> {
+            if (pairs.stream().allMatch(pair -> pair.second.acceptType == null)) {
+                pairs.forEach(pair -> {
+                    IRouteDispatch head = buildHeadChain(pair.first, pair.second);
+                    addRoute(RouteHandler.HEAD, path, head::dispatch, null);
+                });
+                return;
+            }
+            String[] acceptTypes = new String[pairs.size()];
+            IRouteDispatch[] dispatches = new IRouteDispatch[pairs.size()];
+            for (int i = 0; i < pairs.size(); i++) {
+                acceptTypes[i] = pairs.get(i).second.acceptType;
+                dispatches[i] = buildHeadChain(pairs.get(i).first, pairs.get(i).second);
+            }
+            IRouteDispatch dispatch = new NegotiatingDispatch(negotiator, acceptTypes, dispatches,
+                    new ResponseTransformer[pairs.size()]);
+            addRoute(RouteHandler.HEAD, path, dispatch::dispatch, null);
+        })));
+        log.debug("Derived HEAD routes for {} GET paths.", byPath.size());
+    }
+
+    /**
+     * Builds the dispatcher chain for a derived HEAD route: the GET route's chain without its transformer, answering
+     * with an empty body.
+     *
+     * @param m The GET route method.
+     * @param info The GET route info from search().
+     * @return The dispatcher.
+     */
+    private IRouteDispatch buildHeadChain(Method m, RouteInfo info) {
+        RouteInfo bodyless = new RouteInfo(info.path, info.acceptType, null, info.coalesce, info.bulkhead,
+                info.limiter, info.timeoutMillis, info.headers);
+        return new HeadDispatch(buildRouteChain(RouteHandler.HEAD, m, bodyless).first,
+                info.transformer instanceof JsonTransformer ? JsonTransformer.CONTENT_TYPE : null);
+    }
+
+    /**
+     * Registers a Server-Sent Events route with Spark, as a GET route. Streams are never wrapped: bulkheads, deadlines
+     * and coalescing don't apply to connections which stay open.
+     *
+     * @param pair A pair from the Search pile.
+     */
+    private void registerEventStream(Pair<Method, RouteInfo> pair) {
+        Routes.SSE ann = pair.first.getAnnotation(Routes.SSE.class);
+        EventStreamDispatch dispatch = new EventStreamDispatch(generateRouteDispatcher(pair.first, SpanKind.HANDLER,
+                pair.second.path, pair.second.headers), ann.queue(), ann.overflow(), ann.heartbeatMillis());
+        addRoute(RouteHandler.GET, pair.second.path, dispatch::dispatch, null);
+    }
+
+    /**
+     * Sets up the {@link Routes.StaticResources} directories, each as GET and HEAD routes on its prefix. Directories
+     * are indexed by the GET route's registration step, so in parallel with stub generation.
+     *
+     * @param classes Classes with static resources, to their full prefixes.
+     * @param steps Where to add the registration steps.
+     */
+    private void registerStaticResources(Map<Class<?>, String> classes, List<RouteOrder.Entry> steps) {
+        Map<String, StaticResources> found = new TreeMap<>();
+        classes.forEach((cls, prefix) -> {
+            Routes.StaticResources ann = cls.getAnnotation(Routes.StaticResources.class);
+            StaticResources files = new StaticResources(prefix, Paths.get(ann.root()));
+            found.put(files.getPrefix(), files);
+
+            String path = files.getPrefix() + "/*";
+            Class<?> owner = getEnclosingAnnotated(cls, Routes.Priority.class);
+            int priority = owner == null ? 0 : owner.getAnnotation(Routes.Priority.class).value();
+            steps.add(new RouteOrder.Entry("GET", path, priority, () -> {
+                try {
+                    files.index();
+                    if (ann.watch()) files.watch();
+                } catch (IOException ex) {
+                    log.error("Couldn't index static resources for {} from {} - answering 404.", path, ann.root(), ex);
+                }
+                addRoute(RouteHandler.GET, path, logged(RouteHandler.GET, path, files)::dispatch, null);
+            }));
+            steps.add(new RouteOrder.Entry("HEAD", path, priority,
+                    () -> addRoute(RouteHandler.HEAD, path, logged(RouteHandler.HEAD, path, files)::dispatch, null)));
         });
+        staticResources = Collections.unmodifiableMap(found);
+    }
+
+    /**
+     * Wraps a dispatcher for the access log, if enabled.
+     *
+     * @param rh The route verb.
+     * @param path The route path.
+     * @param d The dispatcher.
+     * @return The dispatcher, wrapped if needed.
+     */
+    private IRouteDispatch logged(RouteHandler rh, String path, IRouteDispatch d) {
+        return accessLog == null ? d : accessLog.record(rh.name(), path, d);
+    }
+
+    /**
+     * Registers a filter with Spark (unless routing locally), and records it in the local pipeline.
+     *
+     * @param kind The filter kind: BEFORE, AFTER or AFTER_AFTER.
+     * @param path The path the filter applies to, or null for all paths.
+     * @param filter The filter.
+     */
+    private void addFilter(SpanKind kind, @Nullable String path, Filter filter) {
+        if (queued(() -> addFilter(kind, path, filter))) return;
+        switch (kind) {
+            case BEFORE:
+                pipeline.before(path, filter);
+                if (local) break;
+                if (path == null) before(filter);
+                else before(path, filter);
+                break;
+            case AFTER:
+                pipeline.after(path, filter);
+                if (local) break;
+                if (path == null) after(filter);
+                else after(path, filter);
+                break;
+            case AFTER_AFTER:
+                pipeline.afterAfter(path, filter);
+                if (local) break;
+                if (path == null) afterAfter(filter);
+                else afterAfter(path, filter);
+                break;
+            default:
+                throw new IllegalArgumentException("Not a filter kind: " + kind);
+        }
+    }
+
+    /**
+     * Registers a route with Spark (unless routing locally), and records it in the local pipeline.
+     *
+     * @param rh The route verb.
+     * @param path The route path.
+     * @param route The route.
+     * @param transformer The transformer for Spark to apply to the route's result, or null.
+     */
+    private void addRoute(RouteHandler rh, String path, Route route, @Nullable ResponseTransformer transformer) {
+        if (queued(() -> addRoute(rh, path, route, transformer))) return;
+        if (transformer == null) {
+            if (!local) rh.routePath.accept(path, route);
+            pipeline.route(rh.name(), path, route);
+        } else {
+            if (!local) rh.routePathAndTransform.apply(path, route, transformer);
+            pipeline.route(rh.name(), path, (req, res) -> transformer.render(route.handle(req, res)));
+        }
+    }
+
+    /**
+     * Registers an exception handler with Spark (unless routing locally), and records it in the local pipeline.
+     *
+     * @param exType The exception type.
+     * @param handler The handler.
+     */
+    private void addExceptionHandler(Class<? extends Exception> exType, ExceptionHandler<Exception> handler) {
+        if (queued(() -> addExceptionHandler(exType, handler))) return;
+        if (!local) exception(exType, handler);
+        pipeline.exception(exType, handler);
+    }
+
+    /**
+     * Collects a route's {@link Routes.WarmUp} samples, for the warmer and CDS training.
+     *
+     * @param rh The route verb.
+     * @param m The route method.
+     * @param path The full route path.
+     */
+    private void addWarmupSamples(RouteHandler rh, Method m, String path) {
+        Routes.WarmUp ann = m.getAnnotation(Routes.WarmUp.class);
+        if (ann == null) return;
+        String[] uris = ann.value();
+        if (uris.length == 0) {
+            if (path.contains(":") || path.contains("*")) {
+                log.warn("@WarmUp on {}#{} needs sample URIs, as its path has params. Skipping.",
+                        m.getDeclaringClass().getName(), m.getName());
+                return;
+            }
+            uris = new String[]{ path };
+        }
+        Map<String, String> headers = new LinkedHashMap<>();
+        for (String header : ann.headers()) {
+            int colon = header.indexOf(':');
+            if (colon > 0) headers.put(header.substring(0, colon).trim(), header.substring(colon + 1).trim());
+        }
+        byte[] body = ann.body().getBytes(StandardCharsets.UTF_8);
+        List<JitWarmer.Sample> found = new ArrayList<>(uris.length);
+        for (String uri : uris) found.add(new JitWarmer.Sample(rh.name(), uri, headers, ann.contentType(), body));
+        if (!queued(() -> samples.addAll(found))) samples.addAll(found);
+    }
+
+    /**
+     * Checks whether a route needs nothing wrapped around its handler, so it can be registered as a single generated
+     * stub with the transformer call fused in.
+     *
+     * @param info The route info from search().
+     * @return True if the route can be fused.
+     */
+    private boolean isFusable(RouteInfo info) {
+        return tracer == null && flightRecorder == null && accessLog == null && info.coalesce == null
+                && info.bulkhead == null && info.limiter == null && globalLimiter == null && info.timeoutMillis <= 0;
+    }
+
+    /**
+     * Generates a route stub implementing Spark's Route, with the transformer called from the same method.
+     *
+     * @param m The route method.
+     * @param info The route info from search().
+     * @return The finished route.
+     */
+    private Route generateFusedRoute(Method m, RouteInfo info) {
+        ResponseTransformer transformer = info.transformer;
+        // As in buildRouteChain, JSON gets its serializer generated now and renders to bytes
+        if (transformer instanceof JsonTransformer)
+            transformer = ((JsonTransformer) transformer).specialise(m.getReturnType());
+        Route route = new BytecodeDispatch().labelled(SpanKind.HANDLER, routeLabel(info))
+                .generateSparkRoute(m, transformer, info.headers);
+        if (route == null) throw new RuntimeException("Dispatcher is null!");
+        return route;
+    }
+
+    /**
+     * Builds the dispatcher chain for one route, wrapping the generated stub with any coalescing, bulkhead, deadline
+     * and monitoring the route needs.
+     *
+     * @param rh The route verb.
+     * @param m The route method.
+     * @param info The route info from search().
+     * @return The dispatcher, and the transformer still to be applied to its result (or null).
+     */
+    private Pair<IRouteDispatch, ResponseTransformer> buildRouteChain(RouteHandler rh, Method m, RouteInfo info) {
+        // Coalesced waiters don't run the stub, so their headers are set outside the coalescer instead
+        StaticHeaders headers = info.headers;
+        IRouteDispatch d = traced(SpanKind.HANDLER, m, generateRouteDispatcher(m, SpanKind.HANDLER, routeLabel(info),
+                info.coalesce == null ? headers : null));
+        ResponseTransformer transformer = info.transformer;
+        if (transformer instanceof JsonTransformer) {
+            // Generate the return type's serializer now rather than on the first request, and render to bytes
+            // ourselves rather than through Spark's String-returning transformer step
+            JsonTransformer json = ((JsonTransformer) transformer).specialise(m.getReturnType());
+            IRouteDispatch handler = d;
+            d = (req, res) -> json.renderBytes(res, handler.dispatch(req, res));
+            transformer = null;
+        }
+        if (tracer != null && transformer != null) transformer = tracer.trace(transformer);
+        if (flightRecorder != null && transformer != null) transformer = flightRecorder.record(transformer);
+        if (accessLog != null && transformer != null) transformer = accessLog.record(transformer);
+        if (info.coalesce != null) {
+            // The coalescer renders once for all waiters, so Spark mustn't transform again
+            d = new CoalescingDispatch(d, transformer, info.coalesce.queryParams(), info.coalesce.headers());
+            transformer = null;
+            if (headers != null) {
+                IRouteDispatch coalesced = d;
+                d = (req, res) -> {
+                    // As generated stubs do: content type first, headers the handler didn't set on the way out
+                    headers.applyContentType(res);
+                    try {
+                        return coalesced.dispatch(req, res);
+                    } finally {
+                        headers.applyUnsetHeaders(res);
+                    }
+                };
+            }
+        }
+        if (info.bulkhead != null) d = info.bulkhead.guard(d);
+        if (info.timeoutMillis > 0) d = new TimeoutDispatch(d, info.timeoutMillis, DeadlineTimer.shared());
+        if (info.limiter != null) d = info.limiter.guard(d);
+        if (globalLimiter != null) d = globalLimiter.guard(d);
+        if (flightRecorder != null) d = flightRecorder.record(flightRecorder.route(rh.name(), routeLabel(info)), d);
+        if (accessLog != null) d = accessLog.record(rh.name(), info.path, d);
+        return new Pair<>(d, transformer);
+    }
+
+    /**
+     * Names a route for monitoring: its path, and its accept type if it has one.
+     *
+     * @param info The route info from search().
+     * @return The label.
+     */
+    private static String routeLabel(RouteInfo info) {
+        return info.acceptType == null ? info.path : info.path + " [" + info.acceptType + "]";
     }
 
 }
@@ -0,0 +1,79 @@
+package io.drakon.spark.autorouter;
+
+import java.util.function.Consumer;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.dispatch.LocalPipeline;
+import io.drakon.spark.autorouter.dispatch.LocalRequest;
+import io.drakon.spark.autorouter.dispatch.LocalResponse;
+
+/**
+ * Routes a package without Spark or Jetty, for tests and microbenchmarks. Everything {@link Autorouter#route()} would
+ * register with Spark (filters, generated stubs, transformers, exception handlers and any enabled extras) is bound only
+ * to an in-memory {@link LocalPipeline}, and requests are sent through it as {@link LocalRequest}s.
+ *
+ * No port is opened and the Spark singleton is never touched, so any number of clients can exist at once, and a
+ * client can be used from many threads in parallel.
+ */
+@ParametersAreNonnullByDefault
+public final class AutorouterTestClient {
+
+    private final Autorouter router;
+    private final LocalPipeline pipeline;
+
+    /**
+     * @param pkg The package to route, in standard Java notation (e.g. io.drakon.spark)
+     */
+    public AutorouterTestClient(String pkg) {
+        this(pkg, router -> {});
+    }
+
+    /**
+     * @param pkg The package to route, in standard Java notation (e.g. io.drakon.spark)
+     * @param setup Called before routing, to enable extras (e.g. {@link Autorouter#enableTracing}).
+     */
+    public AutorouterTestClient(String pkg, Consumer<Autorouter> setup) {
+        router = new Autorouter(pkg, true);
+        setup.accept(router);
+        router.route();
+        pipeline = router.getPipeline();
+    }
+
+    /**
+     * Sends a request through the routes.
+     *
+     * @param req The request.
+     * @return The finished response.
+     */
+    public LocalResponse send(LocalRequest req) {
+        return pipeline.handle(req);
+    }
+
+    /**
+     * Sends a bodyless request through the routes.
+     *
+     * @param method The HTTP verb.
+     * @param uri The request path, optionally with a query string.
+     * @return The finished response.
+     */
+    public LocalResponse send(String method, String uri) {
+        return pipeline.handle(new LocalRequest(method, uri));
+    }
+
+    /**
+     * Sends a GET request through the routes.
+     *
+     * @param uri The request path, optionally with a query string.
+     * @return The finished response.
+     */
+    public LocalResponse get(String uri) {
+        return send("GET", uri);
+    }
+
+    /** @return The router, already routed. */
+    public Autorouter getRouter() {
+        return router;
+    }
+
+}
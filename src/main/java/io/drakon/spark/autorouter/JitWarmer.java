@@ -0,0 +1,226 @@
+package io.drakon.spark.autorouter;
+
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.dispatch.LocalPipeline;
+import io.drakon.spark.autorouter.dispatch.LocalRequest;
+import io.drakon.spark.autorouter.dispatch.LocalResponse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Warms up the JIT after {@link Autorouter#route()} by replaying sample requests through the routes, filters and
+ * transformers in memory (see {@link LocalPipeline}), so the first real traffic isn't served by the interpreter.
+ * Samples come from {@link Routes.WarmUp} annotations and replay files.
+ *
+ * Warm-up runs on a background thread. Each sample is sent at least {@value #MIN_ROUNDS} times, past the point where
+ * HotSpot compiles hot methods with C2, and then until the JIT has gone quiet or the time budget runs out. Until then
+ * {@link #isReady()} is false, and the readiness route (if any) answers 503.
+ */
+@ParametersAreNonnullByDefault
+public class JitWarmer {
+
+    /** Request attribute set on warm-up requests, so monitoring can leave them out. */
+    public static final String WARMUP_ATTRIBUTE = "autorouter.warmup";
+
+    private static final Logger log = LoggerFactory.getLogger(JitWarmer.class);
+    static final int MIN_ROUNDS = 10_000;
+    private static final long QUIET_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(250);
+
+    private final long budgetMillis;
+    private final List<Path> replayFiles;
+    private final List<Sample> samples = new ArrayList<>();
+    private final CountDownLatch done = new CountDownLatch(1);
+    private final AtomicLong sent = new AtomicLong();
+
+    /**
+     * @param budgetMillis The most time to spend warming up.
+     * @param replayFiles Files of recorded sample requests (see {@link #readReplayFile(Path)}).
+     */
+    JitWarmer(long budgetMillis, List<Path> replayFiles) {
+        this.budgetMillis = budgetMillis;
+        this.replayFiles = replayFiles;
+    }
+
+    /** A sample request to replay. */
+    public static final class Sample {
+        public final String verb;
+        public final String uri;
+        public final Map<String, String> headers;
+        @Nullable public final String contentType;
+        public final byte[] body;
+
+        public Sample(String verb, String uri, Map<String, String> headers, @Nullable String contentType, byte[] body) {
+            this.verb = verb;
+            this.uri = uri;
+            this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+            this.contentType = contentType;
+            this.body = body.clone();
+        }
+
+        LocalRequest toRequest() {
+            LocalRequest req = new LocalRequest(verb, uri);
+            req.attribute(WARMUP_ATTRIBUTE, Boolean.TRUE);
+            headers.forEach(req::header);
+            if (body.length > 0) req.body(contentType, body);
+            return req;
+        }
+
+        @Override
+        public String toString() {
+            return verb + " " + uri;
+        }
+    }
+
+    /**
+     * Reads sample requests from a replay file. Each non-blank line not starting with # is one request:
+     * <pre>
+     * VERB URI [CONTENT-TYPE BODY]
+     * </pre>
+     * e.g. <code>GET /users/42?full=true</code> or <code>POST /users application/json {"name":"Ada"}</code>.
+     *
+     * @param file The file.
+     * @return The samples.
+     * @throws IOException If the file can't be read or a line is malformed.
+     */
+    public static List<Sample> readReplayFile(Path file) throws IOException {
+        List<Sample> out = new ArrayList<>();
+        int lineNo = 0;
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            lineNo++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            String[] parts = line.split(" ", 4);
+            if (parts.length == 3 || !parts[1].startsWith("/"))
+                throw new IOException(file + ":" + lineNo + ": expected 'VERB URI [CONTENT-TYPE BODY]'");
+            byte[] body = parts.length == 4 ? parts[3].getBytes(StandardCharsets.UTF_8) : new byte[0];
+            out.add(new Sample(parts[0], parts[1], Collections.emptyMap(), parts.length == 4 ? parts[2] : null, body));
+        }
+        return out;
+    }
+
+    /** Adds a sample. Only valid before {@link #start}. */
+    void addSample(Sample sample) {
+        samples.add(sample);
+    }
+
+    /**
+     * Loads the replay files and starts warming up on a background thread.
+     *
+     * @param pipeline The pipeline to send samples through.
+     * @param onFinish Run on the warm-up thread once warm-up has finished, before reporting ready.
+     */
+    void start(LocalPipeline pipeline, Runnable onFinish) {
+        for (Path file : replayFiles) {
+            try {
+                samples.addAll(readReplayFile(file));
+            } catch (IOException ex) {
+                log.error("Couldn't read warm-up replay file {} - skipping.", file, ex);
+            }
+        }
+        if (samples.isEmpty()) {
+            log.info("No warm-up samples declared; ready immediately.");
+            done.countDown();
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                run(pipeline);
+                onFinish.run();
+            } catch (RuntimeException ex) {
+                log.error("JIT warm-up failed - reporting ready anyway.", ex);
+            } finally {
+                done.countDown();
+            }
+        }, "autorouter-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void run(LocalPipeline pipeline) {
+        CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+        boolean canWatchJit = jit != null && jit.isCompilationTimeMonitoringSupported();
+        long start = System.nanoTime();
+        long deadline = start + TimeUnit.MILLISECONDS.toNanos(budgetMillis);
+        long lastCheck = start;
+        long lastJitTime = canWatchJit ? jit.getTotalCompilationTime() : 0;
+        boolean quiet = !canWatchJit;
+        int rounds = 0;
+
+        // First pass separately, to point out samples which don't reach a working route
+        for (Sample sample : samples) {
+            LocalResponse res = pipeline.handle(sample.toRequest());
+            if (res.status() == 404 || res.status() >= 500)
+                log.warn("Warm-up sample {} answered {} - check it matches a route.", sample, res.status());
+        }
+        sent.addAndGet(samples.size());
+
+        while (true) {
+            for (Sample sample : samples) pipeline.handle(sample.toRequest());
+            sent.addAndGet(samples.size());
+            rounds++;
+
+            long now = System.nanoTime();
+            if (now - deadline >= 0) {
+                log.info("JIT warm-up hit its {}ms budget after {} rounds of {} samples.", budgetMillis, rounds,
+                        samples.size());
+                return;
+            }
+            if (canWatchJit && now - lastCheck >= QUIET_CHECK_NANOS) {
+                long jitTime = jit.getTotalCompilationTime();
+                quiet = jitTime == lastJitTime;
+                lastJitTime = jitTime;
+                lastCheck = now;
+            }
+            if (rounds >= MIN_ROUNDS && quiet) {
+                log.info("JIT warm-up finished after {} rounds of {} samples in {}ms.", rounds, samples.size(),
+                        TimeUnit.NANOSECONDS.toMillis(now - start));
+                return;
+            }
+        }
+    }
+
+    /** @return True once warm-up has finished (or there was nothing to warm up). */
+    public boolean isReady() {
+        return done.getCount() == 0;
+    }
+
+    /**
+     * Waits for warm-up to finish.
+     *
+     * @param timeout The most time to wait.
+     * @param unit The timeout's unit.
+     * @return True if warm-up finished, false if the wait timed out.
+     * @throws InterruptedException If interrupted while waiting.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        return done.await(timeout, unit);
+    }
+
+    /** @return The number of sample requests declared or loaded. */
+    public int getSampleCount() {
+        return samples.size();
+    }
+
+    /** @return The number of warm-up requests sent so far. */
+    public long getRequestsSent() {
+        return sent.get();
+    }
+
+}
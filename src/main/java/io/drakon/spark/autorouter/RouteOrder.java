@@ -0,0 +1,86 @@
+package io.drakon.spark.autorouter;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Orders routes for registration. Spark checks every route on each request and the first one registered that matches
+ * wins, so the order decides which route serves a path several could match (it doesn't change how many are checked).
+ *
+ * The order is deterministic: {@link Routes.Priority} (highest first), then specificity, segment by segment (literals
+ * before params, params before wildcards), then path and verb.
+ */
+@ParametersAreNonnullByDefault
+final class RouteOrder {
+
+    private RouteOrder() {}
+
+    /** A registration step for one verb and path (which may cover several accept types). */
+    static final class Entry {
+        final String verb;
+        final String path;
+        final int priority;
+        final Runnable step;
+        private final String[] segments;
+
+        Entry(String verb, String path, int priority, Runnable step) {
+            this.verb = verb;
+            this.path = path;
+            this.priority = priority;
+            this.step = step;
+            this.segments = split(path);
+        }
+
+        @Override
+        public String toString() {
+            return verb + " " + path;
+        }
+    }
+
+    private static final Comparator<Entry> BASE = Comparator.<Entry>comparingInt(e -> -e.priority)
+            .thenComparing((a, b) -> compareSpecificity(a.segments, b.segments))
+            .thenComparing(e -> e.path)
+            .thenComparingInt(e -> verbOrder(e.verb));
+
+    /**
+     * Orders route registration steps.
+     *
+     * @param entries The steps, in any order.
+     * @return The steps, in registration order.
+     */
+    static List<Entry> order(List<Entry> entries) {
+        List<Entry> out = new ArrayList<>(entries);
+        out.sort(BASE);
+        return out;
+    }
+
+    /** Compares paths segment by segment, more specific first: literals, then params, then wildcards. */
+    private static int compareSpecificity(String[] a, String[] b) {
+        for (int i = 0; i < Math.min(a.length, b.length); i++) {
+            int cmp = Integer.compare(rank(a[i]), rank(b[i]));
+            if (cmp != 0) return cmp;
+        }
+        return Integer.compare(b.length, a.length);
+    }
+
+    private static int rank(String segment) {
+        if (segment.equals("*")) return 2;
+        return segment.startsWith(":") ? 1 : 0;
+    }
+
+    private static int verbOrder(String verb) {
+        for (int i = 0; i < Autorouter.ALL_ROUTE_ANNOTATIONS.size(); i++)
+            if (Autorouter.ALL_ROUTE_ANNOTATIONS.get(i).getSimpleName().equals(verb)) return i;
+        return Integer.MAX_VALUE;
+    }
+
+    private static String[] split(String path) {
+        List<String> out = new ArrayList<>();
+        for (String part : path.split("/")) if (!part.isEmpty()) out.add(part);
+        return out.toArray(new String[0]);
+    }
+
+}
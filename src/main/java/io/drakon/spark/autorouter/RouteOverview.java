@@ -1,17 +1,15 @@
 package io.drakon.spark.autorouter;
 
-import io.drakon.spark.autorouter.Utils.Pair;
+import io.drakon.spark.autorouter.monitor.FlightRecorder;
+import io.drakon.spark.autorouter.monitor.SlowRequest;
 import spark.ModelAndView;
 import spark.Request;
 import spark.Response;
-import spark.ResponseTransformer;
 import spark.template.mustache.MustacheTemplateEngine;
 
-import java.lang.annotation.Annotation;
-import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.TimeUnit;
 
-import static io.drakon.spark.autorouter.Routes.NULL_STR;
 import static spark.Spark.halt;
 
 /**
@@ -26,42 +24,58 @@ class RouteOverview {
     }
 
     Object route(Request req, Response res) {
-        Autorouter.SearchResult result = router.lastSearch;
-        if (result == null) throw halt(400, "Router not routed yet.");
+        RouteRegistry registry = router.getRegistry();
+        if (registry == null) throw halt(400, "Router not routed yet.");
 
         List<Row> routes = new ArrayList<>();
-        result.routes.forEach((ann, info) -> {
-            String verb = ann.getSimpleName();
-            info.forEach(pair -> {
-                String classMethod = pair.first.getDeclaringClass().getCanonicalName() + "#" + pair.first.getName();
-                String path = pair.second.path;
-                String accept = pair.second.acceptType;
-                if (accept == null) accept = "*/*";
-                ResponseTransformer transformer = pair.second.transformer;
-                String transformerStr = "None";
-                if (transformer != null) transformerStr = transformer.getClass().getCanonicalName();
-                routes.add(new Row(classMethod, verb, path, accept, transformerStr));
-            });
-        });
-
-        List<Row> beforeFilters = filtersToList(result.beforeFilters);
-        List<Row> afterFilters = filtersToList(result.afterFilters);
+        for (int i = 0; i < registry.size(); i++) {
+            String accept = registry.getAcceptType(i);
+            String transformer = registry.getTransformer(i);
+            if (registry.isEventStream(i)) {
+                routes.add(new Row(registry.getHandler(i), "SSE", registry.getTemplate(i), "text/event-stream",
+                        "None"));
+                continue;
+            }
+            routes.add(new Row(registry.getHandler(i), registry.getVerb(i), registry.getTemplate(i),
+                    accept == null ? "*/*" : accept, transformer == null ? "None" : transformer));
+        }
 
+        List<Row> beforeFilters = new ArrayList<>();
+        List<Row> afterFilters = new ArrayList<>();
         List<Row> afterAfterFilters = new ArrayList<>();
-        result.afterAfterFilters.forEach(pair -> {
-            String classMethod = pair.first.getDeclaringClass().getCanonicalName() + "#" + pair.first.getName();
-            String path = "*";
-            String annPath = pair.second.path();
-            if (!annPath.equals(NULL_STR)) path = annPath;
-            afterAfterFilters.add(new Row(classMethod, null, path, null, null));
-        });
+        for (int i = 0; i < registry.getFilterCount(); i++) {
+            String path = registry.getFilterPath(i);
+            String accept = registry.getFilterAcceptType(i);
+            Row row = new Row(registry.getFilterHandler(i), null, path == null ? "*" : path,
+                    accept == null ? "*/*" : accept, null);
+            switch (registry.getFilterKind(i)) {
+                case BEFORE:
+                    beforeFilters.add(row);
+                    break;
+                case AFTER:
+                    afterFilters.add(row);
+                    break;
+                default:
+                    afterAfterFilters.add(row);
+            }
+        }
 
         List<Row> exceptionHandlers = new ArrayList<>();
-        result.exceptionHandlers.forEach(pair -> {
-            String classMethod = pair.first.getDeclaringClass().getCanonicalName() + "#" + pair.first.getName();
-            String exceptionType = pair.second.exceptionType().getCanonicalName();
-            exceptionHandlers.add(new Row(classMethod, exceptionType, null, null, null));
-        });
+        for (int i = 0; i < registry.getExceptionHandlerCount(); i++)
+            exceptionHandlers.add(new Row(registry.getExceptionHandler(i), registry.getExceptionType(i), null, null,
+                    null));
+
+        List<BulkheadRow> bulkheads = new ArrayList<>();
+        router.getBulkheads().values().forEach(b -> bulkheads.add(new BulkheadRow(b.getName(), b.getMaxConcurrent(),
+                b.getMaxQueue(), b.getActive(), b.getQueued(), b.getRejected())));
+
+        List<LimiterRow> limiters = new ArrayList<>();
+        router.getLimiters().values().forEach(l -> limiters.add(new LimiterRow(l.getName(), l.getLimit(),
+                l.getInFlight(), l.getRejected())));
+
+        List<SlowRow> slowRequests = new ArrayList<>();
+        FlightRecorder recorder = router.getFlightRecorder();
+        if (recorder != null) recorder.getSlowRequests().forEach(slow -> slowRequests.add(new SlowRow(slow)));
 
         Map<String, Object> model = new HashMap<>();
         model.put("beforeFilters", beforeFilters);
@@ -72,26 +86,17 @@ class RouteOverview {
         model.put("afterAfterFilters?", afterAfterFilters.size() != 0);
         model.put("exceptionHandlers", exceptionHandlers);
         model.put("exceptionHandlers?", exceptionHandlers.size() != 0);
+        model.put("bulkheads", bulkheads);
+        model.put("bulkheads?", bulkheads.size() != 0);
+        model.put("limiters", limiters);
+        model.put("limiters?", limiters.size() != 0);
+        model.put("slowRequests", slowRequests);
+        model.put("slowRequests?", slowRequests.size() != 0);
         model.put("routes", routes);
         return new MustacheTemplateEngine("autorouter/templates")
                 .render(new ModelAndView(model, "routeOverview.mustache"));
     }
 
-    private static <T extends Annotation> List<Row> filtersToList(Set<Pair<Method, T>> src) {
-        List<Row> filters = new ArrayList<>();
-        src.forEach(pair -> {
-            String classMethod = pair.first.getDeclaringClass().getCanonicalName() + "#" + pair.first.getName();
-            String path = "*";
-            String annPath = Utils.getRoutePathFromAnnotation(pair.second);
-            if (!annPath.equals(NULL_STR)) path = annPath;
-            String accept = "*/*";
-            String annAccept = Utils.getRouteAcceptTypeFromAnnotation(pair.second);
-            if (!annAccept.equals(NULL_STR)) accept = annAccept;
-            filters.add(new Row(classMethod, null, path, accept, null));
-        });
-        return filters;
-    }
-
     private static class Row {
         public final String classMethod;
         public final String verb;
@@ -108,4 +113,66 @@ class RouteOverview {
         }
     }
 
+    private static class SlowRow {
+        public final String route;
+        public final String path;
+        public final String total;
+        public final String before;
+        public final String handler;
+        public final String transform;
+        public final String after;
+        public final String thread;
+        public final String exception;
+        public final String headers;
+
+        public SlowRow(SlowRequest slow) {
+            this.route = slow.route;
+            this.path = slow.path;
+            this.total = millis(slow.totalNanos);
+            this.before = millis(slow.beforeNanos);
+            this.handler = millis(slow.handlerNanos);
+            this.transform = millis(slow.transformNanos);
+            this.after = millis(slow.afterNanos);
+            this.thread = slow.thread;
+            this.exception = slow.exception == null ? "" : slow.exception;
+            this.headers = slow.headers.toString();
+        }
+
+        private static String millis(long nanos) {
+            return String.format("%.2f", nanos / (double) TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+
+    private static class BulkheadRow {
+        public final String name;
+        public final int maxConcurrent;
+        public final int maxQueue;
+        public final int active;
+        public final int queued;
+        public final long rejected;
+
+        public BulkheadRow(String name, int maxConcurrent, int maxQueue, int active, int queued, long rejected) {
+            this.name = name;
+            this.maxConcurrent = maxConcurrent;
+            this.maxQueue = maxQueue;
+            this.active = active;
+            this.queued = queued;
+            this.rejected = rejected;
+        }
+    }
+
+    private static class LimiterRow {
+        public final String name;
+        public final int limit;
+        public final int inFlight;
+        public final long rejected;
+
+        public LimiterRow(String name, int limit, int inFlight, long rejected) {
+            this.name = name;
+            this.limit = limit;
+            this.inFlight = inFlight;
+            this.rejected = rejected;
+        }
+    }
+
 }
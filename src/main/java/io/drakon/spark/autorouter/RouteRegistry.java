@@ -0,0 +1,312 @@
+package io.drakon.spark.autorouter;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.Utils.Pair;
+import io.drakon.spark.autorouter.monitor.SpanKind;
+
+import static io.drakon.spark.autorouter.Routes.NULL_STR;
+
+/**
+ * Everything {@link Autorouter#route()} set up: routes, filters and exception handlers, with their metadata. Built once
+ * per route() call and never changed afterwards, so it can be shared between threads freely.
+ *
+ * Entries are addressed by index, each field held in its own array; handlers are kept as "Class#method" names rather
+ * than reflective objects. Routes are ordered by template then verb, so the variants of a route with several accept
+ * types are adjacent, and {@link #find} returns the first of them.
+ */
+@ParametersAreNonnullByDefault
+public final class RouteRegistry {
+
+    private static final byte COALESCED = 1;
+    private static final byte EVENT_STREAM = 2;
+
+    // Routes
+    private final String[] verbs;
+    private final String[] templates;
+    private final String[] acceptTypes;
+    private final String[] handlers;
+    private final String[] transformers;
+    private final String[] contentTypes;
+    private final String[] bulkheads;
+    private final String[] limiters;
+    private final long[] timeoutMillis;
+    private final byte[] flags;
+    private final int[] slots; // Open-addressed verb+template index: entry index + 1, or 0 for empty
+
+    // Filters
+    private final SpanKind[] filterKinds;
+    private final String[] filterPaths;
+    private final String[] filterAcceptTypes;
+    private final String[] filterHandlers;
+
+    // Exception handlers
+    private final String[] exceptionTypes;
+    private final String[] exceptionHandlers;
+
+    /** A route as collected from the search, before being packed into arrays. */
+    private static final class RouteEntry {
+        final String verb;
+        final Method method;
+        final Autorouter.RouteInfo info;
+        final boolean eventStream;
+
+        RouteEntry(String verb, Method method, Autorouter.RouteInfo info, boolean eventStream) {
+            this.verb = verb;
+            this.method = method;
+            this.info = info;
+            this.eventStream = eventStream;
+        }
+    }
+
+    private RouteRegistry(List<RouteEntry> routes, List<SpanKind> filterKinds, List<Pair<Method, Annotation>> filters,
+                          List<Pair<Method, Routes.ExceptionHandler>> exceptions) {
+        int n = routes.size();
+        verbs = new String[n];
+        templates = new String[n];
+        acceptTypes = new String[n];
+        handlers = new String[n];
+        transformers = new String[n];
+        contentTypes = new String[n];
+        bulkheads = new String[n];
+        limiters = new String[n];
+        timeoutMillis = new long[n];
+        flags = new byte[n];
+        slots = new int[Integer.highestOneBit(Math.max(1, n) * 2) << 1];
+        for (int i = 0; i < n; i++) {
+            RouteEntry route = routes.get(i);
+            Autorouter.RouteInfo info = route.info;
+            verbs[i] = route.verb.intern();
+            templates[i] = info.path.intern();
+            acceptTypes[i] = info.acceptType == null ? null : info.acceptType.intern();
+            handlers[i] = handlerName(route.method);
+            transformers[i] = info.transformer == null ? null : info.transformer.getClass().getName();
+            contentTypes[i] = info.headers == null || info.headers.getContentType() == null ? null
+                    : info.headers.getContentType().intern();
+            bulkheads[i] = info.bulkhead == null ? null : info.bulkhead.getName();
+            limiters[i] = info.limiter == null ? null : info.limiter.getName();
+            timeoutMillis[i] = info.timeoutMillis;
+            flags[i] = (byte) ((info.coalesce != null ? COALESCED : 0) | (route.eventStream ? EVENT_STREAM : 0));
+            int s = slot(verbs[i], templates[i]);
+            if (s < 0) slots[~s] = i + 1; // Otherwise an earlier accept type variant already has the key
+        }
+
+        int f = filters.size();
+        this.filterKinds = filterKinds.toArray(new SpanKind[0]);
+        filterPaths = new String[f];
+        filterAcceptTypes = new String[f];
+        filterHandlers = new String[f];
+        for (int i = 0; i < f; i++) {
+            Pair<Method, Annotation> filter = filters.get(i);
+            String path = Utils.getRoutePathFromAnnotation(filter.second);
+            filterPaths[i] = path.equals(NULL_STR) ? null : path.intern();
+            // AfterAfter filters have no accept type
+            String accept = filter.second instanceof Routes.AfterAfter ? NULL_STR
+                    : Utils.getRouteAcceptTypeFromAnnotation(filter.second);
+            filterAcceptTypes[i] = accept.equals(NULL_STR) ? null : accept.intern();
+            filterHandlers[i] = handlerName(filter.first);
+        }
+
+        exceptionTypes = new String[exceptions.size()];
+        exceptionHandlers = new String[exceptions.size()];
+        for (int i = 0; i < exceptionTypes.length; i++) {
+            exceptionTypes[i] = exceptions.get(i).second.exceptionType().getName();
+            exceptionHandlers[i] = handlerName(exceptions.get(i).first);
+        }
+    }
+
+    /**
+     * Builds the registry for a search.
+     *
+     * @param result The search result.
+     * @return The registry.
+     */
+    static RouteRegistry from(Autorouter.SearchResult result) {
+        List<RouteEntry> routes = new ArrayList<>();
+        for (Class<? extends Annotation> verb : Autorouter.ALL_ROUTE_ANNOTATIONS) {
+            for (Pair<Method, Autorouter.RouteInfo> pair : result.routes.getOrDefault(verb, Collections.emptySet()))
+                routes.add(new RouteEntry(verb.getSimpleName(), pair.first, pair.second, false));
+        }
+        for (Pair<Method, Autorouter.RouteInfo> pair : result.eventStreams)
+            routes.add(new RouteEntry("GET", pair.first, pair.second, true));
+        // Stable across runs, whatever order the search found things in
+        routes.sort(Comparator.<RouteEntry, String>comparing(r -> r.info.path)
+                .thenComparingInt(r -> verbOrder(r.verb))
+                .thenComparing(r -> r.info.acceptType == null ? "" : r.info.acceptType)
+                .thenComparing(r -> handlerName(r.method)));
+
+        List<SpanKind> filterKinds = new ArrayList<>();
+        List<Pair<Method, Annotation>> filters = new ArrayList<>();
+        addFilters(SpanKind.BEFORE, result.beforeFilters, filterKinds, filters);
+        addFilters(SpanKind.AFTER, result.afterFilters, filterKinds, filters);
+        addFilters(SpanKind.AFTER_AFTER, result.afterAfterFilters, filterKinds, filters);
+
+        List<Pair<Method, Routes.ExceptionHandler>> exceptions = new ArrayList<>(result.exceptionHandlers);
+        exceptions.sort(Comparator.comparing(pair -> handlerName(pair.first)));
+        return new RouteRegistry(routes, filterKinds, filters, exceptions);
+    }
+
+    private static <T extends Annotation> void addFilters(SpanKind kind, Iterable<Pair<Method, T>> src,
+                                                          List<SpanKind> kinds, List<Pair<Method, Annotation>> out) {
+        List<Pair<Method, Annotation>> sorted = new ArrayList<>();
+        src.forEach(pair -> sorted.add(new Pair<>(pair.first, pair.second)));
+        sorted.sort(Comparator.comparing(pair -> handlerName(pair.first)));
+        for (Pair<Method, Annotation> pair : sorted) {
+            kinds.add(kind);
+            out.add(pair);
+        }
+    }
+
+    private static int verbOrder(String verb) {
+        for (int i = 0; i < Autorouter.ALL_ROUTE_ANNOTATIONS.size(); i++)
+            if (Autorouter.ALL_ROUTE_ANNOTATIONS.get(i).getSimpleName().equals(verb)) return i;
+        return Integer.MAX_VALUE;
+    }
+
+    private static String handlerName(Method m) {
+        return m.getDeclaringClass().getName() + "#" + m.getName();
+    }
+
+    /**
+     * Probes the verb+template index.
+     *
+     * @return The slot holding the key, or the bitwise complement of the empty slot it would go in.
+     */
+    private int slot(String verb, String template) {
+        int mask = slots.length - 1;
+        int h = verb.hashCode() * 31 + template.hashCode();
+        for (int s = (h ^ (h >>> 16)) & mask; ; s = (s + 1) & mask) {
+            int entry = slots[s] - 1;
+            if (entry < 0) return ~s;
+            if (verbs[entry].equals(verb) && templates[entry].equals(template)) return s;
+        }
+    }
+
+    /**
+     * Finds a route by verb and template.
+     *
+     * @param verb The verb, e.g. GET. Event streams are GET routes.
+     * @param template The full route template, including any Path Group prefix, e.g. /users/:id.
+     * @return The index of the route (the first, if it has several accept types), or -1 if there's none.
+     */
+    public int find(String verb, String template) {
+        int s = slot(verb, template);
+        return s < 0 ? -1 : slots[s] - 1;
+    }
+
+    /** @return The number of routes. */
+    public int size() {
+        return verbs.length;
+    }
+
+    /** @return The route's verb. */
+    public String getVerb(int route) {
+        return verbs[route];
+    }
+
+    /** @return The route's template, including any Path Group prefix. */
+    public String getTemplate(int route) {
+        return templates[route];
+    }
+
+    /** @return The route's accept type, or null if it serves any. */
+    @Nullable
+    public String getAcceptType(int route) {
+        return acceptTypes[route];
+    }
+
+    /** @return The route's handler method, as Class#method. */
+    public String getHandler(int route) {
+        return handlers[route];
+    }
+
+    /** @return The route's transformer class name, or null if it has none. */
+    @Nullable
+    public String getTransformer(int route) {
+        return transformers[route];
+    }
+
+    /** @return The route's content type from {@link Routes.ContentType}, or null if it has none. */
+    @Nullable
+    public String getContentType(int route) {
+        return contentTypes[route];
+    }
+
+    /** @return The name of the route's bulkhead partition, or null if it isn't in one. */
+    @Nullable
+    public String getBulkhead(int route) {
+        return bulkheads[route];
+    }
+
+    /** @return The name of the route's Path Group adaptive limit, or null if it isn't under one. */
+    @Nullable
+    public String getLimiter(int route) {
+        return limiters[route];
+    }
+
+    /** @return The route's deadline in milliseconds, or 0 for none. */
+    public long getTimeoutMillis(int route) {
+        return timeoutMillis[route];
+    }
+
+    /** @return True if the route is a {@link Routes.Coalesce} route. */
+    public boolean isCoalesced(int route) {
+        return (flags[route] & COALESCED) != 0;
+    }
+
+    /** @return True if the route is a {@link Routes.SSE} event stream. */
+    public boolean isEventStream(int route) {
+        return (flags[route] & EVENT_STREAM) != 0;
+    }
+
+    /** @return The number of filters. Before filters come first, then after, then after-after. */
+    public int getFilterCount() {
+        return filterKinds.length;
+    }
+
+    /** @return The filter's kind: BEFORE, AFTER or AFTER_AFTER. */
+    public SpanKind getFilterKind(int filter) {
+        return filterKinds[filter];
+    }
+
+    /** @return The filter's path, or null if it applies to every path. */
+    @Nullable
+    public String getFilterPath(int filter) {
+        return filterPaths[filter];
+    }
+
+    /** @return The filter's accept type, or null if it applies to any. */
+    @Nullable
+    public String getFilterAcceptType(int filter) {
+        return filterAcceptTypes[filter];
+    }
+
+    /** @return The filter's method, as Class#method. */
+    public String getFilterHandler(int filter) {
+        return filterHandlers[filter];
+    }
+
+    /** @return The number of exception handlers. */
+    public int getExceptionHandlerCount() {
+        return exceptionTypes.length;
+    }
+
+    /** @return The exception type the handler is registered for. */
+    public String getExceptionType(int handler) {
+        return exceptionTypes[handler];
+    }
+
+    /** @return The exception handler's method, as Class#method. */
+    public String getExceptionHandler(int handler) {
+        return exceptionHandlers[handler];
+    }
+
+}
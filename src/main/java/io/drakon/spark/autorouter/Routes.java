@@ -26,6 +26,180 @@ public class Routes {
         String prefix();
     }
 
+    /**
+     * Serves a directory of static files under a Path Group, e.g.
+     * <code>&#64;StaticResources(prefix = "/assets", root = "web/assets")</code>. The directory is indexed and mapped
+     * into memory by {@link io.drakon.spark.autorouter.Autorouter#route()}, and files with a .br or .gz sibling are
+     * sent precompressed to clients which accept it. See {@link io.drakon.spark.autorouter.dispatch.StaticResources}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface StaticResources {
+        /** The path under the group prefix to serve files at. */
+        String prefix();
+        /** The directory to serve, relative to the working directory. */
+        String root();
+        /** Optional: Watch the directory and refresh changed files. Files should be replaced atomically. */
+        boolean watch() default false;
+    }
+
+    /*
+     * ========== Route Modifiers ==========
+     */
+
+    /**
+     * Isolates all routes in a Path Group (including nested groups without their own bulkhead) into a concurrency
+     * partition. Requests beyond maxConcurrent wait in a bounded queue; once that is full, they fail fast with a 503.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface Bulkhead {
+        /** The maximum number of requests executing in this partition at once. */
+        int maxConcurrent();
+        /** Optional: The maximum number of requests waiting for a slot. Zero rejects as soon as all slots are busy. */
+        int maxQueue() default 0;
+        /** Optional: How long a queued request waits for a slot before being rejected. */
+        long maxWaitMillis() default 1000;
+    }
+
+    /**
+     * Puts a Path Group (and its nested classes) under an adaptive concurrency limit, which shrinks as latency rises
+     * over its baseline and grows back as it recovers. Requests over the limit are rejected with a 503. See
+     * {@link io.drakon.spark.autorouter.dispatch.AdaptiveLimiter}.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.TYPE)
+    public @interface AdaptiveLimit {
+        /** Optional: The limit to start at. */
+        int initialLimit() default 20;
+        /** Optional: The lowest the limit can go. */
+        int minLimit() default 1;
+        /** Optional: The highest the limit can go. */
+        int maxLimit() default 1000;
+        /** Optional: How far latency can rise over the baseline (e.g. 1.5 for 50%) before the limit shrinks. */
+        double tolerance() default 1.5;
+    }
+
+    /**
+     * Sets the order a route or filter is registered (and so matched) in, or a default for all routes and filters in a
+     * class (and its nested classes). Higher priorities come first; the default is 0. Among routes of equal priority,
+     * more specific paths come first: literal segments before params, params before wildcards.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface Priority {
+        /** The priority. */
+        int value();
+    }
+
+    /**
+     * Sets a deadline for a route, or a default for all routes in a class (and its nested classes). Requests still
+     * running when the deadline passes are interrupted, and answered with a 504 once the handler unwinds - not at the
+     * deadline itself, so handlers stuck in non-interruptible calls still hold the request until they return. Handlers
+     * can read the remaining budget from the {@link io.drakon.spark.autorouter.dispatch.Deadline} request attribute.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface Timeout {
+        /** The deadline in milliseconds, measured from dispatch. */
+        long millis();
+    }
+
+    /**
+     * Marks a GET route as coalescing: concurrent requests with the same coalescing key share a single in-flight
+     * handler execution, and every waiter receives a copy of the serialized result. The key is the request path plus
+     * any query params and headers listed here. Only use this on idempotent routes!
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface Coalesce {
+        /** Optional: Query params which form part of the coalescing key. */
+        String[] queryParams() default {};
+        /** Optional: Headers which form part of the coalescing key. */
+        String[] headers() default {};
+    }
+
+    /**
+     * Marks a route's third parameter as its decoded request body, e.g.
+     * <code>public static Object create(Request req, Response res, &#64;Body User user)</code>. The body is
+     * stream-decoded straight from the request by the {@link io.drakon.spark.autorouter.codec.BodyDecoders} decoder
+     * registered for its Content-Type. String, byte[] and InputStream parameters receive the raw body whatever its
+     * type. Decoded and InputStream bodies are read straight off the request, so req.body() is empty afterwards.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.PARAMETER)
+    public @interface Body {
+        /** Optional: The largest body accepted, in bytes. Larger requests get a 413. */
+        long maxBytes() default 1024 * 1024;
+    }
+
+    /**
+     * Adds constant headers to a route, or to all routes in a class (and its nested classes), e.g.
+     * <code>&#64;Headers({"Cache-Control: no-store", "X-Frame-Options: DENY"})</code>. Headers from enclosing classes,
+     * the class and the method are merged, with the innermost value winning when a header is set more than once.
+     * They're set once the handler returns or throws, except those it set itself, so handlers can override them with
+     * res.header(). Handlers which commit the response themselves (e.g. by streaming it) only send the headers they
+     * set.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface Headers {
+        /** The headers, each as "Name: value". */
+        String[] value();
+    }
+
+    /**
+     * Sets the content type of a route's responses, or a default for all routes in a class (and its nested classes).
+     * Unlike {@link Headers}, it's set before the handler runs, so handlers override it by calling res.type() (or
+     * res.header("Content-Type", ...)) themselves.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface ContentType {
+        /** The content type, e.g. "text/html; charset=utf-8". */
+        String value();
+    }
+
+    /**
+     * Allows cross-origin requests to a route, or to all routes in a class (and its nested classes); the nearest wins.
+     * Preflight requests are answered straight from a table built by {@link Autorouter#route()}, before any other
+     * filter or route runs, and actual requests get their Access-Control-Allow-Origin header set.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target({ElementType.METHOD, ElementType.TYPE})
+    public @interface Cors {
+        /** Optional: Allowed origins, e.g. "https://example.com", or "*" for any. */
+        String[] origins() default {"*"};
+        /** Optional: Allowed methods. Defaults to the verbs routed on each path. */
+        String[] methods() default {};
+        /** Optional: Allowed request headers, or "*" for any. */
+        String[] headers() default {};
+        /** Optional: How long browsers may cache a preflight result, in seconds. */
+        long maxAge() default 600;
+        /** Optional: Whether requests may carry credentials. Any origin is then echoed rather than sent as "*". */
+        boolean credentials() default false;
+    }
+
+    /**
+     * Declares sample requests for a route's JIT warm-up (see {@link Autorouter#enableWarmup}). Samples run against the
+     * real handler, so only declare requests which are safe to repeat thousands of times.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface WarmUp {
+        /**
+         * Optional: Request URIs to send, each a path plus optional query string (e.g. "/users/42?full=true"). Defaults
+         * to the route's own path, if it has no params or wildcards.
+         */
+        String[] value() default {};
+        /** Optional: Request headers, each as "Name: value". */
+        String[] headers() default {};
+        /** Optional: The request body. */
+        String body() default "";
+        /** Optional: The request body's content type. */
+        String contentType() default "application/json";
+    }
+
     /*
      * ========== Filters/Events ===========
      */
@@ -119,7 +293,11 @@ public class Routes {
         Class<? extends ResponseTransformer> transformer() default ResponseTransformer.class;
     }
 
-    /** Define this method as a HEAD route. */
+    /**
+     * Define this method as a HEAD route. Every GET path without one gets a HEAD route derived from the GET route,
+     * which runs its handler for the headers but skips the transformer and body; define one explicitly where the
+     * headers can be produced more cheaply.
+     */
     @Retention(RetentionPolicy.RUNTIME)
     @Target(ElementType.METHOD)
     public @interface HEAD {
@@ -179,4 +357,34 @@ public class Routes {
         Class<? extends ResponseTransformer> transformer() default ResponseTransformer.class;
     }
 
+    /**
+     * Define this method as a Server-Sent Events stream, served on GET. The handler takes an
+     * {@link io.drakon.spark.autorouter.dispatch.EventSink} as its third parameter, e.g.
+     * <code>public static Object events(Request req, Response res, EventSink sink)</code>, and typically hands it to
+     * whatever publishes events. The response stays open after the handler returns, until the sink is closed or the
+     * client goes away.
+     */
+    @Retention(RetentionPolicy.RUNTIME)
+    @Target(ElementType.METHOD)
+    public @interface SSE {
+        /** The path this route accepts in standard Spark notation. */
+        String path();
+        /** Optional: Events buffered per connection while the client is slow to read. */
+        int queue() default 256;
+        /** Optional: What to do with an event when a connection's queue is full. */
+        Overflow overflow() default Overflow.DROP_OLDEST;
+        /** Optional: Send a comment on connections idle for this long, so proxies keep them open. Zero disables. */
+        long heartbeatMillis() default 15_000;
+
+        /** What to do with an event sent to a connection whose queue is full. */
+        enum Overflow {
+            /** Drop the oldest queued event to make room. */
+            DROP_OLDEST,
+            /** Drop the new event. */
+            DROP_NEWEST,
+            /** Close the connection; the client can reconnect and catch up. */
+            DISCONNECT
+        }
+    }
+
 }
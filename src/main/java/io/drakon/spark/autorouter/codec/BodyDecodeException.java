@@ -0,0 +1,29 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link BodyDecoder}s for request bodies which can't be decoded. Autorouter answers these with a 400.
+ */
+public class BodyDecodeException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    public BodyDecodeException(String message) {
+        super(message);
+    }
+
+    public BodyDecodeException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    /** Thrown when a body exceeds its route's size limit. Autorouter answers these with a 413. */
+    public static class TooLarge extends BodyDecodeException {
+        private static final long serialVersionUID = 1L;
+
+        public TooLarge(long maxBytes) {
+            super("Request body exceeds " + maxBytes + " bytes.");
+        }
+    }
+
+}
@@ -0,0 +1,30 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Decodes a request body stream into a route's {@link io.drakon.spark.autorouter.Routes.Body} parameter. Register
+ * implementations against a media type with {@link BodyDecoders#register}.
+ */
+@FunctionalInterface
+@ParametersAreNonnullByDefault
+public interface BodyDecoder {
+
+    /**
+     * @param in The body. Already size-limited; reading past the limit throws {@link BodyDecodeException.TooLarge}.
+     * @param type The declared parameter type (possibly generic, e.g. <code>List&lt;User&gt;</code>).
+     * @param charset The charset from the Content-Type header, if it had one.
+     * @return The decoded value.
+     * @throws BodyDecodeException If the body is malformed (answered with a 400).
+     * @throws IOException If reading fails.
+     */
+    @Nullable
+    Object decode(InputStream in, Type type, @Nullable Charset charset) throws IOException;
+
+}
@@ -0,0 +1,175 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Type;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.ServletInputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletRequestWrapper;
+import javax.servlet.http.HttpServletRequest;
+
+import spark.Request;
+
+import static spark.Spark.halt;
+
+/**
+ * Registry of {@link BodyDecoder}s by media type, and the entry point generated stubs call to decode a
+ * {@link io.drakon.spark.autorouter.Routes.Body} parameter. JSON (application/json and any +json type) is built in.
+ *
+ * Bodies are read from the servlet input stream through a size-limiting wrapper rather than via {@link Request#body()},
+ * so they're never buffered whole. That consumes the stream: after a decoded or InputStream body,
+ * {@link Request#body()} is empty (e.g. in after filters). String and byte[] bodies of known length are buffered whole
+ * anyway, so they're read through Spark's cache and stay available. Failures are answered directly: 413 for oversized
+ * bodies, 415 for unknown content types and 400 for malformed ones. An InputStream body that runs past the limit while
+ * the handler reads it throws {@link BodyDecodeException.TooLarge}, which Autorouter answers with a 413.
+ */
+@ParametersAreNonnullByDefault
+public final class BodyDecoders {
+
+    private static final ConcurrentHashMap<String, BodyDecoder> decoders = new ConcurrentHashMap<>();
+
+    static {
+        register("application/json", (in, type, charset) -> {
+            JsonReader reader = new JsonReader(in);
+            Object value = reader.readValue(type);
+            reader.endDocument();
+            return value;
+        });
+    }
+
+    private BodyDecoders() {} // Statics
+
+    /**
+     * Registers (or replaces) the decoder for a media type.
+     *
+     * @param mediaType The media type, without parameters (e.g. application/x-protobuf).
+     * @param decoder The decoder.
+     */
+    public static void register(String mediaType, BodyDecoder decoder) {
+        decoders.put(mediaType.toLowerCase(Locale.ROOT), decoder);
+    }
+
+    /**
+     * Decodes a request's body. Called from generated stubs.
+     *
+     * @param req The request.
+     * @param type The declared parameter type.
+     * @param maxBytes The route's body size limit.
+     * @return The decoded body.
+     */
+    @Nullable
+    public static Object decode(Request req, Type type, long maxBytes) {
+        if (req.contentLength() > maxBytes) throw halt(413, "Payload Too Large");
+        String contentType = req.contentType();
+        Charset charset = charset(contentType);
+
+        try {
+            // Hand over the stream itself; the handler reads it during the call
+            if (type == InputStream.class) return new LimitedInputStream(bodyStream(req), maxBytes);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+
+        // Length known and within the limit, so Spark's cache of the whole body is bounded; req.body() keeps working
+        boolean raw = type == byte[].class || type == String.class;
+        if (raw && req.contentLength() >= 0) return rawBody(req.bodyAsBytes(), type, charset);
+
+        try (InputStream in = new LimitedInputStream(bodyStream(req), maxBytes)) {
+            if (raw) return rawBody(readAll(in), type, charset);
+
+            BodyDecoder decoder = contentType == null ? null : decoders.get(mediaType(contentType));
+            if (decoder == null) throw halt(415, "Unsupported Media Type");
+            return decoder.decode(in, type, charset);
+        } catch (BodyDecodeException.TooLarge ex) {
+            throw halt(413, "Payload Too Large");
+        } catch (BodyDecodeException ex) {
+            throw halt(400, ex.getMessage());
+        } catch (NumberFormatException ex) {
+            throw halt(400, "Malformed number in request body.");
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Gets the request body as a stream. Spark's embedded Jetty wraps requests so their input stream is cached in full
+     * on first read; we go underneath that wrapper unless something (e.g. a filter calling req.body()) already has.
+     */
+    private static InputStream bodyStream(Request req) throws IOException {
+        HttpServletRequest raw = req.raw();
+        if (raw == null) return new ByteArrayInputStream(req.bodyAsBytes()); // Stand-in requests
+        ServletRequest inner = raw;
+        while (inner instanceof ServletRequestWrapper) inner = ((ServletRequestWrapper) inner).getRequest();
+        if (inner == raw) return raw.getInputStream();
+        ServletInputStream direct = inner.getInputStream();
+        return direct.isFinished() && raw.getContentLength() != 0 ? raw.getInputStream() : direct;
+    }
+
+    private static Object rawBody(byte[] body, Type type, @Nullable Charset charset) {
+        if (type == byte[].class) return body;
+        return new String(body, charset != null ? charset : StandardCharsets.UTF_8);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
+    /**
+     * @param contentType A Content-Type, or null.
+     * @return True for application/json and any +json type (e.g. application/problem+json), whatever its parameters.
+     */
+    public static boolean isJson(@Nullable String contentType) {
+        if (contentType == null) return false;
+        String type = baseType(contentType);
+        return type.equals("application/json") || (type.indexOf('/') > 0 && type.endsWith("+json"));
+    }
+
+    private static String mediaType(String contentType) {
+        String type = baseType(contentType);
+        // Structured syntax suffixes (application/vnd.foo+json) use the base decoder unless registered themselves
+        int plus = type.lastIndexOf('+');
+        if (plus > 0 && !decoders.containsKey(type)) {
+            int slash = type.indexOf('/');
+            if (slash > 0) return type.substring(0, slash + 1) + type.substring(plus + 1);
+        }
+        return type;
+    }
+
+    /** @return The media type without parameters, in lower case. */
+    private static String baseType(String contentType) {
+        int semi = contentType.indexOf(';');
+        return (semi < 0 ? contentType : contentType.substring(0, semi)).trim().toLowerCase(Locale.ROOT);
+    }
+
+    @Nullable
+    private static Charset charset(@Nullable String contentType) {
+        if (contentType == null) return null;
+        for (String param : contentType.split(";")) {
+            param = param.trim();
+            if (!param.regionMatches(true, 0, "charset=", 0, 8)) continue;
+            try {
+                return Charset.forName(param.substring(8).replace("\"", "").trim());
+            } catch (IllegalCharsetNameException | UnsupportedCharsetException ex) {
+                throw halt(415, "Unsupported charset");
+            }
+        }
+        return null;
+    }
+
+}
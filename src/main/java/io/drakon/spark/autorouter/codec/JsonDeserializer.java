@@ -0,0 +1,67 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Reads one bean type from JSON. Implementations are generated by {@link JsonDeserializers}: they create the bean and
+ * set a property by index, while this class walks the object and maps names to indices.
+ */
+@ParametersAreNonnullByDefault
+public abstract class JsonDeserializer {
+
+    private final Map<String, Integer> index;
+    /** Generic property types, by index, for properties read through {@link JsonReader#readValue}. */
+    protected final Type[] types;
+
+    /**
+     * @param names Property names, by index.
+     * @param types Property types, by index.
+     */
+    protected JsonDeserializer(String[] names, Type[] types) {
+        this.index = new HashMap<>(names.length * 2);
+        for (int i = 0; i < names.length; i++) index.put(names[i], i);
+        this.types = types;
+    }
+
+    /** @return A new, empty bean. */
+    public abstract Object create();
+
+    /**
+     * Reads the next value into one of the bean's properties.
+     *
+     * @param bean The bean.
+     * @param property The property index.
+     * @param in The reader, positioned at the value.
+     */
+    public abstract void set(Object bean, int property, JsonReader in) throws IOException;
+
+    /**
+     * Reads a bean (or null). Unknown properties are skipped.
+     *
+     * @param in The reader, positioned at the object.
+     * @return The bean.
+     */
+    @Nullable
+    public final Object read(JsonReader in) throws IOException {
+        if (in.peekNull()) {
+            in.nextNull();
+            return null;
+        }
+        Object bean = create();
+        in.beginObject();
+        while (in.hasNext()) {
+            Integer property = index.get(in.nextName());
+            if (property == null) in.skipValue();
+            else set(bean, property, in);
+        }
+        in.endObject();
+        return bean;
+    }
+
+}
@@ -0,0 +1,301 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.io.IOException;
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates and caches a {@link JsonDeserializer} per bean class. The generated set() is a single tableswitch over
+ * property indices, each case reading the value with the typed {@link JsonReader} call and storing it with a direct
+ * field or setter instruction.
+ *
+ * Beans need a no-arg constructor. Properties are public non-final instance fields and public single-argument setters.
+ * Non-public classes (or constructors) fall back to a reflective deserializer.
+ */
+@ParametersAreNonnullByDefault
+public final class JsonDeserializers {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonDeserializers.class);
+    private static final String READER = Type.getInternalName(JsonReader.class);
+    private static final String BASE = Type.getInternalName(JsonDeserializer.class);
+
+    private static final ClassValue<JsonDeserializer> cache = new ClassValue<JsonDeserializer>() {
+        @Override
+        protected JsonDeserializer computeValue(Class<?> type) {
+            return create(type);
+        }
+    };
+
+    private JsonDeserializers() {} // Statics
+
+    /**
+     * Gets the deserializer for a bean class, generating it on first use.
+     *
+     * @param type The bean class.
+     * @return The deserializer.
+     * @throws IllegalArgumentException If the class can't be decoded into (abstract, or no no-arg constructor).
+     */
+    public static JsonDeserializer forClass(Class<?> type) {
+        return cache.get(type);
+    }
+
+    private static JsonDeserializer create(Class<?> type) {
+        if (type.isInterface() || Modifier.isAbstract(type.getModifiers()))
+            throw new IllegalArgumentException("Can't decode JSON into abstract type " + type.getName());
+        Constructor<?> ctor;
+        try {
+            ctor = type.getDeclaredConstructor();
+        } catch (NoSuchMethodException ex) {
+            throw new IllegalArgumentException(type.getName() + " needs a no-arg constructor to decode JSON into.");
+        }
+
+        List<Property> props = properties(type);
+        if (!Modifier.isPublic(type.getModifiers()) || !Modifier.isPublic(ctor.getModifiers())) {
+            log.debug("{} isn't public - using reflective JSON deserialization.", type.getName());
+            return new ReflectiveDeserializer(ctor, props);
+        }
+        try {
+            return generate(type, props);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            log.warn("Couldn't generate a JSON deserializer for {} - falling back to reflection.", type.getName(), ex);
+            return new ReflectiveDeserializer(ctor, props);
+        }
+    }
+
+    /**
+     * Finds the properties which can be set on a bean: fields first, then setters.
+     *
+     * @param type The bean class.
+     * @return The properties.
+     */
+    static List<Property> properties(Class<?> type) {
+        List<Property> props = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Field f : type.getFields()) {
+            int mod = f.getModifiers();
+            if (Modifier.isStatic(mod) || Modifier.isFinal(mod) || Modifier.isTransient(mod) || f.isSynthetic())
+                continue;
+            if (names.add(f.getName())) props.add(new Property(f.getName(), f.getGenericType(), f, null));
+        }
+        for (Method m : type.getMethods()) {
+            String name = m.getName();
+            if (Modifier.isStatic(m.getModifiers()) || m.getParameterCount() != 1 || m.isBridge()
+                    || !name.startsWith("set") || name.length() == 3) continue;
+            String rest = name.substring(3);
+            String prop = rest.length() > 1 && Character.isUpperCase(rest.charAt(0))
+                    && Character.isUpperCase(rest.charAt(1)) ? rest : Character.toLowerCase(rest.charAt(0))
+                    + rest.substring(1);
+            if (names.add(prop)) props.add(new Property(prop, m.getGenericParameterTypes()[0], null, m));
+        }
+        return props;
+    }
+
+    private static JsonDeserializer generate(Class<?> type, List<Property> props)
+            throws ReflectiveOperationException {
+        String name = JsonSerializers.generatedName("$GeneratedJsonDeserializer_", type);
+        String owner = Type.getInternalName(type);
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES) {
+            @Override
+            protected String getCommonSuperClass(String type1, String type2) {
+                // Our branches only ever merge identical frames; avoid loading classes from ASM's loader
+                return "java/lang/Object";
+            }
+        };
+        writer.visit(V1_8, ACC_PUBLIC + ACC_FINAL, name, null, BASE, null);
+
+        // Constructor
+        String ctorDesc = "([Ljava/lang/String;[Ljava/lang/reflect/Type;)V";
+        MethodVisitor ctor = writer.visitMethod(ACC_PUBLIC, "<init>", ctorDesc, null, null);
+        ctor.visitCode();
+        ctor.visitVarInsn(ALOAD, 0);
+        ctor.visitVarInsn(ALOAD, 1);
+        ctor.visitVarInsn(ALOAD, 2);
+        ctor.visitMethodInsn(INVOKESPECIAL, BASE, "<init>", ctorDesc, false);
+        ctor.visitInsn(RETURN);
+        ctor.visitMaxs(0, 0);
+        ctor.visitEnd();
+
+        // create()
+        MethodVisitor create = writer.visitMethod(ACC_PUBLIC, "create", "()Ljava/lang/Object;", null, null);
+        create.visitCode();
+        create.visitTypeInsn(NEW, owner);
+        create.visitInsn(DUP);
+        create.visitMethodInsn(INVOKESPECIAL, owner, "<init>", "()V", false);
+        create.visitInsn(ARETURN);
+        create.visitMaxs(0, 0);
+        create.visitEnd();
+
+        // set(Object bean, int property, JsonReader in)
+        MethodVisitor mv = writer.visitMethod(ACC_PUBLIC, "set", "(Ljava/lang/Object;IL" + READER + ";)V", null,
+                new String[]{ "java/io/IOException" });
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, owner);
+        mv.visitVarInsn(ASTORE, 4);
+        Label skip = new Label();
+        Label end = new Label();
+        if (!props.isEmpty()) {
+            Label[] cases = new Label[props.size()];
+            for (int i = 0; i < cases.length; i++) cases[i] = new Label();
+            mv.visitVarInsn(ILOAD, 2);
+            mv.visitTableSwitchInsn(0, cases.length - 1, skip, cases);
+            for (int i = 0; i < cases.length; i++) {
+                Property p = props.get(i);
+                mv.visitLabel(cases[i]);
+                mv.visitVarInsn(ALOAD, 4);
+                readInsn(mv, p.raw, i);
+                if (p.field != null) {
+                    mv.visitFieldInsn(PUTFIELD, owner, p.field.getName(), Type.getDescriptor(p.raw));
+                } else {
+                    //noinspection ConstantConditions
+                    mv.visitMethodInsn(INVOKEVIRTUAL, owner, p.setter.getName(), Type.getMethodDescriptor(p.setter),
+                            false);
+                    Class<?> ret = p.setter.getReturnType();
+                    if (ret == long.class || ret == double.class) mv.visitInsn(POP2);
+                    else if (ret != void.class) mv.visitInsn(POP); // Fluent setters
+                }
+                mv.visitJumpInsn(GOTO, end);
+            }
+        }
+        mv.visitLabel(skip);
+        mv.visitVarInsn(ALOAD, 3);
+        mv.visitMethodInsn(INVOKEVIRTUAL, READER, "skipValue", "()V", false);
+        mv.visitLabel(end);
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        writer.visitEnd();
+        Class<?> cls = JsonSerializers.define(type, name, writer.toByteArray());
+        return (JsonDeserializer) cls.getConstructor(String[].class, java.lang.reflect.Type[].class)
+                .newInstance(names(props), types(props));
+    }
+
+    /** Emits the JsonReader call which leaves a value of the given type on the stack. */
+    private static void readInsn(MethodVisitor mv, Class<?> type, int index) {
+        mv.visitVarInsn(ALOAD, 3);
+        String method, desc;
+        if (type == int.class) {
+            method = "nextInt";
+            desc = "()I";
+        } else if (type == long.class) {
+            method = "nextLong";
+            desc = "()J";
+        } else if (type == double.class || type == float.class) {
+            method = "nextDouble";
+            desc = "()D";
+        } else if (type == boolean.class) {
+            method = "nextBoolean";
+            desc = "()Z";
+        } else if (type == short.class) {
+            method = "nextShort";
+            desc = "()S";
+        } else if (type == byte.class) {
+            method = "nextByte";
+            desc = "()B";
+        } else if (type == char.class) {
+            method = "nextChar";
+            desc = "()C";
+        } else if (type == String.class) {
+            method = "nextString";
+            desc = "()Ljava/lang/String;";
+        } else {
+            // Everything else goes through readValue with the property's generic type
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, BASE, "types", "[Ljava/lang/reflect/Type;");
+            mv.visitLdcInsn(index);
+            mv.visitInsn(AALOAD);
+            mv.visitMethodInsn(INVOKEVIRTUAL, READER, "readValue", "(Ljava/lang/reflect/Type;)Ljava/lang/Object;",
+                    false);
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(type));
+            return;
+        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, READER, method, desc, false);
+        if (type == float.class) mv.visitInsn(D2F);
+    }
+
+    private static String[] names(List<Property> props) {
+        return props.stream().map(p -> p.name).toArray(String[]::new);
+    }
+
+    private static java.lang.reflect.Type[] types(List<Property> props) {
+        return props.stream().map(p -> p.type).toArray(java.lang.reflect.Type[]::new);
+    }
+
+    /** One settable bean property, written through either a field or a setter. */
+    static final class Property {
+        final String name;
+        final java.lang.reflect.Type type;
+        final Class<?> raw;
+        @Nullable final Field field;
+        @Nullable final Method setter;
+
+        Property(String name, java.lang.reflect.Type type, @Nullable Field field, @Nullable Method setter) {
+            this.name = name;
+            this.type = type;
+            this.raw = JsonReader.rawType(type);
+            this.field = field;
+            this.setter = setter;
+        }
+    }
+
+    /** Fallback for beans a generated class can't link against. */
+    private static final class ReflectiveDeserializer extends JsonDeserializer {
+        private final Constructor<?> ctor;
+        private final List<Property> props;
+
+        ReflectiveDeserializer(Constructor<?> ctor, List<Property> props) {
+            super(names(props), types(props));
+            this.ctor = ctor;
+            this.props = props;
+            ctor.setAccessible(true);
+            for (Property p : props) {
+                AccessibleObject member = p.field != null ? p.field : p.setter;
+                //noinspection ConstantConditions
+                member.setAccessible(true);
+            }
+        }
+
+        @Override
+        public Object create() {
+            try {
+                return ctor.newInstance();
+            } catch (ReflectiveOperationException ex) {
+                throw new RuntimeException("Couldn't create " + ctor.getDeclaringClass().getName(), ex);
+            }
+        }
+
+        @Override
+        public void set(Object bean, int property, JsonReader in) throws IOException {
+            Property p = props.get(property);
+            Object value = in.readValue(types[property]);
+            try {
+                if (p.field != null) p.field.set(bean, value);
+                else //noinspection ConstantConditions
+                    p.setter.invoke(bean, value);
+            } catch (ReflectiveOperationException ex) {
+                throw new RuntimeException("Couldn't set JSON property " + p.name, ex);
+            }
+        }
+    }
+
+}
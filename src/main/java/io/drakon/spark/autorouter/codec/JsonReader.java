@@ -0,0 +1,468 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.GenericArrayType;
+import java.lang.reflect.Modifier;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.lang.reflect.TypeVariable;
+import java.lang.reflect.WildcardType;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Pull-style streaming JSON reader over UTF-8 bytes. It reads through a small fixed buffer, so a body is never held in
+ * memory as a whole - only the values decoded from it are.
+ *
+ * The public next* methods are called from generated deserializers, so their signatures are part of the codegen
+ * contract.
+ */
+@ParametersAreNonnullByDefault
+public final class JsonReader {
+
+    private static final int MAX_DEPTH = 128;
+
+    private final InputStream in;
+    private final byte[] buf = new byte[8192];
+    private int pos = 0;
+    private int limit = 0;
+
+    private final boolean[] first = new boolean[MAX_DEPTH + 1];
+    private int depth = 0;
+    private final StringBuilder chars = new StringBuilder(64);
+
+    /**
+     * @param in The UTF-8 JSON input.
+     */
+    public JsonReader(InputStream in) {
+        this.in = in;
+    }
+
+    /* ========== Structure ========== */
+
+    public void beginObject() throws IOException {
+        expect('{');
+        push();
+    }
+
+    public void endObject() throws IOException {
+        expect('}');
+        depth--;
+    }
+
+    public void beginArray() throws IOException {
+        expect('[');
+        push();
+    }
+
+    public void endArray() throws IOException {
+        expect(']');
+        depth--;
+    }
+
+    /**
+     * Checks for another element or property in the current array or object, consuming the separating comma.
+     *
+     * @return True if there is another.
+     */
+    public boolean hasNext() throws IOException {
+        int c = peek();
+        if (c == '}' || c == ']') return false;
+        if (first[depth]) first[depth] = false;
+        else expect(',');
+        return true;
+    }
+
+    /** @return The next property name, consuming the following colon. */
+    public String nextName() throws IOException {
+        expect('"');
+        String name = readStringBody();
+        expect(':');
+        return name;
+    }
+
+    /** @return True if the next value is a null literal (which is not consumed). */
+    public boolean peekNull() throws IOException {
+        return peek() == 'n';
+    }
+
+    /* ========== Values ========== */
+
+    @Nullable
+    public String nextString() throws IOException {
+        if (peek() == 'n') {
+            nextNull();
+            return null;
+        }
+        expect('"');
+        return readStringBody();
+    }
+
+    public boolean nextBoolean() throws IOException {
+        int c = peek();
+        if (c == 't') {
+            literal("true");
+            return true;
+        }
+        literal("false");
+        return false;
+    }
+
+    public void nextNull() throws IOException {
+        literal("null");
+    }
+
+    public long nextLong() throws IOException {
+        String n = readNumber();
+        try {
+            return Long.parseLong(n);
+        } catch (NumberFormatException ex) {
+            // Allow integral values written in float form (1.0, 1e3)
+            BigDecimal d = new BigDecimal(n);
+            try {
+                return d.longValueExact();
+            } catch (ArithmeticException ex2) {
+                throw error("Expected an integer but got " + n);
+            }
+        }
+    }
+
+    public int nextInt() throws IOException {
+        return (int) ranged(nextLong(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+    }
+
+    public short nextShort() throws IOException {
+        return (short) ranged(nextLong(), Short.MIN_VALUE, Short.MAX_VALUE);
+    }
+
+    public byte nextByte() throws IOException {
+        return (byte) ranged(nextLong(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+    }
+
+    public char nextChar() throws IOException {
+        String s = nextString();
+        if (s == null || s.length() != 1) throw error("Expected a single character string");
+        return s.charAt(0);
+    }
+
+    public double nextDouble() throws IOException {
+        return Double.parseDouble(readNumber());
+    }
+
+    /** Skips the next value, however deeply nested. */
+    public void skipValue() throws IOException {
+        int c = peek();
+        if (c == '{') {
+            beginObject();
+            while (hasNext()) {
+                nextName();
+                skipValue();
+            }
+            endObject();
+        } else if (c == '[') {
+            beginArray();
+            while (hasNext()) skipValue();
+            endArray();
+        } else if (c == '"') {
+            nextString();
+        } else if (c == 't' || c == 'f') {
+            nextBoolean();
+        } else if (c == 'n') {
+            nextNull();
+        } else {
+            readNumber();
+        }
+    }
+
+    /** Fails unless only whitespace remains. */
+    public void endDocument() throws IOException {
+        if (peek() != -1) throw error("Unexpected data after JSON value");
+    }
+
+    /**
+     * Reads a value of any supported type: primitives and their boxes, strings, enums, big numbers, arrays,
+     * collections, string-keyed maps, and beans (through their generated deserializer). Object reads untyped values
+     * as Map, List, String, Long, Double or Boolean.
+     *
+     * @param type The (possibly generic) target type.
+     * @return The value.
+     */
+    @Nullable
+    public Object readValue(Type type) throws IOException {
+        Class<?> raw = rawType(type);
+        if (peekNull()) {
+            if (raw.isPrimitive()) throw error("null for primitive " + raw.getName());
+            nextNull();
+            return null;
+        }
+        if (raw == String.class) return nextString();
+        if (raw == int.class || raw == Integer.class) return nextInt();
+        if (raw == long.class || raw == Long.class) return nextLong();
+        if (raw == double.class || raw == Double.class) return nextDouble();
+        if (raw == boolean.class || raw == Boolean.class) return nextBoolean();
+        if (raw == float.class || raw == Float.class) return (float) nextDouble();
+        if (raw == short.class || raw == Short.class) return nextShort();
+        if (raw == byte.class || raw == Byte.class) return nextByte();
+        if (raw == char.class || raw == Character.class) return nextChar();
+        if (raw == BigDecimal.class) return new BigDecimal(readNumber());
+        if (raw == BigInteger.class) return new BigInteger(readNumber());
+        if (raw == Object.class) return readUntyped();
+        if (raw.isEnum()) return readEnum(raw);
+        if (raw.isArray()) {
+            Type component = type instanceof GenericArrayType ? ((GenericArrayType) type).getGenericComponentType()
+                    : raw.getComponentType();
+            List<Object> items = readCollection(new ArrayList<>(), component);
+            Object array = Array.newInstance(rawType(component), items.size());
+            for (int i = 0; i < items.size(); i++) Array.set(array, i, items.get(i));
+            return array;
+        }
+        if (Collection.class.isAssignableFrom(raw))
+            return readCollection(newCollection(raw), typeArgument(type, 0));
+        if (Map.class.isAssignableFrom(raw)) return readMap(newMap(raw), typeArgument(type, 1));
+        return JsonDeserializers.forClass(raw).read(this);
+    }
+
+    private Object readUntyped() throws IOException {
+        int c = peek();
+        if (c == '{') return readMap(new LinkedHashMap<>(), Object.class);
+        if (c == '[') return readCollection(new ArrayList<>(), Object.class);
+        if (c == '"') return nextString();
+        if (c == 't' || c == 'f') return nextBoolean();
+        String n = readNumber();
+        try {
+            return Long.parseLong(n);
+        } catch (NumberFormatException ex) {
+            return Double.parseDouble(n);
+        }
+    }
+
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private Object readEnum(Class<?> type) throws IOException {
+        String name = nextString();
+        try {
+            //noinspection ConstantConditions
+            return Enum.valueOf((Class<? extends Enum>) type, name);
+        } catch (IllegalArgumentException ex) {
+            throw error("Unknown " + type.getSimpleName() + " value " + name);
+        }
+    }
+
+    private <C extends Collection<Object>> C readCollection(C out, Type element) throws IOException {
+        beginArray();
+        while (hasNext()) out.add(readValue(element));
+        endArray();
+        return out;
+    }
+
+    private Map<String, Object> readMap(Map<String, Object> out, Type value) throws IOException {
+        beginObject();
+        while (hasNext()) {
+            String key = nextName();
+            out.put(key, readValue(value));
+        }
+        endObject();
+        return out;
+    }
+
+    @SuppressWarnings("unchecked")
+    private Collection<Object> newCollection(Class<?> raw) throws IOException {
+        if (raw.isAssignableFrom(ArrayList.class)) return new ArrayList<>();
+        if (raw.isAssignableFrom(LinkedHashSet.class)) return new LinkedHashSet<>();
+        if (raw.isAssignableFrom(TreeSet.class)) return new TreeSet<>();
+        if (raw.isAssignableFrom(ArrayDeque.class)) return new ArrayDeque<>();
+        return (Collection<Object>) instantiate(raw);
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> newMap(Class<?> raw) throws IOException {
+        if (raw.isAssignableFrom(LinkedHashMap.class)) return new LinkedHashMap<>();
+        if (raw.isAssignableFrom(TreeMap.class)) return new TreeMap<>();
+        return (Map<String, Object>) instantiate(raw);
+    }
+
+    private Object instantiate(Class<?> raw) throws IOException {
+        if (raw.isInterface() || Modifier.isAbstract(raw.getModifiers()))
+            throw new IllegalArgumentException("Can't decode JSON into abstract type " + raw.getName());
+        try {
+            return raw.getConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            throw new IllegalArgumentException("Can't decode JSON into " + raw.getName(), ex);
+        }
+    }
+
+    private static Type typeArgument(Type type, int index) {
+        if (type instanceof ParameterizedType) {
+            Type[] args = ((ParameterizedType) type).getActualTypeArguments();
+            if (args.length > index) return args[index];
+            if (args.length == 1) return args[0];
+        }
+        return Object.class;
+    }
+
+    /**
+     * Erases a generic type to the class values are created as.
+     *
+     * @param type The type.
+     * @return Its raw class.
+     */
+    static Class<?> rawType(Type type) {
+        if (type instanceof Class) return (Class<?>) type;
+        if (type instanceof ParameterizedType) return rawType(((ParameterizedType) type).getRawType());
+        if (type instanceof GenericArrayType)
+            return Array.newInstance(rawType(((GenericArrayType) type).getGenericComponentType()), 0).getClass();
+        if (type instanceof WildcardType) return rawType(((WildcardType) type).getUpperBounds()[0]);
+        if (type instanceof TypeVariable) {
+            Type[] bounds = ((TypeVariable<?>) type).getBounds();
+            return bounds.length == 0 ? Object.class : rawType(bounds[0]);
+        }
+        return Object.class;
+    }
+
+    /* ========== Lexing ========== */
+
+    private void push() throws IOException {
+        if (depth == MAX_DEPTH) throw error("JSON nested too deeply");
+        first[++depth] = true;
+    }
+
+    private String readStringBody() throws IOException {
+        StringBuilder sb = chars;
+        sb.setLength(0);
+        while (true) {
+            int b = read();
+            if (b == '"') break;
+            if (b == -1) throw error("Unterminated string");
+            if (b == '\\') {
+                int e = read();
+                switch (e) {
+                    case '"': case '\\': case '/': sb.append((char) e); break;
+                    case 'b': sb.append('\b'); break;
+                    case 'f': sb.append('\f'); break;
+                    case 'n': sb.append('\n'); break;
+                    case 'r': sb.append('\r'); break;
+                    case 't': sb.append('\t'); break;
+                    case 'u':
+                        int cp = 0;
+                        for (int i = 0; i < 4; i++) {
+                            int h = Character.digit(read(), 16);
+                            if (h < 0) throw error("Bad \\u escape");
+                            cp = (cp << 4) | h;
+                        }
+                        sb.append((char) cp);
+                        break;
+                    default: throw error("Bad escape");
+                }
+            } else if (b < 0x20) {
+                throw error("Control character in string");
+            } else if (b < 0x80) {
+                sb.append((char) b);
+            } else if ((b & 0xE0) == 0xC0) {
+                sb.append((char) (((b & 0x1F) << 6) | continuation()));
+            } else if ((b & 0xF0) == 0xE0) {
+                int c = ((b & 0x0F) << 12) | (continuation() << 6);
+                sb.append((char) (c | continuation()));
+            } else if ((b & 0xF8) == 0xF0) {
+                int cp = ((b & 0x07) << 18) | (continuation() << 12);
+                cp |= continuation() << 6;
+                sb.appendCodePoint(cp | continuation());
+            } else {
+                throw error("Invalid UTF-8");
+            }
+        }
+        return sb.toString();
+    }
+
+    private int continuation() throws IOException {
+        int b = read();
+        if ((b & 0xC0) != 0x80) throw error("Invalid UTF-8");
+        return b & 0x3F;
+    }
+
+    private String readNumber() throws IOException {
+        peek();
+        StringBuilder sb = chars;
+        sb.setLength(0);
+        while (true) {
+            if (pos == limit && !fill()) break;
+            int b = buf[pos];
+            if ((b >= '0' && b <= '9') || b == '-' || b == '+' || b == '.' || b == 'e' || b == 'E') {
+                sb.append((char) b);
+                pos++;
+            } else {
+                break;
+            }
+        }
+        if (sb.length() == 0) throw error("Expected a value");
+        String n = sb.toString();
+        if (isPlainInteger(n)) return n;
+        // Let BigDecimal validate the rest, but reject the forms it accepts and JSON doesn't
+        if (n.charAt(0) == '+' || n.charAt(0) == '.' || n.endsWith(".")) throw error("Bad number " + n);
+        try {
+            new BigDecimal(n);
+        } catch (NumberFormatException ex) {
+            throw error("Bad number " + n);
+        }
+        return n;
+    }
+
+    private static boolean isPlainInteger(String n) {
+        int i = n.charAt(0) == '-' ? 1 : 0;
+        if (i == n.length()) return false;
+        for (; i < n.length(); i++) {
+            char c = n.charAt(i);
+            if (c < '0' || c > '9') return false;
+        }
+        return true;
+    }
+
+    private void literal(String word) throws IOException {
+        peek();
+        for (int i = 0; i < word.length(); i++) {
+            if (read() != word.charAt(i)) throw error("Expected " + word);
+        }
+    }
+
+    private void expect(char c) throws IOException {
+        if (peek() != c) throw error("Expected '" + c + "'");
+        pos++;
+    }
+
+    /** Skips whitespace and returns the next byte without consuming it, or -1 at the end. */
+    private int peek() throws IOException {
+        while (true) {
+            if (pos == limit && !fill()) return -1;
+            int b = buf[pos] & 0xFF;
+            if (b == ' ' || b == '\n' || b == '\r' || b == '\t') pos++;
+            else return b;
+        }
+    }
+
+    private int read() throws IOException {
+        if (pos == limit && !fill()) return -1;
+        return buf[pos++] & 0xFF;
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0) return false;
+        pos = 0;
+        limit = n;
+        return true;
+    }
+
+    private long ranged(long value, long min, long max) throws BodyDecodeException {
+        if (value < min || value > max) throw error("Number out of range: " + value);
+        return value;
+    }
+
+    private BodyDecodeException error(String message) {
+        return new BodyDecodeException("Malformed JSON: " + message);
+    }
+
+}
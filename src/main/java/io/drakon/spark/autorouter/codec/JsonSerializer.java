@@ -0,0 +1,17 @@
+package io.drakon.spark.autorouter.codec;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Writes one type of object as JSON. Implementations for beans are generated by {@link JsonSerializers}.
+ */
+@ParametersAreNonnullByDefault
+public abstract class JsonSerializer {
+
+    /**
+     * @param value The (non-null) value, of the type this serializer was made for.
+     * @param out Where to write it.
+     */
+    public abstract void write(Object value, JsonWriter out);
+
+}
@@ -0,0 +1,347 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.lang.reflect.AccessibleObject;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.dispatch.ARClassLoader;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates and caches a {@link JsonSerializer} per bean class. Each generated class reads the bean's public fields and
+ * getters with direct field/method instructions and writes them between precomputed property name fragments, so
+ * serializing a bean involves no reflection or map lookups.
+ *
+ * Beans are written with their public instance fields (superclass first, in declaration order) followed by their
+ * public getters (sorted by property name). Non-public classes can't be linked against from a generated class, and
+ * fall back to a (slower) reflective serializer.
+ */
+@ParametersAreNonnullByDefault
+public final class JsonSerializers {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonSerializers.class);
+    private static final String WRITER = Type.getInternalName(JsonWriter.class);
+    private static final JsonSerializer TO_STRING = new JsonSerializer() {
+        @Override
+        public void write(Object value, JsonWriter out) {
+            out.writeString(value.toString());
+        }
+    };
+
+    private static final ClassValue<JsonSerializer> cache = new ClassValue<JsonSerializer>() {
+        @Override
+        protected JsonSerializer computeValue(Class<?> type) {
+            return create(type);
+        }
+    };
+
+    private JsonSerializers() {} // Statics
+
+    /**
+     * Gets the serializer for a class, generating it on first use.
+     *
+     * @param type The runtime class of the values to write.
+     * @return The serializer.
+     */
+    public static JsonSerializer forClass(Class<?> type) {
+        return cache.get(type);
+    }
+
+    /**
+     * Checks if a class is written as a bean (i.e. through a generated serializer) rather than as a JSON primitive,
+     * array or object map.
+     *
+     * @param type The class.
+     * @return True for bean classes.
+     */
+    public static boolean isBean(Class<?> type) {
+        if (type.isPrimitive() || type.isArray() || type.isEnum() || type.isInterface() || type == Object.class)
+            return false;
+        if (Number.class.isAssignableFrom(type) || CharSequence.class.isAssignableFrom(type)
+                || Iterable.class.isAssignableFrom(type) || java.util.Map.class.isAssignableFrom(type))
+            return false;
+        return !isPlatformClass(type);
+    }
+
+    private static boolean isPlatformClass(Class<?> type) {
+        String name = type.getName();
+        return name.startsWith("java.") || name.startsWith("javax.") || name.startsWith("sun.");
+    }
+
+    private static JsonSerializer create(Class<?> type) {
+        // JDK value types (UUID, URI, dates...) are best represented by their string forms
+        if (isPlatformClass(type)) return TO_STRING;
+
+        List<Property> props = properties(type);
+        if (!Modifier.isPublic(type.getModifiers())) {
+            log.debug("{} isn't public - using reflective JSON serialization.", type.getName());
+            return new ReflectiveSerializer(props);
+        }
+        try {
+            return generate(type, props);
+        } catch (ReflectiveOperationException | LinkageError ex) {
+            log.warn("Couldn't generate a JSON serializer for {} - falling back to reflection.", type.getName(), ex);
+            return new ReflectiveSerializer(props);
+        }
+    }
+
+    /**
+     * Finds the properties written for a bean.
+     *
+     * @param type The bean class.
+     * @return Fields then getters.
+     */
+    static List<Property> properties(Class<?> type) {
+        List<Class<?>> hierarchy = new ArrayList<>();
+        for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) hierarchy.add(0, c);
+
+        List<Property> props = new ArrayList<>();
+        Set<String> names = new HashSet<>();
+        for (Class<?> c : hierarchy) {
+            for (Field f : c.getDeclaredFields()) {
+                int mod = f.getModifiers();
+                if (!Modifier.isPublic(mod) || Modifier.isStatic(mod) || Modifier.isTransient(mod) || f.isSynthetic())
+                    continue;
+                if (names.add(f.getName())) props.add(new Property(f.getName(), f.getType(), f, null));
+            }
+        }
+
+        List<Property> getters = new ArrayList<>();
+        for (Method m : type.getMethods()) {
+            String name = getterProperty(m);
+            if (name != null && !names.contains(name)) getters.add(new Property(name, m.getReturnType(), null, m));
+        }
+        getters.sort(Comparator.comparing(p -> p.name));
+        for (Property p : getters) if (names.add(p.name)) props.add(p);
+        return props;
+    }
+
+    @Nullable
+    private static String getterProperty(Method m) {
+        if (Modifier.isStatic(m.getModifiers()) || m.getParameterCount() != 0 || m.isBridge() || m.isSynthetic()
+                || m.getDeclaringClass() == Object.class || m.getReturnType() == void.class) return null;
+        String name = m.getName();
+        String rest;
+        if (name.startsWith("get") && name.length() > 3) rest = name.substring(3);
+        else if (name.startsWith("is") && name.length() > 2 && m.getReturnType() == boolean.class)
+            rest = name.substring(2);
+        else return null;
+        // Same rules as java.beans.Introspector.decapitalize
+        if (rest.length() > 1 && Character.isUpperCase(rest.charAt(0)) && Character.isUpperCase(rest.charAt(1)))
+            return rest;
+        return Character.toLowerCase(rest.charAt(0)) + rest.substring(1);
+    }
+
+    /**
+     * Builds the property name fragments: <code>{"a":</code>, <code>,"b":</code> ... and finally the closing brace.
+     */
+    private static byte[][] fragments(List<Property> props) {
+        byte[][] out = new byte[props.size() + 1][];
+        for (int i = 0; i < props.size(); i++) {
+            byte[] name = JsonWriter.quote(props.get(i).name);
+            byte[] frag = new byte[name.length + 2];
+            frag[0] = (byte) (i == 0 ? '{' : ',');
+            System.arraycopy(name, 0, frag, 1, name.length);
+            frag[frag.length - 1] = ':';
+            out[i] = frag;
+        }
+        out[props.size()] = props.isEmpty() ? new byte[]{ '{', '}' } : new byte[]{ '}' };
+        return out;
+    }
+
+    /**
+     * Generates the serializer class. Its constructor takes the name fragments and stores each in its own final field;
+     * write() is one straight-line block of raw(fragment), read property, write property.
+     */
+    private static JsonSerializer generate(Class<?> type, List<Property> props) throws ReflectiveOperationException {
+        String name = generatedName("$GeneratedJsonSerializer_", type);
+        String owner = Type.getInternalName(type);
+        ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        writer.visit(V1_8, ACC_PUBLIC + ACC_FINAL, name, null, Type.getInternalName(JsonSerializer.class), null);
+
+        for (int i = 0; i <= props.size(); i++)
+            writer.visitField(ACC_PRIVATE + ACC_FINAL, "f" + i, "[B", null, null).visitEnd();
+
+        // Constructor
+        MethodVisitor ctor = writer.visitMethod(ACC_PUBLIC, "<init>", "([[B)V", null, null);
+        ctor.visitCode();
+        ctor.visitVarInsn(ALOAD, 0);
+        ctor.visitMethodInsn(INVOKESPECIAL, Type.getInternalName(JsonSerializer.class), "<init>", "()V", false);
+        for (int i = 0; i <= props.size(); i++) {
+            ctor.visitVarInsn(ALOAD, 0);
+            ctor.visitVarInsn(ALOAD, 1);
+            ctor.visitLdcInsn(i);
+            ctor.visitInsn(AALOAD);
+            ctor.visitFieldInsn(PUTFIELD, name, "f" + i, "[B");
+        }
+        ctor.visitInsn(RETURN);
+        ctor.visitMaxs(0, 0);
+        ctor.visitEnd();
+
+        // write(Object value, JsonWriter out)
+        MethodVisitor mv = writer.visitMethod(ACC_PUBLIC, "write", "(Ljava/lang/Object;L" + WRITER + ";)V", null, null);
+        mv.visitCode();
+        mv.visitVarInsn(ALOAD, 1);
+        mv.visitTypeInsn(CHECKCAST, owner);
+        mv.visitVarInsn(ASTORE, 3);
+        for (int i = 0; i <= props.size(); i++) {
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, name, "f" + i, "[B");
+            mv.visitMethodInsn(INVOKEVIRTUAL, WRITER, "raw", "([B)V", false);
+            if (i == props.size()) break;
+
+            Property p = props.get(i);
+            mv.visitVarInsn(ALOAD, 2);
+            mv.visitVarInsn(ALOAD, 3);
+            if (p.field != null) {
+                mv.visitFieldInsn(GETFIELD, owner, p.field.getName(), Type.getDescriptor(p.type));
+            } else {
+                //noinspection ConstantConditions
+                mv.visitMethodInsn(INVOKEVIRTUAL, owner, p.getter.getName(), Type.getMethodDescriptor(p.getter),
+                        false);
+            }
+            writeInsn(mv, p.type);
+        }
+        mv.visitInsn(RETURN);
+        mv.visitMaxs(0, 0);
+        mv.visitEnd();
+
+        writer.visitEnd();
+        Class<?> cls = define(type, name, writer.toByteArray());
+        return (JsonSerializer) cls.getConstructor(byte[][].class).newInstance((Object) fragments(props));
+    }
+
+    /**
+     * Names the generated class for a type. The hash of the full name keeps e.g. a.b_c.D and a_b.c.D apart, which
+     * would otherwise share a name and so a class.
+     *
+     * @param prefix The generated class's simple name prefix.
+     * @param type The class the generated code handles.
+     * @return The generated class's internal name.
+     */
+    static String generatedName(String prefix, Class<?> type) {
+        CRC32 crc = new CRC32();
+        crc.update(type.getName().getBytes(StandardCharsets.UTF_8));
+        return "io/drakon/spark/autorouter/codec/gen/" + prefix + type.getName().replace('.', '_') + "_"
+                + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Defines a generated class next to the class it handles, or returns the existing definition. ClassValue may
+     * compute concurrently when threads race, and only the first definition of a name can win.
+     *
+     * @param target The class the generated code links against.
+     * @param internalName The generated class's internal name.
+     * @param code The class file.
+     * @return The defined class.
+     */
+    static Class<?> define(Class<?> target, String internalName, byte[] code) {
+        ARClassLoader loader = ARClassLoader.forClass(target);
+        String name = internalName.replace('/', '.');
+        synchronized (loader) {
+            try {
+                return loader.loadClass(name);
+            } catch (ClassNotFoundException ex) {
+                return loader.defineClass(name, code);
+            }
+        }
+    }
+
+    /** Emits the JsonWriter call for a value of the given type on the stack. */
+    private static void writeInsn(MethodVisitor mv, Class<?> type) {
+        String method, desc;
+        if (type == int.class || type == short.class || type == byte.class) {
+            method = "writeInt";
+            desc = "(I)V";
+        } else if (type == long.class) {
+            method = "writeLong";
+            desc = "(J)V";
+        } else if (type == double.class || type == float.class) {
+            if (type == float.class) mv.visitInsn(F2D);
+            method = "writeDouble";
+            desc = "(D)V";
+        } else if (type == boolean.class) {
+            method = "writeBoolean";
+            desc = "(Z)V";
+        } else if (type == char.class) {
+            method = "writeChar";
+            desc = "(C)V";
+        } else if (type == String.class) {
+            method = "writeString";
+            desc = "(Ljava/lang/String;)V";
+        } else {
+            method = "writeValue";
+            desc = "(Ljava/lang/Object;)V";
+        }
+        mv.visitMethodInsn(INVOKEVIRTUAL, WRITER, method, desc, false);
+    }
+
+    /** One bean property, read from either a field or a getter. */
+    static final class Property {
+        final String name;
+        final Class<?> type;
+        @Nullable final Field field;
+        @Nullable final Method getter;
+
+        Property(String name, Class<?> type, @Nullable Field field, @Nullable Method getter) {
+            this.name = name;
+            this.type = type;
+            this.field = field;
+            this.getter = getter;
+        }
+    }
+
+    /** Fallback for beans a generated class can't link against. */
+    private static final class ReflectiveSerializer extends JsonSerializer {
+        private final List<Property> props;
+        private final byte[][] fragments;
+
+        ReflectiveSerializer(List<Property> props) {
+            this.props = props;
+            this.fragments = fragments(props);
+            for (Property p : props) {
+                AccessibleObject member = p.field != null ? p.field : p.getter;
+                try {
+                    //noinspection ConstantConditions
+                    member.setAccessible(true);
+                } catch (SecurityException ex) {
+                    log.debug("Couldn't make {} accessible.", member);
+                }
+            }
+        }
+
+        @Override
+        public void write(Object value, JsonWriter out) {
+            for (int i = 0; i < props.size(); i++) {
+                Property p = props.get(i);
+                out.raw(fragments[i]);
+                try {
+                    //noinspection ConstantConditions
+                    out.writeValue(p.field != null ? p.field.get(value) : p.getter.invoke(value));
+                } catch (ReflectiveOperationException ex) {
+                    throw new RuntimeException("Couldn't read JSON property " + p.name, ex);
+                }
+            }
+            out.raw(fragments[props.size()]);
+        }
+    }
+
+}
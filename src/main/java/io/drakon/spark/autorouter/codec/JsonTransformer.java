@@ -0,0 +1,92 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import spark.Response;
+import spark.ResponseTransformer;
+
+/**
+ * Built-in JSON transformer, rendering straight to UTF-8 bytes through a reused per-thread buffer. Use it as a route's
+ * transformer:
+ * <pre>
+ * &#64;GET(path = "/users/:id", transformer = JsonTransformer.class)
+ * public static User user(Request req, Response res) { ... }
+ * </pre>
+ * At route() time Autorouter specialises it to the handler's declared return type, so responses of exactly that type
+ * go straight to their generated serializer; anything else (subclasses, collections, maps) is dispatched by runtime
+ * type. Autorouter then calls {@link #renderBytes} itself and hands Spark the bytes, skipping the String which
+ * {@link ResponseTransformer#render} has to return. Routes using it default to a content type of
+ * {@value #CONTENT_TYPE}.
+ */
+@ParametersAreNonnullByDefault
+public class JsonTransformer implements ResponseTransformer {
+
+    public static final String CONTENT_TYPE = "application/json";
+
+    private static final int INITIAL_BUFFER = 4096;
+    private static final int MAX_RETAINED_BUFFER = 1024 * 1024;
+    private static final ThreadLocal<JsonWriter> writers = ThreadLocal.withInitial(() -> new JsonWriter(INITIAL_BUFFER));
+
+    @Nullable private final Class<?> type;
+    @Nullable private final JsonSerializer serializer;
+
+    /** Creates an unspecialised transformer, which picks a serializer by runtime type. */
+    public JsonTransformer() {
+        this(null, null);
+    }
+
+    private JsonTransformer(@Nullable Class<?> type, @Nullable JsonSerializer serializer) {
+        this.type = type;
+        this.serializer = serializer;
+    }
+
+    /**
+     * Creates a transformer specialised for a handler's return type, generating its serializer up front.
+     *
+     * @param returnType The handler's declared return type.
+     * @return The specialised transformer, or this one if the type isn't a bean.
+     */
+    public JsonTransformer specialise(Class<?> returnType) {
+        if (!JsonSerializers.isBean(returnType)) return this;
+        return new JsonTransformer(returnType, JsonSerializers.forClass(returnType));
+    }
+
+    /**
+     * Renders a model as UTF-8 JSON.
+     *
+     * @param model The handler's return value.
+     * @return The encoded JSON.
+     */
+    public byte[] renderBytes(@Nullable Object model) {
+        JsonWriter out = writers.get();
+        out.reset();
+        if (serializer != null && model != null && model.getClass() == type) serializer.write(model, out);
+        else out.writeValue(model);
+        byte[] bytes = out.toByteArray();
+        // Don't pin one-off huge buffers to the thread forever
+        if (out.capacity() > MAX_RETAINED_BUFFER) writers.remove();
+        return bytes;
+    }
+
+    /**
+     * Renders a model for a response, defaulting its content type to {@value #CONTENT_TYPE}. Called from generated
+     * route stubs.
+     *
+     * @param res The response.
+     * @param model The handler's return value.
+     * @return The encoded JSON.
+     */
+    public byte[] renderBytes(Response res, @Nullable Object model) {
+        if (res.type() == null) res.type(CONTENT_TYPE);
+        return renderBytes(model);
+    }
+
+    @Override
+    public String render(@Nullable Object model) {
+        return new String(renderBytes(model), StandardCharsets.UTF_8);
+    }
+
+}
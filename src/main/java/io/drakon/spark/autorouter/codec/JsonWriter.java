@@ -0,0 +1,292 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Optional;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Growable UTF-8 output buffer with JSON primitives. Strings are encoded straight from their chars into the buffer, so
+ * no intermediate String or encoder is involved. Instances are reused per thread by {@link JsonTransformer}.
+ *
+ * The public write methods are called from generated serializers, so their signatures are part of the codegen contract.
+ */
+@ParametersAreNonnullByDefault
+public final class JsonWriter {
+
+    private static final byte[] NULL = { 'n', 'u', 'l', 'l' };
+    private static final byte[] TRUE = { 't', 'r', 'u', 'e' };
+    private static final byte[] FALSE = { 'f', 'a', 'l', 's', 'e' };
+    private static final byte[] MIN_LONG = "-9223372036854775808".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_DEPTH = 128;
+
+    private byte[] buf;
+    private int len = 0;
+    private int depth = 0;
+
+    /**
+     * @param initialCapacity Starting buffer size in bytes.
+     */
+    public JsonWriter(int initialCapacity) {
+        buf = new byte[Math.max(16, initialCapacity)];
+    }
+
+    /** Empties the buffer for reuse. */
+    public void reset() {
+        len = 0;
+        depth = 0;
+    }
+
+    /** @return Bytes written so far. */
+    public int size() {
+        return len;
+    }
+
+    /** @return The current buffer size, for callers deciding whether to keep a writer around. */
+    public int capacity() {
+        return buf.length;
+    }
+
+    /** @return A copy of the bytes written so far. */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buf, len);
+    }
+
+    /**
+     * Writes pre-encoded bytes as-is. Generated serializers use this for their precomputed property name fragments.
+     *
+     * @param bytes Valid JSON text in UTF-8.
+     */
+    public void raw(byte[] bytes) {
+        ensure(bytes.length);
+        System.arraycopy(bytes, 0, buf, len, bytes.length);
+        len += bytes.length;
+    }
+
+    public void writeNull() {
+        raw(NULL);
+    }
+
+    public void writeBoolean(boolean value) {
+        raw(value ? TRUE : FALSE);
+    }
+
+    public void writeInt(int value) {
+        writeLong(value);
+    }
+
+    public void writeLong(long value) {
+        if (value == Long.MIN_VALUE) {
+            raw(MIN_LONG);
+            return;
+        }
+        ensure(20);
+        if (value < 0) {
+            buf[len++] = '-';
+            value = -value;
+        }
+        int start = len;
+        do {
+            buf[len++] = (byte) ('0' + (value % 10));
+            value /= 10;
+        } while (value != 0);
+        // Digits went in backwards
+        for (int i = start, j = len - 1; i < j; i++, j--) {
+            byte t = buf[i];
+            buf[i] = buf[j];
+            buf[j] = t;
+        }
+    }
+
+    /** Writes a double, or null for NaN and infinities which JSON can't represent. */
+    public void writeDouble(double value) {
+        if (Double.isNaN(value) || Double.isInfinite(value)) {
+            writeNull();
+        } else if (value == (long) value && Math.abs(value) < 1e15 && (value != 0 || 1 / value > 0)) {
+            writeLong((long) value);
+        } else {
+            writeAscii(Double.toString(value));
+        }
+    }
+
+    public void writeChar(char value) {
+        ensure(8);
+        buf[len++] = '"';
+        writeEscaped(value);
+        buf[len++] = '"';
+    }
+
+    /** Writes a JSON string, or null. */
+    public void writeString(@Nullable String value) {
+        if (value == null) {
+            writeNull();
+            return;
+        }
+        int n = value.length();
+        ensure(n * 6 + 2); // Worst case is every char \\u-escaped
+        buf[len++] = '"';
+        for (int i = 0; i < n; i++) {
+            char c = value.charAt(i);
+            if (c < 0x80 && c >= 0x20 && c != '"' && c != '\\') {
+                buf[len++] = (byte) c;
+            } else if (Character.isHighSurrogate(c) && i + 1 < n && Character.isLowSurrogate(value.charAt(i + 1))) {
+                int cp = Character.toCodePoint(c, value.charAt(++i));
+                buf[len++] = (byte) (0xF0 | (cp >> 18));
+                buf[len++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                buf[len++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                buf[len++] = (byte) (0x80 | (cp & 0x3F));
+            } else {
+                writeEscaped(c);
+            }
+        }
+        buf[len++] = '"';
+    }
+
+    /**
+     * Writes any value, picking the encoding from its runtime type. Beans go through their generated serializer.
+     *
+     * @param value The value, or null.
+     */
+    public void writeValue(@Nullable Object value) {
+        if (value == null) writeNull();
+        else if (value instanceof String) writeString((String) value);
+        else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte)
+            writeLong(((Number) value).longValue());
+        else if (value instanceof Double || value instanceof Float) writeDouble(((Number) value).doubleValue());
+        else if (value instanceof Number) writeAscii(value.toString());
+        else if (value instanceof Boolean) writeBoolean((Boolean) value);
+        else if (value instanceof Character) writeChar((Character) value);
+        else if (value instanceof Enum) writeString(((Enum<?>) value).name());
+        else if (value instanceof Optional) writeValue(((Optional<?>) value).orElse(null));
+        else {
+            if (++depth > MAX_DEPTH) throw new IllegalStateException("JSON nesting too deep - cyclic object graph?");
+            if (value instanceof Map) writeMap((Map<?, ?>) value);
+            else if (value instanceof Iterable) writeIterable((Iterable<?>) value);
+            else if (value.getClass().isArray()) writeArray(value);
+            else JsonSerializers.forClass(value.getClass()).write(value, this);
+            depth--;
+        }
+    }
+
+    private void writeMap(Map<?, ?> map) {
+        raw1('{');
+        boolean first = true;
+        for (Map.Entry<?, ?> e : map.entrySet()) {
+            if (!first) raw1(',');
+            first = false;
+            Object key = e.getKey();
+            writeString(key instanceof Enum ? ((Enum<?>) key).name() : String.valueOf(key));
+            raw1(':');
+            writeValue(e.getValue());
+        }
+        raw1('}');
+    }
+
+    private void writeIterable(Iterable<?> items) {
+        raw1('[');
+        boolean first = true;
+        for (Object item : items) {
+            if (!first) raw1(',');
+            first = false;
+            writeValue(item);
+        }
+        raw1(']');
+    }
+
+    private void writeArray(Object array) {
+        raw1('[');
+        if (array instanceof int[]) {
+            int[] a = (int[]) array;
+            for (int i = 0; i < a.length; i++) {
+                if (i > 0) raw1(',');
+                writeLong(a[i]);
+            }
+        } else if (array instanceof long[]) {
+            long[] a = (long[]) array;
+            for (int i = 0; i < a.length; i++) {
+                if (i > 0) raw1(',');
+                writeLong(a[i]);
+            }
+        } else if (array instanceof double[]) {
+            double[] a = (double[]) array;
+            for (int i = 0; i < a.length; i++) {
+                if (i > 0) raw1(',');
+                writeDouble(a[i]);
+            }
+        } else {
+            int n = Array.getLength(array);
+            for (int i = 0; i < n; i++) {
+                if (i > 0) raw1(',');
+                writeValue(Array.get(array, i));
+            }
+        }
+        raw1(']');
+    }
+
+    /** Writes text known to be plain ASCII with nothing to escape (number forms and the like). */
+    private void writeAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) buf[len++] = (byte) s.charAt(i);
+    }
+
+    private void writeEscaped(char c) {
+        if (c == '"' || c == '\\') {
+            buf[len++] = '\\';
+            buf[len++] = (byte) c;
+        } else if (c == '\n') {
+            buf[len++] = '\\';
+            buf[len++] = 'n';
+        } else if (c == '\r') {
+            buf[len++] = '\\';
+            buf[len++] = 'r';
+        } else if (c == '\t') {
+            buf[len++] = '\\';
+            buf[len++] = 't';
+        } else if (c < 0x20 || Character.isSurrogate(c)) {
+            // Control chars, and lone surrogates which have no UTF-8 form
+            buf[len++] = '\\';
+            buf[len++] = 'u';
+            buf[len++] = HEX[(c >> 12) & 0xF];
+            buf[len++] = HEX[(c >> 8) & 0xF];
+            buf[len++] = HEX[(c >> 4) & 0xF];
+            buf[len++] = HEX[c & 0xF];
+        } else if (c < 0x80) {
+            buf[len++] = (byte) c;
+        } else if (c < 0x800) {
+            buf[len++] = (byte) (0xC0 | (c >> 6));
+            buf[len++] = (byte) (0x80 | (c & 0x3F));
+        } else {
+            buf[len++] = (byte) (0xE0 | (c >> 12));
+            buf[len++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+            buf[len++] = (byte) (0x80 | (c & 0x3F));
+        }
+    }
+
+    private void raw1(char c) {
+        ensure(1);
+        buf[len++] = (byte) c;
+    }
+
+    private void ensure(int extra) {
+        if (len + extra > buf.length) buf = Arrays.copyOf(buf, Math.max(buf.length * 2, len + extra));
+    }
+
+    /**
+     * Encodes a string as a JSON string literal, for precomputing fragments.
+     *
+     * @param s The string.
+     * @return The quoted and escaped UTF-8 bytes.
+     */
+    static byte[] quote(String s) {
+        JsonWriter w = new JsonWriter(s.length() + 2);
+        w.writeString(s);
+        return w.toByteArray();
+    }
+
+}
@@ -0,0 +1,52 @@
+package io.drakon.spark.autorouter.codec;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/** Counts bytes read through it, failing once a limit is passed. */
+@ParametersAreNonnullByDefault
+class LimitedInputStream extends FilterInputStream {
+
+    private final long maxBytes;
+    private long count = 0;
+
+    LimitedInputStream(InputStream in, long maxBytes) {
+        super(in);
+        this.maxBytes = maxBytes;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int b = super.read();
+        if (b >= 0) counted(1);
+        return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        int n = super.read(b, off, len);
+        if (n > 0) counted(n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = super.skip(n);
+        counted(skipped);
+        return skipped;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    private void counted(long n) throws BodyDecodeException.TooLarge {
+        count += n;
+        if (count > maxBytes) throw new BodyDecodeException.TooLarge(maxBytes);
+    }
+
+}
@@ -1,13 +1,67 @@
 package io.drakon.spark.autorouter.dispatch;
 
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+
 /**
  * Classloader with a public defineClass for ASM class loading. Based on the ASM 4.0 guidebook.
  */
 public class ARClassLoader extends ClassLoader {
 
+    private static final ARClassLoader shared = new ARClassLoader();
+    // Weak values too, as each child holds its key as its parent; generated classes keep their own loader alive
+    private static final Map<ClassLoader, WeakReference<ARClassLoader>> children = new WeakHashMap<>();
+
+    public ARClassLoader() {
+        super();
+    }
+
+    /**
+     * @param parent The parent loader. Must be able to see both the stub interfaces and the target classes.
+     */
+    public ARClassLoader(ClassLoader parent) {
+        super(parent);
+    }
+
     /** Override to make defineClass public for ASM'ing. */
     public Class defineClass(String name, byte[] b) {
         return defineClass(name, b, 0, b.length);
     }
 
+    /**
+     * @param name A class name.
+     * @return The class of that name already defined by this loader, or null.
+     */
+    Class<?> findGenerated(String name) {
+        return findLoadedClass(name);
+    }
+
+    /** @return True if this is the loader shared by classes on the system classpath. */
+    boolean isShared() {
+        return this == shared;
+    }
+
+    /**
+     * Picks the loader to define generated code in. Code for classes on the system classpath shares one loader; classes
+     * from other loaders (plugins, generated classes, etc.) get a child loader so the generated code can link against
+     * them.
+     *
+     * @param targetClass The class the generated code uses.
+     * @return The loader to define the generated class with.
+     */
+    public static ARClassLoader forClass(Class<?> targetClass) {
+        ClassLoader targetLoader = targetClass.getClassLoader();
+        if (targetLoader == null || targetLoader == shared.getParent()) return shared;
+        synchronized (children) {
+            WeakReference<ARClassLoader> ref = children.get(targetLoader);
+            ARClassLoader child = ref == null ? null : ref.get();
+            if (child == null) {
+                child = new ARClassLoader(targetLoader);
+                children.put(targetLoader, new WeakReference<>(child));
+            }
+            return child;
+        }
+    }
+
 }
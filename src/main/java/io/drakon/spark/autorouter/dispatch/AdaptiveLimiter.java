@@ -0,0 +1,189 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import spark.HaltException;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+/**
+ * A concurrency limit which adapts to observed latency, for a Path Group or the whole router. Requests over the limit
+ * are rejected with a 503 straight away rather than queued.
+ *
+ * The limit follows a latency gradient: every {@link #WINDOW} completed requests, the window's average latency is
+ * compared with a slow-moving baseline. While latency stays within the tolerance of the baseline the limit grows by
+ * about the square root of itself; as latency inflates past it, the limit shrinks in proportion (by at most half per
+ * window). The limit doesn't grow while less than half of it is in use, so quiet periods don't inflate it.
+ *
+ * Admission and release are single atomic operations; the limit is recalculated by whichever thread completes a
+ * window, without blocking the others.
+ */
+@ParametersAreNonnullByDefault
+public class AdaptiveLimiter {
+
+    /** The number of completed requests per limit update. */
+    static final int WINDOW = 32;
+    private static final double SMOOTHING = 0.2;
+    private static final int BASELINE_WINDOWS = 20;
+
+    // Thrown for every shed request while overloaded, so allocated once; nothing reads its stack trace
+    private static final HaltException UNAVAILABLE = unavailable();
+
+    private final String name;
+    private final int minLimit;
+    private final int maxLimit;
+    private final double tolerance;
+
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicLong samples = new AtomicLong();
+    private final AtomicLong windowNanos = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+    private volatile int limit;
+    private volatile int peakInFlight; // Racy high-water mark for the current window; a hint only
+
+    // Only touched by the thread completing a window
+    private volatile double estimate;
+    private volatile long baselineNanos;
+
+    /**
+     * @param name Name for monitoring (usually the Path Group prefix).
+     * @param initialLimit The limit to start at.
+     * @param minLimit The lowest the limit can go.
+     * @param maxLimit The highest the limit can go.
+     * @param tolerance How far latency can rise over the baseline (e.g. 1.5 for 50%) before the limit shrinks.
+     */
+    public AdaptiveLimiter(String name, int initialLimit, int minLimit, int maxLimit, double tolerance) {
+        if (minLimit < 1) throw new IllegalArgumentException("minLimit must be at least 1 for " + name);
+        if (maxLimit < minLimit) throw new IllegalArgumentException("maxLimit must be at least minLimit for " + name);
+        if (tolerance < 1) throw new IllegalArgumentException("tolerance must be at least 1 for " + name);
+        this.name = name;
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.tolerance = tolerance;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+        this.estimate = limit;
+    }
+
+    private static HaltException unavailable() {
+        try {
+            throw halt(503, "Service Unavailable");
+        } catch (HaltException ex) {
+            return ex;
+        }
+    }
+
+    /**
+     * Wraps a route dispatcher so it executes within this limit.
+     *
+     * @param delegate The dispatcher to guard.
+     * @return The guarded dispatcher.
+     */
+    public IRouteDispatch guard(IRouteDispatch delegate) {
+        return new LimitedDispatch(delegate);
+    }
+
+    /**
+     * Attempts to take a slot under the current limit.
+     *
+     * @return True if a slot was taken and must later be released with {@link #release(long)}.
+     */
+    public boolean tryAcquire() {
+        for (;;) {
+            int current = inFlight.get();
+            if (current >= limit) {
+                rejected.incrementAndGet();
+                return false;
+            }
+            if (inFlight.compareAndSet(current, current + 1)) {
+                if (current + 1 > peakInFlight) peakInFlight = current + 1;
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Releases a slot taken by {@link #tryAcquire()}, recording how long it was held.
+     *
+     * @param latencyNanos How long the request took.
+     */
+    public void release(long latencyNanos) {
+        inFlight.decrementAndGet();
+        windowNanos.addAndGet(latencyNanos);
+        if (samples.incrementAndGet() % WINDOW == 0) update(windowNanos.getAndSet(0) / WINDOW);
+    }
+
+    /**
+     * Recalculates the limit at the end of a window.
+     *
+     * @param averageNanos The window's average latency.
+     */
+    private void update(long averageNanos) {
+        long sample = Math.max(1, averageNanos);
+        long baseline = baselineNanos;
+        if (baseline == 0) baseline = sample;
+        else baseline += (sample - baseline) / BASELINE_WINDOWS;
+        // Let the baseline recover quickly once a slow period has passed
+        if (baseline > sample * 2) baseline = (long) (baseline * 0.95);
+        baselineNanos = baseline;
+
+        double current = estimate;
+        double gradient = Math.max(0.5, Math.min(1.0, tolerance * baseline / sample));
+        int peak = peakInFlight;
+        peakInFlight = 0;
+        if (gradient >= 1.0 && peak < current / 2) return; // Not using the limit, so no evidence it should grow
+
+        double target = current * gradient + Math.sqrt(current);
+        double next = Math.max(minLimit, Math.min(maxLimit, current * (1 - SMOOTHING) + target * SMOOTHING));
+        estimate = next;
+        limit = (int) next;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** @return The current limit. */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return The number of requests currently executing under this limit. */
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+    /** @return The total number of requests rejected since startup. */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private class LimitedDispatch implements IRouteDispatch {
+        private final IRouteDispatch delegate;
+
+        LimitedDispatch(IRouteDispatch delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object dispatch(Request req, Response res) {
+            if (!tryAcquire()) throw UNAVAILABLE;
+            long start = System.nanoTime();
+            boolean shed = false;
+            try {
+                return delegate.dispatch(req, res);
+            } catch (HaltException ex) {
+                shed = ex == UNAVAILABLE; // Rejected by a nested limit, so its latency says nothing
+                throw ex;
+            } finally {
+                if (shed) inFlight.decrementAndGet();
+                else release(System.nanoTime() - start);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,178 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.codec.BodyDecoders;
+import io.drakon.spark.autorouter.codec.JsonTransformer;
+import io.drakon.spark.autorouter.codec.JsonWriter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+/**
+ * Serves a batch endpoint: a JSON array of sub-requests, each run through the routes and filters in memory (see
+ * {@link LocalPipeline}) in parallel on a bounded fork-join pool, answered with a JSON array of their responses in the
+ * same order. Sub-requests never go back through Jetty or Spark's matcher.
+ *
+ * Request:
+ * <pre>
+ * [{"method": "GET", "path": "/users/42?full=true", "headers": {"Accept": "application/json"}, "body": null}, ...]
+ * </pre>
+ * Response:
+ * <pre>
+ * [{"status": 200, "headers": {"Content-Type": "application/json"}, "body": {"id": 42}}, ...]
+ * </pre>
+ * JSON response bodies (application/json or a +json type) are embedded as JSON; anything else as a string.
+ * Sub-requests inherit the batch request's headers (e.g. Authorization), which their own headers override. Batches
+ * can't nest: sub-requests carry {@link #BATCH_ATTRIBUTE}, and a sub-request that reaches a batch endpoint by any
+ * spelling of its path is refused.
+ */
+@ParametersAreNonnullByDefault
+public class BatchDispatch implements IRouteDispatch {
+
+    /** Request attribute set on batch sub-requests. */
+    public static final String BATCH_ATTRIBUTE = "autorouter.batch";
+
+    private static final Logger log = LoggerFactory.getLogger(BatchDispatch.class);
+    private static final long MAX_BODY_BYTES = 4 * 1024 * 1024;
+    private static final byte[] STATUS = "{\"status\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] HEADERS = ",\"headers\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] BODY = ",\"body\":".getBytes(StandardCharsets.UTF_8);
+    private static final byte[] OPEN_ARRAY = { '[' };
+    private static final byte[] COMMA = { ',' };
+    private static final byte[] CLOSE_OBJECT = { '}' };
+    private static final byte[] CLOSE_ARRAY = { ']' };
+
+    private final LocalPipeline pipeline;
+    private final String path;
+    private final int maxRequests;
+    private final ForkJoinPool pool;
+
+    /** One sub-request, as decoded from the batch body. */
+    public static class SubRequest {
+        public String method = "GET";
+        public String path;
+        @Nullable public Map<String, String> headers;
+        @Nullable public String body;
+    }
+
+    /**
+     * @param pipeline The pipeline to run sub-requests through.
+     * @param path The batch endpoint's own path, which sub-requests may not target.
+     * @param parallelism The most sub-requests run at once, across all batches.
+     * @param maxRequests The most sub-requests in one batch.
+     */
+    public BatchDispatch(LocalPipeline pipeline, String path, int parallelism, int maxRequests) {
+        this.pipeline = pipeline;
+        this.path = path;
+        this.maxRequests = maxRequests;
+        this.pool = new ForkJoinPool(parallelism, p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("autorouter-batch-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        }, null, false);
+    }
+
+    @Override
+    public Object dispatch(Request req, Response res) {
+        if (req.attribute(BATCH_ATTRIBUTE) != null) throw halt(400, "Batches can't nest.");
+        SubRequest[] subs = (SubRequest[]) BodyDecoders.decode(req, SubRequest[].class, MAX_BODY_BYTES);
+        if (subs == null) throw halt(400, "Expected a JSON array of requests.");
+        if (subs.length > maxRequests) throw halt(413, "At most " + maxRequests + " requests per batch.");
+
+        List<ForkJoinTask<LocalResponse>> tasks = new ArrayList<>(subs.length);
+        for (SubRequest sub : subs) {
+            LocalRequest local = toLocal(req, sub);
+            tasks.add(local == null ? null : pool.submit(() -> pipeline.handle(local)));
+        }
+
+        JsonWriter out = new JsonWriter(1024);
+        out.raw(OPEN_ARRAY);
+        for (int i = 0; i < subs.length; i++) {
+            if (i > 0) out.raw(COMMA);
+            ForkJoinTask<LocalResponse> task = tasks.get(i);
+            if (task == null) {
+                writeError(out, 400, "Each request needs a path, which can't be the batch endpoint.");
+                continue;
+            }
+            try {
+                writeResponse(out, task.join());
+            } catch (RuntimeException ex) {
+                log.error("Batch sub-request {} {} failed.", subs[i].method, subs[i].path, ex);
+                writeError(out, 500, "Internal Server Error");
+            }
+        }
+        out.raw(CLOSE_ARRAY);
+        res.type(JsonTransformer.CONTENT_TYPE);
+        return out.toByteArray();
+    }
+
+    /** Builds the in-memory request for a sub-request, or null if it's invalid. */
+    @Nullable
+    private LocalRequest toLocal(Request outer, SubRequest sub) {
+        if (sub.path == null || !sub.path.startsWith("/") || sub.method == null) return null;
+        int q = sub.path.indexOf('?');
+        if ((q < 0 ? sub.path : sub.path.substring(0, q)).equals(path)) return null;
+
+        LocalRequest local = new LocalRequest(sub.method, sub.path);
+        local.attribute(BATCH_ATTRIBUTE, Boolean.TRUE);
+        for (String name : outer.headers()) {
+            String lower = name.toLowerCase(Locale.ROOT);
+            if (!lower.startsWith("content-") && !lower.equals("transfer-encoding"))
+                local.header(name, outer.headers(name));
+        }
+        String contentType = null;
+        if (sub.headers != null) {
+            for (Map.Entry<String, String> header : sub.headers.entrySet()) {
+                if (header.getKey().equalsIgnoreCase("Content-Type")) contentType = header.getValue();
+                else local.header(header.getKey(), header.getValue());
+            }
+        }
+        if (sub.body != null) local.body(contentType, sub.body);
+        return local;
+    }
+
+    private static void writeResponse(JsonWriter out, LocalResponse res) {
+        Map<String, String> headers = new LinkedHashMap<>();
+        if (res.type() != null) headers.put("Content-Type", res.type());
+        res.getHeaders().forEach((name, values) -> headers.put(name, String.join(", ", values)));
+        byte[] body = res.bodyAsBytes();
+
+        out.raw(STATUS);
+        out.writeInt(res.status());
+        out.raw(HEADERS);
+        out.writeValue(headers);
+        out.raw(BODY);
+        // Only single JSON documents can be embedded; application/x-ndjson, say, holds several
+        if (BodyDecoders.isJson(res.type()) && body.length > 0) out.raw(body);
+        else out.writeString(new String(body, StandardCharsets.UTF_8));
+        out.raw(CLOSE_OBJECT);
+    }
+
+    private static void writeError(JsonWriter out, int status, String message) {
+        out.raw(STATUS);
+        out.writeInt(status);
+        out.raw(HEADERS);
+        out.writeValue(Collections.emptyMap());
+        out.raw(BODY);
+        out.writeString(message);
+        out.raw(CLOSE_OBJECT);
+    }
+
+}
@@ -0,0 +1,137 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+/**
+ * A concurrency partition shared by every route in a Path Group. Admission is a semaphore try-acquire on the fast path;
+ * only requests which have to queue touch the queue counter. The semaphore is fair, and the fast path doesn't barge
+ * past queued requests, so slots go to requests in arrival order.
+ */
+@ParametersAreNonnullByDefault
+public class Bulkhead {
+
+    private final String name;
+    private final int maxConcurrent;
+    private final int maxQueue;
+    private final long maxWaitMillis;
+
+    private final Semaphore permits;
+    private final AtomicInteger queued = new AtomicInteger();
+    private final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * @param name Name for monitoring (usually the Path Group prefix).
+     * @param maxConcurrent Maximum requests executing at once.
+     * @param maxQueue Maximum requests waiting for a slot.
+     * @param maxWaitMillis Maximum time to wait in the queue.
+     */
+    public Bulkhead(String name, int maxConcurrent, int maxQueue, long maxWaitMillis) {
+        if (maxConcurrent < 1) throw new IllegalArgumentException("maxConcurrent must be at least 1 for " + name);
+        if (maxQueue < 0) throw new IllegalArgumentException("maxQueue must not be negative for " + name);
+        if (maxWaitMillis < 0) throw new IllegalArgumentException("maxWaitMillis must not be negative for " + name);
+        this.name = name;
+        this.maxConcurrent = maxConcurrent;
+        this.maxQueue = maxQueue;
+        this.maxWaitMillis = maxWaitMillis;
+        this.permits = new Semaphore(maxConcurrent, true);
+    }
+
+    /**
+     * Wraps a route dispatcher so it executes inside this partition.
+     *
+     * @param delegate The dispatcher to guard.
+     * @return The guarded dispatcher.
+     */
+    public IRouteDispatch guard(IRouteDispatch delegate) {
+        return new GuardedDispatch(delegate);
+    }
+
+    /**
+     * Attempts to take a slot in this partition, queueing if allowed.
+     *
+     * @return True if a slot was taken and must later be released with {@link #release()}.
+     */
+    public boolean tryEnter() {
+        try {
+            // Timed, even with no wait: the untimed tryAcquire() barges past queued requests on a fair semaphore
+            if (permits.tryAcquire(0, TimeUnit.MILLISECONDS)) return true;
+            if (queued.incrementAndGet() > maxQueue) {
+                queued.decrementAndGet();
+                rejected.incrementAndGet();
+                return false;
+            }
+            try {
+                boolean acquired = permits.tryAcquire(maxWaitMillis, TimeUnit.MILLISECONDS);
+                if (!acquired) rejected.incrementAndGet();
+                return acquired;
+            } finally {
+                queued.decrementAndGet();
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            rejected.incrementAndGet();
+            return false;
+        }
+    }
+
+    /** Releases a slot taken by {@link #tryEnter()}. */
+    public void release() {
+        permits.release();
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getMaxConcurrent() {
+        return maxConcurrent;
+    }
+
+    public int getMaxQueue() {
+        return maxQueue;
+    }
+
+    /** @return The number of requests currently executing in this partition. */
+    public int getActive() {
+        return maxConcurrent - permits.availablePermits();
+    }
+
+    /** @return The number of requests currently waiting for a slot. */
+    public int getQueued() {
+        return queued.get();
+    }
+
+    /** @return The total number of requests rejected since startup. */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    private class GuardedDispatch implements IRouteDispatch {
+        private final IRouteDispatch delegate;
+
+        GuardedDispatch(IRouteDispatch delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public Object dispatch(Request req, Response res) {
+            if (!tryEnter()) throw halt(503, "Service Unavailable");
+            try {
+                return delegate.dispatch(req, res);
+            } finally {
+                release();
+            }
+        }
+    }
+
+}
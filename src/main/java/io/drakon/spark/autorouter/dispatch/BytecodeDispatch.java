@@ -1,12 +1,35 @@
 package io.drakon.spark.autorouter.dispatch;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.zip.CRC32;
 
 import javax.annotation.Nullable;
 import javax.annotation.ParametersAreNonnullByDefault;
 
+import io.drakon.spark.autorouter.Routes;
+import io.drakon.spark.autorouter.codec.JsonTransformer;
+import io.drakon.spark.autorouter.monitor.JfrEvents;
+import io.drakon.spark.autorouter.monitor.SpanKind;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
 import org.objectweb.asm.Type;
@@ -14,6 +37,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import spark.Response;
 import spark.Request;
+import spark.ResponseTransformer;
 
 import static org.objectweb.asm.Opcodes.*;
 
@@ -24,18 +48,58 @@ import static org.objectweb.asm.Opcodes.*;
 public class BytecodeDispatch {
 
     private static final Logger log = LoggerFactory.getLogger(BytecodeDispatch.class);
-    private static final ARClassLoader classLoader = new ARClassLoader();
+    private static final String BODY_TYPE_FIELD = "bodyType";
+    private static final String TRANSFORMER_FIELD = "transformer";
+    private static final String HEADERS_FIELD = "headers";
+    private static final String STATIC_HEADERS_DESC = Type.getDescriptor(StaticHeaders.class);
+    private static final String STUB_PACKAGE = "io.drakon.spark.autorouter.dispatch.gen.routes";
+    /** Lists the stubs in a stubs jar. */
+    public static final String STUB_LIST = "META-INF/autorouter/stubs.list";
+    /** Bump whenever the generated code changes, so stale precompiled stubs aren't picked up. */
+    private static final int STUB_FORMAT = 4;
+
+    @Nullable private static volatile Set<String> precompiled = null;
+    @Nullable private static volatile Map<String, byte[]> recording = null;
+
+    @Nullable private SpanKind eventKind = null;
+    @Nullable private String eventRoute = null;
 
     private enum StubType {
-        Route(IRouteDispatch.class, 2),
-        Exception(IExceptionDispatch.class, 3);
+        Route(IRouteDispatch.class, 2, "dispatch", true),
+        Exception(IExceptionDispatch.class, 3, "dispatch", true),
+        SparkRoute(spark.Route.class, 2, "handle", true),
+        SparkFilter(spark.Filter.class, 2, "handle", false),
+        SparkException(spark.ExceptionHandler.class, 3, "handle", false);
 
         public final Type iface;
         public final int params;
-        StubType(Class iface, int params) {
+        public final String method;
+        public final boolean returns;
+        StubType(Class<?> iface, int params, String method, boolean returns) {
             this.iface = Type.getType(iface);
             this.params = params;
+            this.method = method;
+            this.returns = returns;
         }
+
+        public String descriptor() {
+            return "(" + (params == 3 ? "Ljava/lang/Exception;" : "") + "Lspark/Request;Lspark/Response;)"
+                    + (returns ? "Ljava/lang/Object;" : "V");
+        }
+    }
+
+    /**
+     * Labels the JFR events (see {@link JfrEvents}) emitted by the stubs this generates from now on. Unlabelled route
+     * stubs emit dispatch events with the request's path; filter stubs, filter events of no particular kind.
+     *
+     * @param kind The pipeline step the stubs serve: a filter step, or HANDLER.
+     * @param route The route template or filter path, or null for filters on every path.
+     * @return This, for chaining.
+     */
+    public BytecodeDispatch labelled(SpanKind kind, @Nullable String route) {
+        this.eventKind = kind;
+        this.eventRoute = route;
+        return this;
     }
 
     /**
@@ -44,10 +108,21 @@ public class BytecodeDispatch {
      * @param targetMethod The method the stub class should invoke.
      * @return An IRouteDispatch subclass or null for invalid methods.
      */
-    @SuppressWarnings("unchecked")
     public Class<IRouteDispatch> generateRouteStub(Method targetMethod) {
+        return generateRouteStub(targetMethod, null);
+    }
+
+    /**
+     * Generates a IRouteDispatch subclass for the given target method, which sets the given headers before calling it.
+     *
+     * @param targetMethod The method the stub class should invoke.
+     * @param headers The route's static headers, or null.
+     * @return An IRouteDispatch subclass or null for invalid methods.
+     */
+    @SuppressWarnings("unchecked")
+    public Class<IRouteDispatch> generateRouteStub(Method targetMethod, @Nullable StaticHeaders headers) {
         if (!isValidTarget(StubType.Route, targetMethod)) return null;
-        return (Class<IRouteDispatch>) generateClass(StubType.Route, targetMethod, null);
+        return (Class<IRouteDispatch>) generateClass(StubType.Route, targetMethod, null, null, headers);
     }
 
     /**
@@ -59,7 +134,81 @@ public class BytecodeDispatch {
     @SuppressWarnings("unchecked")
     public Class<IExceptionDispatch> generateExceptionStub(Method targetMethod, Class<? extends Exception> exType) {
         if (!isValidTarget(StubType.Exception, targetMethod)) return null;
-        return (Class<IExceptionDispatch>) generateClass(StubType.Exception, targetMethod, exType);
+        return (Class<IExceptionDispatch>) generateClass(StubType.Exception, targetMethod, exType, null, null);
+    }
+
+    /**
+     * Generates a stub implementing {@link spark.Route} itself, so Spark calls straight into it with no adapter in
+     * between. If a transformer is given its render call is made in the same generated method; a
+     * {@link JsonTransformer} renders to bytes and defaults the content type, as for wrapped routes.
+     *
+     * @param targetMethod The method the stub should invoke.
+     * @param transformer The route's transformer, or null.
+     * @return The route, or null for invalid methods.
+     */
+    @Nullable
+    public spark.Route generateSparkRoute(Method targetMethod, @Nullable ResponseTransformer transformer) {
+        return generateSparkRoute(targetMethod, transformer, null);
+    }
+
+    /**
+     * As {@link #generateSparkRoute(Method, ResponseTransformer)}, setting the given headers before calling the target.
+     *
+     * @param targetMethod The method the stub should invoke.
+     * @param transformer The route's transformer, or null.
+     * @param headers The route's static headers, or null.
+     * @return The route, or null for invalid methods.
+     */
+    @Nullable
+    public spark.Route generateSparkRoute(Method targetMethod, @Nullable ResponseTransformer transformer,
+                                          @Nullable StaticHeaders headers) {
+        if (!isValidTarget(StubType.SparkRoute, targetMethod)) return null;
+        Class<?> cls = generateClass(StubType.SparkRoute, targetMethod, null, transformer, headers);
+        try {
+            if (transformer == null) return (spark.Route) cls.getDeclaredConstructor().newInstance();
+            return (spark.Route) cls.getConstructors()[0].newInstance(transformer);
+        } catch (ReflectiveOperationException ex) {
+            log.error("Error instantiating route stub.", ex);
+            return null;
+        }
+    }
+
+    /**
+     * Generates a stub implementing {@link spark.Filter} itself. The target's return value is discarded.
+     *
+     * @param targetMethod The method the stub should invoke.
+     * @return The filter, or null for invalid methods.
+     */
+    @Nullable
+    public spark.Filter generateSparkFilter(Method targetMethod) {
+        if (!isValidTarget(StubType.SparkFilter, targetMethod)) return null;
+        return (spark.Filter) newInstance(generateClass(StubType.SparkFilter, targetMethod, null, null, null));
+    }
+
+    /**
+     * Generates a stub implementing {@link spark.ExceptionHandler} itself. The target's return value is discarded.
+     *
+     * @param targetMethod The method the stub should invoke.
+     * @param exType The Exception type the handler is registered for.
+     * @return The exception handler, or null for invalid methods.
+     */
+    @Nullable
+    @SuppressWarnings("unchecked") // The stub takes any Exception, and casts it to exType itself
+    public spark.ExceptionHandler<Exception> generateSparkExceptionHandler(Method targetMethod,
+                                                                           Class<? extends Exception> exType) {
+        if (!isValidTarget(StubType.SparkException, targetMethod)) return null;
+        return (spark.ExceptionHandler<Exception>) newInstance(generateClass(StubType.SparkException, targetMethod,
+                exType, null, null));
+    }
+
+    @Nullable
+    private static Object newInstance(Class<?> cls) {
+        try {
+            return cls.getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException ex) {
+            log.error("Error instantiating stub.", ex);
+            return null;
+        }
     }
 
     /**
@@ -71,12 +220,15 @@ public class BytecodeDispatch {
      */
     private boolean isValidTarget(StubType type, Method m) {
         try {
-            if (m.getReturnType() == void.class || m.getParameterCount() != type.params
+            int params = type.params + (getBody(type, m) != null || takesSink(type, m) ? 1 : 0);
+            if (m.getReturnType() == void.class || m.getParameterCount() != params
                     || !Modifier.isStatic(m.getModifiers()) || !Modifier.isPublic(m.getModifiers())) {
                 throw new Exception("The signature must match the Spark standard and be public static.");
             }
+            if (params > type.params && m.getParameterTypes()[type.params].isPrimitive())
+                throw new Exception("@Body parameters can't be primitives.");
 
-            Class p1 = null, p2 = null, p3 = null;
+            Class<?> p1 = null, p2 = null, p3 = null;
 
             switch (type.params) {
                 case 3:
@@ -89,10 +241,9 @@ public class BytecodeDispatch {
             }
 
             if (type.params > 2 && p3 != Response.class) throw new Exception("Wrong third param type.");
-            if (type.params > 1 && p2 != (type == StubType.Route ? Response.class : Request.class))
+            if (type.params > 1 && p2 != (type.params == 2 ? Response.class : Request.class))
                 throw new Exception("Wrong second param type.");
-            if (type.params > 0 && (p1 != Request.class && type == StubType.Route) ||
-                    (p1 == null || !Exception.class.isAssignableFrom(p1) && type == StubType.Exception))
+            if (type.params == 2 ? p1 != Request.class : p1 == null || !Exception.class.isAssignableFrom(p1))
                 throw new Exception("Wrong first param type.");
 
             return true;
@@ -103,6 +254,33 @@ public class BytecodeDispatch {
         }
     }
 
+    /**
+     * Finds a route's {@link Routes.Body} annotation. It's only valid on a third parameter after the Request and
+     * Response.
+     *
+     * @param type The dispatcher type.
+     * @param m Target method.
+     * @return The annotation, or null if the method has no body parameter.
+     */
+    @Nullable
+    private static Routes.Body getBody(StubType type, Method m) {
+        if (type.params != 2 || m.getParameterCount() != 3) return null;
+        for (Annotation ann : m.getParameterAnnotations()[2])
+            if (ann instanceof Routes.Body) return (Routes.Body) ann;
+        return null;
+    }
+
+    /**
+     * Checks whether a route takes an {@link EventSink} as its third parameter, after the Request and Response.
+     *
+     * @param type The dispatcher type.
+     * @param m Target method.
+     * @return True if the method is an event stream handler.
+     */
+    private static boolean takesSink(StubType type, Method m) {
+        return type.params == 2 && m.getParameterCount() == 3 && m.getParameterTypes()[2] == EventSink.class;
+    }
+
     /**
      * The meat of the bytecode dispatcher. Takes a type, target method and optionally an Exception type and spits out
      * a shiny new dispatcher class of the appropriate dispatch interface.
@@ -110,59 +288,361 @@ public class BytecodeDispatch {
      * @param type The type of dispatcher.
      * @param targetMethod Target method the new class will invoke.
      * @param exType The Exception type, if making an Exception dispatcher.
-     * @return A new dispatcher subclass.
+     * @param transformer The transformer to call on the result, for SparkRoute stubs. The class gets a constructor
+     *                    taking it.
+     * @param headers Static headers to set around the call to the target, for route stubs.
+     * @return A dispatcher subclass, reused if one already exists for the same inputs.
      */
-    private Class generateClass(StubType type, Method targetMethod,
-                                @Nullable Class<? extends Exception> exType) {
-        Class targetClass = targetMethod.getDeclaringClass();
-        String basename = "$Generated" + type.name() + "Dispatch_"
-                + targetClass.getCanonicalName().replace('.', '_') + "$" + targetMethod.getName();
+    private Class<?> generateClass(StubType type, Method targetMethod, @Nullable Class<? extends Exception> exType,
+                                   @Nullable ResponseTransformer transformer, @Nullable StaticHeaders headers) {
+        Class<?> targetClass = targetMethod.getDeclaringClass();
+        if (type.params == 3 && exType == null)
+            throw new RuntimeException("exType must not be null when generating an Exception stub");
 
-        if (type == StubType.Exception && exType == null)
-            throw new RuntimeException("exType must not be null when StubType == Exception");
+        // The transformer is held in a field typed as its own class where the stub can link against it, so the render
+        // call is a direct invokevirtual rather than an interface call
+        String transformerType = null;
+        if (transformer != null) {
+            Class<?> tClass = transformer.getClass();
+            transformerType = isLinkable(tClass, targetClass) ? Type.getInternalName(tClass)
+                    : Type.getInternalName(ResponseTransformer.class);
+        }
+        Routes.Body body = getBody(type, targetMethod);
+        String name = stubName(type, targetMethod, exType, transformerType, transformer instanceof JsonTransformer,
+                headers, body, takesSink(type, targetMethod), eventKind, eventRoute);
+
+        ARClassLoader loader = ARClassLoader.forClass(targetClass);
+        Class<?> stub;
+        synchronized (loader) {
+            stub = findStub(loader, name);
+        }
+        // Generation is deterministic, so a stub defined before recording started can be recorded by writing it again
+        if (stub == null || (recording != null && stub.getClassLoader() == loader)) {
+            // Written outside the lock, so stubs for different routes are generated in parallel; only defining them
+            // is serialised
+            byte[] b = writeClass(type, targetMethod, name.replace('.', '/'), transformerType,
+                    transformer instanceof JsonTransformer, headers, body, eventKind, eventRoute);
+            synchronized (loader) {
+                if (stub == null) stub = loader.findGenerated(name); // Another thread may have got there first
+                if (stub == null) stub = loader.defineClass(name, b);
+                record(name, b);
+            }
+        }
+        try {
+            if (body != null) stub.getField(BODY_TYPE_FIELD).set(null, targetMethod.getGenericParameterTypes()[2]);
+            if (headers != null) stub.getField(HEADERS_FIELD).set(null, headers);
+        } catch (ReflectiveOperationException ex) {
+            throw new RuntimeException("Couldn't set up static fields for " + targetMethod, ex);
+        }
+        return stub;
+    }
 
+    /**
+     * Names a stub deterministically: the target, then a hash of the target's full class name (flattening it isn't
+     * unique: a.b_C and a_b.C read the same) and everything else that shapes the generated code. The same route gets
+     * the same class on every run (which is what lets it be archived by AppCDS, see
+     * {@link #startRecording()}), and a stub already defined for the same inputs can simply be reused.
+     */
+    private static String stubName(StubType type, Method targetMethod, @Nullable Class<?> exType,
+                                   @Nullable String transformerType, boolean json, @Nullable StaticHeaders headers,
+                                   @Nullable Routes.Body body, boolean sink, @Nullable SpanKind kind,
+                                   @Nullable String route) {
+        StringBuilder key = new StringBuilder().append(STUB_FORMAT).append('|').append(type.name())
+                .append('|').append(targetMethod.getDeclaringClass().getName())
+                .append('|').append(Type.getMethodDescriptor(targetMethod))
+                .append('|').append(exType == null ? "" : exType.getName())
+                .append('|').append(transformerType == null ? "" : transformerType).append(json ? "+json" : "")
+                .append('|').append(body == null ? "" : body.maxBytes()).append(sink ? "+sink" : "");
+        if (headers != null) key.append('|').append(headers.getContentType()).append(headers.getHeaders());
+        if (kind != null) key.append('|').append(kind.name()).append(' ').append(route == null ? "*" : route);
+        CRC32 crc = new CRC32();
+        crc.update(key.toString().getBytes(StandardCharsets.UTF_8));
+        return STUB_PACKAGE + ".$Generated" + type.name() + "Dispatch_"
+                + targetMethod.getDeclaringClass().getCanonicalName().replace('.', '_') + "$" + targetMethod.getName()
+                + "_" + Long.toHexString(crc.getValue());
+    }
+
+    /**
+     * Finds a stub which already exists: defined earlier in this loader, or precompiled into a stubs jar written by a
+     * training run (see {@link #startRecording()}). Only classpath classes can use precompiled stubs. Call while
+     * holding the loader's lock.
+     */
+    @Nullable
+    private static Class<?> findStub(ARClassLoader loader, String name) {
+        Class<?> stub = loader.findGenerated(name);
+        if (stub != null || !loader.isShared() || !precompiledStubs().contains(name)) return stub;
+        try {
+            stub = Class.forName(name, false, loader.getParent());
+        } catch (ClassNotFoundException | LinkageError ex) {
+            log.warn("Precompiled stub {} couldn't be loaded - generating it instead.", name, ex);
+            return null;
+        }
+        if (recording != null) {
+            try (InputStream in = loader.getParent().getResourceAsStream(name.replace('.', '/') + ".class")) {
+                if (in != null) record(name, readAll(in));
+            } catch (IOException ex) {
+                log.warn("Couldn't read back precompiled stub {} for recording.", name, ex);
+            }
+        }
+        return stub;
+    }
+
+    /** Lazily loads the names listed by stubs jars on the classpath. */
+    private static Set<String> precompiledStubs() {
+        Set<String> names = precompiled;
+        if (names != null) return names;
+        names = new HashSet<>();
+        try {
+            Enumeration<URL> lists = ClassLoader.getSystemClassLoader().getResources(STUB_LIST);
+            while (lists.hasMoreElements()) {
+                try (InputStream in = lists.nextElement().openStream()) {
+                    for (String line : new String(readAll(in), StandardCharsets.UTF_8).split("\n"))
+                        if (!line.trim().isEmpty()) names.add(line.trim());
+                }
+            }
+        } catch (IOException ex) {
+            log.warn("Couldn't read precompiled stub lists - all stubs will be generated.", ex);
+        }
+        if (!names.isEmpty()) log.debug("Found {} precompiled stubs on the classpath.", names.size());
+        precompiled = names;
+        return names;
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] chunk = new byte[8192];
+        int n;
+        while ((n = in.read(chunk)) > 0) out.write(chunk, 0, n);
+        return out.toByteArray();
+    }
+
+    private static synchronized void record(String name, byte[] code) {
+        if (recording != null) recording.put(name, code);
+    }
+
+    /**
+     * Starts keeping a copy of every stub generated or loaded from now on, for a training run to write into a stubs
+     * jar. Stubs defined from bytes at runtime can't go into an AppCDS archive, but loaded from a jar on the classpath
+     * they can.
+     */
+    public static synchronized void startRecording() {
+        if (recording == null) recording = new TreeMap<>();
+    }
+
+    /**
+     * Stops recording and writes the recorded stubs as a jar, with the list of stubs it holds so later runs with the
+     * jar on their classpath load them instead of generating them. The jar is written byte-for-byte the same for the
+     * same stubs, and left untouched if it already is, since AppCDS rejects an archive whose jars have changed.
+     *
+     * @param jar The jar file to write.
+     * @return The number of stubs in the jar.
+     * @throws IOException If the jar couldn't be written.
+     */
+    public static int writeRecordedStubs(Path jar) throws IOException {
+        Map<String, byte[]> stubs;
+        synchronized (BytecodeDispatch.class) {
+            stubs = recording == null ? Collections.emptyMap() : recording;
+            recording = null;
+        }
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        try (JarOutputStream out = new JarOutputStream(buf)) {
+            putEntry(out, STUB_LIST, String.join("\n", stubs.keySet()).getBytes(StandardCharsets.UTF_8));
+            for (Map.Entry<String, byte[]> stub : stubs.entrySet())
+                putEntry(out, stub.getKey().replace('.', '/') + ".class", stub.getValue());
+        }
+        byte[] b = buf.toByteArray();
+        if (!Files.exists(jar) || !Arrays.equals(Files.readAllBytes(jar), b)) Files.write(jar, b);
+        return stubs.size();
+    }
+
+    private static void putEntry(JarOutputStream out, String name, byte[] content) throws IOException {
+        JarEntry entry = new JarEntry(name);
+        entry.setTime(0); // Fixed, so the jar only changes when a stub does
+        out.putNextEntry(entry);
+        out.write(content);
+        out.closeEntry();
+    }
+
+    /**
+     * Writes a stub class.
+     *
+     * @param type The type of dispatcher.
+     * @param targetMethod Target method the new class will invoke.
+     * @param asmBasename The class's internal name.
+     * @param transformerType The internal name of the transformer field's type, or null for no transformer.
+     * @param json True if the transformer is a {@link JsonTransformer}.
+     * @param headers Static headers to set around the call to the target, for route stubs.
+     * @param body The target's body parameter annotation, or null.
+     * @param kind The pipeline step for JFR events, or null if unlabelled.
+     * @param route The route template or filter path for JFR events, or null.
+     * @return The class file.
+     */
+    private static byte[] writeClass(StubType type, Method targetMethod, String asmBasename,
+                                     @Nullable String transformerType, boolean json,
+                                     @Nullable StaticHeaders headers, @Nullable Routes.Body body,
+                                     @Nullable SpanKind kind, @Nullable String route) {
+        Class<?> targetClass = targetMethod.getDeclaringClass();
         ClassWriter writer = new ClassWriter(ClassWriter.COMPUTE_FRAMES);
 
         // Visit the class
-        String asmBasename = "io/drakon/spark/autorouter/dispatch/gen/routes" + basename;
         writer.visit(Opcodes.V1_8, ACC_PUBLIC + ACC_FINAL, asmBasename, null, "java/lang/Object",
                 new String[]{ type.iface.getInternalName() });
+        if (transformerType != null) {
+            writer.visitField(ACC_PRIVATE + ACC_FINAL, TRANSFORMER_FIELD, "L" + transformerType + ";", null, null)
+                    .visitEnd();
+        }
 
         // Constructor
         // from https://coderwall.com/p/k9uusw/generate-default-constructor-using-asm-5-bytecode-manipulation
-        MethodVisitor ctorMv = writer.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        String ctorDesc = transformerType == null ? "()V" : "(L" + transformerType + ";)V";
+        MethodVisitor ctorMv = writer.visitMethod(ACC_PUBLIC, "<init>", ctorDesc, null, null);
         ctorMv.visitCode();
         ctorMv.visitVarInsn(ALOAD, 0);
         ctorMv.visitMethodInsn(INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false);
+        if (transformerType != null) {
+            ctorMv.visitVarInsn(ALOAD, 0);
+            ctorMv.visitVarInsn(ALOAD, 1);
+            ctorMv.visitFieldInsn(PUTFIELD, asmBasename, TRANSFORMER_FIELD, "L" + transformerType + ";");
+        }
         ctorMv.visitInsn(RETURN);
-        ctorMv.visitMaxs(1,1);
+        ctorMv.visitMaxs(2, 2);
         ctorMv.visitEnd();
 
-        // Visit the dispatch method
-        String mDescript = "(" +
-                (type == StubType.Exception ? "L" + Type.getType(exType).getInternalName() + ";" : "") +
-                "Lspark/Request;Lspark/Response;)Ljava/lang/Object;";
-        MethodVisitor mv = writer.visitMethod(ACC_PUBLIC, "dispatch",
-                mDescript,
-                null, null);
+        // Visit the dispatch method; Exception stubs take the interface's Exception and cast it down for the target
+        MethodVisitor mv = writer.visitMethod(ACC_PUBLIC, type.method, type.descriptor(), null, null);
         int base = 1;
-        if (type == StubType.Exception) {
+        int eventVar = type.params + 2; // After the result temporary
+        String events = Type.getInternalName(JfrEvents.class);
+        if (type.params == 3) {
             mv.visitVarInsn(ALOAD, 1);
+            mv.visitMethodInsn(INVOKESTATIC, events, "beginException", "(Ljava/lang/Exception;)Ljava/lang/Object;",
+                    false);
+        } else if (kind == null ? type == StubType.SparkFilter : kind != SpanKind.HANDLER) {
+            if (kind == null) mv.visitInsn(ACONST_NULL);
+            else mv.visitLdcInsn(kind.name());
+            mv.visitMethodInsn(INVOKESTATIC, events, "beginFilter", "(Ljava/lang/String;)Ljava/lang/Object;", false);
+        } else {
+            mv.visitMethodInsn(INVOKESTATIC, events, "beginDispatch", "()Ljava/lang/Object;", false);
+        }
+        mv.visitVarInsn(ASTORE, eventVar);
+        Label tryStart = new Label(), tryEnd = new Label(), catchStart = new Label();
+        mv.visitTryCatchBlock(tryStart, tryEnd, catchStart, "java/lang/Throwable");
+        mv.visitLabel(tryStart);
+        if (type.params == 3) {
+            mv.visitVarInsn(ALOAD, 1);
+            Class<?> targetEx = targetMethod.getParameterTypes()[0];
+            if (targetEx != Exception.class) mv.visitTypeInsn(CHECKCAST, Type.getInternalName(targetEx));
             base += 1;
         }
+        if (headers != null) {
+            // Content type up front so the handler can still replace it; headers on the way out (see StaticHeaders)
+            writer.visitField(ACC_PUBLIC + ACC_STATIC, HEADERS_FIELD, STATIC_HEADERS_DESC, null, null).visitEnd();
+            if (headers.getContentType() != null) writeApplyHeaders(mv, asmBasename, base, "applyContentType");
+        }
         mv.visitVarInsn(ALOAD, base);
         mv.visitVarInsn(ALOAD, base + 1);
+        if (body != null) {
+            // Decoded straight from the request stream; the generic type lives in a static field set after loading
+            writer.visitField(ACC_PUBLIC + ACC_STATIC, BODY_TYPE_FIELD, "Ljava/lang/reflect/Type;", null, null)
+                    .visitEnd();
+            mv.visitVarInsn(ALOAD, base);
+            mv.visitFieldInsn(GETSTATIC, asmBasename, BODY_TYPE_FIELD, "Ljava/lang/reflect/Type;");
+            mv.visitLdcInsn(body.maxBytes());
+            mv.visitMethodInsn(INVOKESTATIC, "io/drakon/spark/autorouter/codec/BodyDecoders", "decode",
+                    "(Lspark/Request;Ljava/lang/reflect/Type;J)Ljava/lang/Object;", false);
+            mv.visitTypeInsn(CHECKCAST, Type.getInternalName(targetMethod.getParameterTypes()[2]));
+        } else if (takesSink(type, targetMethod)) {
+            mv.visitVarInsn(ALOAD, base);
+            mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(EventSink.class), "of",
+                    "(Lspark/Request;)" + Type.getDescriptor(EventSink.class), false);
+        }
         mv.visitMethodInsn(INVOKESTATIC, Type.getType(targetClass).getInternalName(),
                 targetMethod.getName(), Type.getMethodDescriptor(targetMethod), false);
-        mv.visitMaxs(base + 1, 0);
-        mv.visitInsn(ARETURN);
+        if (transformerType != null) {
+            // result -> this.transformer.render(result), or renderBytes(res, result) for JSON
+            mv.visitVarInsn(ASTORE, base + 2);
+            mv.visitVarInsn(ALOAD, 0);
+            mv.visitFieldInsn(GETFIELD, asmBasename, TRANSFORMER_FIELD, "L" + transformerType + ";");
+            if (json) {
+                if (!transformerType.equals(Type.getInternalName(JsonTransformer.class)))
+                    mv.visitTypeInsn(CHECKCAST, Type.getInternalName(JsonTransformer.class));
+                mv.visitVarInsn(ALOAD, base + 1);
+                mv.visitVarInsn(ALOAD, base + 2);
+                mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(JsonTransformer.class), "renderBytes",
+                        "(Lspark/Response;Ljava/lang/Object;)[B", false);
+            } else {
+                boolean iface = transformerType.equals(Type.getInternalName(ResponseTransformer.class));
+                mv.visitVarInsn(ALOAD, base + 2);
+                mv.visitMethodInsn(iface ? INVOKEINTERFACE : INVOKEVIRTUAL, transformerType, "render",
+                        "(Ljava/lang/Object;)Ljava/lang/String;", iface);
+            }
+        }
+        mv.visitLabel(tryEnd);
+
+        // Ends the event on the way out, whether the target returned or threw
+        String handler = targetClass.getName() + "#" + targetMethod.getName();
+        if (type.returns) mv.visitVarInsn(ASTORE, base + 2);
+        else mv.visitInsn(POP);
+        boolean setHeaders = headers != null && !headers.getHeaders().isEmpty();
+        if (setHeaders) writeApplyHeaders(mv, asmBasename, base, "applyUnsetHeaders");
+        writeEventEnd(mv, eventVar, base, route, handler, false);
+        if (type.returns) {
+            mv.visitVarInsn(ALOAD, base + 2);
+            mv.visitInsn(ARETURN);
+        } else {
+            mv.visitInsn(RETURN);
+        }
+        mv.visitLabel(catchStart);
+        mv.visitVarInsn(ASTORE, base + 2);
+        if (setHeaders) writeApplyHeaders(mv, asmBasename, base, "applyUnsetHeaders"); // e.g. for halt() responses
+        writeEventEnd(mv, eventVar, base, route, handler, true);
+        mv.visitVarInsn(ALOAD, base + 2);
+        mv.visitInsn(ATHROW);
+        mv.visitMaxs(0, 0); // Computed
         mv.visitEnd();
 
         // End visitations
         writer.visitEnd();
-        byte[] b = writer.toByteArray();
+        return writer.toByteArray();
+    }
+
+    /**
+     * Writes a call to one of the stub's {@link StaticHeaders} methods taking the response.
+     */
+    private static void writeApplyHeaders(MethodVisitor mv, String asmBasename, int base, String method) {
+        mv.visitFieldInsn(GETSTATIC, asmBasename, HEADERS_FIELD, STATIC_HEADERS_DESC);
+        mv.visitVarInsn(ALOAD, base + 1);
+        mv.visitMethodInsn(INVOKEVIRTUAL, Type.getInternalName(StaticHeaders.class), method, "(Lspark/Response;)V",
+                false);
+    }
+
+    /**
+     * Writes the {@link JfrEvents#end} call, with the exception from the result temporary if the target threw.
+     */
+    private static void writeEventEnd(MethodVisitor mv, int eventVar, int base, @Nullable String route,
+                                      String handler, boolean thrown) {
+        mv.visitVarInsn(ALOAD, eventVar);
+        mv.visitVarInsn(ALOAD, base);
+        if (route == null) mv.visitInsn(ACONST_NULL);
+        else mv.visitLdcInsn(route);
+        mv.visitLdcInsn(handler);
+        if (thrown) mv.visitVarInsn(ALOAD, base + 2);
+        else mv.visitInsn(ACONST_NULL);
+        mv.visitMethodInsn(INVOKESTATIC, Type.getInternalName(JfrEvents.class), "end",
+                "(Ljava/lang/Object;Lspark/Request;Ljava/lang/String;Ljava/lang/String;Ljava/lang/Throwable;)V", false);
+    }
 
-        return classLoader.defineClass("io.drakon.spark.autorouter.dispatch.gen.routes" + basename, b);
+    /**
+     * Checks whether a stub generated for the target class can refer to a class directly: it must be public and
+     * resolve to the same class from the target's loader.
+     */
+    private static boolean isLinkable(Class<?> cls, Class<?> targetClass) {
+        if (!Modifier.isPublic(cls.getModifiers())) return false;
+        try {
+            return Class.forName(cls.getName(), false, targetClass.getClassLoader()) == cls;
+        } catch (ClassNotFoundException ex) {
+            return false;
+        }
     }
 
 }
@@ -0,0 +1,79 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Small bounded cache for values parsed from request headers. Hits are a map lookup and a flag write; once full, each
+ * insert evicts with the clock (second chance) algorithm, so entries hit since the hand last passed them survive and a
+ * stream of one-off keys can't pin the cache.
+ *
+ * @param <V> The value type.
+ */
+@ParametersAreNonnullByDefault
+class ClockCache<V> {
+
+    private final int maxSize;
+    private final ConcurrentHashMap<String, Entry<V>> entries = new ConcurrentHashMap<>();
+    private final ConcurrentLinkedQueue<String> hand = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param maxSize The most entries to keep.
+     */
+    ClockCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param key The key.
+     * @return The cached value, or null.
+     */
+    @Nullable
+    V get(String key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) return null;
+        if (!entry.referenced) entry.referenced = true;
+        return entry.value;
+    }
+
+    /**
+     * Caches a value, unless the key already has one, evicting as needed.
+     *
+     * @param key The key.
+     * @param value The value.
+     */
+    void put(String key, V value) {
+        if (maxSize <= 0 || entries.putIfAbsent(key, new Entry<>(value)) != null) return;
+        hand.add(key);
+        while (entries.size() > maxSize) {
+            String next = hand.poll();
+            if (next == null) break; // Another thread is evicting
+            Entry<V> entry = entries.get(next);
+            if (entry == null) continue;
+            if (entry.referenced) {
+                entry.referenced = false;
+                hand.add(next);
+            } else {
+                entries.remove(next, entry);
+            }
+        }
+    }
+
+    /** @return The number of cached entries. */
+    int size() {
+        return entries.size();
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        volatile boolean referenced = false;
+
+        Entry(V value) {
+            this.value = value;
+        }
+    }
+
+}
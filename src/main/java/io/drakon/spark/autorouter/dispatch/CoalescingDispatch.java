@@ -0,0 +1,247 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Request;
+import spark.Response;
+import spark.ResponseTransformer;
+
+/**
+ * Single-flight wrapper around a route dispatcher. Concurrent requests which share a coalescing key (path plus the
+ * selected query params and headers) wait on the first request's handler execution rather than running their own.
+ *
+ * If a transformer is given it is applied once by the leading request, so every waiter gets the serialized result
+ * instead of re-rendering it. The route should then be registered with Spark <i>without</i> the transformer.
+ *
+ * Waiters get the leader's status, content type and any headers the handler set with {@link Response#header}.
+ * Cookies, and headers set directly on {@link Response#raw()}, are not shared.
+ */
+@ParametersAreNonnullByDefault
+public class CoalescingDispatch implements IRouteDispatch {
+
+    private final IRouteDispatch delegate;
+    @Nullable private final ResponseTransformer transformer;
+    private final String[] queryParams;
+    private final String[] headers;
+    private final ConcurrentHashMap<String, CompletableFuture<Result>> inFlight = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate The dispatcher to coalesce calls to.
+     * @param transformer The route's transformer, or null if the route doesn't have one.
+     * @param queryParams Query params which form part of the coalescing key.
+     * @param headers Headers which form part of the coalescing key.
+     */
+    public CoalescingDispatch(IRouteDispatch delegate, @Nullable ResponseTransformer transformer,
+                              String[] queryParams, String[] headers) {
+        this.delegate = delegate;
+        this.transformer = transformer;
+        this.queryParams = queryParams.clone();
+        this.headers = headers.clone();
+    }
+
+    @Override
+    public Object dispatch(Request req, Response res) {
+        String key = coalescingKey(req);
+        CompletableFuture<Result> ours = new CompletableFuture<>();
+        CompletableFuture<Result> leader = inFlight.putIfAbsent(key, ours);
+
+        if (leader != null) {
+            Result result;
+            try {
+                // Interruptible, so deadlines still apply to waiters
+                result = leader.get();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException("Interrupted while waiting for coalesced request.", ex);
+            } catch (ExecutionException ex) {
+                Throwable cause = ex.getCause();
+                if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                if (cause instanceof Error) throw (Error) cause;
+                throw new RuntimeException(cause);
+            }
+            return result.applyTo(res);
+        }
+
+        Result result;
+        try {
+            RecordingResponse recording = new RecordingResponse(res);
+            Object body = delegate.dispatch(req, recording);
+            if (transformer != null) body = transformer.render(body);
+            result = new Result(body, res.status(), res.type(), recording.headers);
+        } catch (Throwable t) {
+            inFlight.remove(key, ours);
+            ours.completeExceptionally(t);
+            if (t instanceof RuntimeException) throw (RuntimeException) t;
+            if (t instanceof Error) throw (Error) t;
+            throw new RuntimeException(t);
+        }
+        inFlight.remove(key, ours);
+        ours.complete(result);
+        return result.body;
+    }
+
+    /**
+     * @return The number of distinct keys currently being executed.
+     */
+    public int inFlightCount() {
+        return inFlight.size();
+    }
+
+    /**
+     * Builds the coalescing key for a request.
+     *
+     * @param req The request.
+     * @return The key string.
+     */
+    String coalescingKey(Request req) {
+        StringBuilder key = new StringBuilder(req.pathInfo());
+        for (String param : queryParams) key.append('\u0000').append(param).append('=').append(req.queryParams(param));
+        for (String header : headers) key.append('\u0001').append(header).append('=').append(req.headers(header));
+        return key.toString();
+    }
+
+    /** The outcome of a leading request, shared with all waiters. */
+    private static class Result {
+        final Object body;
+        final int status;
+        @Nullable final String type;
+        final List<String[]> headers;
+
+        Result(Object body, int status, @Nullable String type, List<String[]> headers) {
+            this.body = body;
+            this.status = status;
+            this.type = type;
+            this.headers = headers;
+        }
+
+        /**
+         * Copies the shared status, content type and headers onto a waiter's response.
+         *
+         * @param res The waiter's response.
+         * @return A copy of the body for the waiter.
+         */
+        Object applyTo(Response res) {
+            if (status > 0) res.status(status);
+            if (type != null) res.type(type);
+            for (String[] header : headers) res.header(header[0], header[1]);
+            if (body instanceof byte[]) return ((byte[]) body).clone();
+            return body;
+        }
+    }
+
+    /** Passes everything through to the leader's response, noting the headers the handler sets. */
+    private static class RecordingResponse extends Response {
+        private final Response res;
+        final List<String[]> headers = new ArrayList<>(2);
+
+        RecordingResponse(Response res) {
+            this.res = res;
+        }
+
+        @Override
+        public void header(String header, String value) {
+            res.header(header, value);
+            headers.add(new String[]{header, value});
+        }
+
+        @Override
+        public void status(int statusCode) {
+            res.status(statusCode);
+        }
+
+        @Override
+        public int status() {
+            return res.status();
+        }
+
+        @Override
+        public void type(String contentType) {
+            res.type(contentType);
+        }
+
+        @Override
+        public String type() {
+            return res.type();
+        }
+
+        @Override
+        public void body(String body) {
+            res.body(body);
+        }
+
+        @Override
+        public String body() {
+            return res.body();
+        }
+
+        @Override
+        public HttpServletResponse raw() {
+            return res.raw();
+        }
+
+        @Override
+        public void redirect(String location) {
+            res.redirect(location);
+        }
+
+        @Override
+        public void redirect(String location, int httpStatusCode) {
+            res.redirect(location, httpStatusCode);
+        }
+
+        @Override
+        public void cookie(String name, String value) {
+            res.cookie(name, value);
+        }
+
+        @Override
+        public void cookie(String name, String value, int maxAge) {
+            res.cookie(name, value, maxAge);
+        }
+
+        @Override
+        public void cookie(String name, String value, int maxAge, boolean secured) {
+            res.cookie(name, value, maxAge, secured);
+        }
+
+        @Override
+        public void cookie(String name, String value, int maxAge, boolean secured, boolean httpOnly) {
+            res.cookie(name, value, maxAge, secured, httpOnly);
+        }
+
+        @Override
+        public void cookie(String path, String name, String value, int maxAge, boolean secured) {
+            res.cookie(path, name, value, maxAge, secured);
+        }
+
+        @Override
+        public void cookie(String path, String name, String value, int maxAge, boolean secured, boolean httpOnly) {
+            res.cookie(path, name, value, maxAge, secured, httpOnly);
+        }
+
+        @Override
+        public void cookie(String domain, String path, String name, String value, int maxAge, boolean secured,
+                           boolean httpOnly) {
+            res.cookie(domain, path, name, value, maxAge, secured, httpOnly);
+        }
+
+        @Override
+        public void removeCookie(String name) {
+            res.removeCookie(name);
+        }
+
+        @Override
+        public void removeCookie(String path, String name) {
+            res.removeCookie(path, name);
+        }
+    }
+
+}
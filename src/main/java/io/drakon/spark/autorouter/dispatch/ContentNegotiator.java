@@ -0,0 +1,148 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Parses and caches Accept headers for content negotiation. Real clients send a handful of distinct Accept strings, so
+ * each one is parsed once into a compact array of media ranges and then served from a bounded cache (see
+ * {@link ClockCache}), which keeps the strings in use when clients send one-off ones.
+ */
+@ParametersAreNonnullByDefault
+public class ContentNegotiator {
+
+    private static final MediaRange[] ACCEPT_ALL = { new MediaRange("*", "*", 1.0) };
+
+    private final ClockCache<MediaRange[]> cache;
+
+    /**
+     * @param cacheSize Maximum number of distinct Accept strings to cache.
+     */
+    public ContentNegotiator(int cacheSize) {
+        this.cache = new ClockCache<>(cacheSize);
+    }
+
+    /**
+     * Gets the parsed form of an Accept header.
+     *
+     * @param accept The raw header, or null if the request had none.
+     * @return The media ranges, most specific first.
+     */
+    MediaRange[] parse(@Nullable String accept) {
+        if (accept == null || accept.isEmpty()) return ACCEPT_ALL;
+        MediaRange[] ranges = cache.get(accept);
+        if (ranges != null) return ranges;
+        ranges = parseUncached(accept);
+        cache.put(accept, ranges);
+        return ranges;
+    }
+
+    /** @return The number of Accept strings currently cached. */
+    public int getCachedCount() {
+        return cache.size();
+    }
+
+    /**
+     * Checks if an Accept header permits a content type, as Spark does when matching filters by accept type.
+     *
+     * @param accept The raw header, or null.
+     * @param contentType The content type to check.
+     * @return True if the type is acceptable (q > 0).
+     */
+    public boolean accepts(@Nullable String accept, String contentType) {
+        return quality(parse(accept), contentType) > 0;
+    }
+
+    /**
+     * Works out how acceptable a content type is under the given ranges: the q-value of the most specific range which
+     * matches it.
+     *
+     * @param ranges Parsed ranges (most specific first).
+     * @param contentType The content type.
+     * @return The q-value, or 0 if no range matches.
+     */
+    static double quality(MediaRange[] ranges, String contentType) {
+        MediaRange range = bestMatch(ranges, contentType);
+        return range == null ? 0 : range.q;
+    }
+
+    /**
+     * Scores a content type for ranking candidates: q-value first, then how specifically the client asked for it.
+     *
+     * @param ranges Parsed ranges (most specific first).
+     * @param contentType The content type.
+     * @return The score, or 0 if the type isn't acceptable.
+     */
+    static long score(MediaRange[] ranges, String contentType) {
+        MediaRange range = bestMatch(ranges, contentType);
+        if (range == null || range.q <= 0) return 0;
+        return Math.round(range.q * 1000) * 3 + range.specificity;
+    }
+
+    @Nullable
+    private static MediaRange bestMatch(MediaRange[] ranges, String contentType) {
+        int slash = contentType.indexOf('/');
+        String type = slash < 0 ? contentType : contentType.substring(0, slash);
+        String subtype = slash < 0 ? "*" : contentType.substring(slash + 1);
+        int semi = subtype.indexOf(';');
+        if (semi >= 0) subtype = subtype.substring(0, semi);
+        for (MediaRange range : ranges) {
+            if (range.matches(type.trim(), subtype.trim())) return range;
+        }
+        return null;
+    }
+
+    private static MediaRange[] parseUncached(String accept) {
+        List<MediaRange> ranges = new ArrayList<>();
+        for (String part : accept.split(",")) {
+            String[] params = part.split(";");
+            String mime = params[0].trim().toLowerCase(Locale.ROOT);
+            if (mime.isEmpty()) continue;
+            if (mime.equals("*")) mime = "*/*";
+            int slash = mime.indexOf('/');
+            if (slash < 0) continue;
+
+            double q = 1.0;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=")) {
+                    try {
+                        q = Math.max(0, Math.min(1, Double.parseDouble(param.substring(2))));
+                    } catch (NumberFormatException ex) {
+                        q = 0;
+                    }
+                }
+            }
+            ranges.add(new MediaRange(mime.substring(0, slash), mime.substring(slash + 1), q));
+        }
+        // Most specific first, so the first match for a type is the one whose q applies
+        ranges.sort((a, b) -> b.specificity - a.specificity);
+        return ranges.toArray(new MediaRange[0]);
+    }
+
+    /** One entry in an Accept header. */
+    static final class MediaRange {
+        final String type;
+        final String subtype;
+        final double q;
+        /** 0 for * / *, 1 for type/*, 2 for type/subtype. */
+        final int specificity;
+
+        MediaRange(String type, String subtype, double q) {
+            this.type = type;
+            this.subtype = subtype;
+            this.q = q;
+            this.specificity = type.equals("*") ? 0 : subtype.equals("*") ? 1 : 2;
+        }
+
+        boolean matches(String type, String subtype) {
+            return (this.type.equals("*") || this.type.equalsIgnoreCase(type))
+                    && (this.subtype.equals("*") || this.subtype.equalsIgnoreCase(subtype));
+        }
+    }
+
+}
@@ -0,0 +1,179 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Filter;
+import spark.HaltException;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+/**
+ * Applies {@link Routes.Cors} policies, compiled per route template when routes are registered. Registered as an
+ * early before filter: preflight requests are answered (and halted) straight from the table with precomputed header
+ * values, so they never reach the other filters or Spark's route matching; actual cross-origin requests get their
+ * Access-Control-Allow-Origin header and carry on. Requests without an Origin header cost one header lookup.
+ */
+@ParametersAreNonnullByDefault
+public class CorsFilter implements Filter {
+
+    // Thrown for every preflight, so allocated once; nothing reads their stack traces
+    private static final HaltException ALLOWED = haltWith(204);
+    private static final HaltException FORBIDDEN = haltWith(403);
+
+    private final Map<String, Policy> exact = new HashMap<>();
+    private final List<String[]> patterns = new ArrayList<>();
+    private final List<Policy> patternPolicies = new ArrayList<>();
+
+    /** One path's compiled policy. */
+    public static final class Policy {
+        @Nullable private final Set<String> origins; // Null for any
+        private final boolean credentials;
+        private final Set<String> methods;
+        private final String allowMethods;
+        @Nullable private final Set<String> headers; // Lowercase; null for any
+        private final String allowHeaders;
+        private final String maxAge;
+
+        /**
+         * @param origins Allowed origins, or "*" for any.
+         * @param methods Allowed methods.
+         * @param headers Allowed request headers, or "*" for any.
+         * @param maxAgeSeconds How long browsers may cache a preflight result.
+         * @param credentials Whether requests may carry credentials.
+         */
+        public Policy(String[] origins, String[] methods, String[] headers, long maxAgeSeconds, boolean credentials) {
+            this.origins = Arrays.asList(origins).contains("*") ? null : new HashSet<>(Arrays.asList(origins));
+            this.credentials = credentials;
+            this.methods = new HashSet<>(Arrays.asList(methods));
+            this.allowMethods = String.join(", ", methods);
+            boolean anyHeader = Arrays.asList(headers).contains("*");
+            this.headers = anyHeader ? null : new HashSet<>();
+            if (!anyHeader) for (String header : headers) this.headers.add(header.toLowerCase(Locale.ROOT));
+            this.allowHeaders = String.join(", ", headers);
+            this.maxAge = Long.toString(maxAgeSeconds);
+        }
+
+        private boolean allowsOrigin(String origin) {
+            return origins == null || origins.contains(origin);
+        }
+
+        private void applyOrigin(Response res, String origin) {
+            if (origins == null && !credentials) {
+                res.header("Access-Control-Allow-Origin", "*");
+            } else {
+                res.header("Access-Control-Allow-Origin", origin);
+                res.header("Vary", "Origin");
+            }
+            if (credentials) res.header("Access-Control-Allow-Credentials", "true");
+        }
+
+        /** @return The Access-Control-Allow-Headers value for the requested headers, or null if any aren't allowed. */
+        @Nullable
+        private String allowHeaders(@Nullable String requested) {
+            if (requested == null || requested.trim().isEmpty()) return "";
+            if (headers == null) return requested;
+            for (String header : requested.split(",")) {
+                String name = header.trim().toLowerCase(Locale.ROOT);
+                if (!name.isEmpty() && !headers.contains(name)) return null;
+            }
+            return allowHeaders;
+        }
+    }
+
+    private static HaltException haltWith(int status) {
+        try {
+            throw halt(status);
+        } catch (HaltException ex) {
+            return ex;
+        }
+    }
+
+    /**
+     * Adds a path's policy. Must be called before the filter is registered.
+     *
+     * @param template The route template, e.g. /users/:id.
+     * @param policy The policy.
+     */
+    public void add(String template, Policy policy) {
+        if (template.contains(":") || template.contains("*")) {
+            patterns.add(split(template));
+            patternPolicies.add(policy);
+        } else {
+            exact.put(template, policy);
+        }
+    }
+
+    /** @return True if no paths have a policy. */
+    public boolean isEmpty() {
+        return exact.isEmpty() && patterns.isEmpty();
+    }
+
+    @Override
+    public void handle(Request req, Response res) {
+        String origin = req.headers("Origin");
+        if (origin == null) return;
+        Policy policy = find(req.pathInfo());
+        if (policy == null) return;
+
+        String method = req.requestMethod().equals("OPTIONS") ? req.headers("Access-Control-Request-Method") : null;
+        if (method == null) {
+            if (policy.allowsOrigin(origin)) policy.applyOrigin(res, origin);
+            return;
+        }
+
+        // Preflight
+        String allowHeaders = policy.allowHeaders(req.headers("Access-Control-Request-Headers"));
+        if (!policy.allowsOrigin(origin) || !policy.methods.contains(method) || allowHeaders == null)
+            throw FORBIDDEN;
+        policy.applyOrigin(res, origin);
+        res.header("Access-Control-Allow-Methods", policy.allowMethods);
+        if (!allowHeaders.isEmpty()) res.header("Access-Control-Allow-Headers", allowHeaders);
+        res.header("Access-Control-Max-Age", policy.maxAge);
+        throw ALLOWED;
+    }
+
+    /**
+     * Finds the policy for a request path. Templates match as Spark's do: ":name" matches one segment, "*" one segment
+     * or (at the end) the rest of the path.
+     */
+    @Nullable
+    private Policy find(String path) {
+        Policy policy = exact.get(path);
+        if (policy != null || patterns.isEmpty()) return policy;
+        String[] parts = split(path);
+        for (int i = 0; i < patterns.size(); i++) {
+            if (matches(patterns.get(i), parts)) return patternPolicies.get(i);
+        }
+        return null;
+    }
+
+    private static boolean matches(String[] segments, String[] parts) {
+        boolean wildcardEnd = segments.length > 0 && segments[segments.length - 1].equals("*");
+        if (parts.length != segments.length && !(wildcardEnd && parts.length > segments.length)) return false;
+        for (int i = 0; i < segments.length; i++) {
+            String seg = segments[i];
+            if (!seg.startsWith(":") && !seg.equals("*") && !seg.equals(parts[i])) return false;
+        }
+        return true;
+    }
+
+    private static String[] split(String path) {
+        List<String> out = new ArrayList<>();
+        for (String part : path.split("/")) if (!part.isEmpty()) out.add(part);
+        return out.toArray(new String[0]);
+    }
+
+}
@@ -0,0 +1,50 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import spark.Request;
+
+/**
+ * The deadline for a request with a {@link io.drakon.spark.autorouter.Routes.Timeout}. Handlers can use this to pass
+ * their remaining budget on to downstream calls.
+ */
+@ParametersAreNonnullByDefault
+public final class Deadline {
+
+    /** The request attribute the deadline is stored under. */
+    public static final String ATTRIBUTE = "autorouter.deadline";
+
+    private final long deadlineNanos;
+
+    Deadline(long deadlineNanos) {
+        this.deadlineNanos = deadlineNanos;
+    }
+
+    /**
+     * Gets the deadline for a request.
+     *
+     * @param req The request.
+     * @return The deadline, or null if the route has no timeout.
+     */
+    @Nullable
+    public static Deadline of(Request req) {
+        return req.attribute(ATTRIBUTE);
+    }
+
+    /**
+     * @param unit The unit to return.
+     * @return The remaining budget in the given unit, never negative.
+     */
+    public long remaining(TimeUnit unit) {
+        return unit.convert(Math.max(0, deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+    }
+
+    /** @return True if the deadline has passed. */
+    public boolean isExpired() {
+        return deadlineNanos - System.nanoTime() <= 0;
+    }
+
+}
@@ -0,0 +1,157 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Hashed wheel timer for request deadlines. One daemon thread serves every pending timeout, so scheduling is a queue
+ * offer and cancelling is a CAS - no thread or heap-ordered timer entry per request.
+ *
+ * New timeouts are handed to the wheel thread through a lock-free queue; the wheel buckets themselves are only ever
+ * touched by that thread. Cancelled timeouts are dropped lazily when their bucket comes round.
+ */
+@ParametersAreNonnullByDefault
+public class DeadlineTimer {
+
+    private static final Logger log = LoggerFactory.getLogger(DeadlineTimer.class);
+    private static volatile DeadlineTimer shared = null;
+
+    private final long tickNanos;
+    private final ArrayDeque<Timeout>[] wheel;
+    private final int mask;
+    private final ConcurrentLinkedQueue<Timeout> incoming = new ConcurrentLinkedQueue<>();
+    private final long startNanos = System.nanoTime();
+    private long tick = 0;
+
+    /**
+     * @param tickMillis Timer resolution in milliseconds.
+     * @param wheelSize Number of buckets in the wheel (rounded up to a power of two).
+     */
+    public DeadlineTimer(long tickMillis, int wheelSize) {
+        int size = Integer.highestOneBit(Math.max(1, wheelSize - 1)) << 1;
+        this.tickNanos = TimeUnit.MILLISECONDS.toNanos(tickMillis);
+        // No generic array creation in Java; every bucket is filled with an ArrayDeque<Timeout> right here
+        @SuppressWarnings({"unchecked", "rawtypes"})
+        ArrayDeque<Timeout>[] buckets = new ArrayDeque[size];
+        for (int i = 0; i < size; i++) buckets[i] = new ArrayDeque<>();
+        this.wheel = buckets;
+        this.mask = size - 1;
+
+        Thread worker = new Thread(this::run, "autorouter-deadline-timer");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    /** @return The process-wide timer used for route deadlines (10ms ticks). */
+    public static DeadlineTimer shared() {
+        DeadlineTimer timer = shared;
+        if (timer == null) {
+            synchronized (DeadlineTimer.class) {
+                timer = shared;
+                if (timer == null) shared = timer = new DeadlineTimer(10, 512);
+            }
+        }
+        return timer;
+    }
+
+    /**
+     * Schedules a task to run on the timer thread once the delay has passed. Tasks must be quick!
+     *
+     * @param delay The delay.
+     * @param unit The unit of the delay.
+     * @param task The task to run.
+     * @return A handle to cancel the timeout with.
+     */
+    public Timeout schedule(long delay, TimeUnit unit, Runnable task) {
+        Timeout timeout = new Timeout(System.nanoTime() + unit.toNanos(delay), task);
+        incoming.offer(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long next = startNanos + (tick + 1) * tickNanos;
+            long sleep = next - System.nanoTime();
+            if (sleep > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(sleep);
+                } catch (InterruptedException ex) {
+                    log.warn("Deadline timer interrupted; shutting down.");
+                    return;
+                }
+                continue;
+            }
+
+            Timeout timeout;
+            while ((timeout = incoming.poll()) != null) {
+                if (timeout.state.get() != Timeout.PENDING) continue;
+                long ticks = Math.max(tick, (timeout.deadlineNanos - startNanos) / tickNanos);
+                timeout.rounds = (ticks - tick) / wheel.length;
+                wheel[(int) (ticks & mask)].add(timeout);
+            }
+
+            Iterator<Timeout> bucket = wheel[(int) (tick & mask)].iterator();
+            while (bucket.hasNext()) {
+                timeout = bucket.next();
+                if (timeout.state.get() != Timeout.PENDING) bucket.remove();
+                else if (timeout.rounds-- <= 0) {
+                    bucket.remove();
+                    timeout.expire();
+                }
+            }
+            tick++;
+        }
+    }
+
+    /** Handle for a scheduled timeout. */
+    public static final class Timeout {
+        static final int PENDING = 0;
+        static final int CANCELLED = 1;
+        static final int EXPIRING = 2;
+        static final int EXPIRED = 3;
+
+        private final long deadlineNanos;
+        private final Runnable task;
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private long rounds;
+
+        Timeout(long deadlineNanos, Runnable task) {
+            this.deadlineNanos = deadlineNanos;
+            this.task = task;
+        }
+
+        /**
+         * Cancels this timeout if it has not fired yet.
+         *
+         * @return True if cancelled; false if the task has run (or is running) instead.
+         */
+        public boolean cancel() {
+            return state.compareAndSet(PENDING, CANCELLED);
+        }
+
+        /** Waits until a task which has begun running has finished. Only meaningful after cancel() fails. */
+        public void awaitExpiry() {
+            while (state.get() == EXPIRING) Thread.yield();
+        }
+
+        private void expire() {
+            if (!state.compareAndSet(PENDING, EXPIRING)) return;
+            try {
+                task.run();
+            } catch (Throwable t) {
+                log.error("Error in deadline task.", t);
+            } finally {
+                state.set(EXPIRED);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,271 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+
+import io.drakon.spark.autorouter.Routes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+
+/**
+ * One Server-Sent Events connection, handed to {@link Routes.SSE} handlers. Events can be sent from any thread; they're
+ * queued and written with non-blocking servlet I/O as the client reads them, so a slow client never blocks the sender.
+ * When a client falls a whole queue behind, the route's {@link Routes.SSE.Overflow} policy applies.
+ *
+ * Events sent before the connection is established (e.g. from the handler itself) are queued and written first.
+ */
+@ParametersAreNonnullByDefault
+public final class EventSink {
+
+    /** The request attribute a stream's handler finds its sink under. */
+    public static final String ATTRIBUTE = EventSink.class.getName();
+
+    private static final Logger log = LoggerFactory.getLogger(EventSink.class);
+    private static final byte[] HEARTBEAT = ":\n\n".getBytes(StandardCharsets.UTF_8);
+
+    private final int capacity;
+    private final Routes.SSE.Overflow overflow;
+    private final ArrayDeque<byte[]> queue = new ArrayDeque<>();
+    private final List<Runnable> closeListeners = new ArrayList<>(1);
+
+    // All guarded by this
+    @Nullable private ServletOutputStream out = null;
+    @Nullable private AsyncContext ctx = null;
+    private boolean open = true;
+    private boolean unflushed = false;
+    private long lastWriteNanos = System.nanoTime();
+    private long dropped = 0;
+
+    /**
+     * @param capacity Events to queue before the overflow policy applies.
+     * @param overflow The overflow policy.
+     */
+    public EventSink(int capacity, Routes.SSE.Overflow overflow) {
+        this.capacity = Math.max(1, capacity);
+        this.overflow = overflow;
+    }
+
+    /**
+     * Finds the sink for a stream's request. Generated stubs use this to fill in a handler's sink parameter.
+     *
+     * @param req The request.
+     * @return The sink.
+     * @throws IllegalStateException If the request isn't for an event stream.
+     */
+    public static EventSink of(Request req) {
+        EventSink sink = req.attribute(ATTRIBUTE);
+        if (sink == null) throw new IllegalStateException("Not an event stream request: " + req.pathInfo());
+        return sink;
+    }
+
+    /**
+     * Sends an unnamed event.
+     *
+     * @param data The event data. Line breaks split it over several data lines, as the protocol requires.
+     * @return False if the connection is closed or the event was dropped.
+     */
+    public boolean send(String data) {
+        return send(null, data);
+    }
+
+    /**
+     * Sends a named event.
+     *
+     * @param event The event name, or null for an unnamed event.
+     * @param data The event data.
+     * @return False if the connection is closed or the event was dropped.
+     */
+    public boolean send(@Nullable String event, String data) {
+        StringBuilder frame = new StringBuilder(data.length() + 16);
+        if (event != null) frame.append("event: ").append(event).append('\n');
+        int start = 0;
+        while (true) {
+            int nl = data.indexOf('\n', start);
+            int end = nl < 0 ? data.length() : nl;
+            frame.append("data: ").append(data, start, end > start && data.charAt(end - 1) == '\r' ? end - 1 : end)
+                    .append('\n');
+            if (nl < 0) break;
+            start = nl + 1;
+        }
+        frame.append('\n');
+        return enqueue(frame.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private boolean enqueue(byte[] frame) {
+        synchronized (this) {
+            if (!open) return false;
+            if (queue.size() >= capacity) {
+                switch (overflow) {
+                    case DROP_OLDEST:
+                        queue.poll();
+                        dropped++;
+                        break;
+                    case DROP_NEWEST:
+                        dropped++;
+                        return false;
+                    case DISCONNECT:
+                        log.debug("Closing event stream with {} events unread.", queue.size());
+                        close();
+                        return false;
+                }
+            }
+            queue.add(frame);
+            drain();
+            return true;
+        }
+    }
+
+    /**
+     * Writes as much of the queue as the connection will take without blocking. When it won't take more, the container
+     * calls back (via the write listener) once it will.
+     */
+    private synchronized void drain() {
+        if (out == null) return;
+        try {
+            while (open && out.isReady()) {
+                byte[] next = queue.poll();
+                if (next == null) {
+                    if (!unflushed) return;
+                    unflushed = false;
+                    out.flush();
+                    continue;
+                }
+                out.write(next);
+                unflushed = true;
+                lastWriteNanos = System.nanoTime();
+            }
+        } catch (IOException ex) {
+            log.debug("Event stream write failed - closing.", ex);
+            close();
+        }
+    }
+
+    /**
+     * Starts writing to an established connection.
+     *
+     * @param out The response stream, in async mode.
+     * @param ctx The request's async context, completed when the sink closes; or null if there's none.
+     */
+    void start(ServletOutputStream out, @Nullable AsyncContext ctx) {
+        if (ctx != null) {
+            ctx.addListener(new AsyncListener() {
+                @Override
+                public void onComplete(AsyncEvent event) {
+                    close();
+                }
+
+                @Override
+                public void onTimeout(AsyncEvent event) {
+                    close();
+                }
+
+                @Override
+                public void onError(AsyncEvent event) {
+                    close();
+                }
+
+                @Override
+                public void onStartAsync(AsyncEvent event) {
+                    // Not restarted
+                }
+            });
+        }
+        synchronized (this) {
+            this.ctx = ctx;
+            if (!open) {
+                if (ctx != null) ctx.complete();
+                return;
+            }
+            this.out = out;
+        }
+        out.setWriteListener(new WriteListener() {
+            @Override
+            public void onWritePossible() {
+                drain();
+            }
+
+            @Override
+            public void onError(Throwable t) {
+                log.debug("Event stream failed - closing.", t);
+                close();
+            }
+        });
+    }
+
+    /**
+     * Queues a heartbeat comment if nothing has been written for a while and nothing is waiting to be.
+     *
+     * @param nowNanos The current System.nanoTime().
+     * @param idleNanos How long the connection must have been idle.
+     */
+    synchronized void heartbeat(long nowNanos, long idleNanos) {
+        if (!open || out == null || !queue.isEmpty() || nowNanos - lastWriteNanos < idleNanos) return;
+        queue.add(HEARTBEAT);
+        drain();
+    }
+
+    /**
+     * Adds a listener run once when the connection closes, e.g. to unsubscribe the sink. Runs straight away if it's
+     * already closed.
+     *
+     * @param listener The listener.
+     */
+    public void onClose(Runnable listener) {
+        synchronized (this) {
+            if (open) {
+                closeListeners.add(listener);
+                return;
+            }
+        }
+        listener.run();
+    }
+
+    /** Closes the connection, dropping any unwritten events. Does nothing if it's already closed. */
+    public void close() {
+        List<Runnable> listeners;
+        synchronized (this) {
+            if (!open) return;
+            open = false;
+            queue.clear();
+            if (ctx != null) {
+                try {
+                    ctx.complete();
+                } catch (IllegalStateException ex) {
+                    // Already completed by the container
+                }
+            }
+            listeners = new ArrayList<>(closeListeners);
+            closeListeners.clear();
+        }
+        for (Runnable listener : listeners) {
+            try {
+                listener.run();
+            } catch (RuntimeException ex) {
+                log.error("Event stream close listener failed.", ex);
+            }
+        }
+    }
+
+    /** @return True until the connection is closed. */
+    public synchronized boolean isOpen() {
+        return open;
+    }
+
+    /** @return Events dropped so far because the client was reading too slowly. */
+    public synchronized long getDropped() {
+        return dropped;
+    }
+
+}
@@ -0,0 +1,146 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.ref.WeakReference;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.AsyncContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import io.drakon.spark.autorouter.Routes;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+/**
+ * Serves a {@link Routes.SSE} route. Each request gets an {@link EventSink} for the handler, then the response is
+ * committed and switched to async mode so it stays open without holding a thread. Heartbeats for every stream are sent
+ * from one shared daemon thread.
+ */
+@ParametersAreNonnullByDefault
+public class EventStreamDispatch implements IRouteDispatch {
+
+    private static final Logger log = LoggerFactory.getLogger(EventStreamDispatch.class);
+    private static volatile ScheduledExecutorService heartbeats = null;
+
+    private final IRouteDispatch handler;
+    private final int queue;
+    private final Routes.SSE.Overflow overflow;
+    private final long heartbeatNanos;
+    private final Set<EventSink> open = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param handler The stream's handler, taking the sink from the request (see {@link EventSink#of(Request)}).
+     * @param queue Events buffered per connection.
+     * @param overflow What to do when a connection's queue is full.
+     * @param heartbeatMillis Idle time before a heartbeat is sent, or zero for none.
+     */
+    public EventStreamDispatch(IRouteDispatch handler, int queue, Routes.SSE.Overflow overflow,
+                               long heartbeatMillis) {
+        this.handler = handler;
+        this.queue = queue;
+        this.overflow = overflow;
+        this.heartbeatNanos = TimeUnit.MILLISECONDS.toNanos(heartbeatMillis);
+        if (heartbeatMillis > 0) {
+            // Checked at half the interval, so an idle stream gets its heartbeat within 1.5 intervals
+            long period = Math.max(1, heartbeatMillis / 2);
+            scheduleHeartbeat(new WeakReference<>(this), period);
+        }
+    }
+
+    /**
+     * Schedules a dispatcher's heartbeats without keeping it reachable: the task holds it weakly and cancels itself
+     * once it's collected, so dispatchers from routers which are gone don't pile up on the shared thread.
+     */
+    private static void scheduleHeartbeat(WeakReference<EventStreamDispatch> ref, long period) {
+        AtomicReference<ScheduledFuture<?>> task = new AtomicReference<>();
+        task.set(heartbeats().scheduleWithFixedDelay(() -> {
+            EventStreamDispatch dispatch = ref.get();
+            if (dispatch != null) dispatch.heartbeat();
+            else task.get().cancel(false);
+        }, period, period, TimeUnit.MILLISECONDS));
+    }
+
+    /** @return The scheduler shared by every stream's heartbeat. */
+    private static ScheduledExecutorService heartbeats() {
+        ScheduledExecutorService scheduler = heartbeats;
+        if (scheduler == null) {
+            synchronized (EventStreamDispatch.class) {
+                scheduler = heartbeats;
+                if (scheduler == null) {
+                    heartbeats = scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                        Thread thread = new Thread(r, "autorouter-sse-heartbeat");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                }
+            }
+        }
+        return scheduler;
+    }
+
+    @Override
+    public Object dispatch(Request req, Response res) {
+        HttpServletRequest rawReq = req.raw();
+        HttpServletResponse rawRes = res.raw();
+        if (rawReq == null || rawRes == null || !rawReq.isAsyncSupported())
+            throw halt(501, "Event streams need an async servlet container.");
+
+        EventSink sink = new EventSink(queue, overflow);
+        req.attribute(EventSink.ATTRIBUTE, sink);
+        res.status(200);
+        res.type("text/event-stream; charset=utf-8");
+        rawRes.setHeader("Cache-Control", "no-cache");
+        try {
+            handler.dispatch(req, res);
+        } catch (Throwable ex) {
+            // Throwable, as generated stubs let handlers' undeclared checked exceptions through too
+            sink.close();
+            throw ex;
+        }
+
+        try {
+            AsyncContext ctx = rawReq.startAsync();
+            ctx.setTimeout(0);
+            rawRes.flushBuffer(); // Commits, so Spark leaves the response alone
+            open.add(sink);
+            sink.onClose(() -> open.remove(sink));
+            sink.start(rawRes.getOutputStream(), ctx);
+        } catch (IOException ex) {
+            sink.close();
+            throw new UncheckedIOException(ex);
+        } catch (Throwable ex) {
+            sink.close();
+            throw ex;
+        }
+        log.trace("Opened event stream for {}", req.pathInfo());
+        return "";
+    }
+
+    private void heartbeat() {
+        long now = System.nanoTime();
+        try {
+            for (EventSink sink : open) sink.heartbeat(now, heartbeatNanos);
+        } catch (RuntimeException ex) {
+            log.error("Event stream heartbeat failed.", ex); // Caught, or the scheduler would stop running it
+        }
+    }
+
+    /** @return The number of open streams on this route. */
+    public int getOpenStreams() {
+        return open.size();
+    }
+
+}
@@ -0,0 +1,35 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import spark.Request;
+import spark.Response;
+
+/**
+ * Answers HEAD for a GET route. The route's handler runs as usual, so its status and headers are set, but its result
+ * is discarded without being transformed, and the response has an empty body.
+ */
+@ParametersAreNonnullByDefault
+public class HeadDispatch implements IRouteDispatch {
+
+    private final IRouteDispatch delegate;
+    @Nullable private final String defaultType;
+
+    /**
+     * @param delegate The GET route's dispatcher, without its transformer.
+     * @param defaultType The content type the transformer would have defaulted the response to, or null.
+     */
+    public HeadDispatch(IRouteDispatch delegate, @Nullable String defaultType) {
+        this.delegate = delegate;
+        this.defaultType = defaultType;
+    }
+
+    @Override
+    public Object dispatch(Request req, Response res) {
+        delegate.dispatch(req, res);
+        if (defaultType != null && res.type() == null) res.type(defaultType);
+        return ""; // Set, so Spark doesn't 404, but nothing to write
+    }
+
+}
@@ -0,0 +1,239 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.ExceptionHandler;
+import spark.Filter;
+import spark.HaltException;
+import spark.Route;
+
+/**
+ * Runs requests through routes, filters and exception handlers in memory, in the same order and with the same rules as
+ * Spark's own matcher (before filters, route, after filters, then after-after filters; halts and exception handlers;
+ * a 404 when nothing produced a body). Autorouter records everything it registers with Spark here as well, so the real
+ * pipeline can be driven without a servlet container.
+ *
+ * Registration isn't thread-safe and must be finished before requests are handled. Handling is safe from any thread.
+ */
+@ParametersAreNonnullByDefault
+public class LocalPipeline {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalPipeline.class);
+    private static final String NOT_FOUND = "<html><body><h2>404 Not found</h2></body></html>";
+    private static final String INTERNAL_ERROR = "<html><body><h2>500 Internal Server Error</h2></body></html>";
+
+    private final List<Entry<Filter>> before = new ArrayList<>();
+    private final List<Entry<Filter>> after = new ArrayList<>();
+    private final List<Entry<Filter>> afterAfter = new ArrayList<>();
+    private final List<Entry<Route>> routes = new ArrayList<>();
+    private final Map<Class<?>, ExceptionHandler<?>> exceptionHandlers = new LinkedHashMap<>();
+
+    /**
+     * Adds a before filter.
+     *
+     * @param path The path pattern, or null for all paths.
+     * @param filter The filter.
+     */
+    public void before(@Nullable String path, Filter filter) {
+        before.add(new Entry<>(null, path, filter));
+    }
+
+    /**
+     * Adds an after filter.
+     *
+     * @param path The path pattern, or null for all paths.
+     * @param filter The filter.
+     */
+    public void after(@Nullable String path, Filter filter) {
+        after.add(new Entry<>(null, path, filter));
+    }
+
+    /**
+     * Adds an after-after filter.
+     *
+     * @param path The path pattern, or null for all paths.
+     * @param filter The filter.
+     */
+    public void afterAfter(@Nullable String path, Filter filter) {
+        afterAfter.add(new Entry<>(null, path, filter));
+    }
+
+    /**
+     * Adds a route. As in Spark, the first route added for a verb and matching path wins.
+     *
+     * @param verb The HTTP verb, e.g. GET.
+     * @param path The path pattern.
+     * @param route The route, with any transformer already applied.
+     */
+    public void route(String verb, String path, Route route) {
+        routes.add(new Entry<>(verb.toUpperCase(Locale.ROOT), path, route));
+    }
+
+    /**
+     * Adds an exception handler. Exceptions go to the handler for their nearest registered superclass.
+     *
+     * @param type The exception type.
+     * @param handler The handler.
+     */
+    public <T extends Exception> void exception(Class<T> type, ExceptionHandler<? super T> handler) {
+        exceptionHandlers.put(type, handler);
+    }
+
+    /**
+     * @return The registered routes as "VERB path", in matching order.
+     */
+    public List<String> getRoutes() {
+        List<String> out = new ArrayList<>(routes.size());
+        for (Entry<Route> route : routes) out.add(route.verb + " " + route.path);
+        return Collections.unmodifiableList(out);
+    }
+
+    /**
+     * Runs a request through the pipeline.
+     *
+     * @param req The request.
+     * @return The finished response.
+     */
+    public LocalResponse handle(LocalRequest req) {
+        LocalResponse res = new LocalResponse();
+        String path = req.pathInfo();
+        try {
+            try {
+                runFilters(before, req, res, path);
+                Entry<Route> route = findRoute(req.requestMethod(), path, req);
+                if (route != null) {
+                    Object result = route.target.handle(req, res);
+                    if (result != null) res.result(result);
+                }
+                runFilters(after, req, res, path);
+            } catch (HaltException halt) {
+                res.status(halt.statusCode());
+                res.result(halt.body() != null ? halt.body() : "");
+            } catch (Exception ex) {
+                handleException(ex, req, res);
+            }
+            if (res.bodyObject() == null) {
+                res.status(404);
+                res.result(NOT_FOUND);
+            }
+        } finally {
+            try {
+                runFilters(afterAfter, req, res, path);
+            } catch (Exception ex) {
+                handleException(ex, req, res);
+            }
+        }
+        return res;
+    }
+
+    private void runFilters(List<Entry<Filter>> filters, LocalRequest req, LocalResponse res, String path)
+            throws Exception {
+        for (Entry<Filter> filter : filters) {
+            if (filter.matches(path, req)) filter.target.handle(req, res);
+        }
+    }
+
+    @Nullable
+    private Entry<Route> findRoute(String verb, String path, LocalRequest req) {
+        for (Entry<Route> route : routes) {
+            if (route.verb.equals(verb) && route.matches(path, req)) return route;
+        }
+        return null;
+    }
+
+    private void handleException(Exception ex, LocalRequest req, LocalResponse res) {
+        ExceptionHandler<?> found = null;
+        for (Class<?> cls = ex.getClass(); found == null && cls != null; cls = cls.getSuperclass())
+            found = exceptionHandlers.get(cls);
+        if (found != null) {
+            // Registered for ex's class or one of its superclasses, so it takes ex
+            @SuppressWarnings("unchecked")
+            ExceptionHandler<Exception> handler = (ExceptionHandler<Exception>) found;
+            handler.handle(ex, req, res);
+        } else {
+            log.error("Unhandled exception in local request {} {}", req.requestMethod(), req.pathInfo(), ex);
+            res.status(500);
+            res.result(INTERNAL_ERROR);
+        }
+    }
+
+    /** A filter or route with its parsed path pattern. */
+    private static final class Entry<T> {
+        @Nullable final String verb;
+        @Nullable final String path;
+        @Nullable private final String[] segments;
+        private final boolean trailingSlash;
+        final T target;
+
+        Entry(@Nullable String verb, @Nullable String path, T target) {
+            this.verb = verb;
+            this.path = path;
+            this.segments = path == null || path.equals("*") ? null : split(path);
+            this.trailingSlash = path != null && path.endsWith("/");
+            this.target = target;
+        }
+
+        /**
+         * Matches a request path, binding params and splat on the request if it matches. Follows Spark's RouteEntry:
+         * ":name" segments capture one segment, "*" captures one segment or (at the end) the rest of the path.
+         */
+        boolean matches(String path, LocalRequest req) {
+            if (segments == null) {
+                req.match(Collections.emptyMap(), new String[]{ path });
+                return true;
+            }
+            String[] parts = split(path);
+            boolean wildcardEnd = segments.length > 0 && segments[segments.length - 1].equals("*");
+            if (!wildcardEnd && trailingSlash != path.endsWith("/") && parts.length > 0) return false;
+            if (wildcardEnd && parts.length == segments.length - 1 && path.endsWith("/")) {
+                // As Spark: a trailing wildcard also matches the empty segment after a trailing slash
+                parts = Arrays.copyOf(parts, segments.length);
+                parts[parts.length - 1] = "";
+            }
+            if (parts.length != segments.length && !(wildcardEnd && parts.length > segments.length)) return false;
+
+            Map<String, String> params = null;
+            List<String> splat = null;
+            for (int i = 0; i < segments.length; i++) {
+                String seg = segments[i];
+                if (seg.startsWith(":")) {
+                    if (params == null) params = new HashMap<>();
+                    params.put(seg.toLowerCase(Locale.ROOT), parts[i]);
+                } else if (seg.equals("*")) {
+                    if (splat == null) splat = new ArrayList<>();
+                    if (i == segments.length - 1 && parts.length > segments.length) {
+                        StringBuilder rest = new StringBuilder(parts[i]);
+                        for (int j = i + 1; j < parts.length; j++) rest.append('/').append(parts[j]);
+                        splat.add(rest.toString());
+                    } else {
+                        splat.add(parts[i]);
+                    }
+                } else if (!seg.equals(parts[i])) {
+                    return false;
+                }
+            }
+            req.match(params == null ? Collections.emptyMap() : params,
+                    splat == null ? new String[0] : splat.toArray(new String[0]));
+            return true;
+        }
+
+        private static String[] split(String path) {
+            List<String> out = new ArrayList<>();
+            for (String part : path.split("/")) if (!part.isEmpty()) out.add(part);
+            return out.toArray(new String[0]);
+        }
+    }
+
+}
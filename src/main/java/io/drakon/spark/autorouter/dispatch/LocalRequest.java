@@ -0,0 +1,280 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.http.HttpServletRequest;
+
+import spark.Request;
+
+/**
+ * In-memory stand-in for a Spark request, for running routes through a {@link LocalPipeline} without a servlet
+ * container. Route params and splats are filled in by the pipeline as it matches each filter and route.
+ *
+ * There's no underlying servlet request, so {@link #raw()} is null and anything needing it (sessions, the query map,
+ * cookies) isn't available.
+ */
+@ParametersAreNonnullByDefault
+public class LocalRequest extends Request {
+
+    private static final String[] NO_SPLAT = new String[0];
+
+    private final String method;
+    private final String path;
+    @Nullable private final String query;
+    private final Map<String, String[]> queryParams = new LinkedHashMap<>();
+    private final Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    private final Map<String, Object> attributes = new HashMap<>();
+    private byte[] body = new byte[0];
+    @Nullable private String contentType = null;
+    private Map<String, String> params = Collections.emptyMap();
+    private String[] splat = NO_SPLAT;
+
+    /**
+     * @param method The HTTP verb.
+     * @param uri The request path, optionally with a query string (e.g. /users/42?full=true).
+     */
+    public LocalRequest(String method, String uri) {
+        this.method = method.toUpperCase(Locale.ROOT);
+        int q = uri.indexOf('?');
+        this.path = q < 0 ? uri : uri.substring(0, q);
+        this.query = q < 0 ? null : uri.substring(q + 1);
+        if (query != null) parseQuery(query);
+    }
+
+    /**
+     * Sets a header, replacing any earlier value.
+     *
+     * @return This request.
+     */
+    public LocalRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    /**
+     * Sets the body and its content type.
+     *
+     * @return This request.
+     */
+    public LocalRequest body(@Nullable String contentType, byte[] body) {
+        this.contentType = contentType;
+        this.body = body;
+        if (contentType != null) headers.put("Content-Type", contentType);
+        return this;
+    }
+
+    /**
+     * Sets the body as UTF-8 text.
+     *
+     * @return This request.
+     */
+    public LocalRequest body(@Nullable String contentType, String body) {
+        return body(contentType, body.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Sets the params and splat matched by the current filter or route. */
+    void match(Map<String, String> params, String[] splat) {
+        this.params = params;
+        this.splat = splat;
+    }
+
+    private void parseQuery(String query) {
+        for (String pair : query.split("&")) {
+            if (pair.isEmpty()) continue;
+            int eq = pair.indexOf('=');
+            String name = decode(eq < 0 ? pair : pair.substring(0, eq));
+            String value = eq < 0 ? "" : decode(pair.substring(eq + 1));
+            String[] existing = queryParams.get(name);
+            String[] values = existing == null ? new String[1] : Arrays.copyOf(existing, existing.length + 1);
+            values[values.length - 1] = value;
+            queryParams.put(name, values);
+        }
+    }
+
+    private static String decode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex); // UTF-8 is always there
+        }
+    }
+
+    @Override
+    public Map<String, String> params() {
+        return Collections.unmodifiableMap(params);
+    }
+
+    @Override
+    public String params(String param) {
+        String key = param.startsWith(":") ? param : ":" + param;
+        return params.get(key.toLowerCase(Locale.ROOT));
+    }
+
+    @Override
+    public String[] splat() {
+        return splat.clone();
+    }
+
+    @Override
+    public String requestMethod() {
+        return method;
+    }
+
+    @Override
+    public String scheme() {
+        return "http";
+    }
+
+    @Override
+    public String host() {
+        String host = headers.get("Host");
+        return host != null ? host : "localhost";
+    }
+
+    @Override
+    public String userAgent() {
+        return headers.get("User-Agent");
+    }
+
+    @Override
+    public int port() {
+        return 0;
+    }
+
+    @Override
+    public String pathInfo() {
+        return path;
+    }
+
+    @Override
+    public String servletPath() {
+        return "";
+    }
+
+    @Override
+    public String contextPath() {
+        return "";
+    }
+
+    @Override
+    public String url() {
+        return "http://" + host() + path;
+    }
+
+    @Override
+    public String uri() {
+        return path;
+    }
+
+    @Override
+    public String protocol() {
+        return "HTTP/1.1";
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public String ip() {
+        return "127.0.0.1";
+    }
+
+    @Override
+    public String body() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public byte[] bodyAsBytes() {
+        return body;
+    }
+
+    @Override
+    public int contentLength() {
+        return body.length;
+    }
+
+    @Override
+    public String queryParams(String queryParam) {
+        String[] values = queryParams.get(queryParam);
+        return values == null ? null : values[0];
+    }
+
+    @Override
+    public String queryParamOrDefault(String queryParam, String defaultValue) {
+        String value = queryParams(queryParam);
+        return value != null ? value : defaultValue;
+    }
+
+    @Override
+    public String[] queryParamsValues(String queryParam) {
+        String[] values = queryParams.get(queryParam);
+        return values == null ? null : values.clone();
+    }
+
+    @Override
+    public Set<String> queryParams() {
+        return Collections.unmodifiableSet(queryParams.keySet());
+    }
+
+    @Override
+    public String queryString() {
+        return query;
+    }
+
+    @Override
+    public String headers(String header) {
+        return headers.get(header);
+    }
+
+    @Override
+    public Set<String> headers() {
+        return Collections.unmodifiableSet(headers.keySet());
+    }
+
+    @Override
+    public void attribute(String attribute, Object value) {
+        attributes.put(attribute, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T attribute(String attribute) {
+        return (T) attributes.get(attribute);
+    }
+
+    @Override
+    public Set<String> attributes() {
+        return Collections.unmodifiableSet(attributes.keySet());
+    }
+
+    @Override
+    public Map<String, String> cookies() {
+        return Collections.emptyMap();
+    }
+
+    @Override
+    public String cookie(String name) {
+        return null;
+    }
+
+    @Override
+    public HttpServletRequest raw() {
+        return null;
+    }
+
+}
@@ -0,0 +1,152 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.http.HttpServletResponse;
+
+import spark.Response;
+
+/**
+ * In-memory stand-in for a Spark response, filled in by a {@link LocalPipeline}. The body is whatever the route
+ * returned (or set with {@link #body(String)}); {@link #bodyAsBytes()} encodes it the way Spark would.
+ */
+@ParametersAreNonnullByDefault
+public class LocalResponse extends Response {
+
+    private int status = 200;
+    @Nullable private String type = null;
+    private final Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    @Nullable private Object body = null;
+
+    /** Sets the body to a route's result. */
+    void result(@Nullable Object body) {
+        this.body = body;
+    }
+
+    @Override
+    public void status(int statusCode) {
+        status = statusCode;
+    }
+
+    @Override
+    public int status() {
+        return status;
+    }
+
+    @Override
+    public void type(String contentType) {
+        type = contentType;
+    }
+
+    @Override
+    public String type() {
+        return type;
+    }
+
+    @Override
+    public void body(String body) {
+        this.body = body;
+    }
+
+    @Override
+    public String body() {
+        return body == null ? null : new String(bodyAsBytes(), StandardCharsets.UTF_8);
+    }
+
+    /** @return The body as Spark would write it, or an empty array if there's none. */
+    public byte[] bodyAsBytes() {
+        Object b = body;
+        if (b == null) return new byte[0];
+        if (b instanceof byte[]) return (byte[]) b;
+        if (b instanceof ByteBuffer) {
+            ByteBuffer buf = ((ByteBuffer) b).duplicate();
+            byte[] out = new byte[buf.remaining()];
+            buf.get(out);
+            return out;
+        }
+        if (b instanceof InputStream) {
+            try (InputStream in = (InputStream) b) {
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                byte[] chunk = new byte[8192];
+                int n;
+                while ((n = in.read(chunk)) > 0) out.write(chunk, 0, n);
+                body = out.toByteArray(); // Streams only read once
+                return (byte[]) body;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return b.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    /** @return The raw body object, as returned by the route. */
+    @Nullable
+    public Object bodyObject() {
+        return body;
+    }
+
+    @Override
+    public void header(String header, String value) {
+        headers.computeIfAbsent(header, h -> new ArrayList<>(1)).add(value);
+    }
+
+    /** @return The first value of a header, or null if it isn't set. */
+    @Nullable
+    public String getHeader(String name) {
+        if ("Content-Type".equalsIgnoreCase(name)) return type;
+        List<String> values = headers.get(name);
+        return values == null ? null : values.get(0);
+    }
+
+    /** @return All headers set, by name (case-insensitively), excluding Content-Type. */
+    public Map<String, List<String>> getHeaders() {
+        return Collections.unmodifiableMap(headers);
+    }
+
+    @Override
+    public void redirect(String location) {
+        redirect(location, 302);
+    }
+
+    @Override
+    public void redirect(String location, int httpStatusCode) {
+        status = httpStatusCode;
+        headers.put("Location", new ArrayList<>(Collections.singletonList(location)));
+        body = "";
+    }
+
+    @Override
+    public void cookie(String domain, String path, String name, String value, int maxAge, boolean secured,
+                       boolean httpOnly) {
+        StringBuilder sb = new StringBuilder(name).append('=').append(value);
+        if (!domain.isEmpty()) sb.append("; Domain=").append(domain);
+        if (!path.isEmpty()) sb.append("; Path=").append(path);
+        if (maxAge >= 0) sb.append("; Max-Age=").append(maxAge);
+        if (secured) sb.append("; Secure");
+        if (httpOnly) sb.append("; HttpOnly");
+        header("Set-Cookie", sb.toString());
+    }
+
+    @Override
+    public void removeCookie(@Nullable String path, String name) {
+        cookie("", path == null ? "" : path, name, "", 0, false, false);
+    }
+
+    @Override
+    public HttpServletResponse raw() {
+        return null;
+    }
+
+}
@@ -0,0 +1,98 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import spark.Request;
+import spark.Response;
+import spark.ResponseTransformer;
+
+import static spark.Spark.halt;
+
+/**
+ * Dispatches to one of several routes sharing a verb and path but differing by accept type, so Spark only sees a single
+ * route and never re-parses the Accept header per candidate. The winning candidate for each distinct Accept string is
+ * cached, so the usual case is one map lookup. Requests with no acceptable candidate get a 406.
+ *
+ * Candidates without an accept type act as a fallback when no typed candidate is acceptable.
+ */
+@ParametersAreNonnullByDefault
+public class NegotiatingDispatch implements IRouteDispatch {
+
+    private static final int CHOICE_CACHE_SIZE = 64;
+    private static final int NOT_ACCEPTABLE = -1;
+
+    private final ContentNegotiator negotiator;
+    private final String[] acceptTypes;
+    private final IRouteDispatch[] dispatches;
+    private final ResponseTransformer[] transformers;
+    private final ClockCache<Integer> choices = new ClockCache<>(CHOICE_CACHE_SIZE);
+
+    /**
+     * @param negotiator The shared Accept parser/cache.
+     * @param acceptTypes Candidate accept types (null for a fallback candidate).
+     * @param dispatches Candidate dispatchers, in the same order.
+     * @param transformers Candidate transformers (null entries for none), in the same order.
+     */
+    public NegotiatingDispatch(ContentNegotiator negotiator, String[] acceptTypes, IRouteDispatch[] dispatches,
+                               ResponseTransformer[] transformers) {
+        if (acceptTypes.length != dispatches.length || acceptTypes.length != transformers.length)
+            throw new IllegalArgumentException("Candidate arrays must be the same length.");
+        this.negotiator = negotiator;
+        this.acceptTypes = acceptTypes.clone();
+        this.dispatches = dispatches.clone();
+        this.transformers = transformers.clone();
+    }
+
+    @Override
+    public Object dispatch(Request req, Response res) {
+        int idx = choose(req.headers("Accept"));
+        if (idx == NOT_ACCEPTABLE) throw halt(406, "Not Acceptable");
+
+        Object body = dispatches[idx].dispatch(req, res);
+        if (acceptTypes[idx] != null && res.type() == null) res.type(acceptTypes[idx]);
+        if (transformers[idx] == null) return body;
+        try {
+            return transformers[idx].render(body);
+        } catch (RuntimeException ex) {
+            throw ex;
+        } catch (Exception ex) {
+            throw new RuntimeException(ex);
+        }
+    }
+
+    /**
+     * Picks the candidate for an Accept header, from the cache where possible.
+     *
+     * @param accept The raw header, or null.
+     * @return The candidate index, or NOT_ACCEPTABLE.
+     */
+    int choose(@Nullable String accept) {
+        String key = accept == null ? "" : accept;
+        Integer cached = choices.get(key);
+        if (cached != null) return cached;
+
+        int idx = rank(negotiator.parse(accept));
+        choices.put(key, idx);
+        return idx;
+    }
+
+    private int rank(ContentNegotiator.MediaRange[] ranges) {
+        int best = NOT_ACCEPTABLE;
+        long bestScore = 0;
+        int fallback = NOT_ACCEPTABLE;
+        for (int i = 0; i < acceptTypes.length; i++) {
+            if (acceptTypes[i] == null) {
+                if (fallback == NOT_ACCEPTABLE) fallback = i;
+                continue;
+            }
+            long score = ContentNegotiator.score(ranges, acceptTypes[i]);
+            if (score > bestScore) {
+                best = i;
+                bestScore = score;
+            }
+        }
+        return best != NOT_ACCEPTABLE ? best : fallback;
+    }
+
+}
@@ -0,0 +1,127 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.http.HttpField;
+import org.eclipse.jetty.http.HttpFields;
+import org.eclipse.jetty.http.HttpHeader;
+import org.eclipse.jetty.http.PreEncodedHttpField;
+import spark.Response;
+
+/**
+ * A route's constant response headers and content type, merged from its
+ * {@link io.drakon.spark.autorouter.Routes.Headers} and {@link io.drakon.spark.autorouter.Routes.ContentType}
+ * annotations when routes are searched. Generated stubs set the content type before calling the handler, and the
+ * headers once it returns or throws, skipping any the handler set itself - Spark's {@link Response#header} adds rather
+ * than replaces, so this is what lets handlers override them.
+ *
+ * Under Jetty the headers are added as prebuilt fields (pre-encoded for standard headers), so nothing is formatted per
+ * response.
+ */
+@ParametersAreNonnullByDefault
+public final class StaticHeaders {
+
+    @Nullable private final String contentType;
+    private final String[] names;
+    private final String[] values;
+    private final HttpField[] fields;
+
+    /**
+     * @param contentType The content type to set, or null.
+     * @param headers Header names to values, in the order they should be set.
+     */
+    public StaticHeaders(@Nullable String contentType, Map<String, String> headers) {
+        this.contentType = contentType;
+        this.names = headers.keySet().toArray(new String[0]);
+        this.values = headers.values().toArray(new String[0]);
+        this.fields = new HttpField[names.length];
+        for (int i = 0; i < names.length; i++) {
+            // Jetty only pre-encodes headers it knows; others are still built once, just encoded on write
+            HttpHeader known = HttpHeader.CACHE.get(names[i]);
+            fields[i] = known != null ? new PreEncodedHttpField(known, names[i], values[i])
+                    : new HttpField(names[i], values[i]);
+        }
+    }
+
+    /**
+     * Sets the content type and headers on a response, replacing any earlier values. Does nothing to the headers if the
+     * response has been committed.
+     *
+     * @param res The response.
+     */
+    public void apply(Response res) {
+        applyContentType(res);
+        HttpServletResponse raw = res.raw();
+        if (raw instanceof org.eclipse.jetty.server.Response) {
+            org.eclipse.jetty.server.Response jetty = (org.eclipse.jetty.server.Response) raw;
+            if (jetty.isCommitted() || jetty.isIncluding()) return;
+            HttpFields out = jetty.getHttpFields();
+            for (HttpField field : fields) out.put(field);
+        } else if (raw != null) {
+            for (int i = 0; i < names.length; i++) raw.setHeader(names[i], values[i]);
+        } else {
+            for (int i = 0; i < names.length; i++) res.header(names[i], values[i]);
+        }
+    }
+
+    /**
+     * Sets the content type on a response, if there is one. Called before the handler, which can replace it.
+     *
+     * @param res The response.
+     */
+    public void applyContentType(Response res) {
+        if (contentType != null) res.type(contentType);
+    }
+
+    /**
+     * Sets the headers the response doesn't already have. Called after the handler; does nothing if the response has
+     * been committed.
+     *
+     * @param res The response.
+     */
+    public void applyUnsetHeaders(Response res) {
+        HttpServletResponse raw = res.raw();
+        if (raw instanceof org.eclipse.jetty.server.Response) {
+            org.eclipse.jetty.server.Response jetty = (org.eclipse.jetty.server.Response) raw;
+            if (jetty.isCommitted() || jetty.isIncluding()) return;
+            HttpFields out = jetty.getHttpFields();
+            for (HttpField field : fields) {
+                HttpHeader known = field.getHeader();
+                if (known != null ? !out.contains(known) : !out.containsKey(field.getName())) out.add(field);
+            }
+        } else if (raw != null) {
+            if (raw.isCommitted()) return;
+            for (int i = 0; i < names.length; i++) {
+                if (!raw.containsHeader(names[i])) raw.setHeader(names[i], values[i]);
+            }
+        } else if (res instanceof LocalResponse) {
+            Map<String, List<String>> set = ((LocalResponse) res).getHeaders();
+            for (int i = 0; i < names.length; i++) {
+                if (!set.containsKey(names[i])) res.header(names[i], values[i]);
+            }
+        } else {
+            for (int i = 0; i < names.length; i++) res.header(names[i], values[i]);
+        }
+    }
+
+    /** @return The content type, or null if not set. */
+    @Nullable
+    public String getContentType() {
+        return contentType;
+    }
+
+    /** @return The headers, in the order they're set. */
+    public Map<String, String> getHeaders() {
+        Map<String, String> out = new LinkedHashMap<>();
+        for (int i = 0; i < names.length; i++) out.put(names[i], values[i]);
+        return Collections.unmodifiableMap(out);
+    }
+
+}
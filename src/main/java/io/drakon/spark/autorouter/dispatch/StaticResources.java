@@ -0,0 +1,413 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+
+import org.eclipse.jetty.server.HttpOutput;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.HaltException;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+/**
+ * Serves a directory of static files for a {@link io.drakon.spark.autorouter.Routes.StaticResources} Path Group.
+ * {@link #index()} maps every file into memory and builds an immutable table of path to body, ETag, content type and
+ * any precompressed variants (a sibling file ending .br or .gz), so requests are a single map lookup. Under Jetty the
+ * mapped buffer is handed straight to the connection; nothing is read or copied per request. Conditional requests
+ * with a matching If-None-Match get a 304.
+ *
+ * With {@link #watch()}, changed files are re-mapped and swapped into a copy of the table one batch of changes at a
+ * time. Replace files atomically (write elsewhere, then rename over) rather than rewriting them in place: a mapped file
+ * which shrinks under a request being served can crash the JVM.
+ */
+@ParametersAreNonnullByDefault
+public class StaticResources implements IRouteDispatch, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(StaticResources.class);
+    private static final String INDEX_FILE = "index.html";
+    private static final Map<String, String> CONTENT_TYPES = new HashMap<>();
+
+    // Thrown for every miss, so allocated once; nothing reads its stack trace
+    private static final HaltException NOT_FOUND = notFound();
+
+    static {
+        String[][] types = {
+                {"html", "text/html; charset=utf-8"}, {"htm", "text/html; charset=utf-8"},
+                {"css", "text/css; charset=utf-8"}, {"js", "application/javascript; charset=utf-8"},
+                {"mjs", "application/javascript; charset=utf-8"}, {"json", "application/json"},
+                {"map", "application/json"}, {"txt", "text/plain; charset=utf-8"},
+                {"xml", "application/xml"}, {"svg", "image/svg+xml"}, {"png", "image/png"}, {"jpg", "image/jpeg"},
+                {"jpeg", "image/jpeg"}, {"gif", "image/gif"}, {"webp", "image/webp"}, {"ico", "image/x-icon"},
+                {"woff", "font/woff"}, {"woff2", "font/woff2"}, {"ttf", "font/ttf"}, {"otf", "font/otf"},
+                {"wasm", "application/wasm"}, {"pdf", "application/pdf"}, {"mp4", "video/mp4"},
+                {"webm", "video/webm"}
+        };
+        for (String[] type : types) CONTENT_TYPES.put(type[0], type[1]);
+    }
+
+    /** Precompressed variants, most preferred first: Content-Encoding and file suffix. */
+    private static final String[][] ENCODINGS = {{"br", ".br"}, {"gzip", ".gz"}};
+
+    private final String prefix;
+    private final Path root;
+    private volatile Map<String, Resource> index = Collections.emptyMap();
+    @Nullable private volatile WatchService watcher = null;
+
+    /** One representation of a file: its mapped body and the headers which go with it. */
+    private static final class Representation {
+        final ByteBuffer body;
+        final String etag;
+        final StaticHeaders headers;
+        final StaticHeaders notModified; // ETag and Vary only
+
+        Representation(ByteBuffer body, String etag, StaticHeaders headers, StaticHeaders notModified) {
+            this.body = body;
+            this.etag = etag;
+            this.headers = headers;
+            this.notModified = notModified;
+        }
+    }
+
+    /** An indexed file: the file itself, and its precompressed variants in {@link #ENCODINGS} order. */
+    private static final class Resource {
+        final Representation identity;
+        final Representation[] encoded;
+
+        Resource(Representation identity, Representation[] encoded) {
+            this.identity = identity;
+            this.encoded = encoded;
+        }
+    }
+
+    /**
+     * @param prefix The full path prefix files are served under, e.g. /app/assets.
+     * @param root The directory to serve.
+     */
+    public StaticResources(String prefix, Path root) {
+        this.prefix = prefix.endsWith("/") ? prefix.substring(0, prefix.length() - 1) : prefix;
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    private static HaltException notFound() {
+        try {
+            throw halt(404, "Not Found");
+        } catch (HaltException ex) {
+            return ex;
+        }
+    }
+
+    /**
+     * Maps every file under the root and replaces the table.
+     *
+     * @throws IOException If the directory can't be read.
+     */
+    public void index() throws IOException {
+        if (!Files.isDirectory(root)) throw new IOException(root + " is not a directory");
+        Map<String, Resource> out = new HashMap<>();
+        for (Path file : listFiles(root)) {
+            String path = toPath(file);
+            Resource resource = load(path);
+            if (resource != null) out.put(path, resource);
+        }
+        index = Collections.unmodifiableMap(out);
+        log.debug("Indexed {} static files under {} from {}.", out.size(), prefix, root);
+    }
+
+    private static List<Path> listFiles(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            return files.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+
+    /** @return The path a file is served at, relative to the prefix, e.g. /css/site.css. */
+    private String toPath(Path file) {
+        return "/" + root.relativize(file).toString().replace(File.separatorChar, '/');
+    }
+
+    private Path toFile(String path) {
+        return root.resolve(path.substring(1).replace('/', File.separatorChar));
+    }
+
+    /**
+     * Maps a file and its variants.
+     *
+     * @param path The path the file is served at.
+     * @return The resource, or null if the file is gone.
+     */
+    @Nullable
+    private Resource load(String path) throws IOException {
+        Path file = toFile(path);
+        if (!Files.isRegularFile(file)) return null;
+        String contentType = contentType(path);
+
+        Representation[] encoded = new Representation[ENCODINGS.length];
+        boolean anyEncoded = false;
+        for (int i = 0; i < ENCODINGS.length; i++) {
+            Path variant = file.resolveSibling(file.getFileName() + ENCODINGS[i][1]);
+            if (!Files.isRegularFile(variant)) continue;
+            encoded[i] = represent(variant, contentType, ENCODINGS[i][0], true);
+            anyEncoded = true;
+        }
+        return new Resource(represent(file, contentType, null, anyEncoded), encoded);
+    }
+
+    private static Representation represent(Path file, String contentType, @Nullable String encoding, boolean vary)
+            throws IOException {
+        ByteBuffer body;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            body = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // Stays valid once closed
+        }
+        CRC32 crc = new CRC32();
+        crc.update(body.duplicate());
+        String etag = "\"" + Long.toHexString(crc.getValue()) + "-" + Long.toHexString(body.remaining())
+                + (encoding == null ? "" : "-" + encoding) + "\"";
+
+        Map<String, String> tags = new LinkedHashMap<>();
+        tags.put("ETag", etag);
+        if (vary) tags.put("Vary", "Accept-Encoding");
+        Map<String, String> headers = new LinkedHashMap<>(tags);
+        if (encoding != null) headers.put("Content-Encoding", encoding);
+        return new Representation(body, etag, new StaticHeaders(contentType, headers), new StaticHeaders(null, tags));
+    }
+
+    private static String contentType(String path) {
+        String name = path.substring(path.lastIndexOf('/') + 1);
+        int dot = name.lastIndexOf('.');
+        String type = dot < 0 ? null : CONTENT_TYPES.get(name.substring(dot + 1).toLowerCase(Locale.ROOT));
+        if (type == null) type = URLConnection.guessContentTypeFromName(name);
+        return type == null ? "application/octet-stream" : type;
+    }
+
+    @Override
+    public Object dispatch(Request req, Response res) {
+        String requestPath = req.pathInfo();
+        if (!requestPath.startsWith(prefix)) throw NOT_FOUND;
+        String path = requestPath.substring(prefix.length());
+        if (path.isEmpty() || path.endsWith("/")) path += INDEX_FILE;
+        Resource resource = index.get(path);
+        if (resource == null) throw NOT_FOUND;
+
+        Representation rep = choose(resource, req.headers("Accept-Encoding"));
+        String ifNoneMatch = req.headers("If-None-Match");
+        if (ifNoneMatch != null && matches(ifNoneMatch, rep.etag)) {
+            rep.notModified.apply(res);
+            res.status(304);
+            return send(res, null, false);
+        }
+        rep.headers.apply(res);
+        return send(res, rep, !req.requestMethod().equals("HEAD"));
+    }
+
+    private static Representation choose(Resource resource, @Nullable String acceptEncoding) {
+        if (acceptEncoding == null) return resource.identity;
+        for (int i = 0; i < ENCODINGS.length; i++) {
+            if (resource.encoded[i] != null && accepts(acceptEncoding, ENCODINGS[i][0])) return resource.encoded[i];
+        }
+        return resource.identity;
+    }
+
+    /** Checks an Accept-Encoding header for an encoding, not refused with q=0. */
+    private static boolean accepts(String acceptEncoding, String encoding) {
+        for (String part : acceptEncoding.split(",")) {
+            String[] params = part.split(";");
+            if (!params[0].trim().equalsIgnoreCase(encoding)) continue;
+            for (int i = 1; i < params.length; i++) {
+                String param = params[i].trim();
+                if (param.startsWith("q=") && isZero(param.substring(2).trim())) return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static boolean isZero(String q) {
+        try {
+            return Double.parseDouble(q) == 0;
+        } catch (NumberFormatException ex) {
+            return false;
+        }
+    }
+
+    private static boolean matches(String ifNoneMatch, String etag) {
+        for (String candidate : ifNoneMatch.split(",")) {
+            String tag = candidate.trim();
+            if (tag.startsWith("W/")) tag = tag.substring(2);
+            if (tag.equals("*") || tag.equals(etag)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Sends the response. Under a servlet container the body is written (or, without one, the headers committed)
+     * here, so Spark finds the response committed and writes nothing of its own; in the local pipeline the buffer is
+     * returned as the body.
+     *
+     * @param rep The representation to send, or null for none.
+     * @param withBody Whether to send its body, or just its length.
+     * @return The route result.
+     */
+    private static Object send(Response res, @Nullable Representation rep, boolean withBody) {
+        HttpServletResponse raw = res.raw();
+        if (raw == null) return rep == null || !withBody ? "" : rep.body.duplicate();
+        try {
+            if (rep != null) raw.setContentLength(rep.body.remaining());
+            if (rep == null || !withBody) {
+                raw.flushBuffer();
+                return "";
+            }
+            ByteBuffer body = rep.body.duplicate();
+            ServletOutputStream out = raw.getOutputStream();
+            if (out instanceof HttpOutput) {
+                ((HttpOutput) out).sendContent(body);
+            } else {
+                Channels.newChannel(out).write(body);
+                out.flush();
+            }
+            return "";
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Starts watching the root for changes, on a daemon thread. Created, changed and deleted files (and their
+     * variants) are re-mapped and swapped in without re-indexing the rest.
+     *
+     * @throws IOException If the directory can't be watched.
+     */
+    public void watch() throws IOException {
+        if (watcher != null) return;
+        WatchService ws = root.getFileSystem().newWatchService();
+        Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+        register(ws, keys, root);
+        watcher = ws;
+
+        Thread thread = new Thread(() -> {
+            try {
+                for (;;) {
+                    WatchKey key = ws.take();
+                    Path dir = keys.get(key);
+                    Set<String> changed = new TreeSet<>();
+                    boolean overflow = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW || dir == null) {
+                            overflow = true;
+                            continue;
+                        }
+                        Path child = dir.resolve((Path) event.context());
+                        if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(child)) {
+                            register(ws, keys, child);
+                            for (Path file : listFiles(child)) changed.add(toPath(file));
+                        } else {
+                            changed.add(toPath(child));
+                        }
+                    }
+                    if (!key.reset()) keys.remove(key);
+                    if (overflow) index();
+                    else if (!changed.isEmpty()) refresh(changed);
+                }
+            } catch (ClosedWatchServiceException | InterruptedException ex) {
+                log.debug("Stopped watching {}.", root);
+            } catch (IOException ex) {
+                log.error("Stopped watching {} - static files under {} won't refresh.", root, prefix, ex);
+            }
+        }, "autorouter-static" + prefix.replace('/', '-'));
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private static void register(WatchService ws, Map<WatchKey, Path> keys, Path dir) throws IOException {
+        try (Stream<Path> dirs = Files.walk(dir)) {
+            for (Path sub : dirs.filter(Files::isDirectory).collect(Collectors.toList())) {
+                keys.put(sub.register(ws, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_DELETE,
+                        StandardWatchEventKinds.ENTRY_MODIFY), sub);
+            }
+        }
+    }
+
+    /**
+     * Reloads changed paths into a copy of the table and swaps it in.
+     *
+     * @param changed Paths of created, changed or deleted files or directories, or of their variants.
+     */
+    private void refresh(Set<String> changed) {
+        Map<String, Resource> out = new HashMap<>(index);
+        for (String path : changed) {
+            for (String[] encoding : ENCODINGS) {
+                if (path.endsWith(encoding[1])) reload(out, path.substring(0, path.length() - encoding[1].length()));
+            }
+            if (!Files.exists(toFile(path))) out.keySet().removeIf(p -> p.startsWith(path + "/")); // A directory
+            reload(out, path);
+        }
+        index = Collections.unmodifiableMap(out);
+        log.debug("Refreshed {} static paths under {}.", changed.size(), prefix);
+    }
+
+    private void reload(Map<String, Resource> table, String path) {
+        try {
+            Resource resource = load(path);
+            if (resource == null) table.remove(path);
+            else table.put(path, resource);
+        } catch (IOException ex) {
+            // Usually a file removed again mid-reload, which gets its own event
+            if (Files.exists(toFile(path)))
+                log.warn("Couldn't reload static file {} - no longer serving it.", path, ex);
+            table.remove(path);
+        }
+    }
+
+    /** Stops watching for changes, if {@link #watch()} was called. The indexed files stay served. */
+    @Override
+    public void close() throws IOException {
+        WatchService ws = watcher;
+        watcher = null;
+        if (ws != null) ws.close();
+    }
+
+    public String getPrefix() {
+        return prefix;
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /** @return The number of files served. */
+    public int size() {
+        return index.size();
+    }
+
+}
@@ -0,0 +1,67 @@
+package io.drakon.spark.autorouter.dispatch;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+/**
+ * Enforces a route deadline. The handler runs on the request thread as usual; if the deadline passes first, the
+ * shared {@link DeadlineTimer} interrupts the thread and the request is answered with a 504 once the handler unwinds.
+ *
+ * Handlers blocked in non-interruptible calls will still run to completion, so long-running handlers should pass the
+ * remaining {@link Deadline} budget to their downstream calls.
+ */
+@ParametersAreNonnullByDefault
+public class TimeoutDispatch implements IRouteDispatch {
+
+    private final IRouteDispatch delegate;
+    private final long timeoutNanos;
+    private final DeadlineTimer timer;
+
+    /**
+     * @param delegate The dispatcher to enforce the deadline on.
+     * @param timeoutMillis The deadline in milliseconds.
+     * @param timer The timer to schedule deadlines on.
+     */
+    public TimeoutDispatch(IRouteDispatch delegate, long timeoutMillis, DeadlineTimer timer) {
+        this.delegate = delegate;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.timer = timer;
+    }
+
+    @Override
+    public Object dispatch(Request req, Response res) {
+        req.attribute(Deadline.ATTRIBUTE, new Deadline(System.nanoTime() + timeoutNanos));
+        Thread thread = Thread.currentThread();
+        DeadlineTimer.Timeout timeout = timer.schedule(timeoutNanos, TimeUnit.NANOSECONDS, thread::interrupt);
+
+        Object result;
+        try {
+            result = delegate.dispatch(req, res);
+        } catch (Throwable ex) {
+            // Throwable, as generated stubs let handlers' undeclared checked exceptions through too; a timeout left
+            // pending here would interrupt whatever this thread serves next
+            if (!timeout.cancel()) throw expired(timeout);
+            throw ex;
+        }
+        if (!timeout.cancel()) throw expired(timeout);
+        return result;
+    }
+
+    /**
+     * Cleans up after a deadline has fired: waits for the interrupt to land, then clears it so it doesn't leak into
+     * the next request served by this thread.
+     */
+    private static RuntimeException expired(DeadlineTimer.Timeout timeout) {
+        timeout.awaitExpiry();
+        //noinspection ResultOfMethodCallIgnored
+        Thread.interrupted();
+        return halt(504, "Gateway Timeout");
+    }
+
+}
@@ -0,0 +1,405 @@
+package io.drakon.spark.autorouter.monitor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+import javax.servlet.http.HttpServletResponse;
+
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
+import spark.ResponseTransformer;
+
+/**
+ * Asynchronous access log. Request threads only copy a few fixed fields (time, verb, route template, status,
+ * durations and body size) into a preallocated ring, claiming a slot with one atomic operation; a background thread
+ * drains the ring in batches, formats them and writes them to the file through a {@link FileChannel}.
+ *
+ * Each request is one line:
+ * <pre>
+ * TIME VERB ROUTE STATUS TOTAL_MICROS HANDLER_MICROS BYTES
+ * </pre>
+ * e.g. <code>2017-06-01T12:00:00.123Z GET /users/:id 200 1432 1210 512</code>. ROUTE is the route template, or "-"
+ * for requests no route handled; HANDLER_MICROS and BYTES are "-" when there was no handler or the size isn't known.
+ *
+ * Entries still in the ring are lost if the JVM exits without {@link #close()}.
+ */
+@ParametersAreNonnullByDefault
+public class AccessLog implements AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(AccessLog.class);
+    private static final int MAX_BATCH = 4096;
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(5);
+    private static final long BLOCK_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+    private static final String UNKNOWN = "-";
+
+    /** What to do with a request when the ring is full. */
+    public enum Overflow {
+        /** Drop the entry and count it (see {@link #getDropped()}); the request never waits. */
+        DROP,
+        /** Wait for the writer to make room. Nothing is lost, but a slow disk slows requests down. */
+        BLOCK
+    }
+
+    private final Path file;
+    private final Overflow overflow;
+    private final long rotateBytes;
+    private final int keepFiles;
+    private final ThreadLocal<Slot> slots = ThreadLocal.withInitial(Slot::new);
+
+    // The ring: one column per field, so no entry objects are allocated per request. A slot's sequence says whose
+    // turn it is: equal to a claim position when free for that producer, one past it once written.
+    private final int mask;
+    private final AtomicLongArray sequences;
+    private final long[] times;
+    private final String[] verbs;
+    private final String[] routes;
+    private final int[] statuses;
+    private final long[] totals;
+    private final long[] handlers;
+    private final long[] sizes;
+    private final AtomicLong tail = new AtomicLong();
+    private long head = 0; // Writer thread only
+
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong written = new AtomicLong();
+    private final Thread writer;
+    private volatile boolean rotateRequested = false;
+    private volatile boolean closed = false;
+    private FileChannel channel; // Writer thread only, once started; null if it couldn't be reopened
+    private long fileSize;
+
+    /**
+     * Opens the log without rotation.
+     *
+     * @param file The file to append to. Created if missing.
+     * @param capacity Entries the ring holds; rounded up to a power of two.
+     * @param overflow What to do with a request when the ring is full.
+     * @throws IOException If the file can't be opened.
+     */
+    public AccessLog(Path file, int capacity, Overflow overflow) throws IOException {
+        this(file, capacity, overflow, 0, 0);
+    }
+
+    /**
+     * @param file The file to append to. Created if missing.
+     * @param capacity Entries the ring holds; rounded up to a power of two.
+     * @param overflow What to do with a request when the ring is full.
+     * @param rotateBytes Rotate the file once it reaches this size, or zero to only rotate on {@link #rotate()}.
+     * @param keepFiles Rotated files to keep, as file.1 (newest) to file.N.
+     * @throws IOException If the file can't be opened.
+     */
+    public AccessLog(Path file, int capacity, Overflow overflow, long rotateBytes, int keepFiles) throws IOException {
+        if (capacity < 1 || capacity > 1 << 30) throw new IllegalArgumentException("capacity must be 1 to 2^30");
+        if (rotateBytes < 0 || keepFiles < 0) throw new IllegalArgumentException("rotation limits can't be negative");
+        this.file = file;
+        this.overflow = overflow;
+        this.rotateBytes = rotateBytes;
+        this.keepFiles = keepFiles;
+
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) size <<= 1;
+        this.mask = size - 1;
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) sequences.set(i, i);
+        this.times = new long[size];
+        this.verbs = new String[size];
+        this.routes = new String[size];
+        this.statuses = new int[size];
+        this.totals = new long[size];
+        this.handlers = new long[size];
+        this.sizes = new long[size];
+
+        open();
+        this.writer = new Thread(this::run, "autorouter-access-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        fileSize = channel.size();
+    }
+
+    /** Starts a request. Autorouter registers this as the first before filter. */
+    public void begin(Request req, Response res) {
+        slots.get().reset(System.currentTimeMillis(), System.nanoTime());
+    }
+
+    /** Finishes a request and queues its entry. Autorouter registers this as the last after-after filter. */
+    public void end(Request req, Response res) {
+        Slot s = slots.get();
+        if (!s.active) return; // Didn't pass through begin(), e.g. a warm-up request
+        long total = System.nanoTime() - s.startNanos;
+        s.active = false;
+        append(s.startMillis, req.requestMethod(), s.route == null ? UNKNOWN : s.route, res.status(), total,
+                s.handlerNanos, s.bytes);
+    }
+
+    /**
+     * Wraps a route dispatcher to record its route template, handler time and body size.
+     *
+     * @param verb The route verb.
+     * @param route The route label.
+     * @param delegate The dispatcher.
+     * @return The recording dispatcher.
+     */
+    public IRouteDispatch record(String verb, String route, IRouteDispatch delegate) {
+        boolean bodyless = verb.equals("HEAD");
+        return (req, res) -> {
+            Slot s = slots.get();
+            s.route = route;
+            long start = System.nanoTime();
+            Object result = null;
+            try {
+                result = delegate.dispatch(req, res);
+                return result;
+            } finally {
+                s.handlerNanos = System.nanoTime() - start;
+                HttpServletResponse raw = res.raw();
+                if (bodyless) s.bytes = 0;
+                else if (raw != null && raw.isCommitted()) s.bytes = contentLength(raw); // Written by the handler
+                else if (result instanceof byte[]) s.bytes = ((byte[]) result).length;
+                else if (result instanceof ByteBuffer) s.bytes = ((ByteBuffer) result).remaining();
+                else if (result instanceof String) s.bytes = utf8Length((String) result);
+            }
+        };
+    }
+
+    /**
+     * Wraps a route transformer to record the size of what it renders.
+     *
+     * @param delegate The transformer.
+     * @return The recording transformer.
+     */
+    public ResponseTransformer record(ResponseTransformer delegate) {
+        return model -> {
+            String body = delegate.render(model);
+            slots.get().bytes = body == null ? 0 : utf8Length(body);
+            return body;
+        };
+    }
+
+    /**
+     * Queues an entry, following the overflow policy if the ring is full.
+     */
+    private void append(long time, String verb, String route, int status, long totalNanos, long handlerNanos,
+                        long bytes) {
+        if (closed) {
+            dropped.incrementAndGet();
+            return;
+        }
+        long pos;
+        int idx;
+        for (;;) {
+            pos = tail.get();
+            idx = (int) pos & mask;
+            long seq = sequences.get(idx);
+            if (seq == pos) {
+                if (tail.compareAndSet(pos, pos + 1)) break;
+            } else if (seq < pos) {
+                // Full: the writer hasn't freed this slot from the previous lap yet
+                if (overflow == Overflow.DROP || closed) {
+                    dropped.incrementAndGet();
+                    return;
+                }
+                LockSupport.unpark(writer);
+                LockSupport.parkNanos(this, BLOCK_PARK_NANOS);
+            }
+        }
+        times[idx] = time;
+        verbs[idx] = verb;
+        routes[idx] = route;
+        statuses[idx] = status;
+        totals[idx] = totalNanos;
+        handlers[idx] = handlerNanos;
+        sizes[idx] = bytes;
+        sequences.lazySet(idx, pos + 1); // Publishes the fields above to the writer
+    }
+
+    /**
+     * Asks the writer to rotate the file before its next batch, e.g. from a daily scheduled task.
+     */
+    public void rotate() {
+        rotateRequested = true;
+        LockSupport.unpark(writer);
+    }
+
+    /**
+     * Stops accepting entries, writes everything queued and closes the file. Requests finishing after this are
+     * dropped.
+     */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** @return The entries dropped because the ring was full (or the log closed). */
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    /** @return The entries written to the file so far. */
+    public long getWritten() {
+        return written.get();
+    }
+
+    private void run() {
+        StringBuilder sb = new StringBuilder(64 * 1024);
+        for (;;) {
+            boolean stopping = closed; // Read before draining, so the last drain sees everything appended before it
+            int n = drain(sb);
+            if (n > 0) {
+                write(sb);
+                written.addAndGet(n);
+            } else if (rotateRequested) {
+                rotateNow();
+            } else if (stopping) {
+                break;
+            } else {
+                LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+            }
+        }
+        try {
+            if (channel != null) channel.close();
+        } catch (IOException ex) {
+            log.warn("Failed to close access log {}.", file, ex);
+        }
+    }
+
+    /**
+     * Formats up to a batch of queued entries, freeing their slots.
+     *
+     * @return The number of entries formatted.
+     */
+    private int drain(StringBuilder sb) {
+        sb.setLength(0);
+        int n = 0;
+        while (n < MAX_BATCH) {
+            int idx = (int) head & mask;
+            if (sequences.get(idx) != head + 1) break;
+            DateTimeFormatter.ISO_INSTANT.formatTo(Instant.ofEpochMilli(times[idx]), sb);
+            sb.append(' ').append(verbs[idx]).append(' ').append(routes[idx]).append(' ').append(statuses[idx])
+                    .append(' ').append(totals[idx] / 1000).append(' ');
+            if (handlers[idx] < 0) sb.append(UNKNOWN);
+            else sb.append(handlers[idx] / 1000);
+            sb.append(' ');
+            if (sizes[idx] < 0) sb.append(UNKNOWN);
+            else sb.append(sizes[idx]);
+            sb.append('\n');
+            verbs[idx] = null;
+            routes[idx] = null;
+            sequences.lazySet(idx, head + mask + 1); // Free for the producer one lap on
+            head++;
+            n++;
+        }
+        return n;
+    }
+
+    private void write(StringBuilder sb) {
+        ByteBuffer buf = ByteBuffer.wrap(sb.toString().getBytes(StandardCharsets.UTF_8));
+        if (rotateRequested || (rotateBytes > 0 && fileSize > 0 && fileSize + buf.remaining() > rotateBytes))
+            rotateNow();
+        try {
+            if (channel == null) open();
+            while (buf.hasRemaining()) fileSize += channel.write(buf);
+        } catch (IOException ex) {
+            log.warn("Failed to write access log {} - dropping a batch.", file, ex);
+        }
+    }
+
+    /**
+     * Closes the file, shifts it and the older files along (file to file.1, file.1 to file.2 and so on, dropping
+     * the oldest past {@link #keepFiles}), and opens a new one.
+     */
+    private void rotateNow() {
+        rotateRequested = false;
+        try {
+            if (channel != null) channel.close();
+            if (keepFiles == 0) {
+                Files.deleteIfExists(file);
+            } else {
+                Files.deleteIfExists(rotated(keepFiles));
+                for (int i = keepFiles - 1; i >= 1; i--) {
+                    if (Files.exists(rotated(i)))
+                        Files.move(rotated(i), rotated(i + 1), StandardCopyOption.REPLACE_EXISTING);
+                }
+                Files.move(file, rotated(1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException ex) {
+            log.warn("Failed to rotate access log {} - carrying on in the same file.", file, ex);
+        }
+        try {
+            open();
+        } catch (IOException ex) {
+            channel = null; // Retried on the next batch
+            log.error("Failed to reopen access log {}.", file, ex);
+        }
+    }
+
+    private Path rotated(int n) {
+        return file.resolveSibling(file.getFileName() + "." + n);
+    }
+
+    private static long contentLength(HttpServletResponse raw) {
+        String length = raw.getHeader("Content-Length");
+        try {
+            return length == null ? -1 : Long.parseLong(length);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    private static long utf8Length(String s) {
+        long bytes = s.length();
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x800 && !Character.isSurrogate(c)) bytes += 2;
+            else if (c >= 0x80) bytes += 1; // Two bytes, or half of a four byte pair
+        }
+        return bytes;
+    }
+
+    /** Reused per-thread fields for the request in progress. */
+    private static class Slot {
+        boolean active;
+        long startMillis;
+        long startNanos;
+        String route;
+        long handlerNanos;
+        long bytes;
+
+        void reset(long millis, long nanos) {
+            active = true;
+            startMillis = millis;
+            startNanos = nanos;
+            route = null;
+            handlerNanos = -1;
+            bytes = -1;
+        }
+    }
+
+}
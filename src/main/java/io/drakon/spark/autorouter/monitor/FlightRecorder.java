@@ -0,0 +1,192 @@
+package io.drakon.spark.autorouter.monitor;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import spark.Request;
+import spark.Response;
+import spark.ResponseTransformer;
+
+/**
+ * Slow request flight recorder. Every request's phase timings are kept in a reused per-thread slot; only requests
+ * which exceed their route's threshold (fixed, or an adaptive p99) are copied out into that route's ring buffer.
+ */
+@ParametersAreNonnullByDefault
+public class FlightRecorder {
+
+    private final int capacity;
+    private final long thresholdNanos;
+    private final String[] headers;
+    private final List<RouteRecorder> routes = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<Phases> phases = ThreadLocal.withInitial(Phases::new);
+
+    /**
+     * @param capacity Slow requests to keep per route.
+     * @param thresholdMillis Capture requests slower than this, or zero to capture those over the route's p99.
+     * @param headers Request headers to capture with each slow request.
+     */
+    public FlightRecorder(int capacity, long thresholdMillis, String... headers) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be at least 1");
+        this.capacity = capacity;
+        this.thresholdNanos = TimeUnit.MILLISECONDS.toNanos(thresholdMillis);
+        this.headers = headers.clone();
+    }
+
+    /**
+     * Creates the recorder for a route.
+     *
+     * @param verb The route verb.
+     * @param path The route path template.
+     * @return The new route recorder.
+     */
+    public RouteRecorder route(String verb, String path) {
+        RouteRecorder recorder = new RouteRecorder(verb + " " + path, capacity, thresholdNanos);
+        routes.add(recorder);
+        return recorder;
+    }
+
+    /** Starts a request. Autorouter registers this as an early before filter. */
+    public void begin(Request req, Response res) {
+        phases.get().reset(System.nanoTime());
+    }
+
+    /** Finishes a request, capturing it if it was slow. Autorouter registers this as a late after-after filter. */
+    public void end(Request req, Response res) {
+        Phases p = phases.get();
+        RouteRecorder route = p.route;
+        if (route == null) return; // Not one of ours
+        p.route = null;
+
+        long end = System.nanoTime();
+        long total = end - p.start;
+        if (!route.observe(total)) return;
+
+        Map<String, String> captured = new LinkedHashMap<>();
+        for (String header : headers) {
+            String value = req.headers(header);
+            if (value != null) captured.put(header, value);
+        }
+        long handlerStart = p.handlerStart == 0 ? end : p.handlerStart;
+        long handlerEnd = p.handlerEnd == 0 ? end : p.handlerEnd;
+        long handler = handlerEnd - handlerStart;
+        route.capture(new SlowRequest(route.getRoute(), req.pathInfo(), System.currentTimeMillis(), captured,
+                Thread.currentThread().getName(), p.exception, total, handlerStart - p.start,
+                Math.max(0, handler - p.transform), p.transform, end - handlerEnd));
+    }
+
+    /**
+     * Wraps a route dispatcher to record its handler phase.
+     *
+     * @param route The route's recorder.
+     * @param delegate The dispatcher.
+     * @return The recording dispatcher.
+     */
+    public IRouteDispatch record(RouteRecorder route, IRouteDispatch delegate) {
+        return (req, res) -> {
+            Phases p = phases.get();
+            p.route = route;
+            p.handlerStart = System.nanoTime();
+            try {
+                return delegate.dispatch(req, res);
+            } catch (Throwable ex) {
+                // Throwable, as generated stubs let handlers' undeclared checked exceptions through too
+                p.exception = ex.getClass().getName();
+                throw ex;
+            } finally {
+                p.handlerEnd = System.nanoTime();
+            }
+        };
+    }
+
+    /**
+     * Wraps a route transformer to record its phase.
+     *
+     * @param delegate The transformer.
+     * @return The recording transformer.
+     */
+    public ResponseTransformer record(ResponseTransformer delegate) {
+        return model -> {
+            Phases p = phases.get();
+            long start = System.nanoTime();
+            try {
+                return delegate.render(model);
+            } catch (Exception|Error ex) {
+                p.exception = ex.getClass().getName();
+                throw ex;
+            } finally {
+                long spent = System.nanoTime() - start;
+                p.transform += spent;
+                // Spark transforms after the route returns; count it as part of the handler phase
+                if (p.handlerEnd != 0) p.handlerEnd += spent;
+            }
+        };
+    }
+
+    /** Drops every captured slow request, e.g. those from a warm-up run. Thresholds and counts are kept. */
+    public void clear() {
+        routes.forEach(RouteRecorder::clear);
+    }
+
+    /** @return All route recorders, in registration order. */
+    public List<RouteRecorder> getRoutes() {
+        return Collections.unmodifiableList(routes);
+    }
+
+    /** @return Every captured slow request across all routes, slowest first. */
+    public List<SlowRequest> getSlowRequests() {
+        List<SlowRequest> out = new ArrayList<>();
+        routes.forEach(r -> out.addAll(r.getSlowRequests()));
+        out.sort((a, b) -> Long.compare(b.totalNanos, a.totalNanos));
+        return out;
+    }
+
+    /** @return A JSON dump of every route's threshold and captured slow requests. */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(1024);
+        sb.append("{\"routes\":[");
+        boolean firstRoute = true;
+        for (RouteRecorder route : routes) {
+            List<SlowRequest> slow = route.getSlowRequests();
+            if (slow.isEmpty()) continue;
+            if (!firstRoute) sb.append(',');
+            firstRoute = false;
+            sb.append("{\"route\":");
+            Json.string(sb, route.getRoute()).append(",\"count\":").append(route.getCount())
+                    .append(",\"thresholdNanos\":").append(route.getThresholdNanos()).append(",\"slow\":[");
+            for (int i = 0; i < slow.size(); i++) {
+                if (i > 0) sb.append(',');
+                slow.get(i).toJson(sb);
+            }
+            sb.append("]}");
+        }
+        return sb.append("]}").toString();
+    }
+
+    /** Reused per-thread phase timings for the request in progress. */
+    private static class Phases {
+        RouteRecorder route;
+        long start;
+        long handlerStart;
+        long handlerEnd;
+        long transform;
+        String exception;
+
+        void reset(long now) {
+            route = null;
+            start = now;
+            handlerStart = 0;
+            handlerEnd = 0;
+            transform = 0;
+            exception = null;
+        }
+    }
+
+}
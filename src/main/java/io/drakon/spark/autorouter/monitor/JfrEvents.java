@@ -0,0 +1,73 @@
+package io.drakon.spark.autorouter.monitor;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import spark.Request;
+
+/**
+ * JDK Flight Recorder events for autorouted work: {@code autorouter.RouteDispatch}, {@code autorouter.Filter} and
+ * {@code autorouter.ExceptionHandled}, each carrying the verb, route, handler method and duration. Generated stubs call
+ * these around their target, so recordings show which route a {@code $Generated...Dispatch_...} frame was serving.
+ *
+ * This is the Java 8 version, which does nothing. The jar is multi-release: on Java 11 and up the version in
+ * {@code META-INF/versions/11} is loaded instead, which emits the events. Either way the JIT inlines these calls, and a
+ * disabled event costs a flag check.
+ */
+@ParametersAreNonnullByDefault
+public final class JfrEvents {
+
+    private JfrEvents() {}
+
+    /** @return True if this JVM can emit the events. */
+    public static boolean isAvailable() {
+        return false;
+    }
+
+    /**
+     * Starts a route dispatch event.
+     *
+     * @return The event to pass to {@link #end}, or null if it's disabled.
+     */
+    @Nullable
+    public static Object beginDispatch() {
+        return null;
+    }
+
+    /**
+     * Starts a filter event.
+     *
+     * @param kind The filter step (e.g. BEFORE), or null if unknown.
+     * @return The event to pass to {@link #end}, or null if it's disabled.
+     */
+    @Nullable
+    public static Object beginFilter(@Nullable String kind) {
+        return null;
+    }
+
+    /**
+     * Starts an exception handler event.
+     *
+     * @param handled The exception being handled.
+     * @return The event to pass to {@link #end}, or null if it's disabled.
+     */
+    @Nullable
+    public static Object beginException(Exception handled) {
+        return null;
+    }
+
+    /**
+     * Ends and commits an event, if it's enabled and over its threshold.
+     *
+     * @param event The event from one of the begin methods, or null.
+     * @param req The request.
+     * @param route The route template or filter path, or null to use the request's path.
+     * @param handler The handler method, as Class#method.
+     * @param thrown What the handler threw, or null if it returned.
+     */
+    public static void end(@Nullable Object event, Request req, @Nullable String route, String handler,
+                           @Nullable Throwable thrown) {
+        // Nothing to record on Java 8
+    }
+
+}
@@ -0,0 +1,38 @@
+package io.drakon.spark.autorouter.monitor;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/** Minimal JSON text helpers for the diagnostic dumps - not a general purpose serializer. */
+@ParametersAreNonnullByDefault
+final class Json {
+
+    private Json() {} // Statics
+
+    /**
+     * Appends a quoted, escaped JSON string (or null).
+     *
+     * @param sb The output.
+     * @param s The string to write.
+     * @return The output, for chaining.
+     */
+    static StringBuilder string(StringBuilder sb, @Nullable String s) {
+        if (s == null) return sb.append("null");
+        sb.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20) sb.append(String.format("\\u%04x", (int) c));
+                    else sb.append(c);
+            }
+        }
+        return sb.append('"');
+    }
+
+}
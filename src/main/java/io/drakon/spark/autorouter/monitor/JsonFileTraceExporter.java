@@ -0,0 +1,55 @@
+package io.drakon.spark.autorouter.monitor;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Appends traces to a file as JSON lines. Intended for local profiling sessions, not production use: writes are
+ * synchronous and serialised on the exporter.
+ */
+@ParametersAreNonnullByDefault
+public class JsonFileTraceExporter implements TraceExporter, AutoCloseable {
+
+    private static final Logger log = LoggerFactory.getLogger(JsonFileTraceExporter.class);
+    private final Writer writer;
+
+    /**
+     * @param file The file to append to. Created if missing.
+     * @throws IOException If the file can't be opened.
+     */
+    public JsonFileTraceExporter(Path file) throws IOException {
+        this.writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    @Override
+    public void export(Trace trace) {
+        String line = trace.toJson();
+        synchronized (writer) {
+            try {
+                writer.write(line);
+                writer.write('\n');
+                writer.flush();
+            } catch (IOException ex) {
+                log.warn("Failed to write trace.", ex);
+            }
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (writer) {
+            writer.close();
+        }
+    }
+
+}
@@ -0,0 +1,64 @@
+package io.drakon.spark.autorouter.monitor;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free log-linear latency histogram (four sub-buckets per power of two, so roughly 19% worst-case error) used to
+ * track a route's p99. Counts are halved on every percentile refresh so the estimate follows recent traffic.
+ */
+class LatencyHistogram {
+
+    private static final int SUB_BITS = 2;
+    private static final int SUB_BUCKETS = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+    void record(long nanos) {
+        counts.incrementAndGet(bucketOf(Math.max(0, nanos)));
+    }
+
+    /**
+     * Computes a percentile from the current counts, then decays them.
+     *
+     * @param percentile The percentile (0-1).
+     * @return The upper bound of the bucket the percentile falls in, in nanos, or -1 if there's no data yet.
+     */
+    long percentileAndDecay(double percentile) {
+        long[] snapshot = new long[BUCKETS];
+        long total = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            long c = counts.get(i);
+            snapshot[i] = c;
+            total += c;
+            if (c > 1) counts.addAndGet(i, -(c / 2));
+        }
+        if (total == 0) return -1;
+
+        long target = (long) Math.ceil(total * percentile);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= target) return upperBoundOf(i);
+        }
+        return upperBoundOf(BUCKETS - 1);
+    }
+
+    static int bucketOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int msb = 63 - Long.numberOfLeadingZeros(value);
+        int sub = (int) ((value >>> (msb - SUB_BITS)) & (SUB_BUCKETS - 1));
+        return (msb - SUB_BITS + 1) * SUB_BUCKETS + sub;
+    }
+
+    static long upperBoundOf(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int msb = bucket / SUB_BUCKETS + SUB_BITS - 1;
+        long sub = bucket % SUB_BUCKETS;
+        long base = 1L << msb;
+        long width = 1L << (msb - SUB_BITS);
+        if (msb >= 62) return Long.MAX_VALUE;
+        return base + (sub + 1) * width - 1;
+    }
+
+}
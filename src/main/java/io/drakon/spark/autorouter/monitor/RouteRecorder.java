@@ -0,0 +1,93 @@
+package io.drakon.spark.autorouter.monitor;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/**
+ * Per-route slow request storage for the {@link FlightRecorder}: a fixed-size ring which writers claim slots in with
+ * a single atomic increment, so capturing never blocks the request thread.
+ */
+@ParametersAreNonnullByDefault
+public class RouteRecorder {
+
+    private static final int REFRESH_EVERY = 1024;
+    private static final long MIN_ADAPTIVE_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final String route;
+    private final AtomicReferenceArray<SlowRequest> ring;
+    private final AtomicLong cursor = new AtomicLong();
+    private final AtomicLong count = new AtomicLong();
+    private final LatencyHistogram histogram;
+    private volatile long thresholdNanos;
+
+    /**
+     * @param route The route name (verb and path template).
+     * @param capacity Slow requests to keep.
+     * @param thresholdNanos Fixed capture threshold, or zero/negative to track the route's p99.
+     */
+    RouteRecorder(String route, int capacity, long thresholdNanos) {
+        this.route = route;
+        this.ring = new AtomicReferenceArray<>(capacity);
+        this.histogram = thresholdNanos > 0 ? null : new LatencyHistogram();
+        this.thresholdNanos = thresholdNanos > 0 ? thresholdNanos : Long.MAX_VALUE;
+    }
+
+    /**
+     * Records a request duration and reports whether it should be captured.
+     *
+     * @param nanos The total request duration.
+     * @return True if the request is over the threshold.
+     */
+    boolean observe(long nanos) {
+        long n = count.incrementAndGet();
+        if (histogram != null) {
+            histogram.record(nanos);
+            if (n % REFRESH_EVERY == 0) {
+                long p99 = histogram.percentileAndDecay(0.99);
+                if (p99 >= 0) thresholdNanos = Math.max(MIN_ADAPTIVE_NANOS, p99);
+            }
+        }
+        return nanos > thresholdNanos;
+    }
+
+    void capture(SlowRequest request) {
+        ring.set((int) (cursor.getAndIncrement() % ring.length()), request);
+    }
+
+    /** Drops the captured slow requests. */
+    void clear() {
+        for (int i = 0; i < ring.length(); i++) ring.set(i, null);
+    }
+
+    public String getRoute() {
+        return route;
+    }
+
+    /** @return The requests seen since startup. */
+    public long getCount() {
+        return count.get();
+    }
+
+    /** @return The current capture threshold, or Long.MAX_VALUE while an adaptive threshold is still warming up. */
+    public long getThresholdNanos() {
+        return thresholdNanos;
+    }
+
+    /** @return The captured slow requests, slowest first. */
+    public List<SlowRequest> getSlowRequests() {
+        List<SlowRequest> out = new ArrayList<>(ring.length());
+        for (int i = 0; i < ring.length(); i++) {
+            SlowRequest req = ring.get(i);
+            if (req != null) out.add(req);
+        }
+        out.sort(Comparator.comparingLong((SlowRequest r) -> r.totalNanos).reversed());
+        return out;
+    }
+
+}
@@ -0,0 +1,67 @@
+package io.drakon.spark.autorouter.monitor;
+
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/** A request captured by the {@link FlightRecorder} for exceeding its route's threshold. */
+@ParametersAreNonnullByDefault
+public final class SlowRequest {
+
+    public final String route;
+    public final String path;
+    public final long epochMillis;
+    public final Map<String, String> headers;
+    public final String thread;
+    @Nullable public final String exception;
+
+    public final long totalNanos;
+    /** Time from the start of the request to the start of the route, i.e. before filters. */
+    public final long beforeNanos;
+    /** Time in the route handler (including any bulkhead/timeout/coalescing wrappers). */
+    public final long handlerNanos;
+    /** Time in the route's transformer. */
+    public final long transformNanos;
+    /** Everything else, i.e. after and after-after filters. */
+    public final long afterNanos;
+
+    SlowRequest(String route, String path, long epochMillis, Map<String, String> headers, String thread,
+                @Nullable String exception, long totalNanos, long beforeNanos, long handlerNanos,
+                long transformNanos, long afterNanos) {
+        this.route = route;
+        this.path = path;
+        this.epochMillis = epochMillis;
+        this.headers = Collections.unmodifiableMap(headers);
+        this.thread = thread;
+        this.exception = exception;
+        this.totalNanos = totalNanos;
+        this.beforeNanos = beforeNanos;
+        this.handlerNanos = handlerNanos;
+        this.transformNanos = transformNanos;
+        this.afterNanos = afterNanos;
+    }
+
+    void toJson(StringBuilder sb) {
+        sb.append("{\"route\":");
+        Json.string(sb, route).append(",\"path\":");
+        Json.string(sb, path).append(",\"time\":").append(epochMillis).append(",\"thread\":");
+        Json.string(sb, thread).append(",\"exception\":");
+        Json.string(sb, exception).append(",\"totalNanos\":").append(totalNanos)
+                .append(",\"beforeNanos\":").append(beforeNanos)
+                .append(",\"handlerNanos\":").append(handlerNanos)
+                .append(",\"transformNanos\":").append(transformNanos)
+                .append(",\"afterNanos\":").append(afterNanos)
+                .append(",\"headers\":{");
+        boolean first = true;
+        for (Map.Entry<String, String> header : headers.entrySet()) {
+            if (!first) sb.append(',');
+            first = false;
+            Json.string(sb, header.getKey()).append(':');
+            Json.string(sb, header.getValue());
+        }
+        sb.append("}}");
+    }
+
+}
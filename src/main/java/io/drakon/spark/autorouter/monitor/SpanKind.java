@@ -0,0 +1,10 @@
+package io.drakon.spark.autorouter.monitor;
+
+/** The pipeline step a traced span covers. */
+public enum SpanKind {
+    BEFORE,
+    HANDLER,
+    AFTER,
+    AFTER_AFTER,
+    TRANSFORMER
+}
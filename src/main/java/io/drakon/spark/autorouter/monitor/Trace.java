@@ -0,0 +1,67 @@
+package io.drakon.spark.autorouter.monitor;
+
+import java.util.Collections;
+import java.util.List;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+/** An immutable, completed request trace. Span start times are relative to the start of the request. */
+@ParametersAreNonnullByDefault
+public final class Trace {
+
+    public final String verb;
+    public final String path;
+    public final long startEpochMillis;
+    public final long durationNanos;
+    public final List<Span> spans;
+    /** Spans which didn't fit into the per-thread buffer. */
+    public final int dropped;
+
+    Trace(String verb, String path, long startEpochMillis, long durationNanos, List<Span> spans, int dropped) {
+        this.verb = verb;
+        this.path = path;
+        this.startEpochMillis = startEpochMillis;
+        this.durationNanos = durationNanos;
+        this.spans = Collections.unmodifiableList(spans);
+        this.dropped = dropped;
+    }
+
+    /** A single timed pipeline step. */
+    public static final class Span {
+        public final SpanKind kind;
+        public final String name;
+        public final long startNanos;
+        public final long durationNanos;
+        @Nullable public final String exception;
+
+        Span(SpanKind kind, String name, long startNanos, long durationNanos, @Nullable String exception) {
+            this.kind = kind;
+            this.name = name;
+            this.startNanos = startNanos;
+            this.durationNanos = durationNanos;
+            this.exception = exception;
+        }
+    }
+
+    /** @return This trace as a single-line JSON object. */
+    public String toJson() {
+        StringBuilder sb = new StringBuilder(128 + spans.size() * 96);
+        sb.append("{\"verb\":");
+        Json.string(sb, verb).append(",\"path\":");
+        Json.string(sb, path).append(",\"start\":").append(startEpochMillis)
+                .append(",\"durationNanos\":").append(durationNanos)
+                .append(",\"dropped\":").append(dropped).append(",\"spans\":[");
+        for (int i = 0; i < spans.size(); i++) {
+            Span span = spans.get(i);
+            if (i > 0) sb.append(',');
+            sb.append("{\"kind\":\"").append(span.kind.name()).append("\",\"name\":");
+            Json.string(sb, span.name).append(",\"startNanos\":").append(span.startNanos)
+                    .append(",\"durationNanos\":").append(span.durationNanos);
+            if (span.exception != null) Json.string(sb.append(",\"exception\":"), span.exception);
+            sb.append('}');
+        }
+        return sb.append("]}").toString();
+    }
+
+}
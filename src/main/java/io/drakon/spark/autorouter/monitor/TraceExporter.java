@@ -0,0 +1,12 @@
+package io.drakon.spark.autorouter.monitor;
+
+/**
+ * Receives completed traces from a {@link Tracer}. Called on the request thread once the request has finished, so
+ * implementations should hand off anything slow.
+ */
+@FunctionalInterface
+public interface TraceExporter {
+
+    void export(Trace trace);
+
+}
@@ -0,0 +1,182 @@
+package io.drakon.spark.autorouter.monitor;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import spark.Request;
+import spark.Response;
+import spark.ResponseTransformer;
+
+/**
+ * Sampling request tracer. One in every N requests (counted per thread, so there's no shared counter to contend on)
+ * records the start and end of each filter, handler and transformer step into a preallocated per-thread span buffer.
+ * Finished traces are snapshotted and handed to a {@link TraceExporter}.
+ *
+ * Unsampled requests pay a counter increment in {@link #begin} and a thread-local flag check per step.
+ */
+@ParametersAreNonnullByDefault
+public class Tracer {
+
+    private static final Logger log = LoggerFactory.getLogger(Tracer.class);
+    private static final int MAX_SPANS = 64;
+
+    private final int sampleEvery;
+    private final TraceExporter exporter;
+    private final ThreadLocal<SpanBuffer> buffers = ThreadLocal.withInitial(SpanBuffer::new);
+
+    /**
+     * @param sampleEvery Trace one in every this many requests (per thread).
+     * @param exporter Where completed traces go.
+     */
+    public Tracer(int sampleEvery, TraceExporter exporter) {
+        if (sampleEvery < 1) throw new IllegalArgumentException("sampleEvery must be at least 1");
+        this.sampleEvery = sampleEvery;
+        this.exporter = exporter;
+    }
+
+    /**
+     * Starts a request. Must run before any traced step - Autorouter registers this as the first before filter.
+     */
+    public void begin(Request req, Response res) {
+        SpanBuffer buf = buffers.get();
+        if (++buf.counter < sampleEvery) {
+            buf.active = false;
+            return;
+        }
+        buf.counter = 0;
+        buf.reset(req.requestMethod(), req.pathInfo());
+    }
+
+    /**
+     * Finishes a request and exports its trace if it was sampled. Autorouter registers this as the last after-after
+     * filter.
+     */
+    public void end(Request req, Response res) {
+        SpanBuffer buf = buffers.get();
+        if (!buf.active) return;
+        buf.active = false;
+        Trace trace = buf.snapshot(System.nanoTime());
+        try {
+            exporter.export(trace);
+        } catch (RuntimeException ex) {
+            log.warn("Trace exporter failed.", ex);
+        }
+    }
+
+    /**
+     * Wraps a filter or handler dispatcher so it records a span on sampled requests.
+     *
+     * @param kind The step kind.
+     * @param name The name to record (usually Class#method).
+     * @param delegate The dispatcher to time.
+     * @return The traced dispatcher.
+     */
+    public IRouteDispatch trace(SpanKind kind, String name, IRouteDispatch delegate) {
+        return (req, res) -> {
+            SpanBuffer buf = buffers.get();
+            if (!buf.active) return delegate.dispatch(req, res);
+            int span = buf.open(kind, name);
+            try {
+                return delegate.dispatch(req, res);
+            } catch (Throwable ex) {
+                // Throwable, as generated stubs let handlers' undeclared checked exceptions through too
+                buf.fail(span, ex);
+                throw ex;
+            } finally {
+                buf.close(span);
+            }
+        };
+    }
+
+    /**
+     * Wraps a transformer so it records a span on sampled requests.
+     *
+     * @param delegate The transformer to time.
+     * @return The traced transformer.
+     */
+    public ResponseTransformer trace(ResponseTransformer delegate) {
+        String name = delegate.getClass().getName();
+        return model -> {
+            SpanBuffer buf = buffers.get();
+            if (!buf.active) return delegate.render(model);
+            int span = buf.open(SpanKind.TRANSFORMER, name);
+            try {
+                return delegate.render(model);
+            } catch (Exception|Error ex) {
+                buf.fail(span, ex);
+                throw ex;
+            } finally {
+                buf.close(span);
+            }
+        };
+    }
+
+    /** Per-thread span storage. Allocated once per thread and reused for every sampled request. */
+    private static class SpanBuffer {
+        int counter = 0;
+        boolean active = false;
+
+        String verb;
+        String path;
+        long startEpochMillis;
+        long startNanos;
+        int size;
+        int dropped;
+
+        final SpanKind[] kinds = new SpanKind[MAX_SPANS];
+        final String[] names = new String[MAX_SPANS];
+        final long[] starts = new long[MAX_SPANS];
+        final long[] ends = new long[MAX_SPANS];
+        final String[] exceptions = new String[MAX_SPANS];
+
+        void reset(String verb, String path) {
+            this.active = true;
+            this.verb = verb;
+            this.path = path;
+            this.startEpochMillis = System.currentTimeMillis();
+            this.startNanos = System.nanoTime();
+            this.size = 0;
+            this.dropped = 0;
+        }
+
+        /** @return The span slot, or -1 if the buffer is full. */
+        int open(SpanKind kind, String name) {
+            if (size == MAX_SPANS) {
+                dropped++;
+                return -1;
+            }
+            int i = size++;
+            kinds[i] = kind;
+            names[i] = name;
+            exceptions[i] = null;
+            starts[i] = System.nanoTime();
+            ends[i] = starts[i] - 1; // Marks the span as still open
+            return i;
+        }
+
+        void fail(int span, Throwable t) {
+            if (span >= 0) exceptions[span] = t.getClass().getName();
+        }
+
+        void close(int span) {
+            if (span >= 0) ends[span] = System.nanoTime();
+        }
+
+        Trace snapshot(long endNanos) {
+            List<Trace.Span> spans = new ArrayList<>(size);
+            for (int i = 0; i < size; i++) {
+                long end = ends[i] >= starts[i] ? ends[i] : endNanos;
+                spans.add(new Trace.Span(kinds[i], names[i], starts[i] - startNanos, end - starts[i],
+                        exceptions[i]));
+                names[i] = null;
+            }
+            return new Trace(verb, path, startEpochMillis, endNanos - startNanos, spans, dropped);
+        }
+    }
+
+}
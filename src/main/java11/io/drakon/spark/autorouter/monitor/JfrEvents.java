@@ -0,0 +1,142 @@
+package io.drakon.spark.autorouter.monitor;
+
+import javax.annotation.Nullable;
+import javax.annotation.ParametersAreNonnullByDefault;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+import spark.Request;
+
+/**
+ * JDK Flight Recorder events for autorouted work: {@code autorouter.RouteDispatch}, {@code autorouter.Filter} and
+ * {@code autorouter.ExceptionHandled}, each carrying the verb, route, handler method and duration. Generated stubs call
+ * these around their target, so recordings show which route a {@code $Generated...Dispatch_...} frame was serving.
+ *
+ * This is the Java 11 version, shipped in the jar's {@code META-INF/versions/11}. A disabled event is allocated and
+ * dropped straight away, which escape analysis removes once the stub has inlined the begin call; the fields are only
+ * filled in for events which will actually be committed. While recording, only calls over 10ms are committed unless
+ * the recording's settings lower the threshold.
+ */
+@ParametersAreNonnullByDefault
+public final class JfrEvents {
+
+    private JfrEvents() {}
+
+    /** @return True if this JVM can emit the events. */
+    public static boolean isAvailable() {
+        return true;
+    }
+
+    /**
+     * Starts a route dispatch event.
+     *
+     * @return The event to pass to {@link #end}, or null if it's disabled.
+     */
+    @Nullable
+    public static Object beginDispatch() {
+        RouteDispatch event = new RouteDispatch();
+        if (!event.isEnabled()) return null;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Starts a filter event.
+     *
+     * @param kind The filter step (e.g. BEFORE), or null if unknown.
+     * @return The event to pass to {@link #end}, or null if it's disabled.
+     */
+    @Nullable
+    public static Object beginFilter(@Nullable String kind) {
+        Filter event = new Filter();
+        if (!event.isEnabled()) return null;
+        event.kind = kind;
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Starts an exception handler event.
+     *
+     * @param handled The exception being handled.
+     * @return The event to pass to {@link #end}, or null if it's disabled.
+     */
+    @Nullable
+    public static Object beginException(Exception handled) {
+        ExceptionHandled event = new ExceptionHandled();
+        if (!event.isEnabled()) return null;
+        event.exceptionType = handled.getClass().getName();
+        event.begin();
+        return event;
+    }
+
+    /**
+     * Ends and commits an event, if it's enabled and over its threshold.
+     *
+     * @param event The event from one of the begin methods, or null.
+     * @param req The request.
+     * @param route The route template or filter path, or null to use the request's path.
+     * @param handler The handler method, as Class#method.
+     * @param thrown What the handler threw, or null if it returned.
+     */
+    public static void end(@Nullable Object event, Request req, @Nullable String route, String handler,
+                           @Nullable Throwable thrown) {
+        if (event == null) return;
+        AutorouterEvent e = (AutorouterEvent) event;
+        e.end();
+        if (!e.shouldCommit()) return;
+        e.verb = req.requestMethod();
+        e.route = route == null ? req.pathInfo() : route;
+        e.handler = handler;
+        e.thrown = thrown == null ? null : thrown.getClass().getName();
+        e.commit();
+    }
+
+    @Category("Autorouter")
+    @StackTrace(false)
+    @Threshold("10 ms")
+    abstract static class AutorouterEvent extends Event {
+        @Label("Verb")
+        String verb;
+
+        @Label("Route")
+        @Description("The route template or filter path, or the request path where neither is known")
+        String route;
+
+        @Label("Handler")
+        @Description("The handler method, as Class#method")
+        String handler;
+
+        @Label("Thrown")
+        @Description("The exception the handler threw, if any")
+        String thrown;
+    }
+
+    @Name("autorouter.RouteDispatch")
+    @Label("Route Dispatch")
+    @Description("An autorouted route handler call")
+    static final class RouteDispatch extends AutorouterEvent {
+    }
+
+    @Name("autorouter.Filter")
+    @Label("Filter")
+    @Description("An autorouted filter call")
+    static final class Filter extends AutorouterEvent {
+        @Label("Kind")
+        String kind;
+    }
+
+    @Name("autorouter.ExceptionHandled")
+    @Label("Exception Handled")
+    @Description("An autorouted exception handler call")
+    static final class ExceptionHandled extends AutorouterEvent {
+        @Label("Exception Type")
+        String exceptionType;
+    }
+
+}
@@ -0,0 +1,89 @@
+package io.drakon.spark.autorouter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import io.drakon.spark.autorouter.monitor.AccessLog;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Access log")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestAccessLog {
+
+    private static final String PKG = "io.drakon.spark.autorouter.test.access";
+
+    private static void deleteAll(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(Collectors.toList())) Files.delete(file);
+        }
+    }
+
+    @Test
+    @DisplayName("writes one line per request")
+    void testLines() throws IOException {
+        Path dir = Files.createTempDirectory("access");
+        try {
+            Path file = dir.resolve("access.log");
+            AccessLog accessLog = new AccessLog(file, 8, AccessLog.Overflow.BLOCK);
+            AutorouterTestClient client = new AutorouterTestClient(PKG, router -> router.enableAccessLog(accessLog));
+            client.get("/items/7");
+            client.get("/teapot");
+            client.get("/missing");
+            accessLog.close();
+
+            List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+            assertEquals(3, lines.size());
+            String[] item = lines.get(0).split(" ");
+            assertEquals(7, item.length, lines.get(0));
+            assertTrue(item[0].endsWith("Z"), "Timestamp: " + item[0]);
+            assertEquals("GET", item[1]);
+            assertEquals("/items/:id", item[2]);
+            assertEquals("200", item[3]);
+            assertTrue(Long.parseLong(item[4]) >= Long.parseLong(item[5]), "Total includes the handler.");
+            assertEquals("6", item[6]);
+            assertTrue(lines.get(1).matches("\\S+ GET /teapot 418 \\d+ \\d+ -"), lines.get(1));
+            assertTrue(lines.get(2).matches("\\S+ GET - 404 \\d+ - -"), lines.get(2));
+            assertEquals(3, accessLog.getWritten());
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+    @Test
+    @DisplayName("blocks rather than drops when full, and rotates by size")
+    void testBlockAndRotate() throws IOException {
+        Path dir = Files.createTempDirectory("access");
+        try {
+            Path file = dir.resolve("access.log");
+            AccessLog accessLog = new AccessLog(file, 2, AccessLog.Overflow.BLOCK, 4096, 100);
+            AutorouterTestClient client = new AutorouterTestClient(PKG, router -> router.enableAccessLog(accessLog));
+            IntStream.range(0, 1000).parallel().forEach(i -> client.get("/items/" + i));
+            accessLog.close();
+
+            assertEquals(0, accessLog.getDropped());
+            List<String> lines = new ArrayList<>();
+            try (Stream<Path> files = Files.list(dir)) {
+                for (Path f : files.collect(Collectors.toList())) {
+                    assertTrue(Files.size(f) <= 4096, f + " is over the rotation size.");
+                    lines.addAll(Files.readAllLines(f, StandardCharsets.UTF_8));
+                }
+            }
+            assertEquals(1000, lines.size());
+            assertTrue(Files.exists(dir.resolve("access.log.2")), "Rotated at least twice.");
+        } finally {
+            deleteAll(dir);
+        }
+    }
+
+}
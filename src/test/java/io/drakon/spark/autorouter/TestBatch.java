@@ -0,0 +1,126 @@
+package io.drakon.spark.autorouter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.spark.autorouter.codec.JsonReader;
+import io.drakon.spark.autorouter.dispatch.BatchDispatch;
+import io.drakon.spark.autorouter.dispatch.LocalPipeline;
+import io.drakon.spark.autorouter.dispatch.LocalRequest;
+import io.drakon.spark.autorouter.dispatch.LocalResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.HaltException;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Batch endpoint")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestBatch {
+
+    private final CountDownLatch both = new CountDownLatch(2);
+
+    private BatchDispatch batch() {
+        LocalPipeline pipeline = new LocalPipeline();
+        pipeline.before(null, (req, res) -> res.header("X-Auth", String.valueOf(req.headers("Authorization"))));
+        pipeline.route("GET", "/users/:id", (req, res) -> {
+            res.type("application/json");
+            return "{\"id\":" + req.params("id") + "}";
+        });
+        pipeline.route("GET", "/problem", (req, res) -> {
+            res.type("application/problem+json; charset=utf-8");
+            return "{\"title\":\"nope\"}";
+        });
+        pipeline.route("GET", "/lines", (req, res) -> {
+            res.type("application/x-ndjson");
+            return "{\"n\":1}\n{\"n\":2}\n";
+        });
+        pipeline.route("POST", "/echo", (req, res) -> req.contentType() + " " + req.body());
+        pipeline.route("GET", "/parallel", (req, res) -> {
+            // Only returns if both sub-requests run at once
+            both.countDown();
+            return both.await(5, TimeUnit.SECONDS) ? "together" : "alone";
+        });
+        pipeline.route("GET", "/boom", (req, res) -> {
+            throw new IllegalStateException("boom");
+        });
+        BatchDispatch batch = new BatchDispatch(pipeline, "/batch", 4, 5);
+        pipeline.route("POST", "/batch", batch::dispatch);
+        return batch;
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<Map<String, Object>> send(BatchDispatch batch, String body) throws IOException {
+        LocalRequest req = new LocalRequest("POST", "/batch").header("Authorization", "Bearer abc")
+                .body("application/json", body);
+        LocalResponse res = new LocalResponse();
+        byte[] out = (byte[]) batch.dispatch(req, res);
+        assertEquals("application/json", res.type());
+        return (List<Map<String, Object>>) new JsonReader(new ByteArrayInputStream(out)).readValue(Object.class);
+    }
+
+    @Test
+    @DisplayName("answers sub-requests in order, with filters applied")
+    @SuppressWarnings("unchecked")
+    void testBatch() throws IOException {
+        List<Map<String, Object>> results = send(batch(), "[" +
+                "{\"path\": \"/users/42\"}," +
+                "{\"method\": \"POST\", \"path\": \"/echo\", \"headers\": {\"Content-Type\": \"text/plain\"}, " +
+                "\"body\": \"hi\"}," +
+                "{\"path\": \"/missing\"}," +
+                "{\"path\": \"/boom\"}," +
+                "{\"path\": \"/batch\"}]");
+        assertEquals(5, results.size());
+
+        assertEquals(200L, results.get(0).get("status"));
+        assertEquals(42L, ((Map<String, Object>) results.get(0).get("body")).get("id"), "JSON bodies embedded.");
+        Map<String, Object> headers = (Map<String, Object>) results.get(0).get("headers");
+        assertEquals("Bearer abc", headers.get("X-Auth"), "Batch headers inherited.");
+        assertEquals("application/json", headers.get("Content-Type"));
+
+        assertEquals("text/plain hi", results.get(1).get("body"));
+        assertEquals(404L, results.get(2).get("status"));
+        assertEquals(500L, results.get(3).get("status"));
+        assertEquals(400L, results.get(4).get("status"), "Batches can't nest.");
+    }
+
+    @Test
+    @DisplayName("embeds only JSON document bodies as JSON")
+    @SuppressWarnings("unchecked")
+    void testEmbedding() throws IOException {
+        List<Map<String, Object>> results = send(batch(), "[{\"path\": \"/problem\"}, {\"path\": \"/lines\"}]");
+        assertEquals("nope", ((Map<String, Object>) results.get(0).get("body")).get("title"), "+json types embedded.");
+        assertEquals("{\"n\":1}\n{\"n\":2}\n", results.get(1).get("body"), "NDJSON kept as a string.");
+    }
+
+    @Test
+    @DisplayName("refuses nested batches however the path is spelt")
+    void testNested() throws IOException {
+        List<Map<String, Object>> results = send(batch(), "[" +
+                "{\"method\": \"POST\", \"path\": \"//batch\", \"body\": \"[]\"}," +
+                "{\"method\": \"POST\", \"path\": \"/batch//\", \"body\": \"[]\"}]");
+        assertEquals(400L, results.get(0).get("status"));
+        assertEquals("Batches can't nest.", results.get(0).get("body"));
+        assertEquals(404L, results.get(1).get("status"), "As in Spark, a trailing slash doesn't match.");
+    }
+
+    @Test
+    @DisplayName("runs sub-requests in parallel, within limits")
+    void testParallel() throws IOException {
+        BatchDispatch batch = batch();
+        List<Map<String, Object>> results = send(batch, "[{\"path\": \"/parallel\"}, {\"path\": \"/parallel\"}]");
+        assertEquals("together", results.get(0).get("body"));
+        assertEquals("together", results.get(1).get("body"));
+
+        HaltException tooMany = assertThrows(HaltException.class, () -> send(batch, "[{\"path\": \"/users/1\"}," +
+                "{\"path\": \"/users/2\"}, {\"path\": \"/users/3\"}, {\"path\": \"/users/4\"}, " +
+                "{\"path\": \"/users/5\"}, {\"path\": \"/users/6\"}]"));
+        assertEquals(413, tooMany.statusCode());
+        assertEquals(400, assertThrows(HaltException.class, () -> send(batch, "{\"path\": 1}")).statusCode());
+    }
+
+}
@@ -0,0 +1,147 @@
+package io.drakon.spark.autorouter;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.drakon.spark.autorouter.codec.JsonDeserializers;
+import io.drakon.spark.autorouter.codec.JsonReader;
+import io.drakon.spark.autorouter.dispatch.BytecodeDispatch;
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.dispatch.LocalRequest;
+import io.drakon.spark.autorouter.dispatch.LocalResponse;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import io.drakon.spark.autorouter.test.body.BodyRoutes;
+import io.drakon.spark.autorouter.test.body.Signup;
+import io.drakon.spark.autorouter.test.json.geo.Point;
+import io.drakon.spark.autorouter.test.json.geo_Point;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.HaltException;
+import spark.Request;
+import spark.Response;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("@Body decoding")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestBody {
+
+    private final Map<String, IRouteDispatch> stubs = new HashMap<>();
+
+    private static final String SIGNUP = "{\"email\":\"ada@example.com\",\"age\":36,\"score\":9.5,\"marketing\":false,"
+            + "\"plan\":\"PRO\",\"unknown\":{\"nested\":[1,2,{\"x\":null}]},\"nickname\":\"caf\\u00e9 \u00e9\","
+            + "\"addresses\":[{\"city\":\"London\",\"grade\":\"A\"},null],\"counters\":{\"logins\":3}}";
+
+    @Test
+    @DisplayName("decodes JSON into beans with generics, enums and setters")
+    void testBean() {
+        Signup signup = (Signup) send("signup", Signup.class, "application/json; charset=utf-8", SIGNUP);
+        assertEquals("ada@example.com", signup.email);
+        assertEquals(36, signup.age);
+        assertEquals(9.5, signup.score);
+        assertFalse(signup.marketing);
+        assertEquals(Signup.Plan.PRO, signup.plan);
+        assertEquals("caf\u00e9 \u00e9", signup.getNickname());
+        assertEquals(2, signup.addresses.size());
+        assertEquals("London", signup.addresses.get(0).city);
+        assertEquals('A', signup.addresses.get(0).grade);
+        assertNull(signup.addresses.get(1));
+        assertEquals(Long.valueOf(3), signup.counters.get("logins"));
+    }
+
+    @Test
+    @DisplayName("decodes top-level generic collections and +json types")
+    void testCollection() {
+        assertEquals(Arrays.asList("a", "b"), send("tags", List.class, "application/vnd.tags+json", "[\"a\",\"b\"]"));
+        assertEquals(Collections.emptyList(), send("tags", List.class, "application/json", " [ ] "));
+    }
+
+    @Test
+    @DisplayName("classes whose flattened names match get their own decoders")
+    void testNameCollision() throws IOException {
+        Point point = (Point) JsonDeserializers.forClass(Point.class).read(reader("{\"x\":1,\"y\":2}"));
+        assertEquals(2, point.y);
+        geo_Point named = (geo_Point) JsonDeserializers.forClass(geo_Point.class).read(reader("{\"name\":\"o\"}"));
+        assertEquals("o", named.name);
+    }
+
+    @Test
+    @DisplayName("raw String and InputStream bodies skip decoding")
+    void testRaw() {
+        assertEquals("not json", send("raw", String.class, "text/plain", "not json"));
+        assertEquals(5, send("stream", InputStream.class, "application/octet-stream", "12345"));
+    }
+
+    @Test
+    @DisplayName("bad requests are answered with 400, 413 and 415")
+    void testErrors() {
+        assertHalt(400, () -> send("signup", Signup.class, "application/json", "{\"age\":\"old\"}"));
+        assertHalt(400, () -> send("signup", Signup.class, "application/json", "{\"age\":1.5}"));
+        assertHalt(400, () -> send("signup", Signup.class, "application/json", "{\"email\":\"x\"} trailing"));
+        assertHalt(400, () -> send("signup", Signup.class, "application/json", "{\"plan\":\"GOLD\"}"));
+        assertHalt(400, () -> send("tags", List.class, "application/json", "[\"a\",]"));
+        assertHalt(413, () -> send("tags", List.class, "application/json", "[\"" + String.join("", Collections
+                .nCopies(40, "x")) + "\"]"));
+        assertHalt(415, () -> send("signup", Signup.class, "application/xml", "<signup/>"));
+    }
+
+    @Test
+    @DisplayName("streamed bodies running past the limit get a 413")
+    void testStreamTooLarge() {
+        AutorouterTestClient client = new AutorouterTestClient("io.drakon.spark.autorouter.test.upload");
+        assertEquals("4", client.send(chunked("1234")).body());
+        LocalResponse res = client.send(chunked("12345"));
+        assertEquals(413, res.status());
+        assertEquals("Payload Too Large", res.body());
+    }
+
+    /** A request without a Content-Length, so the limit can only be hit while reading. */
+    private static LocalRequest chunked(String body) {
+        return new LocalRequest("POST", "/upload") {
+            @Override
+            public int contentLength() {
+                return -1;
+            }
+        }.body("application/octet-stream", body);
+    }
+
+    @Test
+    @DisplayName("primitive body parameters are rejected")
+    void testInvalid() throws ReflectiveOperationException {
+        Method m = BodyRoutes.class.getMethod("invalid", Request.class, Response.class, int.class);
+        assertNull(new BytecodeDispatch().generateRouteStub(m));
+    }
+
+    private static JsonReader reader(String json) {
+        return new JsonReader(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void assertHalt(int status, Runnable r) {
+        HaltException ex = assertThrows(HaltException.class, r::run);
+        assertEquals(status, ex.statusCode());
+    }
+
+    private Object send(String method, Class<?> bodyType, String contentType, String body) {
+        // Stub names are per method, so each can only be generated once
+        IRouteDispatch dispatch = stubs.computeIfAbsent(method, name -> {
+            try {
+                Method m = BodyRoutes.class.getMethod(name, Request.class, Response.class, bodyType);
+                return Utils.dispatchClassToObj(new BytecodeDispatch().generateRouteStub(m));
+            } catch (ReflectiveOperationException ex) {
+                throw new RuntimeException(ex);
+            }
+        });
+        assertNotNull(dispatch);
+        return dispatch.dispatch(new FakeRequest("POST", "/" + method).body(contentType, body), new FakeResponse());
+    }
+
+}
@@ -0,0 +1,107 @@
+package io.drakon.spark.autorouter;
+
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.*;
+
+import io.drakon.spark.autorouter.dispatch.Bulkhead;
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.HaltException;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.drakon.spark.autorouter.Utils.Pair;
+
+@DisplayName("Bulkhead isolation")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestBulkhead {
+
+    @Test
+    @DisplayName("nested path groups resolve to the nearest bulkhead")
+    void testSearch() {
+        Autorouter.SearchResult result = new Autorouter("io.drakon.spark.autorouter.test.bulkhead").search();
+        Map<String, Bulkhead> byMethod = new HashMap<>();
+        for (Pair<Method, Autorouter.RouteInfo> pair : result.routes.get(Routes.GET.class))
+            byMethod.put(pair.first.getDeclaringClass().getSimpleName() + "#" + pair.first.getName(),
+                    pair.second.bulkhead);
+
+        Bulkhead reports = byMethod.get("Reports#index");
+        assertNotNull(reports);
+        assertEquals("/reports", reports.getName());
+        assertEquals(2, reports.getMaxConcurrent());
+        assertEquals(4, reports.getMaxQueue());
+        assertSame(reports, byMethod.get("Daily#daily"), "nested group shares parent partition");
+
+        Bulkhead export = byMethod.get("Export#export");
+        assertNotNull(export);
+        assertNotSame(reports, export, "nested bulkhead gets its own partition");
+        assertEquals("/reports/export", export.getName());
+
+        assertNull(byMethod.get("Api#index"), "unannotated groups are not partitioned");
+    }
+
+    @Test
+    @DisplayName("saturated partition fails fast with 503")
+    void testRejects() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("/test", 1, 0, 0);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IRouteDispatch guarded = bulkhead.guard((req, res) -> {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> first = pool.submit(() -> guarded.dispatch(null, null));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            assertEquals(1, bulkhead.getActive());
+
+            HaltException ex = assertThrows(HaltException.class, () -> guarded.dispatch(null, null));
+            assertEquals(503, ex.statusCode());
+            assertEquals(1, bulkhead.getRejected());
+
+            release.countDown();
+            assertEquals("done", first.get(5, TimeUnit.SECONDS));
+            assertEquals(0, bulkhead.getActive());
+            assertEquals("done", guarded.dispatch(null, null), "slot freed after completion");
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    @Test
+    @DisplayName("queued requests wait for a slot until maxWait")
+    void testQueueTimeout() throws Exception {
+        Bulkhead bulkhead = new Bulkhead("/test", 1, 1, 50);
+        assertTrue(bulkhead.tryEnter());
+        long start = System.nanoTime();
+        assertFalse(bulkhead.tryEnter(), "times out in the queue");
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= 40);
+        assertEquals(0, bulkhead.getQueued());
+        bulkhead.release();
+        assertTrue(bulkhead.tryEnter());
+        bulkhead.release();
+    }
+
+    @Test
+    @DisplayName("zero maxWait rejects instead of waiting")
+    void testNoWait() {
+        Bulkhead bulkhead = new Bulkhead("/test", 1, 1, 0);
+        assertTrue(bulkhead.tryEnter());
+        assertFalse(bulkhead.tryEnter(), "rejected at once");
+        assertEquals(1, bulkhead.getRejected());
+        assertEquals(0, bulkhead.getQueued());
+        bulkhead.release();
+        assertThrows(IllegalArgumentException.class, () -> new Bulkhead("/test", 1, 1, -1));
+    }
+
+}
@@ -0,0 +1,65 @@
+package io.drakon.spark.autorouter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import io.drakon.spark.autorouter.dispatch.LocalRequest;
+import io.drakon.spark.autorouter.dispatch.LocalResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("In-process test client")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestClient {
+
+    private final AutorouterTestClient client = new AutorouterTestClient("io.drakon.spark.autorouter.test.client");
+
+    private LocalResponse authed(String method, String uri, String body) {
+        return client.send(new LocalRequest(method, uri).header("Authorization", "Bearer abc")
+                .body("text/plain", body));
+    }
+
+    @Test
+    @DisplayName("runs filters, routes, transformers and exception handlers")
+    void testPipeline() {
+        LocalResponse hello = authed("GET", "/api/hello/world", "");
+        assertEquals(200, hello.status());
+        assertEquals("{\"greeting\":\"Hello, world!\"}", hello.body());
+
+        assertEquals("hi", authed("POST", "/api/echo", "hi").body());
+
+        LocalResponse broken = authed("GET", "/api/broken", "");
+        assertEquals(501, broken.status());
+        assertEquals("Not yet", broken.body());
+
+        LocalResponse anonymous = client.get("/api/hello/world");
+        assertEquals(401, anonymous.status());
+        assertEquals("Who are you?", anonymous.body());
+
+        assertEquals(404, authed("GET", "/api/missing", "").status());
+        assertTrue(client.getRouter().getRegistry().find("GET", "/api/hello/:name") >= 0, "Registry filled in too.");
+    }
+
+    @Test
+    @DisplayName("serves requests from many threads at once")
+    void testParallel() throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < 1000; i++) {
+                String name = "user" + i;
+                results.add(pool.submit(() -> authed("GET", "/api/hello/" + name, "").body()));
+            }
+            for (int i = 0; i < results.size(); i++)
+                assertEquals("{\"greeting\":\"Hello, user" + i + "!\"}", results.get(i).get());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+}
@@ -0,0 +1,171 @@
+package io.drakon.spark.autorouter;
+
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.drakon.spark.autorouter.dispatch.CoalescingDispatch;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.drakon.spark.autorouter.Utils.Pair;
+
+@DisplayName("Request coalescing")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestCoalesce {
+
+    private static final int WAITERS = 8;
+
+    @Test
+    @DisplayName("search only attaches @Coalesce to GET routes")
+    void testSearch() {
+        Autorouter.SearchResult result = new Autorouter("io.drakon.spark.autorouter.test.coalesce").search();
+        Set<Pair<Method, Autorouter.RouteInfo>> gets = result.routes.get(Routes.GET.class);
+        assertEquals(2, gets.size());
+        gets.forEach(pair -> {
+            if (pair.first.getName().equals("item")) {
+                assertNotNull(pair.second.coalesce);
+                assertArrayEquals(new String[]{"fields"}, pair.second.coalesce.queryParams());
+            } else {
+                assertNull(pair.second.coalesce);
+            }
+        });
+        Autorouter.RouteInfo post = new ArrayList<>(result.routes.get(Routes.POST.class)).get(0).second;
+        assertNull(post.coalesce, "POST is never coalesced");
+    }
+
+    @Test
+    @DisplayName("concurrent identical requests share one execution")
+    void testSharesExecution() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CoalescingDispatch dispatch = new CoalescingDispatch((req, res) -> {
+            calls.incrementAndGet();
+            await(release);
+            res.type("application/json");
+            return "item";
+        }, model -> "rendered:" + model, new String[0], new String[0]);
+
+        List<Future<Object>> results = runConcurrently(dispatch, () -> new FakeRequest("/items/1"), release);
+        for (Future<Object> f : results) assertEquals("rendered:item", f.get(5, TimeUnit.SECONDS));
+        assertEquals(1, calls.get(), "handler ran once");
+        assertEquals(0, dispatch.inFlightCount(), "in-flight entry removed");
+    }
+
+    @Test
+    @DisplayName("waiters get the leader's status, type and headers")
+    void testSharesHeaders() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        List<FakeResponse> responses = new CopyOnWriteArrayList<>();
+        CoalescingDispatch dispatch = new CoalescingDispatch((req, res) -> {
+            await(release);
+            res.status(201);
+            res.type("application/json");
+            res.header("ETag", "\"v1\"");
+            return "item";
+        }, null, new String[0], new String[0]);
+
+        List<Future<Object>> results = runConcurrently(dispatch, () -> new FakeRequest("/items/1"), release,
+                () -> {
+                    FakeResponse res = new FakeResponse();
+                    responses.add(res);
+                    return res;
+                });
+        for (Future<Object> f : results) assertEquals("item", f.get(5, TimeUnit.SECONDS));
+        assertEquals(WAITERS, responses.size());
+        for (FakeResponse res : responses) {
+            assertEquals(201, res.status());
+            assertEquals("application/json", res.type());
+            assertEquals("\"v1\"", res.headers.get("ETag"));
+        }
+    }
+
+    @Test
+    @DisplayName("exceptions propagate to all waiters")
+    void testExceptionPropagation() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        IllegalStateException thrown = new IllegalStateException("backend down");
+        CoalescingDispatch dispatch = new CoalescingDispatch((req, res) -> {
+            await(release);
+            throw thrown;
+        }, null, new String[0], new String[0]);
+
+        List<Future<Object>> results = runConcurrently(dispatch, () -> new FakeRequest("/items/1"), release);
+        for (Future<Object> f : results) {
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> f.get(5, TimeUnit.SECONDS));
+            assertSame(thrown, ex.getCause());
+        }
+        assertEquals(0, dispatch.inFlightCount());
+    }
+
+    @Test
+    @DisplayName("selected query params split the key")
+    void testKeySelection() throws Exception {
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        CoalescingDispatch dispatch = new CoalescingDispatch((req, res) -> {
+            calls.incrementAndGet();
+            await(release);
+            return req.queryParams("fields");
+        }, null, new String[]{"fields"}, new String[0]);
+
+        AtomicInteger n = new AtomicInteger();
+        List<Future<Object>> results = runConcurrently(dispatch,
+                () -> new FakeRequest("/items/1").query("fields", n.getAndIncrement() % 2 == 0 ? "a" : "b")
+                        .query("ignored", "x"), release);
+        for (Future<Object> f : results) assertNotNull(f.get(5, TimeUnit.SECONDS));
+        assertEquals(2, calls.get(), "one execution per distinct key");
+    }
+
+    private static List<Future<Object>> runConcurrently(CoalescingDispatch dispatch,
+                                                        Callable<FakeRequest> requests,
+                                                        CountDownLatch release) throws Exception {
+        return runConcurrently(dispatch, requests, release, FakeResponse::new);
+    }
+
+    private static List<Future<Object>> runConcurrently(CoalescingDispatch dispatch,
+                                                        Callable<FakeRequest> requests,
+                                                        CountDownLatch release,
+                                                        Callable<FakeResponse> responses) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(WAITERS);
+        try {
+            List<Future<Object>> futures = new ArrayList<>();
+            for (int i = 0; i < WAITERS; i++) {
+                FakeRequest req = requests.call();
+                FakeResponse res = responses.call();
+                futures.add(pool.submit(() -> dispatch.dispatch(req, res)));
+            }
+            // Give every thread a chance to join the in-flight execution before it completes
+            long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+            while (dispatch.inFlightCount() == 0 && System.nanoTime() < deadline) Thread.sleep(1);
+            Thread.sleep(50);
+            release.countDown();
+            for (Future<Object> f : futures) {
+                try {
+                    f.get(5, TimeUnit.SECONDS);
+                } catch (ExecutionException ignored) {
+                    // Checked by the caller
+                }
+            }
+            return futures;
+        } finally {
+            pool.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+}
@@ -0,0 +1,86 @@
+package io.drakon.spark.autorouter;
+
+import io.drakon.spark.autorouter.dispatch.CorsFilter;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.HaltException;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("CORS policies")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestCors {
+
+    private static final String ORIGIN = "https://app.example";
+
+    private CorsFilter filter;
+
+    private CorsFilter filter() {
+        if (filter == null)
+            filter = Autorouter.buildCorsFilter(new Autorouter("io.drakon.spark.autorouter.test.cors").search());
+        return filter;
+    }
+
+    /** Sends a preflight, returning the status it was answered with. */
+    private int preflight(String path, String origin, String method, String headers, FakeResponse res) {
+        FakeRequest req = new FakeRequest("OPTIONS", path).header("Origin", origin)
+                .header("Access-Control-Request-Method", method);
+        if (headers != null) req.header("Access-Control-Request-Headers", headers);
+        return assertThrows(HaltException.class, () -> filter().handle(req, res)).statusCode();
+    }
+
+    @Test
+    @DisplayName("answers preflights with the verbs routed on the path")
+    void testPreflight() {
+        FakeResponse res = new FakeResponse();
+        assertEquals(204, preflight("/api/items", ORIGIN, "POST", "content-type, Authorization", res));
+        assertEquals(ORIGIN, res.headers.get("Access-Control-Allow-Origin"));
+        assertEquals("Origin", res.headers.get("Vary"));
+        assertEquals("true", res.headers.get("Access-Control-Allow-Credentials"));
+        assertEquals("GET, HEAD, POST", res.headers.get("Access-Control-Allow-Methods"));
+        assertEquals("Content-Type, Authorization", res.headers.get("Access-Control-Allow-Headers"));
+        assertEquals("600", res.headers.get("Access-Control-Max-Age"));
+
+        FakeResponse param = new FakeResponse();
+        assertEquals(204, preflight("/api/items/42", ORIGIN, "DELETE", null, param));
+        assertEquals("DELETE", param.headers.get("Access-Control-Allow-Methods"));
+        assertNull(param.headers.get("Access-Control-Allow-Headers"));
+
+        FakeResponse open = new FakeResponse();
+        assertEquals(204, preflight("/api/public", "https://elsewhere.example", "GET", null, open));
+        assertEquals("*", open.headers.get("Access-Control-Allow-Origin"), "Method's own policy wins.");
+        assertEquals("60", open.headers.get("Access-Control-Max-Age"));
+    }
+
+    @Test
+    @DisplayName("refuses what the policy doesn't allow")
+    void testForbidden() {
+        assertEquals(403, preflight("/api/items", "https://evil.example", "GET", null, new FakeResponse()));
+        assertEquals(403, preflight("/api/items", ORIGIN, "PUT", null, new FakeResponse()));
+        assertEquals(403, preflight("/api/items", ORIGIN, "POST", "X-Secret", new FakeResponse()));
+
+        // No policy: left to the routes
+        FakeRequest req = new FakeRequest("OPTIONS", "/api/private").header("Origin", ORIGIN)
+                .header("Access-Control-Request-Method", "GET");
+        filter().handle(req, new FakeResponse());
+    }
+
+    @Test
+    @DisplayName("sets the allowed origin on actual requests")
+    void testActual() {
+        FakeResponse res = new FakeResponse();
+        filter().handle(new FakeRequest("GET", "/api/items").header("Origin", ORIGIN), res);
+        assertEquals(ORIGIN, res.headers.get("Access-Control-Allow-Origin"));
+
+        FakeResponse evil = new FakeResponse();
+        filter().handle(new FakeRequest("GET", "/api/items").header("Origin", "https://evil.example"), evil);
+        assertNull(evil.headers.get("Access-Control-Allow-Origin"));
+
+        FakeResponse sameOrigin = new FakeResponse();
+        filter().handle(new FakeRequest("GET", "/api/items"), sameOrigin);
+        assertTrue(sameOrigin.headers.isEmpty());
+    }
+
+}
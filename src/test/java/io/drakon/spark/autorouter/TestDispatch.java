@@ -1,17 +1,41 @@
 package io.drakon.spark.autorouter;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarFile;
 import java.util.stream.Stream;
 
+import io.drakon.spark.autorouter.codec.JsonTransformer;
 import io.drakon.spark.autorouter.dispatch.BytecodeDispatch;
 import io.drakon.spark.autorouter.dispatch.IExceptionDispatch;
 import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.monitor.SpanKind;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import io.drakon.spark.autorouter.test.dispatch.clash.x.Handler;
+import io.drakon.spark.autorouter.test.dispatch.clash.x_Handler;
+import io.drakon.spark.autorouter.test.dispatch.fused.FusedSample;
 import io.drakon.spark.autorouter.test.dispatch.route.Sample;
 import static org.junit.jupiter.api.Assertions.*;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.TestInstance;
+import spark.ExceptionHandler;
+import spark.Filter;
 import spark.Request;
 import spark.Response;
+import spark.Route;
 
 @DisplayName("Dispatch code generation")
 @TestInstance(TestInstance.Lifecycle.PER_CLASS)
@@ -60,4 +84,147 @@ public class TestDispatch {
         assertTrue(io.drakon.spark.autorouter.test.dispatch.except.Sample.tripped, "Sample class now reports true.");
     }
 
+    @Test
+    @DisplayName("generates Spark routes with fused transformers")
+    public void testSparkRouteGen() throws Exception {
+        BytecodeDispatch dispatchGen = new BytecodeDispatch();
+        Route plain = dispatchGen.generateSparkRoute(FusedSample.class.getMethod("plain", Request.class,
+                Response.class), null);
+        Route upper = dispatchGen.generateSparkRoute(FusedSample.class.getMethod("upper", Request.class,
+                Response.class), new FusedSample.Upper());
+        // Package-private transformer, called through the interface
+        Route reversed = dispatchGen.generateSparkRoute(FusedSample.class.getMethod("reverse", Request.class,
+                Response.class), FusedSample.reverser());
+        assertNotNull(plain);
+        assertNotNull(upper);
+        assertNotNull(reversed);
+        assertEquals("hello", plain.handle(null, null));
+        assertEquals("HELLO", upper.handle(null, null));
+        assertEquals("olleh", reversed.handle(null, null));
+    }
+
+    @Test
+    @DisplayName("generates Spark routes rendering JSON")
+    public void testSparkRouteJson() throws Exception {
+        Route route = new BytecodeDispatch().generateSparkRoute(FusedSample.class.getMethod("json", Request.class,
+                Response.class), new JsonTransformer());
+        assertNotNull(route);
+        FakeResponse res = new FakeResponse();
+        Object body = route.handle(null, res);
+        assertTrue(body instanceof byte[], "JSON rendered to bytes.");
+        assertEquals("{\"greeting\":\"hello\"}", new String((byte[]) body, StandardCharsets.UTF_8));
+        assertEquals(JsonTransformer.CONTENT_TYPE, res.type());
+    }
+
+    @Test
+    @DisplayName("generates Spark filters and exception handlers")
+    public void testSparkFilterAndExceptionGen() throws Exception {
+        BytecodeDispatch dispatchGen = new BytecodeDispatch();
+        Filter filter = dispatchGen.generateSparkFilter(FusedSample.class.getMethod("filter", Request.class,
+                Response.class));
+        assertNotNull(filter);
+        FakeResponse res = new FakeResponse();
+        filter.handle(null, res);
+        assertEquals("yes", res.headers.get("X-Filtered"));
+
+        @SuppressWarnings("unchecked")
+        ExceptionHandler<Exception> handler = dispatchGen.generateSparkExceptionHandler(FusedSample.class.getMethod(
+                "illegalState", IllegalStateException.class, Request.class, Response.class),
+                IllegalStateException.class);
+        assertNotNull(handler);
+        handler.handle(new IllegalStateException("conflict"), null, res);
+        assertEquals("conflict", FusedSample.caught);
+        assertEquals(409, res.status());
+    }
+
+    @Test
+    @DisplayName("reuses stubs under deterministic names")
+    public void testStubNames() throws Exception {
+        BytecodeDispatch dispatchGen = new BytecodeDispatch();
+        Route a = dispatchGen.generateSparkRoute(FusedSample.class.getMethod("plain", Request.class, Response.class),
+                null);
+        Route b = dispatchGen.generateSparkRoute(FusedSample.class.getMethod("plain", Request.class, Response.class),
+                null);
+        Route upper = dispatchGen.generateSparkRoute(FusedSample.class.getMethod("plain", Request.class,
+                Response.class), new FusedSample.Upper());
+        assertNotNull(a);
+        assertNotNull(upper);
+        assertSame(a.getClass(), b.getClass(), "Same inputs reuse the stub class.");
+        assertNotSame(a.getClass(), upper.getClass(), "Different inputs get their own stub class.");
+        assertTrue(a.getClass().getName().matches(".*\\$plain_[0-9a-f]+"), a.getClass().getName());
+        assertEquals("HELLO", upper.handle(null, null));
+    }
+
+    @Test
+    @DisplayName("keeps stubs apart for classes whose flattened names match")
+    public void testStubNameCollision() throws Exception {
+        BytecodeDispatch dispatchGen = new BytecodeDispatch();
+        Route nested = dispatchGen.generateSparkRoute(Handler.class.getMethod("handle", Request.class,
+                Response.class), null);
+        Route named = dispatchGen.generateSparkRoute(x_Handler.class.getMethod("handle", Request.class,
+                Response.class), null);
+        assertNotNull(nested);
+        assertNotNull(named);
+        assertNotSame(nested.getClass(), named.getClass());
+        assertEquals("x.Handler", nested.handle(null, null));
+        assertEquals("x_Handler", named.handle(null, null));
+    }
+
+    @Test
+    @DisplayName("generates each stub once when asked from many threads")
+    public void testParallelGen() throws Exception {
+        Method target = Sample.class.getMethod("sample", Request.class, Response.class);
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Class<IRouteDispatch>>> stubs = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                stubs.add(pool.submit(() -> {
+                    start.await();
+                    return new BytecodeDispatch().labelled(SpanKind.HANDLER, "/parallel").generateRouteStub(target);
+                }));
+            }
+            start.countDown();
+            Class<IRouteDispatch> first = stubs.get(0).get(5, TimeUnit.SECONDS);
+            assertNotNull(first);
+            for (Future<Class<IRouteDispatch>> stub : stubs) assertSame(first, stub.get(5, TimeUnit.SECONDS));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    @DisplayName("records stubs into a stubs jar")
+    public void testStubRecording() throws Exception {
+        Path jar = Files.createTempFile("stubs", ".jar");
+        BytecodeDispatch.startRecording();
+        Filter filter = new BytecodeDispatch().generateSparkFilter(FusedSample.class.getMethod("filter",
+                Request.class, Response.class));
+        assertEquals(1, BytecodeDispatch.writeRecordedStubs(jar));
+        byte[] written = Files.readAllBytes(jar);
+
+        try (JarFile jarFile = new JarFile(jar.toFile())) {
+            String list = new String(readAll(jarFile.getInputStream(jarFile.getEntry(BytecodeDispatch.STUB_LIST))),
+                    StandardCharsets.UTF_8);
+            assertEquals(filter.getClass().getName(), list);
+            assertNotNull(jarFile.getEntry(filter.getClass().getName().replace('.', '/') + ".class"));
+        }
+
+        // Reused stubs are still recorded, and the jar comes out the same
+        BytecodeDispatch.startRecording();
+        new BytecodeDispatch().generateSparkFilter(FusedSample.class.getMethod("filter", Request.class,
+                Response.class));
+        assertEquals(1, BytecodeDispatch.writeRecordedStubs(jar));
+        assertArrayEquals(written, Files.readAllBytes(jar));
+        Files.delete(jar);
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buf = new byte[8192];
+        int n;
+        while ((n = in.read(buf)) > 0) out.write(buf, 0, n);
+        return out.toByteArray();
+    }
+
 }
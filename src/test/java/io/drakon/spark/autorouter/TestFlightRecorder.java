@@ -0,0 +1,115 @@
+package io.drakon.spark.autorouter;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.monitor.FlightRecorder;
+import io.drakon.spark.autorouter.monitor.RouteRecorder;
+import io.drakon.spark.autorouter.monitor.SlowRequest;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Slow request flight recorder")
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+public class TestFlightRecorder {
+
+    private static void runRequest(FlightRecorder recorder, IRouteDispatch route, long sleepMillis) {
+        FakeRequest req = new FakeRequest("/items/1").header("X-Request-Id", "abc");
+        FakeResponse res = new FakeResponse();
+        recorder.begin(req, res);
+        try {
+            route.dispatch(req, res);
+        } catch (Exception ignored) {
+            // Recorded by the wrapper
+        }
+        sleep(sleepMillis);
+        recorder.end(req, res);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> RuntimeException sneakyThrow(Throwable ex) throws T {
+        throw (T) ex; // As generated stubs do for handlers' undeclared checked exceptions
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Test
+    @DisplayName("fixed threshold captures only slow requests, with phases")
+    void testFixedThreshold() {
+        FlightRecorder recorder = new FlightRecorder(4, 20, "X-Request-Id");
+        RouteRecorder route = recorder.route("GET", "/items/:id");
+        IRouteDispatch slowHandler = recorder.record(route, (req, res) -> {
+            sleep(30);
+            return null;
+        });
+        IRouteDispatch fastHandler = recorder.record(route, (req, res) -> null);
+
+        runRequest(recorder, fastHandler, 0);
+        runRequest(recorder, slowHandler, 0);
+        runRequest(recorder, fastHandler, 30); // slow after filters
+
+        List<SlowRequest> slow = route.getSlowRequests();
+        assertEquals(2, slow.size());
+        assertEquals(3, route.getCount());
+        for (SlowRequest req : slow) {
+            assertEquals("GET /items/:id", req.route);
+            assertEquals("/items/1", req.path);
+            assertEquals("abc", req.headers.get("X-Request-Id"));
+            assertEquals(Thread.currentThread().getName(), req.thread);
+            assertTrue(req.totalNanos >= TimeUnit.MILLISECONDS.toNanos(20));
+        }
+        assertTrue(slow.stream().anyMatch(r -> r.handlerNanos >= TimeUnit.MILLISECONDS.toNanos(30)));
+        assertTrue(slow.stream().anyMatch(r -> r.afterNanos >= TimeUnit.MILLISECONDS.toNanos(30)));
+    }
+
+    @Test
+    @DisplayName("ring keeps a bounded number of entries and records exceptions")
+    void testRingAndExceptions() {
+        FlightRecorder recorder = new FlightRecorder(2, 1);
+        RouteRecorder route = recorder.route("GET", "/fail");
+        IRouteDispatch failing = recorder.record(route, (req, res) -> {
+            sleep(2);
+            throw new IllegalStateException();
+        });
+        for (int i = 0; i < 5; i++) runRequest(recorder, failing, 0);
+        List<SlowRequest> slow = route.getSlowRequests();
+        assertEquals(2, slow.size());
+        assertEquals(IllegalStateException.class.getName(), slow.get(0).exception);
+        assertTrue(recorder.toJson().contains("\"route\":\"GET /fail\""));
+
+        IRouteDispatch checked = recorder.record(route, (req, res) -> {
+            sleep(2);
+            throw sneakyThrow(new IOException());
+        });
+        runRequest(recorder, checked, 0);
+        assertTrue(route.getSlowRequests().stream().anyMatch(r -> IOException.class.getName().equals(r.exception)));
+    }
+
+    @Test
+    @DisplayName("adaptive threshold tracks the route p99")
+    void testAdaptiveThreshold() {
+        FlightRecorder recorder = new FlightRecorder(8, 0);
+        RouteRecorder route = recorder.route("GET", "/adaptive");
+        IRouteDispatch handler = recorder.record(route, (req, res) -> null);
+        assertEquals(Long.MAX_VALUE, route.getThresholdNanos(), "nothing captured while warming up");
+        for (int i = 0; i < 1024; i++) runRequest(recorder, handler, 0);
+        assertTrue(route.getThresholdNanos() < Long.MAX_VALUE, "threshold computed");
+        assertTrue(route.getThresholdNanos() >= TimeUnit.MILLISECONDS.toNanos(1), "threshold has a floor");
+        assertEquals(0, route.getSlowRequests().size());
+        runRequest(recorder, handler, 20);
+        assertEquals(1, route.getSlowRequests().size());
+    }
+
+}
@@ -0,0 +1,58 @@
+package io.drakon.spark.autorouter;
+
+import java.lang.reflect.Method;
+
+import io.drakon.spark.autorouter.Utils.Pair;
+import io.drakon.spark.autorouter.codec.JsonTransformer;
+import io.drakon.spark.autorouter.dispatch.BytecodeDispatch;
+import io.drakon.spark.autorouter.dispatch.HeadDispatch;
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Derived HEAD routes")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestHead {
+
+    @Test
+    @DisplayName("set the GET route's headers with an empty body")
+    void testHeaders() {
+        Autorouter.SearchResult result = new Autorouter("io.drakon.spark.autorouter.test.headers").search();
+        Pair<Method, Autorouter.RouteInfo> cached = result.routes.get(Routes.GET.class).stream()
+                .filter(pair -> pair.second.path.equals("/api/cached")).findFirst().orElseThrow(AssertionError::new);
+        IRouteDispatch get = Utils.dispatchClassToObj(new BytecodeDispatch().generateRouteStub(cached.first,
+                cached.second.headers));
+
+        FakeResponse res = new FakeResponse();
+        assertEquals("", new HeadDispatch(get, null).dispatch(new FakeRequest("HEAD", "/api/cached"), res));
+        assertEquals("application/json", res.type());
+        assertEquals("max-age=60", res.headers.get("cache-control"));
+        assertEquals("Accept", res.headers.get("Vary"));
+    }
+
+    @Test
+    @DisplayName("skip the transformer, keeping its content type")
+    void testTransformer() {
+        IRouteDispatch get = (req, res) -> {
+            res.status(202);
+            return new Object(); // Never rendered
+        };
+        FakeResponse res = new FakeResponse();
+        assertEquals("", new HeadDispatch(get, JsonTransformer.CONTENT_TYPE).dispatch(new FakeRequest("HEAD", "/"),
+                res));
+        assertEquals(202, res.status());
+        assertEquals(JsonTransformer.CONTENT_TYPE, res.type());
+
+        FakeResponse typed = new FakeResponse();
+        new HeadDispatch((req, r) -> {
+            r.type("application/vnd.api+json");
+            return null;
+        }, JsonTransformer.CONTENT_TYPE).dispatch(new FakeRequest("HEAD", "/"), typed);
+        assertEquals("application/vnd.api+json", typed.type(), "Handler's own type kept.");
+    }
+
+}
@@ -0,0 +1,114 @@
+package io.drakon.spark.autorouter;
+
+import java.lang.reflect.Method;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletResponse;
+
+import io.drakon.spark.autorouter.dispatch.BytecodeDispatch;
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.dispatch.LocalResponse;
+import io.drakon.spark.autorouter.dispatch.StaticHeaders;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import io.drakon.spark.autorouter.test.headers.HeaderRoutes;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.Request;
+import spark.Response;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.drakon.spark.autorouter.Utils.Pair;
+
+@DisplayName("Static response headers")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestHeaders {
+
+    private Map<String, StaticHeaders> search() {
+        Autorouter.SearchResult result = new Autorouter("io.drakon.spark.autorouter.test.headers").search();
+        Map<String, StaticHeaders> headers = new HashMap<>();
+        for (Pair<Method, Autorouter.RouteInfo> pair : result.routes.get(Routes.GET.class))
+            headers.put(pair.first.getName(), pair.second.headers);
+        return headers;
+    }
+
+    @Test
+    @DisplayName("merges class and method headers at search time")
+    void testMerge() {
+        Map<String, StaticHeaders> headers = search();
+
+        StaticHeaders inherited = headers.get("inherited");
+        assertEquals("application/json", inherited.getContentType());
+        assertEquals("no-store", inherited.getHeaders().get("Cache-Control"));
+        assertEquals("DENY", inherited.getHeaders().get("X-Frame-Options"));
+
+        StaticHeaders cached = headers.get("cached");
+        Map<String, String> expected = new LinkedHashMap<>();
+        expected.put("X-Frame-Options", "DENY");
+        expected.put("cache-control", "max-age=60");
+        expected.put("Vary", "Accept");
+        assertEquals(expected, cached.getHeaders(), "method headers win, Content-Type entries are skipped");
+        assertEquals("application/json", cached.getContentType());
+
+        StaticHeaders index = headers.get("index");
+        assertEquals("text/html", index.getContentType(), "nearest @ContentType wins");
+        assertEquals("no-store", index.getHeaders().get("Cache-Control"), "nested classes inherit headers");
+    }
+
+    @Test
+    @DisplayName("generated stubs set the content type before the handler and headers after it")
+    void testStub() throws ReflectiveOperationException {
+        Map<String, StaticHeaders> headers = search();
+        BytecodeDispatch gen = new BytecodeDispatch();
+
+        IRouteDispatch inherited = gen.generateRouteStub(HeaderRoutes.class.getMethod("inherited", Request.class,
+                Response.class), headers.get("inherited")).getDeclaredConstructor().newInstance();
+        FakeResponse res = new FakeResponse();
+        assertEquals("{}", inherited.dispatch(null, res));
+        assertEquals("application/json", res.type());
+        assertEquals("no-store", res.headers.get("Cache-Control"));
+
+        IRouteDispatch override = gen.generateRouteStub(HeaderRoutes.class.getMethod("override", Request.class,
+                Response.class), headers.get("override")).getDeclaredConstructor().newInstance();
+        res = new FakeResponse();
+        override.dispatch(null, res);
+        assertEquals("text/csv", res.type(), "handlers can override the content type");
+    }
+
+    @Test
+    @DisplayName("puts pre-encoded fields on Jetty responses")
+    void testJetty() {
+        org.eclipse.jetty.server.Response jetty = new org.eclipse.jetty.server.Response(null, null) {
+            @Override
+            public boolean isCommitted() {
+                return false; // No channel behind this one
+            }
+        };
+        jetty.setHeader("Cache-Control", "public");
+        FakeResponse res = new FakeResponse() {
+            @Override
+            public HttpServletResponse raw() {
+                return jetty;
+            }
+        };
+        search().get("cached").applyUnsetHeaders(res);
+        assertEquals("public", jetty.getHeader("Cache-Control"), "keeps values the handler set");
+        assertEquals(1, jetty.getHttpFields().getValuesList("Cache-Control").size());
+        assertEquals("Accept", jetty.getHeader("Vary"));
+    }
+
+    @Test
+    @DisplayName("handlers override static headers with res.header()")
+    void testOverride() {
+        AutorouterTestClient client = new AutorouterTestClient("io.drakon.spark.autorouter.test.headers");
+        LocalResponse res = client.get("/api/custom");
+        assertEquals(Collections.singletonList("max-age=5"), res.getHeaders().get("Cache-Control"));
+        assertEquals("DENY", res.getHeader("X-Frame-Options"));
+        assertEquals("application/json", res.type());
+        assertEquals("no-store", client.get("/api/inherited").getHeader("Cache-Control"));
+    }
+
+}
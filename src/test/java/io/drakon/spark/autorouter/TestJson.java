@@ -0,0 +1,115 @@
+package io.drakon.spark.autorouter;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import io.drakon.spark.autorouter.codec.JsonSerializers;
+import io.drakon.spark.autorouter.codec.JsonTransformer;
+import io.drakon.spark.autorouter.test.json.Address;
+import io.drakon.spark.autorouter.test.json.User;
+import io.drakon.spark.autorouter.test.json.geo.Point;
+import io.drakon.spark.autorouter.test.json.geo_Point;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("JSON transformer")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestJson {
+
+    private static final String ADA = "{\"id\":1,\"name\":\"Ada\",\"tags\":[\"x\",\"y\"],"
+            + "\"address\":{\"city\":\"London\",\"zip\":1},\"admin\":true,\"role\":\"ADMIN\",\"score\":1.5}";
+
+    private final JsonTransformer json = new JsonTransformer();
+
+    @Test
+    @DisplayName("beans get generated serializers")
+    void testGenerated() {
+        assertTrue(JsonSerializers.forClass(User.class).getClass().getName().contains("$Generated"));
+        assertEquals(ADA, write(json.specialise(User.class), ada()));
+        assertEquals(ADA, write(json, ada()), "unspecialised output matches");
+    }
+
+    @Test
+    @DisplayName("classes whose flattened names match get their own serializers")
+    void testNameCollision() {
+        Point point = new Point();
+        point.x = 1;
+        point.y = 2;
+        geo_Point named = new geo_Point();
+        named.name = "origin";
+        assertEquals("{\"x\":1,\"y\":2}", write(json.specialise(Point.class), point));
+        assertEquals("{\"name\":\"origin\"}", write(json.specialise(geo_Point.class), named));
+    }
+
+    @Test
+    @DisplayName("subclasses of the declared type keep their own properties")
+    void testSubclass() {
+        User admin = new User(2, "Bob", Collections.emptyList(), null, User.Role.MEMBER) {
+            public String getLevel() {
+                return "high";
+            }
+        };
+        String out = write(json.specialise(User.class), admin);
+        assertTrue(out.contains("\"level\":\"high\""), out);
+        assertTrue(out.contains("\"address\":null"), out);
+    }
+
+    @Test
+    @DisplayName("collections, maps, arrays and primitives")
+    void testValues() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("ints", new int[]{ 1, -2, Integer.MIN_VALUE });
+        map.put("longs", Arrays.asList(Long.MIN_VALUE, 0L));
+        map.put("doubles", new double[]{ 0.25, 3.0, Double.NaN });
+        map.put("nothing", null);
+        map.put("chars", new char[]{ 'a', '"' });
+        assertEquals("{\"ints\":[1,-2,-2147483648],\"longs\":[-9223372036854775808,0],\"doubles\":[0.25,3,null],"
+                + "\"nothing\":null,\"chars\":[\"a\",\"\\\"\"]}", write(json, map));
+        assertEquals("null", write(json, null));
+        assertEquals("[]", write(json, Collections.emptyList()));
+    }
+
+    @Test
+    @DisplayName("strings are escaped and UTF-8 encoded")
+    void testStrings() {
+        assertEquals("\"a\\\\b\\n\\u0001\"", write(json, "a\\b\n\u0001"));
+        String unicode = "caf\u00e9 \u20ac \ud83d\ude00";
+        byte[] bytes = json.renderBytes(unicode);
+        assertArrayEquals(("\"" + unicode + "\"").getBytes(StandardCharsets.UTF_8), bytes);
+        assertEquals("\"\\ud800\"", write(json, "\ud800"), "lone surrogates are escaped");
+    }
+
+    @Test
+    @DisplayName("non-public classes fall back to reflection")
+    void testReflective() {
+        assertFalse(JsonSerializers.forClass(Hidden.class).getClass().getName().contains("$Generated"));
+        assertEquals("{\"value\":7}", write(json.specialise(Hidden.class), new Hidden()));
+    }
+
+    @Test
+    @DisplayName("cycles fail rather than overflowing the stack")
+    void testCycle() {
+        Map<String, Object> map = new LinkedHashMap<>();
+        map.put("self", map);
+        assertThrows(IllegalStateException.class, () -> json.renderBytes(map));
+        assertEquals("{}", write(json, Collections.emptyMap()), "writer is reusable afterwards");
+    }
+
+    private static String write(JsonTransformer transformer, Object model) {
+        return new String(transformer.renderBytes(model), StandardCharsets.UTF_8);
+    }
+
+    private static User ada() {
+        return new User(1, "Ada", Arrays.asList("x", "y"), new Address("London", 1), User.Role.ADMIN);
+    }
+
+    static class Hidden {
+        public int value = 7;
+    }
+
+}
@@ -0,0 +1,104 @@
+package io.drakon.spark.autorouter;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.spark.autorouter.dispatch.AdaptiveLimiter;
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.HaltException;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Adaptive concurrency limits")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestLimiter {
+
+    @Test
+    @DisplayName("path groups share the nearest limit, and the global limit covers everything")
+    void testRouting() {
+        AutorouterTestClient client = new AutorouterTestClient("io.drakon.spark.autorouter.test.limit",
+                router -> router.enableAdaptiveLimit(100, 10, 1000, 2.0));
+        assertEquals("results", client.get("/search/").body());
+        assertEquals("suggestions", client.get("/search/suggest/").body());
+        assertEquals("ok", client.get("/health").body());
+
+        AdaptiveLimiter group = client.getRouter().getLimiters().get("/search");
+        AdaptiveLimiter global = client.getRouter().getLimiters().get("*");
+        assertEquals(5, group.getLimit());
+        assertEquals(0, group.getInFlight(), "Slots released.");
+        assertEquals(100, global.getLimit());
+
+        RouteRegistry registry = client.getRouter().getRegistry();
+        assertEquals("/search", registry.getLimiter(registry.find("GET", "/search/suggest/")));
+        assertNull(registry.getLimiter(registry.find("GET", "/health")));
+    }
+
+    @Test
+    @DisplayName("requests over the limit fail fast with 503")
+    void testRejects() throws Exception {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("/test", 1, 1, 10, 1.5);
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        IRouteDispatch guarded = limiter.guard((req, res) -> {
+            entered.countDown();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+            return "done";
+        });
+
+        ExecutorService pool = Executors.newSingleThreadExecutor();
+        try {
+            Future<Object> first = pool.submit(() -> guarded.dispatch(null, null));
+            assertTrue(entered.await(5, TimeUnit.SECONDS));
+            assertEquals(1, limiter.getInFlight());
+            HaltException ex = assertThrows(HaltException.class, () -> guarded.dispatch(null, null));
+            assertEquals(503, ex.statusCode());
+            assertEquals(1, limiter.getRejected());
+
+            release.countDown();
+            assertEquals("done", first.get(5, TimeUnit.SECONDS));
+            assertEquals(0, limiter.getInFlight());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /** Runs windows of requests at full concurrency, all taking the given latency. */
+    private static void load(AdaptiveLimiter limiter, int windows, long latencyMillis) {
+        for (int sent = 0; sent < windows * 32; ) {
+            int batch = limiter.getLimit();
+            int taken = 0;
+            while (taken < batch && limiter.tryAcquire()) taken++;
+            for (int i = 0; i < taken; i++, sent++) limiter.release(TimeUnit.MILLISECONDS.toNanos(latencyMillis));
+        }
+    }
+
+    @Test
+    @DisplayName("grows while latency holds and shrinks as it inflates")
+    void testAdapts() {
+        AdaptiveLimiter limiter = new AdaptiveLimiter("/test", 10, 2, 100, 1.5);
+        load(limiter, 10, 5);
+        int grown = limiter.getLimit();
+        assertTrue(grown > 10, "Grew to " + grown);
+
+        load(limiter, 10, 50);
+        assertTrue(limiter.getLimit() < grown * 3 / 4, "Shrank from " + grown + " to " + limiter.getLimit());
+
+        // Idle traffic doesn't grow the limit
+        AdaptiveLimiter idle = new AdaptiveLimiter("/idle", 10, 2, 100, 1.5);
+        for (int i = 0; i < 320; i++) {
+            assertTrue(idle.tryAcquire());
+            idle.release(TimeUnit.MILLISECONDS.toNanos(5));
+        }
+        assertEquals(10, idle.getLimit());
+    }
+
+}
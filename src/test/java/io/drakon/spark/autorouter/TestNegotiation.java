@@ -0,0 +1,114 @@
+package io.drakon.spark.autorouter;
+
+import io.drakon.spark.autorouter.dispatch.ContentNegotiator;
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.dispatch.NegotiatingDispatch;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.HaltException;
+import spark.ResponseTransformer;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Content negotiation")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestNegotiation {
+
+    private final ContentNegotiator negotiator = new ContentNegotiator(16);
+
+    @Test
+    @DisplayName("accepts honours wildcards and q=0")
+    void testAccepts() {
+        assertTrue(negotiator.accepts(null, "application/json"), "missing header accepts anything");
+        assertTrue(negotiator.accepts("application/*", "application/json"));
+        assertTrue(negotiator.accepts("text/html, */*;q=0.1", "application/json"));
+        assertFalse(negotiator.accepts("text/html", "application/json"));
+        assertFalse(negotiator.accepts("application/json;q=0, */*", "application/json"),
+                "specific q=0 beats the wildcard");
+    }
+
+    @Test
+    @DisplayName("the highest q-value candidate wins")
+    void testQuality() {
+        NegotiatingDispatch dispatch = jsonAndHtml();
+        assertEquals("json", send(dispatch, "text/html;q=0.5, application/json"));
+        assertEquals("html", send(dispatch, "text/html, application/json;q=0.9"));
+        assertEquals("json", send(dispatch, null), "first candidate on a tie");
+    }
+
+    @Test
+    @DisplayName("specific ranges beat wildcards at the same q")
+    void testSpecificity() {
+        NegotiatingDispatch dispatch = jsonAndHtml();
+        assertEquals("html", send(dispatch, "*/*, text/html"));
+        assertEquals("html", send(dispatch, "text/*, application/*;q=0.8"));
+    }
+
+    @Test
+    @DisplayName("unacceptable requests get a 406 unless there's a fallback")
+    void testNotAcceptable() {
+        NegotiatingDispatch dispatch = jsonAndHtml();
+        HaltException ex = assertThrows(HaltException.class, () -> send(dispatch, "image/png"));
+        assertEquals(406, ex.statusCode());
+
+        NegotiatingDispatch withFallback = new NegotiatingDispatch(negotiator,
+                new String[]{"application/json", null},
+                new IRouteDispatch[]{(req, res) -> "json", (req, res) -> "plain"},
+                new ResponseTransformer[2]);
+        assertEquals("plain", send(withFallback, "image/png"));
+        assertEquals("json", send(withFallback, "application/json"));
+    }
+
+    @Test
+    @DisplayName("the chosen candidate's type and transformer are applied")
+    void testTransformAndType() {
+        NegotiatingDispatch dispatch = new NegotiatingDispatch(negotiator, new String[]{"application/json"},
+                new IRouteDispatch[]{(req, res) -> "body"},
+                new ResponseTransformer[]{model -> "[" + model + "]"});
+        FakeResponse res = new FakeResponse();
+        assertEquals("[body]", dispatch.dispatch(new FakeRequest("/").header("Accept", "*/*"), res));
+        assertEquals("application/json", res.type());
+
+        FakeResponse typed = new FakeResponse();
+        typed.type("application/vnd.custom+json");
+        dispatch.dispatch(new FakeRequest("/"), typed);
+        assertEquals("application/vnd.custom+json", typed.type(), "handler's own type is kept");
+    }
+
+    @Test
+    @DisplayName("cached results match fresh parses")
+    void testCache() {
+        ContentNegotiator tiny = new ContentNegotiator(1);
+        for (int i = 0; i < 3; i++) {
+            assertTrue(tiny.accepts("text/html", "text/html"));
+            assertFalse(tiny.accepts("text/plain", "text/html"), "uncached strings still parse");
+        }
+    }
+
+    @Test
+    @DisplayName("the cache stays bounded and keeps the Accept strings in use")
+    void testEviction() {
+        ContentNegotiator small = new ContentNegotiator(4);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(small.accepts("text/html", "text/html"));
+            assertFalse(small.accepts("application/x-" + i, "text/html"));
+            assertTrue(small.getCachedCount() <= 4);
+        }
+        assertEquals(4, small.getCachedCount());
+    }
+
+    private NegotiatingDispatch jsonAndHtml() {
+        return new NegotiatingDispatch(negotiator, new String[]{"application/json", "text/html"},
+                new IRouteDispatch[]{(req, res) -> "json", (req, res) -> "html"},
+                new ResponseTransformer[2]);
+    }
+
+    private static Object send(NegotiatingDispatch dispatch, String accept) {
+        FakeRequest req = new FakeRequest("/");
+        if (accept != null) req.header("Accept", accept);
+        return dispatch.dispatch(req, new FakeResponse());
+    }
+
+}
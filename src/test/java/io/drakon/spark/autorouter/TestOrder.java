@@ -0,0 +1,36 @@
+package io.drakon.spark.autorouter;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Route ordering")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestOrder {
+
+    private static final String PKG = "io.drakon.spark.autorouter.test.order";
+
+    private static List<String> getRoutes(AutorouterTestClient client) {
+        return client.getRouter().getPipeline().getRoutes().stream().filter(route -> route.startsWith("GET "))
+                .collect(Collectors.toList());
+    }
+
+    @Test
+    @DisplayName("registers routes by priority, then specificity")
+    void testBaseOrder() {
+        AutorouterTestClient client = new AutorouterTestClient(PKG);
+        assertEquals(Arrays.asList("GET /z", "GET /users/me", "GET /users/:id", "GET /a", "GET /b", "GET /c",
+                "GET /*"), getRoutes(client));
+        assertEquals(getRoutes(client), getRoutes(new AutorouterTestClient(PKG)), "Same order every time.");
+
+        assertEquals("me", client.get("/users/me").body());
+        assertEquals("user 42", client.get("/users/42").body());
+        assertEquals("fallback", client.get("/elsewhere").body());
+    }
+
+}
@@ -0,0 +1,53 @@
+package io.drakon.spark.autorouter;
+
+import io.drakon.spark.autorouter.monitor.SpanKind;
+import io.drakon.spark.autorouter.test.jfr.JfrRoutes;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Route registry")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestRegistry {
+
+    @Test
+    @DisplayName("looks up routes and their metadata by verb and template")
+    void testRoutes() {
+        RouteRegistry registry = RouteRegistry.from(new Autorouter("io.drakon.spark.autorouter.test.jfr").search());
+        assertEquals(2, registry.size());
+        assertEquals("/fail", registry.getTemplate(0), "Ordered by template.");
+
+        int user = registry.find("GET", "/users/:id");
+        assertEquals(1, user);
+        assertEquals(JfrRoutes.class.getName() + "#user", registry.getHandler(user));
+        assertNull(registry.getAcceptType(user));
+        assertFalse(registry.isEventStream(user));
+        assertSame("/users/:id", registry.getTemplate(user), "Templates interned.");
+        assertEquals(-1, registry.find("POST", "/users/:id"));
+        assertEquals(-1, registry.find("GET", "/users"));
+
+        assertEquals(1, registry.getFilterCount());
+        assertEquals(SpanKind.BEFORE, registry.getFilterKind(0));
+        assertEquals("/users/*", registry.getFilterPath(0));
+        assertNull(registry.getFilterAcceptType(0));
+        assertEquals(1, registry.getExceptionHandlerCount());
+        assertEquals(IllegalStateException.class.getName(), registry.getExceptionType(0));
+    }
+
+    @Test
+    @DisplayName("keeps bulkheads and event streams")
+    void testMetadata() {
+        RouteRegistry bulkheads = RouteRegistry.from(
+                new Autorouter("io.drakon.spark.autorouter.test.bulkhead").search());
+        assertEquals("/reports", bulkheads.getBulkhead(bulkheads.find("GET", "/reports/daily/")));
+        assertEquals("/reports/export", bulkheads.getBulkhead(bulkheads.find("GET", "/reports/export/")));
+        assertNull(bulkheads.getBulkhead(bulkheads.find("GET", "/api/")));
+
+        RouteRegistry streams = RouteRegistry.from(new Autorouter("io.drakon.spark.autorouter.test.sse").search());
+        int events = streams.find("GET", "/live/events");
+        assertTrue(streams.isEventStream(events));
+        assertEquals(0, streams.getFilterCount());
+    }
+
+}
@@ -0,0 +1,156 @@
+package io.drakon.spark.autorouter;
+
+import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import io.drakon.spark.autorouter.dispatch.BytecodeDispatch;
+import io.drakon.spark.autorouter.dispatch.EventSink;
+import io.drakon.spark.autorouter.dispatch.EventStreamDispatch;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import io.drakon.spark.autorouter.test.sse.FakeStream;
+import io.drakon.spark.autorouter.test.sse.StreamRoutes;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.drakon.spark.autorouter.Utils.Pair;
+
+@DisplayName("Server-Sent Events")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestSse {
+
+    private EventStreamDispatch dispatch;
+
+    private EventStreamDispatch streamRoute() {
+        if (dispatch != null) return dispatch;
+        Autorouter.SearchResult result = new Autorouter("io.drakon.spark.autorouter.test.sse").search();
+        assertEquals(1, result.eventStreams.size());
+        Pair<Method, Autorouter.RouteInfo> pair = result.eventStreams.iterator().next();
+        assertEquals("/live/events", pair.second.path);
+        Routes.SSE ann = pair.first.getAnnotation(Routes.SSE.class);
+        dispatch = new EventStreamDispatch(Utils.dispatchClassToObj(new BytecodeDispatch().generateRouteStub(
+                pair.first, pair.second.headers)), ann.queue(), ann.overflow(), ann.heartbeatMillis());
+        return dispatch;
+    }
+
+    /** Opens a stream on the fake servlet objects, returning the handler's sink. */
+    private EventSink open(FakeStream stream) {
+        StreamRoutes.subscribers.clear();
+        FakeRequest req = new FakeRequest("/live/events") {
+            @Override
+            public HttpServletRequest raw() {
+                return stream.request();
+            }
+        };
+        FakeResponse res = new FakeResponse() {
+            @Override
+            public HttpServletResponse raw() {
+                return stream.response();
+            }
+        };
+        assertEquals("", streamRoute().dispatch(req, res));
+        assertEquals("text/event-stream; charset=utf-8", res.type());
+        assertEquals("yes", stream.headers.get("X-Stream"));
+        assertEquals(1, StreamRoutes.subscribers.size());
+        return StreamRoutes.subscribers.iterator().next();
+    }
+
+    @Test
+    @DisplayName("streams events as the client can take them")
+    void testStream() {
+        FakeStream stream = new FakeStream();
+        EventSink sink = open(stream);
+        assertEquals("no-cache", stream.headers.get("Cache-Control"));
+        assertEquals("event: hello\ndata: first\ndata: second\n\n", stream.text());
+
+        stream.ready = false;
+        assertTrue(sink.send("queued"));
+        assertFalse(stream.text().contains("queued"));
+        stream.makeReady();
+        assertTrue(stream.text().endsWith("data: queued\n\n"));
+
+        // The client going away closes the sink and unsubscribes it
+        assertEquals(1, streamRoute().getOpenStreams());
+        stream.asyncListeners.forEach(l -> {
+            try {
+                l.onError(null);
+            } catch (IOException ex) {
+                fail(ex);
+            }
+        });
+        assertFalse(sink.isOpen());
+        assertFalse(sink.send("late"));
+        assertTrue(StreamRoutes.subscribers.isEmpty());
+        assertEquals(0, streamRoute().getOpenStreams());
+    }
+
+    @Test
+    @DisplayName("applies the overflow policy to slow clients")
+    void testOverflow() {
+        EventSink oldest = new EventSink(2, Routes.SSE.Overflow.DROP_OLDEST);
+        assertTrue(oldest.send("a"));
+        assertTrue(oldest.send("b"));
+        assertTrue(oldest.send("c"));
+        assertEquals(1, oldest.getDropped());
+
+        EventSink newest = new EventSink(2, Routes.SSE.Overflow.DROP_NEWEST);
+        assertTrue(newest.send("a"));
+        assertTrue(newest.send("b"));
+        assertFalse(newest.send("c"));
+        assertEquals(1, newest.getDropped());
+        assertTrue(newest.isOpen());
+
+        EventSink disconnect = new EventSink(2, Routes.SSE.Overflow.DISCONNECT);
+        AtomicBoolean closed = new AtomicBoolean();
+        disconnect.onClose(() -> closed.set(true));
+        assertTrue(disconnect.send("a"));
+        assertTrue(disconnect.send("b"));
+        assertFalse(disconnect.send("c"));
+        assertFalse(disconnect.isOpen());
+        assertTrue(closed.get());
+
+        // Queued events are written oldest first once the client catches up
+        FakeStream stream = new FakeStream();
+        EventSink sink = open(stream);
+        stream.ready = false;
+        sink.send("1");
+        sink.send("2");
+        sink.send("3");
+        stream.makeReady();
+        assertTrue(stream.text().endsWith("data: 2\n\ndata: 3\n\n"), stream.text());
+        sink.close();
+        assertTrue(stream.completed);
+    }
+
+    @Test
+    @DisplayName("sends heartbeats on idle streams")
+    void testHeartbeat() throws InterruptedException {
+        FakeStream stream = new FakeStream();
+        EventSink sink = open(stream);
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!stream.text().contains(":\n\n") && System.currentTimeMillis() < deadline) Thread.sleep(10);
+        assertTrue(stream.text().contains(":\n\n"), "Heartbeat sent.");
+        sink.close();
+    }
+
+    @Test
+    @DisplayName("doesn't keep dropped dispatchers alive for their heartbeats")
+    void testHeartbeatRelease() throws InterruptedException {
+        WeakReference<EventStreamDispatch> ref = new WeakReference<>(new EventStreamDispatch((req, res) -> null, 1,
+                Routes.SSE.Overflow.DROP_OLDEST, 10));
+        long deadline = System.currentTimeMillis() + 5000;
+        while (ref.get() != null && System.currentTimeMillis() < deadline) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertNull(ref.get(), "Dispatcher collected.");
+    }
+
+}
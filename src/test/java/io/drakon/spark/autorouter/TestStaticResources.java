@@ -0,0 +1,106 @@
+package io.drakon.spark.autorouter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+import io.drakon.spark.autorouter.dispatch.LocalRequest;
+import io.drakon.spark.autorouter.dispatch.LocalResponse;
+import io.drakon.spark.autorouter.dispatch.StaticResources;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.HaltException;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Static resources")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestStaticResources {
+
+    private final AutorouterTestClient client = new AutorouterTestClient("io.drakon.spark.autorouter.test.statics");
+
+    @Test
+    @DisplayName("serves indexed files with ETags and precompressed variants")
+    void testServe() throws IOException {
+        LocalResponse css = client.get("/web/assets/css/site.css");
+        assertEquals(200, css.status());
+        assertEquals("text/css; charset=utf-8", css.type());
+        assertEquals("body { color: #333; }\n", css.body());
+        assertEquals("Accept-Encoding", css.getHeader("Vary"));
+        String etag = css.getHeader("ETag");
+        assertNotNull(etag);
+
+        LocalResponse gzipped = client.send(new LocalRequest("GET", "/web/assets/css/site.css")
+                .header("Accept-Encoding", "br;q=0, gzip, deflate"));
+        assertEquals("gzip", gzipped.getHeader("Content-Encoding"));
+        assertArrayEquals(Files.readAllBytes(Paths.get("src/test/resources/static/css/site.css.gz")),
+                gzipped.bodyAsBytes());
+        assertNotEquals(etag, gzipped.getHeader("ETag"));
+
+        LocalResponse cached = client.send(new LocalRequest("GET", "/web/assets/css/site.css")
+                .header("If-None-Match", etag));
+        assertEquals(304, cached.status());
+        assertEquals(0, cached.bodyAsBytes().length);
+
+        assertTrue(client.get("/web/assets/").body().contains("<title>Home</title>"), "Serves index.html.");
+        assertEquals(404, client.get("/web/assets/missing.js").status());
+        assertEquals(404, client.get("/web/assets/../../build.gradle").status());
+        assertEquals("1.0", client.get("/web/assets/version").body(), "More specific routes come first.");
+        assertEquals(0, client.send(new LocalRequest("HEAD", "/web/assets/index.html")).bodyAsBytes().length);
+        assertEquals(3, client.getRouter().getStaticResources().get("/web/assets").size());
+    }
+
+    @Test
+    @DisplayName("refreshes changed files when watching")
+    void testWatch() throws Exception {
+        Path dir = Files.createTempDirectory("static");
+        try (StaticResources files = new StaticResources("/files", dir)) {
+            Files.write(dir.resolve("a.txt"), Arrays.asList("one"), StandardCharsets.UTF_8);
+            files.index();
+            files.watch();
+            assertEquals("one\n", get(files, "/files/a.txt"));
+
+            // Replaced atomically, as StaticResources asks
+            Path tmp = Files.createTempFile(dir.getParent(), "a", ".tmp");
+            Files.write(tmp, Arrays.asList("two"), StandardCharsets.UTF_8);
+            Files.move(tmp, dir.resolve("a.txt"), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            Files.createDirectory(dir.resolve("sub"));
+            Files.write(dir.resolve("sub").resolve("b.txt"), Arrays.asList("three"), StandardCharsets.UTF_8);
+
+            long deadline = System.currentTimeMillis() + 20_000;
+            while (!("two\n".equals(get(files, "/files/a.txt")) && "three\n".equals(get(files, "/files/sub/b.txt")))) {
+                assertTrue(System.currentTimeMillis() < deadline, "Changes not picked up in time.");
+                Thread.sleep(50);
+            }
+
+            Files.delete(dir.resolve("a.txt"));
+            while (get(files, "/files/a.txt") != null) {
+                assertTrue(System.currentTimeMillis() < deadline, "Deletion not picked up in time.");
+                Thread.sleep(50);
+            }
+        } finally {
+            Files.deleteIfExists(dir.resolve("sub").resolve("b.txt"));
+            Files.deleteIfExists(dir.resolve("sub"));
+            Files.deleteIfExists(dir.resolve("a.txt"));
+            Files.delete(dir);
+        }
+    }
+
+    private static String get(StaticResources files, String path) {
+        try {
+            ByteBuffer body = ((ByteBuffer) files.dispatch(new LocalRequest("GET", path), new LocalResponse()))
+                    .duplicate();
+            byte[] bytes = new byte[body.remaining()];
+            body.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        } catch (HaltException ex) {
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,119 @@
+package io.drakon.spark.autorouter;
+
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.drakon.spark.autorouter.dispatch.Deadline;
+import io.drakon.spark.autorouter.dispatch.DeadlineTimer;
+import io.drakon.spark.autorouter.dispatch.TimeoutDispatch;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.HaltException;
+import static org.junit.jupiter.api.Assertions.*;
+
+import io.drakon.spark.autorouter.Utils.Pair;
+
+@DisplayName("Route deadlines")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestTimeout {
+
+    private final DeadlineTimer timer = new DeadlineTimer(5, 64);
+
+    @Test
+    @DisplayName("method timeouts override class defaults")
+    void testSearch() {
+        Autorouter.SearchResult result = new Autorouter("io.drakon.spark.autorouter.test.timeout").search();
+        Map<String, Long> timeouts = new HashMap<>();
+        for (Pair<Method, Autorouter.RouteInfo> pair : result.routes.get(Routes.GET.class))
+            timeouts.put(pair.first.getName(), pair.second.timeoutMillis);
+        assertEquals(250L, (long) timeouts.get("groupDefault"));
+        assertEquals(50L, (long) timeouts.get("override"));
+        assertEquals(250L, (long) timeouts.get("nested"), "nested classes inherit the default");
+    }
+
+    @Test
+    @DisplayName("fast handlers see their deadline and complete")
+    void testWithinDeadline() {
+        FakeRequest req = new FakeRequest("/");
+        TimeoutDispatch dispatch = new TimeoutDispatch((rq, rs) -> {
+            Deadline deadline = Deadline.of(rq);
+            assertNotNull(deadline);
+            assertFalse(deadline.isExpired());
+            assertTrue(deadline.remaining(TimeUnit.MILLISECONDS) <= 1000);
+            return "ok";
+        }, 1000, timer);
+        assertEquals("ok", dispatch.dispatch(req, new FakeResponse()));
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    @DisplayName("hung handlers are interrupted and answered with 504")
+    void testExpired() {
+        TimeoutDispatch dispatch = new TimeoutDispatch((rq, rs) -> {
+            try {
+                new CountDownLatch(1).await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw new RuntimeException("downstream call interrupted", ex);
+            }
+            return "late";
+        }, 30, timer);
+        long start = System.nanoTime();
+        HaltException ex = assertThrows(HaltException.class, () -> dispatch.dispatch(new FakeRequest("/"),
+                new FakeResponse()));
+        assertEquals(504, ex.statusCode());
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) < 2000, "interrupted promptly");
+        assertFalse(Thread.currentThread().isInterrupted(), "interrupt flag cleared");
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T extends Throwable> RuntimeException sneakyThrow(Throwable ex) throws T {
+        throw (T) ex; // As generated stubs do for handlers' undeclared checked exceptions
+    }
+
+    @Test
+    @DisplayName("checked exceptions cancel the deadline, or become a 504 after it")
+    void testCheckedException() throws Exception {
+        TimeoutDispatch fast = new TimeoutDispatch((rq, rs) -> {
+            throw sneakyThrow(new IOException("downstream failed"));
+        }, 30, timer);
+        Throwable thrown = assertThrows(Throwable.class, () -> fast.dispatch(new FakeRequest("/"), new FakeResponse()));
+        assertTrue(thrown instanceof IOException, "passed through unchanged");
+        Thread.sleep(100);
+        assertFalse(Thread.interrupted(), "cancelled deadline never interrupts the thread");
+
+        TimeoutDispatch slow = new TimeoutDispatch((rq, rs) -> {
+            try {
+                new CountDownLatch(1).await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                throw sneakyThrow(new IOException("downstream call interrupted"));
+            }
+            return "late";
+        }, 30, timer);
+        HaltException ex = assertThrows(HaltException.class, () -> slow.dispatch(new FakeRequest("/"),
+                new FakeResponse()));
+        assertEquals(504, ex.statusCode());
+        assertFalse(Thread.currentThread().isInterrupted(), "interrupt flag cleared");
+    }
+
+    @Test
+    @DisplayName("cancelled timeouts never fire")
+    void testCancel() throws Exception {
+        CountDownLatch fired = new CountDownLatch(1);
+        DeadlineTimer.Timeout timeout = timer.schedule(20, TimeUnit.MILLISECONDS, fired::countDown);
+        assertTrue(timeout.cancel());
+        assertFalse(fired.await(100, TimeUnit.MILLISECONDS));
+
+        CountDownLatch fired2 = new CountDownLatch(1);
+        DeadlineTimer.Timeout timeout2 = timer.schedule(20, TimeUnit.MILLISECONDS, fired2::countDown);
+        assertTrue(fired2.await(1, TimeUnit.SECONDS));
+        assertFalse(timeout2.cancel(), "cannot cancel after firing");
+    }
+
+}
@@ -0,0 +1,115 @@
+package io.drakon.spark.autorouter;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.monitor.JsonFileTraceExporter;
+import io.drakon.spark.autorouter.monitor.SpanKind;
+import io.drakon.spark.autorouter.monitor.Trace;
+import io.drakon.spark.autorouter.monitor.Tracer;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import spark.ResponseTransformer;
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Sampled tracing")
+@TestInstance(TestInstance.Lifecycle.PER_METHOD)
+public class TestTracing {
+
+    private final List<Trace> traces = new ArrayList<>();
+
+    /** Runs one request through a before -> handler -> transformer -> after pipeline. */
+    private void runRequest(Tracer tracer, String path) throws Exception {
+        IRouteDispatch before = tracer.trace(SpanKind.BEFORE, "before", (req, res) -> null);
+        IRouteDispatch handler = tracer.trace(SpanKind.HANDLER, "handler", (req, res) -> "model");
+        ResponseTransformer transformer = tracer.trace(Object::toString);
+        IRouteDispatch after = tracer.trace(SpanKind.AFTER, "after", (req, res) -> null);
+
+        FakeRequest req = new FakeRequest(path);
+        FakeResponse res = new FakeResponse();
+        tracer.begin(req, res);
+        before.dispatch(req, res);
+        transformer.render(handler.dispatch(req, res));
+        after.dispatch(req, res);
+        tracer.end(req, res);
+    }
+
+    @Test
+    @DisplayName("records every step of a sampled request in order")
+    void testSpans() throws Exception {
+        runRequest(new Tracer(1, traces::add), "/traced");
+        assertEquals(1, traces.size());
+        Trace trace = traces.get(0);
+        assertEquals("GET", trace.verb);
+        assertEquals("/traced", trace.path);
+        assertEquals(4, trace.spans.size());
+        assertEquals(SpanKind.BEFORE, trace.spans.get(0).kind);
+        assertEquals(SpanKind.HANDLER, trace.spans.get(1).kind);
+        assertEquals(SpanKind.TRANSFORMER, trace.spans.get(2).kind);
+        assertEquals(SpanKind.AFTER, trace.spans.get(3).kind);
+        for (Trace.Span span : trace.spans) {
+            assertTrue(span.durationNanos >= 0);
+            assertTrue(span.startNanos + span.durationNanos <= trace.durationNanos);
+        }
+    }
+
+    @Test
+    @DisplayName("only samples one in N requests")
+    void testSampling() throws Exception {
+        Tracer tracer = new Tracer(3, traces::add);
+        for (int i = 0; i < 9; i++) runRequest(tracer, "/" + i);
+        assertEquals(3, traces.size());
+        assertEquals("/2", traces.get(0).path);
+    }
+
+    @Test
+    @DisplayName("records exceptions on the failing span")
+    void testException() {
+        Tracer tracer = new Tracer(1, traces::add);
+        IRouteDispatch handler = tracer.trace(SpanKind.HANDLER, "handler", (req, res) -> {
+            throw new IllegalStateException();
+        });
+        FakeRequest req = new FakeRequest("/fail");
+        tracer.begin(req, null);
+        assertThrows(IllegalStateException.class, () -> handler.dispatch(req, null));
+        tracer.end(req, null);
+        assertEquals(IllegalStateException.class.getName(), traces.get(0).spans.get(0).exception);
+    }
+
+    @Test
+    @DisplayName("never samples warm-up requests")
+    void testWarmUp() {
+        AutorouterTestClient client = new AutorouterTestClient("io.drakon.spark.autorouter.test.order",
+                router -> router.enableTracing(1, traces::add));
+        client.getRouter().getPipeline().handle(new JitWarmer.Sample("GET", "/a", Collections.emptyMap(), null,
+                new byte[0]).toRequest());
+        assertEquals(0, traces.size());
+        client.get("/a");
+        assertEquals(1, traces.size());
+    }
+
+    @Test
+    @DisplayName("JSON file exporter writes one line per trace")
+    void testFileExporter() throws Exception {
+        Path file = Files.createTempFile("autorouter-trace", ".jsonl");
+        try (JsonFileTraceExporter exporter = new JsonFileTraceExporter(file)) {
+            Tracer tracer = new Tracer(1, exporter);
+            runRequest(tracer, "/a\"b");
+            runRequest(tracer, "/c");
+        }
+        List<String> lines = Files.readAllLines(file, StandardCharsets.UTF_8);
+        Files.delete(file);
+        assertEquals(2, lines.size());
+        assertTrue(lines.get(0).startsWith("{\"verb\":\"GET\",\"path\":\"/a\\\"b\""), lines.get(0));
+        assertTrue(lines.get(1).contains("\"kind\":\"TRANSFORMER\""));
+    }
+
+}
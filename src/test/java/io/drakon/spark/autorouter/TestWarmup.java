@@ -0,0 +1,120 @@
+package io.drakon.spark.autorouter;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.drakon.spark.autorouter.dispatch.LocalPipeline;
+import io.drakon.spark.autorouter.dispatch.LocalRequest;
+import io.drakon.spark.autorouter.dispatch.LocalResponse;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import static org.junit.jupiter.api.Assertions.*;
+import static spark.Spark.halt;
+
+@DisplayName("JIT warm-up")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+public class TestWarmup {
+
+    @Test
+    @DisplayName("local pipeline follows Spark's matching rules")
+    void testPipeline() {
+        LocalPipeline pipeline = new LocalPipeline();
+        pipeline.before(null, (req, res) -> res.header("X-Before", "all"));
+        pipeline.before("/admin/*", (req, res) -> {
+            if (req.headers("Authorization") == null) throw halt(401, "Nope");
+        });
+        pipeline.route("GET", "/users/:id", (req, res) -> "user " + req.params("id") + " " + req.queryParams("full"));
+        pipeline.route("GET", "/files/*", (req, res) -> req.splat()[0]);
+        pipeline.route("GET", "/admin/stats", (req, res) -> "stats");
+        pipeline.route("GET", "/boom", (req, res) -> {
+            throw new IllegalStateException("boom");
+        });
+        pipeline.route("GET", "/crash", (req, res) -> {
+            throw new UnsupportedOperationException("crash");
+        });
+        pipeline.exception(IllegalStateException.class, (ex, req, res) -> {
+            res.status(409);
+            res.body(ex.getMessage());
+        });
+        pipeline.after("/users/:id", (req, res) -> res.header("X-User", req.params(":id")));
+
+        LocalResponse res = pipeline.handle(new LocalRequest("GET", "/users/42?full=true"));
+        assertEquals(200, res.status());
+        assertEquals("user 42 true", res.body());
+        assertEquals("all", res.getHeader("X-Before"));
+        assertEquals("42", res.getHeader("X-User"), "filters get their own params");
+
+        assertEquals("a/b/c.txt", pipeline.handle(new LocalRequest("GET", "/files/a/b/c.txt")).body());
+        assertEquals(404, pipeline.handle(new LocalRequest("GET", "/users/42/")).status(), "trailing slashes matter");
+        assertEquals(404, pipeline.handle(new LocalRequest("POST", "/users/42")).status());
+
+        LocalResponse halted = pipeline.handle(new LocalRequest("GET", "/admin/stats"));
+        assertEquals(401, halted.status());
+        assertEquals("Nope", halted.body());
+        assertEquals("stats", pipeline.handle(new LocalRequest("GET", "/admin/stats").header("Authorization", "x"))
+                .body());
+
+        LocalResponse handled = pipeline.handle(new LocalRequest("GET", "/boom"));
+        assertEquals(409, handled.status());
+        assertEquals("boom", handled.body());
+        assertEquals(500, pipeline.handle(new LocalRequest("GET", "/crash")).status());
+    }
+
+    @Test
+    @DisplayName("replays samples until warm and then reports ready")
+    void testWarmer() throws InterruptedException {
+        AtomicLong hits = new AtomicLong();
+        AtomicInteger filtered = new AtomicInteger();
+        LocalPipeline pipeline = new LocalPipeline();
+        pipeline.before(null, (req, res) -> filtered.incrementAndGet());
+        pipeline.route("GET", "/items/:id", (req, res) -> {
+            hits.incrementAndGet();
+            return req.params("id");
+        });
+        pipeline.route("POST", "/items", (req, res) -> req.body());
+
+        JitWarmer warmer = new JitWarmer(10_000, Collections.emptyList());
+        warmer.addSample(new JitWarmer.Sample("GET", "/items/1", Collections.emptyMap(), null, new byte[0]));
+        warmer.addSample(new JitWarmer.Sample("POST", "/items", Collections.emptyMap(), "application/json",
+                "{}".getBytes(StandardCharsets.UTF_8)));
+        AtomicInteger finished = new AtomicInteger();
+        warmer.start(pipeline, finished::incrementAndGet);
+
+        assertTrue(warmer.awaitReady(30, TimeUnit.SECONDS), "warm-up finishes within its budget");
+        assertTrue(warmer.isReady());
+        assertEquals(1, finished.get());
+        assertTrue(hits.get() > JitWarmer.MIN_ROUNDS, "each sample is replayed past the C2 threshold");
+        assertEquals(warmer.getRequestsSent(), filtered.get(), "filters are driven too");
+    }
+
+    @Test
+    @DisplayName("reads replay files")
+    void testReplayFile() throws IOException {
+        Path file = Files.createTempFile("warmup", ".txt");
+        try {
+            Files.write(file, Arrays.asList("# Recorded samples", "", "GET /users/42?full=true",
+                    "POST /users application/json {\"name\": \"Ada Lovelace\"}"), StandardCharsets.UTF_8);
+            List<JitWarmer.Sample> samples = JitWarmer.readReplayFile(file);
+            assertEquals(2, samples.size());
+            assertEquals("GET", samples.get(0).verb);
+            assertEquals("/users/42?full=true", samples.get(0).uri);
+            assertEquals("application/json", samples.get(1).contentType);
+            assertEquals("{\"name\": \"Ada Lovelace\"}", new String(samples.get(1).body, StandardCharsets.UTF_8));
+
+            Files.write(file, Collections.singletonList("GET users"), StandardCharsets.UTF_8);
+            assertThrows(IOException.class, () -> JitWarmer.readReplayFile(file));
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+}
@@ -0,0 +1,103 @@
+package io.drakon.spark.autorouter.test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.servlet.http.HttpServletRequest;
+
+import spark.Request;
+
+/** Minimal in-memory Request for exercising dispatchers without Jetty. */
+public class FakeRequest extends Request {
+
+    private final String method;
+    private final String path;
+    private final Map<String, String> queryParams = new HashMap<>();
+    private final Map<String, String> headers = new HashMap<>();
+    private final Map<String, Object> attributes = new HashMap<>();
+    private byte[] body = new byte[0];
+    private String contentType = null;
+
+    public FakeRequest(String path) {
+        this("GET", path);
+    }
+
+    public FakeRequest(String method, String path) {
+        this.method = method;
+        this.path = path;
+    }
+
+    public FakeRequest query(String name, String value) {
+        queryParams.put(name, value);
+        return this;
+    }
+
+    public FakeRequest header(String name, String value) {
+        headers.put(name, value);
+        return this;
+    }
+
+    public FakeRequest body(String contentType, String body) {
+        this.contentType = contentType;
+        this.body = body.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+    @Override
+    public byte[] bodyAsBytes() {
+        return body;
+    }
+
+    @Override
+    public String body() {
+        return new String(body, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public int contentLength() {
+        return body.length;
+    }
+
+    @Override
+    public String contentType() {
+        return contentType;
+    }
+
+    @Override
+    public HttpServletRequest raw() {
+        return null;
+    }
+
+    @Override
+    public String requestMethod() {
+        return method;
+    }
+
+    @Override
+    public String pathInfo() {
+        return path;
+    }
+
+    @Override
+    public String queryParams(String name) {
+        return queryParams.get(name);
+    }
+
+    @Override
+    public String headers(String name) {
+        return headers.get(name);
+    }
+
+    @Override
+    public void attribute(String name, Object value) {
+        attributes.put(name, value);
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T attribute(String name) {
+        return (T) attributes.get(name);
+    }
+
+}
@@ -0,0 +1,40 @@
+package io.drakon.spark.autorouter.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import spark.Response;
+
+/** Minimal in-memory Response for exercising dispatchers without Jetty. */
+public class FakeResponse extends Response {
+
+    public final Map<String, String> headers = new HashMap<>();
+    private int status = 200;
+    private String type = null;
+
+    @Override
+    public void status(int statusCode) {
+        status = statusCode;
+    }
+
+    @Override
+    public int status() {
+        return status;
+    }
+
+    @Override
+    public void type(String contentType) {
+        type = contentType;
+    }
+
+    @Override
+    public String type() {
+        return type;
+    }
+
+    @Override
+    public void header(String header, String value) {
+        headers.put(header, value);
+    }
+
+}
@@ -0,0 +1,21 @@
+package io.drakon.spark.autorouter.test.access;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+public class AccessRoutes {
+
+    @Routes.GET(path = "/items/:id")
+    public static Object item(Request req, Response res) {
+        return "item " + req.params("id");
+    }
+
+    @Routes.GET(path = "/teapot")
+    public static Object teapot(Request req, Response res) {
+        throw halt(418, "I'm a teapot");
+    }
+
+}
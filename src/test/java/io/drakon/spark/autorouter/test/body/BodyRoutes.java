@@ -0,0 +1,40 @@
+package io.drakon.spark.autorouter.test.body;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+public class BodyRoutes {
+
+    @Routes.POST(path = "/signup")
+    public static Object signup(Request req, Response res, @Routes.Body Signup signup) {
+        return signup;
+    }
+
+    @Routes.POST(path = "/tags")
+    public static Object tags(Request req, Response res, @Routes.Body(maxBytes = 32) List<String> tags) {
+        return tags;
+    }
+
+    @Routes.POST(path = "/raw")
+    public static Object raw(Request req, Response res, @Routes.Body String raw) {
+        return raw;
+    }
+
+    @Routes.POST(path = "/stream")
+    public static Object stream(Request req, Response res, @Routes.Body InputStream in) throws IOException {
+        int n = 0;
+        while (in.read() >= 0) n++;
+        return n;
+    }
+
+    @Routes.POST(path = "/invalid")
+    public static Object invalid(Request req, Response res, @Routes.Body int primitive) {
+        return primitive;
+    }
+
+}
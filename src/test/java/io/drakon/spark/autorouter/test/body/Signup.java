@@ -0,0 +1,34 @@
+package io.drakon.spark.autorouter.test.body;
+
+import java.util.List;
+import java.util.Map;
+
+public class Signup {
+
+    public enum Plan { FREE, PRO }
+
+    public String email;
+    public int age;
+    public double score;
+    public boolean marketing;
+    public Plan plan;
+    public List<Address> addresses;
+    public Map<String, Long> counters;
+
+    private String nickname;
+
+    public String getNickname() {
+        return nickname;
+    }
+
+    public Signup setNickname(String nickname) {
+        this.nickname = nickname;
+        return this;
+    }
+
+    public static class Address {
+        public String city;
+        public char grade;
+    }
+
+}
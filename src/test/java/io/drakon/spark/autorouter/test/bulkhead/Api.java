@@ -0,0 +1,15 @@
+package io.drakon.spark.autorouter.test.bulkhead;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+@Routes.PathGroup(prefix = "/api")
+public class Api {
+
+    @Routes.GET(path = "/")
+    public static Object index(Request req, Response res) {
+        return null;
+    }
+
+}
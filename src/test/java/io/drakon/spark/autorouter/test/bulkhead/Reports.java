@@ -0,0 +1,37 @@
+package io.drakon.spark.autorouter.test.bulkhead;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+@Routes.PathGroup(prefix = "/reports")
+@Routes.Bulkhead(maxConcurrent = 2, maxQueue = 4)
+public class Reports {
+
+    @Routes.PathGroup(prefix = "/daily")
+    public static class Daily {
+
+        @Routes.GET(path = "/")
+        public static Object daily(Request req, Response res) {
+            return null;
+        }
+
+    }
+
+    @Routes.PathGroup(prefix = "/export")
+    @Routes.Bulkhead(maxConcurrent = 1)
+    public static class Export {
+
+        @Routes.GET(path = "/")
+        public static Object export(Request req, Response res) {
+            return null;
+        }
+
+    }
+
+    @Routes.GET(path = "/")
+    public static Object index(Request req, Response res) {
+        return null;
+    }
+
+}
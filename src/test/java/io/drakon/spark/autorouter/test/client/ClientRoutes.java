@@ -0,0 +1,49 @@
+package io.drakon.spark.autorouter.test.client;
+
+import io.drakon.spark.autorouter.Routes;
+import io.drakon.spark.autorouter.codec.JsonTransformer;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+@Routes.PathGroup(prefix = "/api")
+public class ClientRoutes {
+
+    public static class Greeting {
+        public String greeting;
+
+        Greeting(String greeting) {
+            this.greeting = greeting;
+        }
+    }
+
+    @Routes.Before(path = "/api/*")
+    public static Object auth(Request req, Response res) {
+        if (req.headers("Authorization") == null) throw halt(401, "Who are you?");
+        return null;
+    }
+
+    @Routes.GET(path = "/hello/:name", transformer = JsonTransformer.class)
+    public static Object hello(Request req, Response res) {
+        return new Greeting("Hello, " + req.params("name") + "!");
+    }
+
+    @Routes.POST(path = "/echo")
+    public static Object echo(Request req, Response res) {
+        return req.body();
+    }
+
+    @Routes.GET(path = "/broken")
+    public static Object broken(Request req, Response res) {
+        throw new UnsupportedOperationException("Not yet");
+    }
+
+    @Routes.ExceptionHandler(exceptionType = UnsupportedOperationException.class)
+    public static Object unsupported(Exception ex, Request req, Response res) {
+        res.status(501);
+        res.body(ex.getMessage());
+        return null;
+    }
+
+}
@@ -0,0 +1,23 @@
+package io.drakon.spark.autorouter.test.coalesce;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+import static spark.Spark.halt;
+
+public class CoalesceRoutes {
+
+    @Routes.Coalesce(queryParams = "fields", headers = "Accept-Language")
+    @Routes.GET(path = "/items/:id")
+    @Routes.POST(path = "/items/:id")
+    public static Object item(Request req, Response res) {
+        throw halt(500);
+    }
+
+    @Routes.GET(path = "/plain")
+    public static Object plain(Request req, Response res) {
+        throw halt(500);
+    }
+
+}
@@ -0,0 +1,39 @@
+package io.drakon.spark.autorouter.test.cors;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+@Routes.PathGroup(prefix = "/api")
+@Routes.Cors(origins = "https://app.example", headers = {"Content-Type", "Authorization"}, credentials = true)
+public class CorsRoutes {
+
+    @Routes.GET(path = "/items")
+    public static Object list(Request req, Response res) {
+        return "[]";
+    }
+
+    @Routes.POST(path = "/items")
+    public static Object create(Request req, Response res) {
+        return "{}";
+    }
+
+    @Routes.DELETE(path = "/items/:id")
+    public static Object delete(Request req, Response res) {
+        return "";
+    }
+
+    @Routes.GET(path = "/public")
+    @Routes.Cors(maxAge = 60)
+    public static Object open(Request req, Response res) {
+        return "public";
+    }
+
+    public static class Private {
+        @Routes.GET(path = "/private")
+        public static Object closed(Request req, Response res) {
+            return "private";
+        }
+    }
+
+}
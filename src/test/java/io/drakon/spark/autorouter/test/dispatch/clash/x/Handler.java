@@ -0,0 +1,12 @@
+package io.drakon.spark.autorouter.test.dispatch.clash.x;
+
+import spark.Request;
+import spark.Response;
+
+public class Handler {
+
+    public static Object handle(Request req, Response res) {
+        return "x.Handler";
+    }
+
+}
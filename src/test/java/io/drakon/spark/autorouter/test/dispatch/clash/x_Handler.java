@@ -0,0 +1,13 @@
+package io.drakon.spark.autorouter.test.dispatch.clash;
+
+import spark.Request;
+import spark.Response;
+
+/** Named so that, with dots flattened to underscores, its name is the same as x.Handler's. */
+public class x_Handler {
+
+    public static Object handle(Request req, Response res) {
+        return "x_Handler";
+    }
+
+}
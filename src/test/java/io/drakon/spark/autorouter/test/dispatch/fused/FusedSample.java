@@ -0,0 +1,65 @@
+package io.drakon.spark.autorouter.test.dispatch.fused;
+
+import java.util.Collections;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+import spark.ResponseTransformer;
+
+public class FusedSample {
+
+    public static String caught = null;
+
+    public static class Upper implements ResponseTransformer {
+        @Override
+        public String render(Object model) {
+            return String.valueOf(model).toUpperCase();
+        }
+    }
+
+    static class Reverse implements ResponseTransformer {
+        @Override
+        public String render(Object model) {
+            return new StringBuilder(String.valueOf(model)).reverse().toString();
+        }
+    }
+
+    public static ResponseTransformer reverser() {
+        return new Reverse();
+    }
+
+    @Routes.GET(path = "/plain")
+    public static Object plain(Request req, Response res) {
+        return "hello";
+    }
+
+    @Routes.GET(path = "/upper", transformer = Upper.class)
+    public static Object upper(Request req, Response res) {
+        return "hello";
+    }
+
+    @Routes.GET(path = "/reverse")
+    public static Object reverse(Request req, Response res) {
+        return "hello";
+    }
+
+    @Routes.GET(path = "/json")
+    public static Object json(Request req, Response res) {
+        return Collections.singletonMap("greeting", "hello");
+    }
+
+    @Routes.Before
+    public static Object filter(Request req, Response res) {
+        res.header("X-Filtered", "yes");
+        return null;
+    }
+
+    @Routes.ExceptionHandler(exceptionType = IllegalStateException.class)
+    public static Object illegalState(IllegalStateException ex, Request req, Response res) {
+        caught = ex.getMessage();
+        res.status(409);
+        return null;
+    }
+
+}
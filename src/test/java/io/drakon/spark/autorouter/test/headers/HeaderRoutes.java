@@ -0,0 +1,46 @@
+package io.drakon.spark.autorouter.test.headers;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+@Routes.PathGroup(prefix = "/api")
+@Routes.ContentType("application/json")
+@Routes.Headers({"Cache-Control: no-store", "X-Frame-Options: DENY"})
+public class HeaderRoutes {
+
+    @Routes.GET(path = "/inherited")
+    public static Object inherited(Request req, Response res) {
+        return "{}";
+    }
+
+    @Routes.GET(path = "/cached")
+    @Routes.Headers({"cache-control: max-age=60", "Content-Type: text/plain", "Vary: Accept"})
+    public static Object cached(Request req, Response res) {
+        return "{}";
+    }
+
+    @Routes.GET(path = "/override")
+    public static Object override(Request req, Response res) {
+        res.type("text/csv");
+        return "a,b";
+    }
+
+    @Routes.GET(path = "/custom")
+    public static Object custom(Request req, Response res) {
+        res.header("Cache-Control", "max-age=5");
+        return "{}";
+    }
+
+    @Routes.PathGroup(prefix = "/pages")
+    @Routes.ContentType("text/html")
+    public static class Pages {
+
+        @Routes.GET(path = "/index")
+        public static Object index(Request req, Response res) {
+            return "<html></html>";
+        }
+
+    }
+
+}
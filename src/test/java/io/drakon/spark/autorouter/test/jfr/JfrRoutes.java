@@ -0,0 +1,29 @@
+package io.drakon.spark.autorouter.test.jfr;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+public class JfrRoutes {
+
+    @Routes.GET(path = "/users/:id")
+    public static Object user(Request req, Response res) {
+        return "user";
+    }
+
+    @Routes.GET(path = "/fail")
+    public static Object fail(Request req, Response res) {
+        throw new IllegalStateException("fail");
+    }
+
+    @Routes.Before(path = "/users/*")
+    public static Object auth(Request req, Response res) {
+        return null;
+    }
+
+    @Routes.ExceptionHandler(exceptionType = IllegalStateException.class)
+    public static Object handle(IllegalStateException ex, Request req, Response res) {
+        return null;
+    }
+
+}
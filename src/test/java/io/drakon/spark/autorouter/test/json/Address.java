@@ -0,0 +1,13 @@
+package io.drakon.spark.autorouter.test.json;
+
+public class Address {
+
+    public String city;
+    public int zip;
+
+    public Address(String city, int zip) {
+        this.city = city;
+        this.zip = zip;
+    }
+
+}
@@ -0,0 +1,36 @@
+package io.drakon.spark.autorouter.test.json;
+
+import java.util.List;
+
+public class User {
+
+    public enum Role { ADMIN, MEMBER }
+
+    public long id;
+    public String name;
+    public List<String> tags;
+    public Address address;
+    public transient String password = "hunter2";
+    private final Role role;
+
+    public User(long id, String name, List<String> tags, Address address, Role role) {
+        this.id = id;
+        this.name = name;
+        this.tags = tags;
+        this.address = address;
+        this.role = role;
+    }
+
+    public Role getRole() {
+        return role;
+    }
+
+    public boolean isAdmin() {
+        return role == Role.ADMIN;
+    }
+
+    public float getScore() {
+        return 1.5f;
+    }
+
+}
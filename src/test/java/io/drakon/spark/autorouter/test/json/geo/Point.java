@@ -0,0 +1,8 @@
+package io.drakon.spark.autorouter.test.json.geo;
+
+public class Point {
+
+    public int x;
+    public int y;
+
+}
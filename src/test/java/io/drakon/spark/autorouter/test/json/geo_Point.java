@@ -0,0 +1,8 @@
+package io.drakon.spark.autorouter.test.json;
+
+/** Named so that, with dots flattened to underscores, its name is the same as geo.Point's. */
+public class geo_Point {
+
+    public String name;
+
+}
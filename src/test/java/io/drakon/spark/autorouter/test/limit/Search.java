@@ -0,0 +1,31 @@
+package io.drakon.spark.autorouter.test.limit;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+@Routes.PathGroup(prefix = "/search")
+@Routes.AdaptiveLimit(initialLimit = 5, maxLimit = 50)
+public class Search {
+
+    @Routes.GET(path = "/")
+    public static Object index(Request req, Response res) {
+        return "results";
+    }
+
+    @Routes.PathGroup(prefix = "/suggest")
+    public static class Suggest {
+        @Routes.GET(path = "/")
+        public static Object suggest(Request req, Response res) {
+            return "suggestions";
+        }
+    }
+
+    public static class Unlimited {
+        @Routes.GET(path = "/health")
+        public static Object health(Request req, Response res) {
+            return "ok";
+        }
+    }
+
+}
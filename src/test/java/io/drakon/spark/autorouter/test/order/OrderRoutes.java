@@ -0,0 +1,48 @@
+package io.drakon.spark.autorouter.test.order;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+public class OrderRoutes {
+
+    @Routes.GET(path = "/a")
+    public static Object a(Request req, Response res) {
+        return "a";
+    }
+
+    @Routes.GET(path = "/b")
+    public static Object b(Request req, Response res) {
+        return "b";
+    }
+
+    @Routes.GET(path = "/c")
+    public static Object c(Request req, Response res) {
+        return "c";
+    }
+
+    @Routes.GET(path = "/z")
+    @Routes.Priority(10)
+    public static Object z(Request req, Response res) {
+        return "z";
+    }
+
+    @Routes.GET(path = "/*")
+    public static Object fallback(Request req, Response res) {
+        return "fallback";
+    }
+
+    @Routes.PathGroup(prefix = "/users")
+    public static class Users {
+        @Routes.GET(path = "/:id")
+        public static Object user(Request req, Response res) {
+            return "user " + req.params("id");
+        }
+
+        @Routes.GET(path = "/me")
+        public static Object me(Request req, Response res) {
+            return "me";
+        }
+    }
+
+}
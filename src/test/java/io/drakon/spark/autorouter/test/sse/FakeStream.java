@@ -0,0 +1,104 @@
+package io.drakon.spark.autorouter.test.sse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A non-blocking response stream plus just enough of a servlet request, response and async context around it to open an
+ * event stream without Jetty. Writes only go through while {@link #ready} is set.
+ */
+public class FakeStream extends ServletOutputStream {
+
+    public final Map<String, String> headers = new HashMap<>();
+    public final List<AsyncListener> asyncListeners = new ArrayList<>();
+    public volatile boolean ready = true;
+    public volatile boolean completed = false;
+    private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+    private WriteListener listener;
+
+    @Override
+    public boolean isReady() {
+        return ready;
+    }
+
+    @Override
+    public void setWriteListener(WriteListener writeListener) {
+        listener = writeListener;
+        if (ready) writePossible();
+    }
+
+    @Override
+    public synchronized void write(int b) {
+        written.write(b);
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) {
+        written.write(b, off, len);
+    }
+
+    /** Makes the stream writable again, calling back like a container would. */
+    public void makeReady() {
+        ready = true;
+        writePossible();
+    }
+
+    private void writePossible() {
+        try {
+            listener.onWritePossible();
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    public synchronized String text() {
+        return new String(written.toByteArray(), StandardCharsets.UTF_8);
+    }
+
+    public HttpServletRequest request() {
+        AsyncContext ctx = proxy(AsyncContext.class, (name, args) -> {
+            if (name.equals("addListener")) asyncListeners.add((AsyncListener) args[0]);
+            if (name.equals("complete")) completed = true;
+            return null;
+        });
+        return proxy(HttpServletRequest.class, (name, args) -> {
+            if (name.equals("isAsyncSupported")) return true;
+            if (name.equals("startAsync")) return ctx;
+            return null;
+        });
+    }
+
+    public HttpServletResponse response() {
+        return proxy(HttpServletResponse.class, (name, args) -> {
+            if (name.equals("setHeader")) headers.put((String) args[0], (String) args[1]);
+            if (name.equals("containsHeader")) return headers.containsKey((String) args[0]);
+            if (name.equals("isCommitted")) return false;
+            if (name.equals("getOutputStream")) return this;
+            return null;
+        });
+    }
+
+    private interface Handler {
+        Object call(String name, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> iface, Handler handler) {
+        return iface.cast(Proxy.newProxyInstance(FakeStream.class.getClassLoader(), new Class<?>[]{ iface },
+                (p, m, args) -> handler.call(m.getName(), args)));
+    }
+
+}
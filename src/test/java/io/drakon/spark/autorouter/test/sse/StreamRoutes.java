@@ -0,0 +1,25 @@
+package io.drakon.spark.autorouter.test.sse;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import io.drakon.spark.autorouter.Routes;
+import io.drakon.spark.autorouter.dispatch.EventSink;
+import spark.Request;
+import spark.Response;
+
+@Routes.PathGroup(prefix = "/live")
+public class StreamRoutes {
+
+    public static final Set<EventSink> subscribers = ConcurrentHashMap.newKeySet();
+
+    @Routes.SSE(path = "/events", queue = 2, heartbeatMillis = 50)
+    @Routes.Headers("X-Stream: yes")
+    public static Object events(Request req, Response res, EventSink sink) {
+        subscribers.add(sink);
+        sink.onClose(() -> subscribers.remove(sink));
+        sink.send("hello", "first\nsecond");
+        return null;
+    }
+
+}
@@ -0,0 +1,16 @@
+package io.drakon.spark.autorouter.test.statics;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+@Routes.PathGroup(prefix = "/web")
+@Routes.StaticResources(prefix = "/assets", root = "src/test/resources/static")
+public class StaticRoutes {
+
+    @Routes.GET(path = "/assets/version")
+    public static Object version(Request req, Response res) {
+        return "1.0";
+    }
+
+}
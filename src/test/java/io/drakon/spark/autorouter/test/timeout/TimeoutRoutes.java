@@ -0,0 +1,31 @@
+package io.drakon.spark.autorouter.test.timeout;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+@Routes.PathGroup(prefix = "/slow")
+@Routes.Timeout(millis = 250)
+public class TimeoutRoutes {
+
+    @Routes.GET(path = "/default")
+    public static Object groupDefault(Request req, Response res) {
+        return null;
+    }
+
+    @Routes.Timeout(millis = 50)
+    @Routes.GET(path = "/override")
+    public static Object override(Request req, Response res) {
+        return null;
+    }
+
+    public static class Nested {
+
+        @Routes.GET(path = "/nested")
+        public static Object nested(Request req, Response res) {
+            return null;
+        }
+
+    }
+
+}
@@ -0,0 +1,20 @@
+package io.drakon.spark.autorouter.test.upload;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import io.drakon.spark.autorouter.Routes;
+import spark.Request;
+import spark.Response;
+
+public class UploadRoutes {
+
+    @Routes.POST(path = "/upload")
+    public static Object upload(Request req, Response res, @Routes.Body(maxBytes = 4) InputStream in)
+            throws IOException {
+        int n = 0;
+        while (in.read() >= 0) n++;
+        return n;
+    }
+
+}
@@ -0,0 +1,88 @@
+package io.drakon.spark.autorouter;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import io.drakon.spark.autorouter.dispatch.BytecodeDispatch;
+import io.drakon.spark.autorouter.dispatch.IRouteDispatch;
+import io.drakon.spark.autorouter.monitor.JfrEvents;
+import io.drakon.spark.autorouter.monitor.SpanKind;
+import io.drakon.spark.autorouter.test.FakeRequest;
+import io.drakon.spark.autorouter.test.FakeResponse;
+import io.drakon.spark.autorouter.test.jfr.JfrRoutes;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import spark.Request;
+import spark.Response;
+import static org.junit.jupiter.api.Assertions.*;
+
+/** Only built and run on Java 11 and up, against the multi-release classes in src/main/java11. */
+@DisplayName("JDK Flight Recorder events")
+public class TestJfr {
+
+    @Test
+    @DisplayName("records dispatch, filter and exception events from the stubs")
+    void testEvents() throws Exception {
+        assertTrue(JfrEvents.isAvailable(), "Java 11 classes loaded.");
+        IRouteDispatch user = Utils.dispatchClassToObj(new BytecodeDispatch().labelled(SpanKind.HANDLER, "/users/:id")
+                .generateRouteStub(JfrRoutes.class.getMethod("user", Request.class, Response.class)));
+        IRouteDispatch fail = Utils.dispatchClassToObj(new BytecodeDispatch().labelled(SpanKind.HANDLER, "/fail")
+                .generateRouteStub(JfrRoutes.class.getMethod("fail", Request.class, Response.class)));
+        spark.Filter auth = new BytecodeDispatch().labelled(SpanKind.BEFORE, "/users/*")
+                .generateSparkFilter(JfrRoutes.class.getMethod("auth", Request.class, Response.class));
+        spark.ExceptionHandler<Exception> handler = new BytecodeDispatch().generateSparkExceptionHandler(JfrRoutes.class
+                .getMethod("handle", IllegalStateException.class, Request.class, Response.class),
+                IllegalStateException.class);
+
+        // Disabled events cost nothing and record nothing
+        assertEquals("user", user.dispatch(new FakeRequest("/users/1"), new FakeResponse()));
+
+        Path file = Files.createTempFile("autorouter", ".jfr");
+        try (Recording recording = new Recording()) {
+            for (String name : new String[]{ "autorouter.RouteDispatch", "autorouter.Filter",
+                    "autorouter.ExceptionHandled" })
+                recording.enable(name).withThreshold(java.time.Duration.ZERO);
+            recording.start();
+            FakeRequest req = new FakeRequest("/users/42");
+            auth.handle(req, new FakeResponse());
+            assertEquals("user", user.dispatch(req, new FakeResponse()));
+            FakeRequest failing = new FakeRequest("POST", "/fail");
+            IllegalStateException ex = assertThrows(IllegalStateException.class,
+                    () -> fail.dispatch(failing, new FakeResponse()));
+            handler.handle(ex, failing, new FakeResponse());
+            recording.stop();
+            recording.dump(file);
+        }
+
+        List<RecordedEvent> events = RecordingFile.readAllEvents(file);
+        Files.delete(file);
+        Map<String, List<RecordedEvent>> byType = events.stream().collect(Collectors.groupingBy(
+                e -> e.getEventType().getName()));
+        List<RecordedEvent> dispatches = byType.get("autorouter.RouteDispatch");
+        assertEquals(2, dispatches.size(), "Disabled dispatch not recorded.");
+        Map<String, RecordedEvent> byRoute = dispatches.stream().collect(Collectors.toMap(
+                e -> e.getString("route"), Function.identity()));
+        assertEquals("GET", byRoute.get("/users/:id").getString("verb"));
+        assertEquals(JfrRoutes.class.getName() + "#user", byRoute.get("/users/:id").getString("handler"));
+        assertNull(byRoute.get("/users/:id").getString("thrown"));
+        assertEquals("POST", byRoute.get("/fail").getString("verb"));
+        assertEquals(IllegalStateException.class.getName(), byRoute.get("/fail").getString("thrown"));
+
+        RecordedEvent filter = byType.get("autorouter.Filter").get(0);
+        assertEquals("BEFORE", filter.getString("kind"));
+        assertEquals("/users/*", filter.getString("route"));
+
+        RecordedEvent handled = byType.get("autorouter.ExceptionHandled").get(0);
+        assertEquals(IllegalStateException.class.getName(), handled.getString("exceptionType"));
+        assertEquals("/fail", handled.getString("route"), "Falls back to the request path.");
+        assertEquals(JfrRoutes.class.getName() + "#handle", handled.getString("handler"));
+    }
+
+}